@@ -0,0 +1,230 @@
+package org.example;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Контроль допуска сообщений перед обработкой.
+ * Для каждого чата работает корзина токенов: ratePerSecond токенов в секунду,
+ * не больше burst подряд. Корзины лежат в таблице с ключами long (без упаковки в Long),
+ * разбитой на сегменты со своими блокировками, поэтому чаты из разных сегментов
+ * не мешают друг другу. Общее количество одновременно обрабатываемых сообщений
+ * ограничено семафором. Отказ стоит одной проверки в памяти и происходит до любых
+ * обращений к базе данных.
+ * Счетчики допущенных и отклоненных сообщений доступны через getAdmitted,
+ * getThrottled и getOverloaded.
+ */
+public class AdmissionControl {
+
+    /** Решение по сообщению */
+    public enum Decision {
+        /** Сообщение допущено; после обработки нужно вызвать release() */
+        ADMITTED,
+        /** Чат превысил свой лимит; первый отказ подряд, о нем стоит сообщить */
+        THROTTLED,
+        /** Чат продолжает превышать лимит; отвечать не нужно */
+        THROTTLED_AGAIN,
+        /** Превышен общий лимит одновременной обработки */
+        OVERLOADED
+    }
+
+    /** Количество сегментов таблицы корзин (степень двойки) */
+    private static final int SEGMENTS = 64;
+
+    /** Скорость пополнения корзины, токенов в наносекунду */
+    private final double ratePerNano;
+
+    /** Емкость корзины */
+    private final double burst;
+
+    /** Ограничение одновременной обработки */
+    private final Semaphore concurrency;
+
+    /** Источник времени в наносекундах */
+    private final LongSupplier nanoClock;
+
+    /** Сегменты таблицы корзин */
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    /** Допущено сообщений */
+    private final LongAdder admitted = new LongAdder();
+
+    /** Отклонено по лимиту чата */
+    private final LongAdder throttled = new LongAdder();
+
+    /** Отклонено по общему лимиту */
+    private final LongAdder overloaded = new LongAdder();
+
+    /**
+     * Создает контроль допуска с системными часами.
+     *
+     * ratePerSecond Сколько сообщений в секунду разрешено одному чату в среднем.
+     * burst Сколько сообщений чат может отправить подряд.
+     * maxConcurrent Сколько сообщений всех чатов может обрабатываться одновременно.
+     */
+    public AdmissionControl(double ratePerSecond, int burst, int maxConcurrent) {
+        this(ratePerSecond, burst, maxConcurrent, System::nanoTime);
+    }
+
+    /**
+     * Создает контроль допуска с заданным источником времени в наносекундах.
+     */
+    public AdmissionControl(double ratePerSecond, int burst, int maxConcurrent, LongSupplier nanoClock) {
+        if (ratePerSecond <= 0 || burst < 1 || maxConcurrent < 1) {
+            throw new IllegalArgumentException("Лимиты должны быть положительными");
+        }
+        this.ratePerNano = ratePerSecond / 1e9;
+        this.burst = burst;
+        this.concurrency = new Semaphore(maxConcurrent);
+        this.nanoClock = nanoClock;
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    /**
+     * Решает, допускать ли сообщение чата. Если возвращено ADMITTED,
+     * после обработки обязательно вызвать release().
+     */
+    public Decision acquire(long chatId) {
+        if (!concurrency.tryAcquire()) {
+            overloaded.increment();
+            return Decision.OVERLOADED;
+        }
+        long h = mix(chatId);
+        Decision d = segments[(int) (h >>> 58)].take(chatId, (int) h, nanoClock.getAsLong(), ratePerNano, burst);
+        if (d != Decision.ADMITTED) {
+            concurrency.release();
+            throttled.increment();
+            return d;
+        }
+        admitted.increment();
+        return d;
+    }
+
+    /**
+     * Освобождает место в общем лимите после обработки допущенного сообщения.
+     */
+    public void release() {
+        concurrency.release();
+    }
+
+    /** Возвращает количество допущенных сообщений. */
+    public long getAdmitted() { return admitted.sum(); }
+
+    /** Возвращает количество сообщений, отклоненных по лимиту чата. */
+    public long getThrottled() { return throttled.sum(); }
+
+    /** Возвращает количество сообщений, отклоненных по общему лимиту. */
+    public long getOverloaded() { return overloaded.sum(); }
+
+    /** Возвращает количество чатов, для которых хранится корзина. */
+    public int getTrackedChats() {
+        int n = 0;
+        for (Segment s : segments) n += s.size();
+        return n;
+    }
+
+    /** Перемешивает биты chatId: старшие выбирают сегмент, младшие - ячейку. */
+    private static long mix(long chatId) {
+        long h = chatId * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 29);
+    }
+
+    /**
+     * Сегмент таблицы корзин: открытая адресация с линейным пробированием
+     * по параллельным массивам примитивов.
+     */
+    private static final class Segment {
+
+        /** Начальная емкость сегмента */
+        private static final int INITIAL_CAPACITY = 16;
+
+        private long[] keys = new long[INITIAL_CAPACITY];
+        private double[] tokens = new double[INITIAL_CAPACITY];
+        private long[] stamps = new long[INITIAL_CAPACITY];
+        private boolean[] used = new boolean[INITIAL_CAPACITY];
+        private boolean[] warned = new boolean[INITIAL_CAPACITY];
+        private int size;
+
+        /** Берет токен из корзины чата, при необходимости создавая полную корзину. */
+        synchronized Decision take(long chatId, int hash, long now, double ratePerNano, double burst) {
+            int slot = find(chatId, hash);
+            if (!used[slot]) {
+                if (2 * (size + 1) > keys.length) {
+                    grow(now, ratePerNano, burst);
+                    slot = find(chatId, hash);
+                }
+                used[slot] = true;
+                keys[slot] = chatId;
+                tokens[slot] = burst;
+                stamps[slot] = now;
+                warned[slot] = false;
+                size++;
+            }
+
+            double t = Math.min(burst, tokens[slot] + (now - stamps[slot]) * ratePerNano);
+            stamps[slot] = now;
+            if (t >= 1) {
+                tokens[slot] = t - 1;
+                warned[slot] = false;
+                return Decision.ADMITTED;
+            }
+            tokens[slot] = t;
+            if (warned[slot]) return Decision.THROTTLED_AGAIN;
+            warned[slot] = true;
+            return Decision.THROTTLED;
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        /** Ячейка с ключом chatId или первая свободная ячейка на пути пробирования. */
+        private int find(long chatId, int hash) {
+            int mask = keys.length - 1;
+            int i = hash & mask;
+            while (used[i] && keys[i] != chatId) {
+                i = (i + 1) & mask;
+            }
+            return i;
+        }
+
+        /**
+         * Перестраивает сегмент. Полные корзины выбрасываются: такая корзина ничем
+         * не отличается от новой. Емкость удваивается, только если этого не хватило.
+         */
+        private void grow(long now, double ratePerNano, double burst) {
+            long[] oldKeys = keys;
+            double[] oldTokens = tokens;
+            long[] oldStamps = stamps;
+            boolean[] oldUsed = used;
+            boolean[] oldWarned = warned;
+
+            int live = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldUsed[i] && oldTokens[i] + (now - oldStamps[i]) * ratePerNano < burst) live++;
+            }
+            int capacity = oldKeys.length;
+            while (2 * (live + 1) > capacity) capacity <<= 1;
+
+            keys = new long[capacity];
+            tokens = new double[capacity];
+            stamps = new long[capacity];
+            used = new boolean[capacity];
+            warned = new boolean[capacity];
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (!oldUsed[i] || oldTokens[i] + (now - oldStamps[i]) * ratePerNano >= burst) continue;
+                int slot = find(oldKeys[i], (int) mix(oldKeys[i]));
+                used[slot] = true;
+                keys[slot] = oldKeys[i];
+                tokens[slot] = oldTokens[i];
+                stamps[slot] = oldStamps[i];
+                warned[slot] = oldWarned[i];
+                size++;
+            }
+        }
+    }
+}
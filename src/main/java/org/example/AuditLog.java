@@ -0,0 +1,521 @@
+package org.example;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongSupplier;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Журнал операций с учетными данными: кто, что, с каким сервисом и с каким результатом.
+ * Пароли и логины в журнал не попадают.
+ *
+ * record() не блокируется и не обращается к диску: событие кладется в кольцевой буфер
+ * без блокировок (слот занимается CAS), а отдельный поток забирает накопившиеся события
+ * пачкой, записывает их одним write и сбрасывает на диск одним force (групповая фиксация).
+ * Если буфер переполнен, событие отбрасывается и учитывается в getDropped().
+ *
+ * Журнал хранится в каталоге файлами audit-<время открытия>.log; файл сменяется,
+ * когда превышает maxFileBytes, хранятся не больше maxFiles последних файлов.
+ * Запись в файле: длина, время, чат, операция, результат, сервис и CRC32.
+ * Оборванная при падении запись в конце файла при чтении пропускается.
+ * Чтение за период: read() или из командной строки (см. main).
+ */
+public class AuditLog implements Closeable {
+
+    /** Операция с учетными данными */
+    public enum Operation {
+        /** Чтение записи (логин и пароль) */
+        READ,
+        /** Сохранение или изменение записи */
+        SAVE,
+        /** Удаление записи с историей */
+        DELETE,
+        /** Просмотр истории версий */
+        HISTORY,
+        /** Восстановление прежней версии */
+        RESTORE,
+        /** Плановая смена пароля */
+        ROTATE,
+        /** Одноразовая ссылка на запись */
+        SHARE,
+        /** Получение записи по одноразовой ссылке */
+        REDEEM
+    }
+
+    /** Результат операции */
+    public enum Outcome {
+        /** Выполнена */
+        OK,
+        /** Запись или версия не найдена */
+        NOT_FOUND,
+        /** Ошибка базы данных */
+        ERROR
+    }
+
+    /**
+     * Событие журнала.
+     */
+    public static final class Event {
+
+        /** Время события в миллисекундах */
+        private final long time;
+
+        /** Чат, выполнивший операцию */
+        private final long chatId;
+
+        /** Операция */
+        private final Operation operation;
+
+        /** Сервис */
+        private final String service;
+
+        /** Результат */
+        private final Outcome outcome;
+
+        /**
+         * Создает событие с указанными данными.
+         */
+        Event(long time, long chatId, Operation operation, String service, Outcome outcome) {
+            this.time = time;
+            this.chatId = chatId;
+            this.operation = operation;
+            this.service = service;
+            this.outcome = outcome;
+        }
+
+        /** Возвращает время события в миллисекундах. */
+        public long getTime() { return time; }
+
+        /** Возвращает чат, выполнивший операцию. */
+        public long getChatId() { return chatId; }
+
+        /** Возвращает операцию. */
+        public Operation getOperation() { return operation; }
+
+        /** Возвращает сервис. */
+        public String getService() { return service; }
+
+        /** Возвращает результат. */
+        public Outcome getOutcome() { return outcome; }
+
+        @Override
+        public String toString() {
+            return Instant.ofEpochMilli(time) + " " + chatId + " " + operation + " " + service + " " + outcome;
+        }
+    }
+
+    /** Размер файла журнала по умолчанию, после которого открывается новый файл */
+    public static final long DEFAULT_FILE_BYTES = 16L * 1024 * 1024;
+
+    /** Сколько файлов журнала хранить по умолчанию */
+    public static final int DEFAULT_MAX_FILES = 16;
+
+    /** Емкость кольцевого буфера по умолчанию (степень двойки) */
+    public static final int DEFAULT_CAPACITY = 8192;
+
+    /** Начало каждого файла журнала ("PBAL") */
+    private static final int FILE_MAGIC = 0x5042414C;
+
+    /** Размер записи без названия сервиса: длина, время, чат, операция, результат, длина сервиса, CRC32 */
+    private static final int RECORD_OVERHEAD = 4 + 8 + 8 + 1 + 1 + 2 + 4;
+
+    /** Наибольшая длина названия сервиса в журнале, символов */
+    private static final int MAX_SERVICE_CHARS = 256;
+
+    /**
+     * Насколько время события может опережать время открытия следующего файла
+     * (событие записано в буфер до смены файла, а забрано после)
+     */
+    private static final long CLOCK_SKEW_MS = 60_000;
+
+    /** Сколько наносекунд поток записи спит, если событий нет */
+    private static final long IDLE_PARK_NANOS = 100_000_000;
+
+    /** Каталог журнала */
+    private final Path dir;
+
+    /** Размер файла, после которого открывается новый */
+    private final long maxFileBytes;
+
+    /** Сколько файлов хранить */
+    private final int maxFiles;
+
+    /** Источник времени событий в миллисекундах */
+    private final LongSupplier clock;
+
+    /** Маска индекса в кольцевом буфере */
+    private final int mask;
+
+    /**
+     * Номера слотов: слот свободен для события с номером n, если sequences[n & mask] == n,
+     * и заполнен им, если sequences[n & mask] == n + 1
+     */
+    private final AtomicLongArray sequences;
+
+    /** Поля событий в слотах буфера */
+    private final long[] times;
+    private final long[] chats;
+    private final byte[] operations;
+    private final byte[] outcomes;
+    private final String[] services;
+
+    /** Номер следующего события, которое займет слот */
+    private final AtomicLong tail = new AtomicLong();
+
+    /** Номер следующего события, которое заберет поток записи (меняет только он) */
+    private long head;
+
+    /** Сколько событий записано и сброшено на диск */
+    private volatile long committed;
+
+    /** Отброшено событий из-за переполнения буфера */
+    private final LongAdder dropped = new LongAdder();
+
+    /** Поток записи */
+    private final Thread writer;
+
+    /** Поток записи спит и его нужно разбудить */
+    private volatile boolean idle;
+
+    /** Журнал закрывается */
+    private volatile boolean closing;
+
+    /** Текущий файл журнала */
+    private FileChannel channel;
+
+    /** Размер текущего файла */
+    private long fileBytes;
+
+    /** Время открытия текущего файла (оно же в имени файла) */
+    private long fileTime;
+
+    /** Буфер пачки событий */
+    private final ByteBuffer batch = ByteBuffer.allocateDirect(64 * 1024);
+
+    /** Контрольная сумма записи */
+    private final CRC32 crc = new CRC32();
+
+    /**
+     * Открывает журнал в каталоге dir с настройками по умолчанию.
+     */
+    public static AuditLog open(Path dir) throws IOException {
+        return new AuditLog(dir, DEFAULT_FILE_BYTES, DEFAULT_MAX_FILES, DEFAULT_CAPACITY, System::currentTimeMillis);
+    }
+
+    /**
+     * Открывает журнал и запускает поток записи. Новые события всегда пишутся в новый файл.
+     *
+     * dir Каталог журнала (создается, если его нет).
+     * maxFileBytes Размер файла, после которого открывается следующий.
+     * maxFiles Сколько последних файлов хранить.
+     * capacity Емкость кольцевого буфера, округляется вверх до степени двойки.
+     * clock Источник времени событий в миллисекундах.
+     */
+    public AuditLog(Path dir, long maxFileBytes, int maxFiles, int capacity, LongSupplier clock) throws IOException {
+        if (maxFileBytes < 1024 || maxFiles < 1 || capacity < 2) {
+            throw new IllegalArgumentException("Неверные размеры журнала");
+        }
+        this.dir = dir;
+        this.maxFileBytes = maxFileBytes;
+        this.maxFiles = maxFiles;
+        this.clock = clock;
+
+        int size = Integer.highestOneBit(capacity - 1) << 1;
+        this.mask = size - 1;
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        this.times = new long[size];
+        this.chats = new long[size];
+        this.operations = new byte[size];
+        this.outcomes = new byte[size];
+        this.services = new String[size];
+
+        Files.createDirectories(dir);
+        List<Path> existing = files(dir);
+        if (!existing.isEmpty()) {
+            fileTime = fileTime(existing.get(existing.size() - 1));
+        }
+        rotate();
+
+        this.writer = new Thread(this::writeLoop, "audit-log");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Добавляет событие в журнал. Не блокируется; если буфер переполнен, событие отбрасывается.
+     */
+    public void record(long chatId, Operation operation, String service, Outcome outcome) {
+        long n = tail.get();
+        while (true) {
+            int i = (int) n & mask;
+            long diff = sequences.get(i) - n;
+            if (diff == 0) {
+                if (tail.compareAndSet(n, n + 1)) break;
+                n = tail.get();
+            } else if (diff < 0) {
+                dropped.increment();
+                return;
+            } else {
+                n = tail.get();
+            }
+        }
+
+        int i = (int) n & mask;
+        times[i] = clock.getAsLong();
+        chats[i] = chatId;
+        operations[i] = (byte) operation.ordinal();
+        outcomes[i] = (byte) outcome.ordinal();
+        services[i] = service == null ? "" : service;
+        sequences.set(i, n + 1);
+
+        if (idle) LockSupport.unpark(writer);
+    }
+
+    /** Возвращает количество событий, отброшенных из-за переполнения буфера. */
+    public long getDropped() { return dropped.sum(); }
+
+    /**
+     * Ждет, пока все добавленные до вызова события будут записаны и сброшены на диск.
+     */
+    public void flush() {
+        long target = tail.get();
+        while (committed < target && writer.isAlive()) {
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(100_000);
+        }
+    }
+
+    /**
+     * Записывает оставшиеся события, останавливает поток записи и закрывает файл.
+     */
+    @Override
+    public void close() {
+        flush();
+        closing = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Поток записи: забирает события пачками и фиксирует каждую пачку одним force. */
+    private void writeLoop() {
+        try {
+            while (true) {
+                int n = drain();
+                if (n > 0) {
+                    commit();
+                    committed = head;
+                    continue;
+                }
+                if (closing) break;
+                idle = true;
+                if (sequences.get((int) head & mask) != head + 1 && !closing) {
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
+                }
+                idle = false;
+            }
+        } catch (IOException e) {
+            System.err.println("Журнал операций остановлен: " + e.getMessage());
+        } finally {
+            try {
+                channel.close();
+            } catch (IOException e) {
+
+            }
+        }
+    }
+
+    /** Переносит готовые события из кольцевого буфера в буфер пачки. Возвращает их количество. */
+    private int drain() throws IOException {
+        int n = 0;
+        while (true) {
+            int i = (int) head & mask;
+            if (sequences.get(i) != head + 1) return n;
+
+            byte[] service = truncate(services[i]).getBytes(StandardCharsets.UTF_8);
+            int length = RECORD_OVERHEAD + service.length;
+            if (batch.remaining() < length) {
+                commit();
+            }
+
+            int start = batch.position();
+            batch.putInt(length)
+                    .putLong(times[i])
+                    .putLong(chats[i])
+                    .put(operations[i])
+                    .put(outcomes[i])
+                    .putShort((short) service.length)
+                    .put(service);
+            crc.reset();
+            crc.update(batch.duplicate().position(start + 4).limit(batch.position()));
+            batch.putInt((int) crc.getValue());
+
+            services[i] = null;
+            sequences.set(i, head + mask + 1);
+            head++;
+            n++;
+        }
+    }
+
+    /** Записывает буфер пачки в текущий файл, сбрасывает на диск и при необходимости сменяет файл. */
+    private void commit() throws IOException {
+        batch.flip();
+        if (fileBytes > Integer.BYTES && fileBytes + batch.remaining() > maxFileBytes) {
+            rotate();
+        }
+        while (batch.hasRemaining()) {
+            fileBytes += channel.write(batch);
+        }
+        channel.force(false);
+        batch.clear();
+    }
+
+    /** Закрывает текущий файл, открывает новый и удаляет лишние старые файлы. */
+    private void rotate() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+        fileTime = Math.max(clock.getAsLong(), fileTime + 1);
+        Path file = dir.resolve(fileName(fileTime));
+        channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(Integer.BYTES).putInt(FILE_MAGIC).flip();
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+        fileBytes = Integer.BYTES;
+
+        List<Path> files = files(dir);
+        for (int i = 0; i < files.size() - maxFiles; i++) {
+            Files.deleteIfExists(files.get(i));
+        }
+    }
+
+    /** Обрезает слишком длинное название сервиса. */
+    private static String truncate(String service) {
+        return service.length() <= MAX_SERVICE_CHARS ? service : service.substring(0, MAX_SERVICE_CHARS);
+    }
+
+    /** Имя файла журнала, открытого в момент time (сортируется по времени как строка). */
+    private static String fileName(long time) {
+        return String.format("audit-%015d.log", time);
+    }
+
+    /** Время открытия файла журнала по его имени или -1, если это не файл журнала. */
+    private static long fileTime(Path file) {
+        String name = file.getFileName().toString();
+        if (!name.startsWith("audit-") || !name.endsWith(".log")) return -1;
+        try {
+            return Long.parseLong(name.substring(6, name.length() - 4));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /** Файлы журнала в каталоге от старых к новым. */
+    private static List<Path> files(Path dir) throws IOException {
+        try (Stream<Path> s = Files.list(dir)) {
+            return s.filter(f -> fileTime(f) >= 0).sorted().toList();
+        }
+    }
+
+    /**
+     * Читает события журнала за период [from, to] (миллисекунды) в порядке записи.
+     * Файлы, открытые после to или закрытые задолго до from, не читаются.
+     */
+    public static List<Event> read(Path dir, long from, long to) throws IOException {
+        List<Event> out = new ArrayList<>();
+        List<Path> files = files(dir);
+        for (int f = 0; f < files.size(); f++) {
+            if (fileTime(files.get(f)) > to) break;
+            if (f + 1 < files.size() && fileTime(files.get(f + 1)) + CLOCK_SKEW_MS < from) continue;
+            readFile(files.get(f), from, to, out);
+        }
+        return out;
+    }
+
+    /** Читает события одного файла до конца или до первой поврежденной записи. */
+    private static void readFile(Path file, long from, long to, List<Event> out) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(file));
+        if (buf.remaining() < Integer.BYTES || buf.getInt() != FILE_MAGIC) return;
+
+        Operation[] ops = Operation.values();
+        Outcome[] results = Outcome.values();
+        CRC32 crc = new CRC32();
+        while (buf.remaining() >= RECORD_OVERHEAD) {
+            int start = buf.position();
+            int length = buf.getInt();
+            if (length < RECORD_OVERHEAD || length > buf.remaining() + Integer.BYTES) return;
+
+            crc.reset();
+            crc.update(buf.duplicate().position(start + 4).limit(start + length - 4));
+            if ((int) crc.getValue() != buf.getInt(start + length - 4)) return;
+
+            long time = buf.getLong();
+            long chatId = buf.getLong();
+            int op = buf.get();
+            int outcome = buf.get();
+            byte[] service = new byte[buf.getShort()];
+            buf.get(service);
+            buf.position(start + length);
+
+            if (time < from || time > to || op < 0 || op >= ops.length
+                    || outcome < 0 || outcome >= results.length) continue;
+            out.add(new Event(time, chatId, ops[op], new String(service, StandardCharsets.UTF_8), results[outcome]));
+        }
+    }
+
+    /**
+     * Чтение журнала из командной строки: AuditLog <каталог> [с] [по].
+     * Границы - дата (2024-05-01) или момент времени (2024-05-01T12:00:00Z);
+     * дата "по" включает весь день. Без границ выводится весь журнал.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Использование: AuditLog <каталог> [с] [по]");
+            return;
+        }
+        try {
+            long from = args.length > 1 ? parseTime(args[1], false) : Long.MIN_VALUE;
+            long to = args.length > 2 ? parseTime(args[2], true) : Long.MAX_VALUE;
+            for (Event e : read(Paths.get(args[0]), from, to)) {
+                System.out.println(e);
+            }
+        } catch (DateTimeParseException e) {
+            System.out.println("Неверная дата: " + e.getParsedString());
+        }
+    }
+
+    /** Разбирает границу периода; для даты без времени end означает конец дня. */
+    private static long parseTime(String s, boolean end) {
+        if (s.contains("T")) {
+            return Instant.parse(s).toEpochMilli();
+        }
+        LocalDate date = LocalDate.parse(s);
+        if (end) date = date.plusDays(1);
+        return date.atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli() - (end ? 1 : 0);
+    }
+}
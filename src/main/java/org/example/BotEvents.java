@@ -0,0 +1,186 @@
+package org.example;
+
+import com.pengrad.telegrambot.request.BaseRequest;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * События JDK Flight Recorder для внутренних стадий бота: апдейт от получения до отправки
+ * ответа, обработка команды, операция с базой данных, открытие соединения, генерация пароля
+ * и вызов Bot API. Пока запись не идет (см. Profiler), событие стоит создания объекта,
+ * который JIT обычно убирает, поэтому вызовы остаются в коде постоянно.
+ * В события не попадают тексты сообщений, пароли, логины и названия сервисов:
+ * только названия команд, состояния диалогов, номера чатов и числа.
+ */
+public final class BotEvents {
+
+    /** Категория событий бота в JDK Mission Control */
+    private static final String CATEGORY = "PasswordBot";
+
+    private BotEvents() {
+    }
+
+    /**
+     * Апдейт тг: от получения в потоке обновлений до отправки ответа
+     * (в режиме конвейера - включая ожидание в очереди чата).
+     */
+    @Name("org.example.Update")
+    @Label("Апдейт")
+    @Category(CATEGORY)
+    @Description("Апдейт от получения до отправки ответа")
+    @StackTrace(false)
+    public static final class UpdateEvent extends Event {
+
+        @Label("update_id")
+        int updateId;
+
+        @Label("Чат")
+        long chatId;
+
+        @Label("Вид")
+        @Description("message или callback")
+        String kind;
+
+        @Label("Режим конвейера")
+        boolean pipelined;
+    }
+
+    /**
+     * Обработка команды или ответа в диалоге логикой бота.
+     */
+    @Name("org.example.Command")
+    @Label("Команда")
+    @Category(CATEGORY)
+    @Description("Обработка команды или ответа в диалоге")
+    @StackTrace(false)
+    public static final class CommandEvent extends Event {
+
+        @Label("Чат")
+        long chatId;
+
+        @Label("Команда")
+        @Description("Название команды, answer для ответа в диалоге, callback:<действие> для кнопки")
+        String command;
+
+        @Label("Состояние до")
+        String stateBefore;
+
+        @Label("Состояние после")
+        String stateAfter;
+    }
+
+    /**
+     * Операция с базой данных: от открытия соединения до его закрытия.
+     * Закрывается как ресурс try-with-resources и тогда же записывается.
+     */
+    @Name("org.example.Query")
+    @Label("Операция с базой")
+    @Category(CATEGORY)
+    @Description("Операция PasswordDatabase, включая открытие соединения")
+    public static final class QueryEvent extends Event implements AutoCloseable {
+
+        @Label("Операция")
+        String operation;
+
+        @Label("Строк")
+        @Description("Прочитано или изменено строк, -1 - ошибка")
+        int rows;
+
+        QueryEvent(String operation) {
+            this.operation = operation;
+            this.rows = -1;
+            begin();
+        }
+
+        @Override
+        public void close() {
+            commit();
+        }
+    }
+
+    /**
+     * Открытие соединения с базой или получение его из пула.
+     */
+    @Name("org.example.ConnectionOpen")
+    @Label("Открытие соединения")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    public static final class ConnectEvent extends Event {
+
+        @Label("Из пула")
+        boolean pooled;
+    }
+
+    /**
+     * Генерация пароля или парольной фразы (время включает ожидание SecureRandom).
+     */
+    @Name("org.example.Generate")
+    @Label("Генерация пароля")
+    @Category(CATEGORY)
+    @Description("Генерация пароля, включая ожидание SecureRandom")
+    @StackTrace(false)
+    public static final class GenerateEvent extends Event {
+
+        @Label("Вид")
+        @Description("password или passphrase")
+        String kind;
+
+        @Label("Длина")
+        @Description("Символов в пароле или слов во фразе")
+        int length;
+    }
+
+    /**
+     * Вызов Bot API: отправка или замена сообщения, ответ на нажатие кнопки.
+     */
+    @Name("org.example.Send")
+    @Label("Вызов Bot API")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    public static final class SendEvent extends Event {
+
+        @Label("Метод")
+        String method;
+
+        @Label("Чат")
+        long chatId;
+
+        @Label("Успешно")
+        boolean ok;
+
+        @Label("Размер текста")
+        @DataAmount(DataAmount.BYTES)
+        int textBytes;
+    }
+
+    /**
+     * Начинает событие операции с базой operation.
+     */
+    static QueryEvent query(String operation) {
+        return new QueryEvent(operation);
+    }
+
+    /**
+     * Начинает событие вызова Bot API request: метод, чат и размер текста.
+     * Вызывающий задает ok по ответу и вызывает commit().
+     */
+    static SendEvent send(BaseRequest<?, ?> request) {
+        SendEvent event = new SendEvent();
+        if (event.isEnabled()) {
+            event.method = request.getMethod();
+            if (request.getParameters().get("chat_id") instanceof Number chat) event.chatId = chat.longValue();
+            if (request.getParameters().get("text") instanceof String text) {
+                event.textBytes = text.getBytes(StandardCharsets.UTF_8).length;
+            }
+        }
+        event.begin();
+        return event;
+    }
+}
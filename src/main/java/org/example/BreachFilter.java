@@ -0,0 +1,218 @@
+package org.example;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Фильтр Блума по базе утекших паролей.
+ * Фильтр собирается заранее из списка SHA-1 хешей (формат как у Have I Been Pwned:
+ * одна строка на хеш, после хеша может идти ":количество") и хранится в файле.
+ * При запуске файл отображается в память только для чтения, поэтому фильтр не занимает
+ * кучу и открывается мгновенно. Проверка читает k бит абсолютными обращениями к буферу,
+ * которые не меняют его состояние, поэтому она не требует блокировок.
+ * Сетевых запросов нет.
+ * Формат файла: магическое число, количество хеш-функций, количество бит, затем биты.
+ */
+public class BreachFilter {
+
+    /** Магическое число в начале файла фильтра ("PBBF") */
+    private static final int MAGIC = 0x50424246;
+
+    /** Размер заголовка файла в байтах */
+    private static final int HEADER = 16;
+
+    /** Длина SHA-1 хеша в байтах */
+    private static final int SHA1_BYTES = 20;
+
+    /** Хеш-функция SHA-1 для каждого потока, чтобы не создавать её на каждую проверку */
+    private static final ThreadLocal<MessageDigest> SHA1 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    /** Отображенный в память файл фильтра */
+    private final ByteBuffer bits;
+
+    /** Количество хеш-функций */
+    private final int hashCount;
+
+    /** Количество бит в фильтре */
+    private final long bitCount;
+
+    /**
+     * Создает фильтр поверх уже отображенного буфера.
+     */
+    private BreachFilter(ByteBuffer bits, int hashCount, long bitCount) {
+        this.bits = bits;
+        this.hashCount = hashCount;
+        this.bitCount = bitCount;
+    }
+
+    /**
+     * Открывает файл фильтра, отображая его в память только для чтения.
+     * Бросает IOException, если файл не найден или имеет неверный формат.
+     */
+    public static BreachFilter open(Path file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            if (buf.capacity() < HEADER || buf.getInt(0) != MAGIC) {
+                throw new IOException("Неверный формат файла фильтра: " + file);
+            }
+            int k = buf.getInt(4);
+            long m = buf.getLong(8);
+            if (k <= 0 || m <= 0 || HEADER + (m + 7) / 8 > buf.capacity()) {
+                throw new IOException("Повреждённый файл фильтра: " + file);
+            }
+            return new BreachFilter(buf, k, m);
+        }
+    }
+
+    /**
+     * Собирает файл фильтра из списка SHA-1 хешей.
+     * Список читается дважды: первый проход считает хеши, второй заполняет биты.
+     * Биты пишутся прямо в отображенный в память выходной файл, поэтому размер кучи
+     * не зависит от размера базы утечек.
+     *
+     * hashes Файл со списком хешей.
+     * out Выходной файл фильтра.
+     * falsePositiveRate Допустимая доля ложных срабатываний, например 0.001.
+     */
+    public static void build(Path hashes, Path out, double falsePositiveRate) throws IOException {
+        if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("Доля ложных срабатываний должна быть в (0, 1)");
+        }
+
+        long n = 0;
+        try (BufferedReader r = Files.newBufferedReader(hashes, StandardCharsets.US_ASCII)) {
+            String line;
+            while ((line = r.readLine()) != null) {
+                if (parseHash(line) != null) n++;
+            }
+        }
+        n = Math.max(n, 1);
+
+        double ln2 = Math.log(2);
+        long m = Math.max(64, (long) Math.ceil(-n * Math.log(falsePositiveRate) / (ln2 * ln2)));
+        int k = Math.max(1, (int) Math.round((double) m / n * ln2));
+        long size = HEADER + (m + 7) / 8;
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Фильтр больше 2 ГБ, увеличьте допустимую долю ложных срабатываний");
+        }
+
+        Files.deleteIfExists(out);
+        try (FileChannel ch = FileChannel.open(out, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buf.putInt(0, MAGIC);
+            buf.putInt(4, k);
+            buf.putLong(8, m);
+
+            try (BufferedReader r = Files.newBufferedReader(hashes, StandardCharsets.US_ASCII)) {
+                String line;
+                while ((line = r.readLine()) != null) {
+                    byte[] digest = parseHash(line);
+                    if (digest == null) continue;
+                    long h1 = first(digest);
+                    long h2 = second(digest);
+                    for (int i = 0; i < k; i++) {
+                        long bit = Math.floorMod(h1 + i * h2, m);
+                        int at = HEADER + (int) (bit >>> 3);
+                        buf.put(at, (byte) (buf.get(at) | (1 << (bit & 7))));
+                    }
+                }
+            }
+            buf.force();
+        }
+    }
+
+    /**
+     * Проверяет, встречается ли пароль в базе утечек.
+     * false означает, что пароля точно нет в базе; true - что он там есть
+     * с точностью до доли ложных срабатываний, заданной при сборке.
+     */
+    public boolean mightContain(String password) {
+        MessageDigest sha1 = SHA1.get();
+        byte[] digest = sha1.digest(password.getBytes(StandardCharsets.UTF_8));
+        return mightContainHash(digest);
+    }
+
+    /**
+     * Проверяет SHA-1 хеш пароля.
+     */
+    boolean mightContainHash(byte[] digest) {
+        long h1 = first(digest);
+        long h2 = second(digest);
+        for (int i = 0; i < hashCount; i++) {
+            long bit = Math.floorMod(h1 + i * h2, bitCount);
+            if ((bits.get(HEADER + (int) (bit >>> 3)) & (1 << (bit & 7))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Возвращает количество хеш-функций фильтра. */
+    public int getHashCount() { return hashCount; }
+
+    /** Возвращает количество бит фильтра. */
+    public long getBitCount() { return bitCount; }
+
+    /**
+     * Первая из двух независимых частей хеша (байты 0-7 SHA-1).
+     * Остальные k индексов получаются двойным хешированием h1 + i * h2.
+     */
+    private static long first(byte[] d) {
+        return ByteBuffer.wrap(d, 0, 8).getLong();
+    }
+
+    /** Вторая часть хеша (байты 8-15 SHA-1), всегда нечетная. */
+    private static long second(byte[] d) {
+        return ByteBuffer.wrap(d, 8, 8).getLong() | 1;
+    }
+
+    /**
+     * Разбирает строку списка хешей: 40 шестнадцатеричных символов, затем
+     * необязательное ":количество". Возвращает null для пустых и неверных строк.
+     */
+    private static byte[] parseHash(String line) {
+        line = line.trim();
+        if (line.length() < SHA1_BYTES * 2) return null;
+        byte[] out = new byte[SHA1_BYTES];
+        for (int i = 0; i < SHA1_BYTES; i++) {
+            int hi = Character.digit(line.charAt(2 * i), 16);
+            int lo = Character.digit(line.charAt(2 * i + 1), 16);
+            if (hi < 0 || lo < 0) return null;
+            out[i] = (byte) ((hi << 4) | lo);
+        }
+        return out;
+    }
+
+    /**
+     * Сборка файла фильтра из командной строки:
+     * BreachFilter <файл хешей> <файл фильтра> [доля ложных срабатываний]
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Использование: BreachFilter <хеши.txt> <фильтр.bin> [0.001]");
+            return;
+        }
+        double fpp = args.length > 2 ? Double.parseDouble(args[2]) : 0.001;
+        build(Paths.get(args[0]), Paths.get(args[1]), fpp);
+        BreachFilter filter = open(Paths.get(args[1]));
+        System.out.println("Фильтр собран: бит " + filter.getBitCount()
+                + ", хеш-функций " + filter.getHashCount());
+    }
+}
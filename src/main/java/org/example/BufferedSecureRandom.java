@@ -0,0 +1,64 @@
+package org.example;
+
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Источник случайных чисел для генерации паролей поверх SecureRandom.
+ * SecureRandom выделяет массив на каждое число, поэтому здесь байты берутся пачками
+ * по BATCH в один и тот же массив; каждое выданное число затирается в массиве,
+ * так что в куче не остаются ни лишние копии, ни уже использованные байты паролей.
+ * nextInt(bound) и остальные методы Random работают поверх next(), то есть без смещения
+ * распределения. Методы синхронизированы.
+ */
+public final class BufferedSecureRandom extends Random {
+
+    /** Версия сериализованной формы (Random сериализуем) */
+    private static final long serialVersionUID = 1L;
+
+    /** Сколько байт берется из SecureRandom за раз */
+    private static final int BATCH = 256;
+
+    /** Источник байтов */
+    private final SecureRandom source;
+
+    /** Пачка байтов */
+    private final byte[] batch = new byte[BATCH];
+
+    /** Первый неиспользованный байт пачки */
+    private int pos = BATCH;
+
+    /**
+     * Создает источник поверх нового SecureRandom.
+     */
+    public BufferedSecureRandom() {
+        this(new SecureRandom());
+    }
+
+    /**
+     * Создает источник поверх source.
+     */
+    public BufferedSecureRandom(SecureRandom source) {
+        this.source = source;
+    }
+
+    @Override
+    protected synchronized int next(int bits) {
+        if (pos + 4 > BATCH) {
+            source.nextBytes(batch);
+            pos = 0;
+        }
+        int v = (batch[pos] & 0xFF) << 24 | (batch[pos + 1] & 0xFF) << 16 | (batch[pos + 2] & 0xFF) << 8 | batch[pos + 3] & 0xFF;
+        Arrays.fill(batch, pos, pos + 4, (byte) 0);
+        pos += 4;
+        return v >>> (32 - bits);
+    }
+
+    /**
+     * Семя не задается: числа всегда берутся из SecureRandom.
+     */
+    @Override
+    public synchronized void setSeed(long seed) {
+    }
+}
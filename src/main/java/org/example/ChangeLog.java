@@ -0,0 +1,429 @@
+package org.example;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Журнал изменений базы учетных данных для репликации.
+ * Триггеры на таблицах с данными добавляют в таблицу change_log строку на каждую измененную
+ * строку данных в той же транзакции, что и само изменение: номер seq (AUTOINCREMENT, только
+ * растет), время изменения, таблицу, операцию (U - вставка или обновление, D - удаление)
+ * и ключ строки в v1..v3. Значения колонок в журнале не хранятся: иначе пароли оставались бы
+ * в базе после /delete и сокращения истории. read() берет для изменения U текущую строку
+ * по ключу, а если ее уже нет - отдает удаление; более поздние изменения той же строки
+ * все равно идут следом, поэтому копия приходит к тому же состоянию.
+ * Поэтому в журнал попадают ровно зафиксированные изменения и в порядке фиксации.
+ * Хранятся последние RETAIN изменений; резервная копия, которая отстала сильнее,
+ * получает полную копию базы (см. ReplicationServer).
+ * Если миграция меняет колонки таблицы из TABLES, она должна пересоздать триггеры.
+ */
+public final class ChangeLog {
+
+    /** Сколько последних изменений хранит журнал */
+    public static final int RETAIN = 100_000;
+
+    /** Наибольшее количество колонок в таблице с данными */
+    private static final int MAX_COLUMNS = 6;
+
+    /** Время изменения в миллисекундах от эпохи (выражение SQLite) */
+    private static final String NOW_MS = "CAST((julianday('now') - 2440587.5) * 86400000 AS INTEGER)";
+
+    /**
+     * Таблица с данными: имя, колонки и сколько первых колонок составляют первичный ключ.
+     */
+    static final class Table {
+
+        final String name;
+        final String[] columns;
+        final int keyColumns;
+
+        Table(String name, int keyColumns, String... columns) {
+            this.name = name;
+            this.columns = columns;
+            this.keyColumns = keyColumns;
+        }
+    }
+
+    /** Таблицы, изменения которых попадают в журнал */
+    static final List<Table> TABLES = List.of(
+            new Table("credentials", 2, "user_id", "service", "login", "password", "fingerprint", "version"),
+            new Table("credential_history", 3, "user_id", "service", "version", "login", "password", "changed_at"),
+            new Table("rotation_schedule", 2, "user_id", "service", "interval_ms", "next_due"),
+            new Table("meta", 1, "name", "value"),
+            new Table("vaults", 1, "vault_id", "name", "created_by", "created_at"),
+            new Table("vault_members", 2, "vault_id", "member_id", "role"));
+
+    /**
+     * Одно изменение из журнала.
+     */
+    public static final class Change {
+
+        /** Номер изменения */
+        private final long seq;
+
+        /** Время изменения в миллисекундах */
+        private final long changedAt;
+
+        /** Таблица */
+        private final String table;
+
+        /** Операция: U или D */
+        private final char op;
+
+        /** Значения колонок v1..v6 (в журнале базы - только ключ) */
+        private final Object[] values;
+
+        Change(long seq, long changedAt, String table, char op, Object[] values) {
+            this.seq = seq;
+            this.changedAt = changedAt;
+            this.table = table;
+            this.op = op;
+            this.values = values;
+        }
+
+        /** Возвращает номер изменения. */
+        public long getSeq() { return seq; }
+
+        /** Возвращает время изменения в миллисекундах. */
+        public long getChangedAt() { return changedAt; }
+
+        /** Возвращает имя таблицы. */
+        public String getTable() { return table; }
+
+        /** Возвращает операцию: U - вставка или обновление, D - удаление. */
+        public char getOp() { return op; }
+    }
+
+    private ChangeLog() {
+    }
+
+    /**
+     * Создает таблицу change_log, триггеры на таблицах с данными и идентификатор базы
+     * (meta.database_id), по которому резервная копия узнает, что журнал тот же.
+     */
+    static void install(Connection c) throws SQLException {
+        try (Statement st = c.createStatement()) {
+            st.execute("""
+                CREATE TABLE IF NOT EXISTS change_log (
+                    seq INTEGER PRIMARY KEY AUTOINCREMENT,
+                    changed_at INTEGER NOT NULL,
+                    tbl TEXT NOT NULL,
+                    op TEXT NOT NULL,
+                    v1, v2, v3, v4, v5, v6
+                );
+                """);
+            st.execute("""
+                CREATE TRIGGER IF NOT EXISTS change_log_retain AFTER INSERT ON change_log BEGIN
+                    DELETE FROM change_log WHERE seq <= NEW.seq - %d;
+                END;
+                """.formatted(RETAIN));
+        }
+        createTriggers(c);
+        try (PreparedStatement ps = c.prepareStatement(
+                "INSERT OR IGNORE INTO meta(name, value) VALUES ('database_id', ?);")) {
+            byte[] id = new byte[16];
+            new SecureRandom().nextBytes(id);
+            ps.setBytes(1, id);
+            ps.executeUpdate();
+        }
+    }
+
+    /**
+     * Создает триггеры, которые пишут изменения таблиц с данными в журнал.
+     */
+    static void createTriggers(Connection c) throws SQLException {
+        try (Statement st = c.createStatement()) {
+            for (Table t : TABLES) {
+                st.execute("CREATE TRIGGER IF NOT EXISTS change_log_" + t.name + "_insert AFTER INSERT ON "
+                        + t.name + " BEGIN " + logKey(t, "U", "NEW") + " END;");
+                st.execute("CREATE TRIGGER IF NOT EXISTS change_log_" + t.name + "_update AFTER UPDATE ON "
+                        + t.name + " BEGIN " + logKeyChange(t) + logKey(t, "U", "NEW") + " END;");
+                st.execute("CREATE TRIGGER IF NOT EXISTS change_log_" + t.name + "_delete AFTER DELETE ON "
+                        + t.name + " BEGIN " + logKey(t, "D", "OLD") + " END;");
+            }
+        }
+    }
+
+    /**
+     * Удаляет триггеры журнала: резервная копия пишет в журнал изменения основной базы
+     * с их номерами, а не свои.
+     */
+    static void dropTriggers(Connection c) throws SQLException {
+        try (Statement st = c.createStatement()) {
+            for (Table t : TABLES) {
+                for (String event : new String[]{"insert", "update", "delete"}) {
+                    st.execute("DROP TRIGGER IF EXISTS change_log_" + t.name + "_" + event + ";");
+                }
+            }
+        }
+    }
+
+    /**
+     * Переводит журнал, в который триггеры прежней версии писали значения всех колонок,
+     * на запись только ключей: пересоздает триггеры (если они есть - в резервной копии
+     * их нет) и затирает в журнале все, кроме ключей.
+     */
+    static void keysOnly(Connection c) throws SQLException {
+        boolean triggers;
+        try (Statement st = c.createStatement();
+             ResultSet rs = st.executeQuery(
+                     "SELECT 1 FROM sqlite_master WHERE type = 'trigger' AND name = 'change_log_credentials_insert';")) {
+            triggers = rs.next();
+        }
+        if (triggers) {
+            dropTriggers(c);
+            createTriggers(c);
+        }
+        try (Statement st = c.createStatement()) {
+            for (Table t : TABLES) {
+                List<String> clear = new ArrayList<>();
+                for (int i = t.keyColumns; i < MAX_COLUMNS; i++) clear.add("v" + (i + 1) + " = NULL");
+                st.executeUpdate("UPDATE change_log SET " + String.join(", ", clear) + " WHERE tbl = '" + t.name + "';");
+            }
+        }
+    }
+
+    /** Команда триггера, добавляющая в журнал ключ строки row (NEW или OLD). */
+    private static String logKey(Table t, String op, String row) {
+        StringBuilder columns = new StringBuilder();
+        StringBuilder values = new StringBuilder();
+        for (int i = 0; i < t.keyColumns; i++) {
+            columns.append(", v").append(i + 1);
+            values.append(", ").append(row).append('.').append(t.columns[i]);
+        }
+        return "INSERT INTO change_log(changed_at, tbl, op" + columns + ") VALUES (" + NOW_MS
+                + ", '" + t.name + "', '" + op + "'" + values + ");";
+    }
+
+    /** Команда триггера обновления: если изменился ключ, в журнал сначала пишется удаление старого. */
+    private static String logKeyChange(Table t) {
+        StringBuilder columns = new StringBuilder();
+        StringBuilder values = new StringBuilder();
+        StringBuilder changed = new StringBuilder();
+        for (int i = 0; i < t.keyColumns; i++) {
+            columns.append(", v").append(i + 1);
+            values.append(", OLD.").append(t.columns[i]);
+            changed.append(i == 0 ? "" : " OR ").append("OLD.").append(t.columns[i])
+                    .append(" IS NOT NEW.").append(t.columns[i]);
+        }
+        return "INSERT INTO change_log(changed_at, tbl, op" + columns + ") SELECT " + NOW_MS
+                + ", '" + t.name + "', 'D'" + values + " WHERE " + changed + ";";
+    }
+
+    /**
+     * Возвращает номер последнего изменения в журнале (0, если журнал пуст).
+     */
+    static long head(Connection c) throws SQLException {
+        try (Statement st = c.createStatement();
+             ResultSet rs = st.executeQuery("SELECT COALESCE(MAX(seq), 0) FROM change_log;")) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    /**
+     * Возвращает номер самого старого изменения в журнале (head + 1, если журнал пуст).
+     */
+    static long oldest(Connection c) throws SQLException {
+        try (Statement st = c.createStatement();
+             ResultSet rs = st.executeQuery("SELECT MIN(seq) FROM change_log;")) {
+            long min = rs.next() ? rs.getLong(1) : 0;
+            return min == 0 ? head(c) + 1 : min;
+        }
+    }
+
+    /**
+     * Возвращает идентификатор базы из meta или null, если его нет.
+     */
+    static byte[] databaseId(Connection c) throws SQLException {
+        try (Statement st = c.createStatement();
+             ResultSet rs = st.executeQuery("SELECT value FROM meta WHERE name = 'database_id';")) {
+            return rs.next() ? rs.getBytes(1) : null;
+        }
+    }
+
+    /**
+     * Читает не больше limit изменений с номерами от from по порядку. Для изменения U
+     * значения колонок берутся из текущей строки с этим ключом; если строки уже нет,
+     * изменение отдается как удаление. Чтение идет одной транзакцией.
+     */
+    static List<Change> read(Connection c, long from, int limit) throws SQLException {
+        List<Change> out = new ArrayList<>();
+        Map<String, PreparedStatement> rows = new HashMap<>();
+        boolean autoCommit = c.getAutoCommit();
+        c.setAutoCommit(false);
+        try (PreparedStatement ps = c.prepareStatement(
+                "SELECT * FROM change_log WHERE seq >= ? ORDER BY seq LIMIT ?;")) {
+            ps.setLong(1, from);
+            ps.setInt(2, limit);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    Table t = table(rs.getString("tbl"));
+                    Object[] values = new Object[MAX_COLUMNS];
+                    for (int i = 0; i < t.keyColumns; i++) {
+                        values[i] = value(rs.getObject("v" + (i + 1)));
+                    }
+                    char op = rs.getString("op").charAt(0);
+                    if (op == 'U' && !current(c, rows, t, values)) op = 'D';
+                    out.add(new Change(rs.getLong("seq"), rs.getLong("changed_at"), t.name, op, values));
+                }
+            }
+        } finally {
+            for (PreparedStatement row : rows.values()) {
+                row.close();
+            }
+            c.commit();
+            c.setAutoCommit(autoCommit);
+        }
+        return out;
+    }
+
+    /**
+     * Дописывает в values после ключа значения остальных колонок текущей строки таблицы t.
+     * Возвращает false, если строки с этим ключом нет.
+     */
+    private static boolean current(Connection c, Map<String, PreparedStatement> rows, Table t, Object[] values)
+            throws SQLException {
+        PreparedStatement ps = rows.get(t.name);
+        if (ps == null) {
+            ps = c.prepareStatement("SELECT " + String.join(", ", t.columns) + " FROM " + t.name
+                    + " WHERE " + keyWhere(t) + ";");
+            rows.put(t.name, ps);
+        }
+        for (int i = 0; i < t.keyColumns; i++) ps.setObject(i + 1, values[i]);
+        try (ResultSet rs = ps.executeQuery()) {
+            if (!rs.next()) return false;
+            for (int i = t.keyColumns; i < t.columns.length; i++) values[i] = value(rs.getObject(i + 1));
+            return true;
+        }
+    }
+
+    /** Значение колонки для передачи: целые SQLite всегда как Long. */
+    private static Object value(Object v) {
+        return v instanceof Integer n ? Long.valueOf(n) : v;
+    }
+
+    /**
+     * Применяет изменения к базе резервной копии и записывает их в ее журнал с теми же номерами.
+     * Вызывается внутри транзакции.
+     */
+    static void apply(Connection c, List<Change> changes) throws SQLException {
+        Map<String, PreparedStatement> statements = new HashMap<>();
+        try {
+            PreparedStatement log = c.prepareStatement("INSERT OR REPLACE INTO change_log VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?);");
+            statements.put("", log);
+            for (Change ch : changes) {
+                Table t = table(ch.table);
+                String key = ch.op + t.name;
+                PreparedStatement ps = statements.get(key);
+                if (ps == null) {
+                    ps = c.prepareStatement(ch.op == 'D' ? deleteSql(t) : upsertSql(t));
+                    statements.put(key, ps);
+                }
+                int count = ch.op == 'D' ? t.keyColumns : t.columns.length;
+                for (int i = 0; i < count; i++) ps.setObject(i + 1, ch.values[i]);
+                ps.executeUpdate();
+
+                log.setLong(1, ch.seq);
+                log.setLong(2, ch.changedAt);
+                log.setString(3, ch.table);
+                log.setString(4, String.valueOf(ch.op));
+                for (int i = 0; i < MAX_COLUMNS; i++) log.setObject(5 + i, i < t.keyColumns ? ch.values[i] : null);
+                log.executeUpdate();
+            }
+        } finally {
+            for (PreparedStatement ps : statements.values()) {
+                ps.close();
+            }
+        }
+    }
+
+    /** Возвращает описание таблицы по имени. */
+    private static Table table(String name) throws SQLException {
+        for (Table t : TABLES) {
+            if (t.name.equals(name)) return t;
+        }
+        throw new SQLException("Неизвестная таблица в журнале: " + name);
+    }
+
+    private static String upsertSql(Table t) {
+        String marks = String.join(", ", Collections.nCopies(t.columns.length, "?"));
+        return "INSERT OR REPLACE INTO " + t.name + "(" + String.join(", ", t.columns) + ") VALUES (" + marks + ");";
+    }
+
+    private static String deleteSql(Table t) {
+        return "DELETE FROM " + t.name + " WHERE " + keyWhere(t) + ";";
+    }
+
+    /** Условие на ключ таблицы t с параметрами по порядку колонок ключа. */
+    private static String keyWhere(Table t) {
+        List<String> where = new ArrayList<>();
+        for (String column : Arrays.copyOf(t.columns, t.keyColumns)) where.add(column + " = ?");
+        return String.join(" AND ", where);
+    }
+
+    /** Записывает изменение в поток репликации. */
+    static void write(DataOutputStream out, Change ch) throws IOException {
+        out.writeLong(ch.seq);
+        out.writeLong(ch.changedAt);
+        out.writeUTF(ch.table);
+        out.writeByte(ch.op);
+        for (Object v : ch.values) {
+            if (v == null) {
+                out.writeByte(0);
+            } else if (v instanceof Long n) {
+                out.writeByte(1);
+                out.writeLong(n);
+            } else if (v instanceof Double d) {
+                out.writeByte(2);
+                out.writeDouble(d);
+            } else if (v instanceof byte[] b) {
+                out.writeByte(4);
+                out.writeInt(b.length);
+                out.write(b);
+            } else {
+                byte[] b = v.toString().getBytes(StandardCharsets.UTF_8);
+                out.writeByte(3);
+                out.writeInt(b.length);
+                out.write(b);
+            }
+        }
+    }
+
+    /** Читает изменение из потока репликации. */
+    static Change read(DataInputStream in) throws IOException {
+        long seq = in.readLong();
+        long changedAt = in.readLong();
+        String table = in.readUTF();
+        char op = (char) in.readByte();
+        Object[] values = new Object[MAX_COLUMNS];
+        for (int i = 0; i < MAX_COLUMNS; i++) {
+            byte type = in.readByte();
+            switch (type) {
+                case 0 -> values[i] = null;
+                case 1 -> values[i] = in.readLong();
+                case 2 -> values[i] = in.readDouble();
+                case 3, 4 -> {
+                    byte[] b = new byte[in.readInt()];
+                    in.readFully(b);
+                    values[i] = type == 3 ? new String(b, StandardCharsets.UTF_8) : b;
+                }
+                default -> throw new IOException("Неизвестный тип значения " + type);
+            }
+        }
+        return new Change(seq, changedAt, table, op, values);
+    }
+}
@@ -0,0 +1,228 @@
+package org.example;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Общий пул соединений SQLite для нескольких баз (например, по одной на арендатора).
+ * Свободные соединения лежат в одной очереди в порядке возврата; get(url) берет самое свежее
+ * соединение с этой базой. Всего открыто не больше maxOpen соединений: если лимит исчерпан,
+ * а свободного соединения с нужной базой нет, закрывается самое старое свободное соединение
+ * другой базы, а если свободных нет совсем - get() ждет возврата, но не дольше WAIT_MS.
+ * Выданное соединение возвращается в пул вызовом close(); незавершенная транзакция при этом
+ * откатывается.
+ */
+public class ConnectionPool implements AutoCloseable {
+
+    /** Сколько миллисекунд get() ждет свободного соединения */
+    private static final long WAIT_MS = 10_000;
+
+    /** Свободное соединение */
+    private static final class Idle {
+
+        /** URL базы */
+        final String url;
+
+        /** Соединение */
+        final Connection connection;
+
+        Idle(String url, Connection connection) {
+            this.url = url;
+            this.connection = connection;
+        }
+    }
+
+    /** Сколько соединений может быть открыто одновременно */
+    private final int maxOpen;
+
+    /** Свободные соединения от старых к новым (под блокировкой this) */
+    private final ArrayDeque<Idle> idle = new ArrayDeque<>();
+
+    /** Сколько соединений открыто, включая выданные (под блокировкой this) */
+    private int open;
+
+    /** Сколько раз get() ждал освобождения соединения (под блокировкой this) */
+    private long waits;
+
+    /** Пул закрыт (под блокировкой this) */
+    private boolean closed;
+
+    /**
+     * Создает пул не больше чем на maxOpen открытых соединений.
+     */
+    public ConnectionPool(int maxOpen) {
+        if (maxOpen < 1) {
+            throw new IllegalArgumentException("Размер пула должен быть положительным");
+        }
+        this.maxOpen = maxOpen;
+    }
+
+    /**
+     * Выдает соединение с базой url. Его нужно закрыть, чтобы вернуть в пул.
+     */
+    public Connection get(String url) throws SQLException {
+        Connection evicted = null;
+        Connection reused = null;
+        synchronized (this) {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(WAIT_MS);
+            boolean waited = false;
+            while (true) {
+                if (closed) throw new SQLException("Пул соединений закрыт");
+                reused = takeIdle(url);
+                if (reused != null) break;
+                if (open < maxOpen) {
+                    open++;
+                    break;
+                }
+                if (!idle.isEmpty()) {
+                    evicted = idle.pollFirst().connection;
+                    break;
+                }
+                long left = deadline - System.nanoTime();
+                if (left <= 0) throw new SQLException("Нет свободных соединений");
+                if (!waited) {
+                    waits++;
+                    waited = true;
+                }
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(this, left);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new SQLException("Ожидание соединения прервано", e);
+                }
+            }
+        }
+        if (reused != null) return wrap(url, reused);
+
+        if (evicted != null) {
+            try {
+                evicted.close();
+            } catch (SQLException e) {
+
+            }
+        }
+        try {
+            return wrap(url, DriverManager.getConnection(url));
+        } catch (SQLException e) {
+            released();
+            throw e;
+        }
+    }
+
+    /** Забирает самое свежее свободное соединение с базой url или возвращает null. */
+    private Connection takeIdle(String url) {
+        for (Iterator<Idle> it = idle.descendingIterator(); it.hasNext(); ) {
+            Idle i = it.next();
+            if (i.url.equals(url)) {
+                it.remove();
+                return i.connection;
+            }
+        }
+        return null;
+    }
+
+    /** Оборачивает соединение так, чтобы close() возвращал его в пул. */
+    private Connection wrap(String url, Connection connection) {
+        InvocationHandler handler = new InvocationHandler() {
+            private boolean returned;
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                switch (method.getName()) {
+                    case "close" -> {
+                        if (!returned) {
+                            returned = true;
+                            giveBack(url, connection);
+                        }
+                        return null;
+                    }
+                    case "isClosed" -> {
+                        return returned || connection.isClosed();
+                    }
+                    default -> {
+                        if (returned) throw new SQLException("Соединение уже возвращено в пул");
+                        try {
+                            return method.invoke(connection, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                    }
+                }
+            }
+        };
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, handler);
+    }
+
+    /** Возвращает соединение в пул; сломанное или лишнее соединение закрывается. */
+    private void giveBack(String url, Connection connection) {
+        boolean keep;
+        try {
+            if (!connection.getAutoCommit()) {
+                connection.rollback();
+                connection.setAutoCommit(true);
+            }
+            keep = !connection.isClosed();
+        } catch (SQLException e) {
+            keep = false;
+        }
+        synchronized (this) {
+            if (keep && !closed) {
+                idle.addLast(new Idle(url, connection));
+                notifyAll();
+                return;
+            }
+        }
+        try {
+            connection.close();
+        } catch (SQLException e) {
+
+        }
+        released();
+    }
+
+    /** Отмечает, что открытое соединение закрыто. */
+    private synchronized void released() {
+        open--;
+        notifyAll();
+    }
+
+    /** Возвращает количество открытых соединений, включая выданные. */
+    public synchronized int getOpen() { return open; }
+
+    /** Возвращает количество свободных соединений. */
+    public synchronized int getIdle() { return idle.size(); }
+
+    /** Возвращает, сколько раз get() ждал освобождения соединения. */
+    public synchronized long getWaits() { return waits; }
+
+    /**
+     * Закрывает свободные соединения; выданные закрываются при возврате.
+     */
+    @Override
+    public void close() {
+        ArrayDeque<Idle> toClose;
+        synchronized (this) {
+            closed = true;
+            toClose = new ArrayDeque<>(idle);
+            open -= idle.size();
+            idle.clear();
+            notifyAll();
+        }
+        for (Idle i : toClose) {
+            try {
+                i.connection.close();
+            } catch (SQLException e) {
+
+            }
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package org.example;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Общий пул потоков для нескольких арендаторов с честной очередью.
+ * У каждого арендатора своя очередь задач (Lane), а потоки берут задачи из непустых очередей
+ * по кругу, по одной за раз. Поэтому арендатор с потоком сообщений не задерживает остальных:
+ * задача тихого арендатора ждет не больше одного круга, а не всю очередь шумного.
+ * Для каждой очереди считаются принятые и выполненные задачи, время ожидания и работы.
+ */
+public class FairExecutor {
+
+    /**
+     * Очередь задач одного арендатора.
+     */
+    public final class Lane implements Executor {
+
+        /** Название арендатора */
+        private final String name;
+
+        /** Задачи в порядке поступления (под блокировкой FairExecutor) */
+        private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+
+        /** Время постановки задач в очередь, в том же порядке (под блокировкой FairExecutor) */
+        private final ArrayDeque<Long> enqueued = new ArrayDeque<>();
+
+        /** Очередь стоит в круге обхода (под блокировкой FairExecutor) */
+        private boolean scheduled;
+
+        /** Принято задач */
+        private final LongAdder submitted = new LongAdder();
+
+        /** Выполнено задач */
+        private final LongAdder completed = new LongAdder();
+
+        /** Суммарное ожидание в очереди, наносекунды */
+        private final LongAdder waitNanos = new LongAdder();
+
+        /** Суммарное время выполнения, наносекунды */
+        private final LongAdder busyNanos = new LongAdder();
+
+        private Lane(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Ставит задачу в очередь арендатора.
+         */
+        @Override
+        public void execute(Runnable task) {
+            synchronized (FairExecutor.this) {
+                if (shutdown) throw new RejectedExecutionException("Пул потоков остановлен");
+                tasks.addLast(task);
+                enqueued.addLast(System.nanoTime());
+                submitted.increment();
+                if (!scheduled) {
+                    scheduled = true;
+                    ready.addLast(this);
+                    FairExecutor.this.notify();
+                }
+            }
+        }
+
+        /** Возвращает название арендатора. */
+        public String getName() { return name; }
+
+        /** Возвращает количество принятых задач. */
+        public long getSubmitted() { return submitted.sum(); }
+
+        /** Возвращает количество выполненных задач. */
+        public long getCompleted() { return completed.sum(); }
+
+        /** Возвращает количество задач в очереди. */
+        public int getQueued() {
+            synchronized (FairExecutor.this) {
+                return tasks.size();
+            }
+        }
+
+        /** Возвращает суммарное ожидание задач в очереди в наносекундах. */
+        public long getWaitNanos() { return waitNanos.sum(); }
+
+        /** Возвращает суммарное время выполнения задач в наносекундах. */
+        public long getBusyNanos() { return busyNanos.sum(); }
+    }
+
+    /** Непустые очереди в порядке обхода (под блокировкой this) */
+    private final ArrayDeque<Lane> ready = new ArrayDeque<>();
+
+    /** Все очереди */
+    private final List<Lane> lanes = new ArrayList<>();
+
+    /** Потоки пула */
+    private final List<Thread> workers = new ArrayList<>();
+
+    /** Пул остановлен (под блокировкой this) */
+    private boolean shutdown;
+
+    /**
+     * Создает пул из threads потоков с именем name.
+     */
+    public FairExecutor(String name, int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Количество потоков должно быть положительным");
+        }
+        for (int i = 0; i < threads; i++) {
+            Thread t = new Thread(this::work, name + "-" + i);
+            t.setDaemon(true);
+            workers.add(t);
+            t.start();
+        }
+    }
+
+    /**
+     * Создает очередь для арендатора.
+     */
+    public synchronized Lane lane(String name) {
+        Lane lane = new Lane(name);
+        lanes.add(lane);
+        return lane;
+    }
+
+    /** Возвращает очереди всех арендаторов. */
+    public synchronized List<Lane> getLanes() {
+        return List.copyOf(lanes);
+    }
+
+    /** Цикл потока: берет по одной задаче из очередей по кругу. */
+    private void work() {
+        while (true) {
+            Lane lane;
+            Runnable task;
+            long waited;
+            synchronized (this) {
+                while (ready.isEmpty()) {
+                    if (shutdown) return;
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                lane = ready.pollFirst();
+                task = lane.tasks.pollFirst();
+                waited = System.nanoTime() - lane.enqueued.pollFirst();
+                if (lane.tasks.isEmpty()) {
+                    lane.scheduled = false;
+                } else {
+                    ready.addLast(lane);
+                    notify();
+                }
+            }
+            long start = System.nanoTime();
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+
+            } finally {
+                lane.waitNanos.add(waited);
+                lane.busyNanos.add(System.nanoTime() - start);
+                lane.completed.increment();
+            }
+        }
+    }
+
+    /**
+     * Останавливает пул: новые задачи не принимаются, уже принятые выполняются.
+     */
+    public synchronized void shutdown() {
+        shutdown = true;
+        notifyAll();
+    }
+
+    /**
+     * Ждет завершения потоков после shutdown() не дольше timeoutNanos.
+     * Возвращает true, если все потоки завершились.
+     */
+    public boolean awaitTermination(long timeoutNanos) throws InterruptedException {
+        long deadline = System.nanoTime() + timeoutNanos;
+        for (Thread t : workers) {
+            long left = deadline - System.nanoTime();
+            if (left > 0) TimeUnit.NANOSECONDS.timedJoin(t, left);
+            if (t.isAlive()) return false;
+        }
+        return true;
+    }
+}
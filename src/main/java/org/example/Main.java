@@ -2,24 +2,412 @@ package org.example;
 
 import io.github.cdimascio.dotenv.Dotenv;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.util.HashSet;
+import java.util.Set;
+
 /**
  * Главный класс приложения.
- * Загружает токены из .env или переменной окружения
- * и запускает Telegram-бота
+ * Загружает токены из .env или переменной окружения,
+ * открывает фильтр утекших паролей и список слов и запускает Telegram-бота.
+ * База данных открывается при первом обращении, а не при запуске.
+ * При остановке процесса бот дожидается обработки текущих сообщений и сохраняет
+ * контрольную точку (файл OFFSET_FILE, по умолчанию update_offset).
+ * Если задана переменная PIPELINE (сколько апдейтов в работе одновременно), апдейты
+ * обрабатываются конвейером на PIPELINE_THREADS потоках (по умолчанию 4), см. UpdatePipeline.
+ * Операции с учетными данными записываются в журнал в каталоге AUDIT_DIR (по умолчанию audit).
+ * Если задана переменная SHARE_FILE, одноразовые ссылки /share сохраняются в этот файл при остановке.
+ * Если задана переменная TOKEN_BOTS ("имя=токен,имя2=токен2"), в одном процессе работают
+ * несколько ботов со своими данными в каталоге DATA_DIR, см. MultiTenantRuntime.
+ * Переменные REPLICATION_PORT и REPLICA_OF включают репликацию базы на резервный процесс
+ * (с общим секретом REPLICATION_SECRET),
+ * см. startReplication().
+ * Администраторы из ADMIN_CHAT_IDS управляют записью JFR командой /profile, записи сохраняются
+ * в каталог PROFILE_DIR; с PROFILE=on запись идет с запуска и сохраняется при остановке, см. Profiler.
+ * С аргументом --train выполняет учебный прогон для архива AppCDS (см. профиль appcds в pom.xml).
  */
 public class Main {
 
+    /** Сколько миллисекунд ждать основной процесс между сообщениями об ожидании */
+    private static final long REPLICA_SYNC_WAIT_MS = 10_000;
+
+    /** Как часто резервный процесс проверяет файл повышения, миллисекунды */
+    private static final long PROMOTE_CHECK_MS = 1000;
+
+    /** Чат учебного прогона */
+    private static final long TRAINING_CHAT = -1;
+
+    /** Сколько миллисекунд ждать ответа бота в учебном прогоне */
+    private static final long TRAINING_TIMEOUT_MS = 30_000;
+
+    /**
+     * Команды учебного прогона: типовые сценарии без записи в базу,
+     * чтобы в архив попали классы, которые нужны для первых ответов.
+     */
+    private static final String[] TRAINING = {
+            "/start", "/settings", "12", "+", "+", "+", "+", "/password",
+            "/policy", "/list", "/get training", "/history training", "/audit",
+            "/settings фраза", "4", "-", "+", "/password", "/add", "/settings", "10", "/password"
+    };
+
     /**
      * Точка входа в приложение.
      */
-    public static void main(String[] args) {
-        Dotenv dotenv = Dotenv.configure().load();
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length > 0 && args[0].equals("--train")) {
+            train();
+            System.exit(0);
+        }
+
+        Dotenv dotenv = Dotenv.configure().ignoreIfMissing().load();
+        if (env(dotenv, "TOKEN_BOTS") != null) {
+            runTenants(dotenv);
+            return;
+        }
 
-        String token = System.getenv("TOKEN_BOT");
-        if (token == null || token.isBlank()) {
-            token = dotenv.get("TOKEN_BOT");
+        String token = env(dotenv, "TOKEN_BOT");
+        String offsetFile = env(dotenv, "OFFSET_FILE");
+        Path offset = Paths.get(offsetFile == null ? TgBot.DEFAULT_OFFSET_FILE : offsetFile);
+        TgBot bot;
+        Closeable replication = null;
+        if (env(dotenv, "REPLICA_OF") != null || env(dotenv, "REPLICATION_PORT") != null) {
+            PasswordLogic logic = new PasswordLogic();
+            logic.setBreachFilter(loadBreachFilter(dotenv));
+            Wordlist wordlist = loadWordlist(dotenv);
+            if (wordlist != null) {
+                logic.setWordlist(wordlist);
+            }
+            replication = startReplication(dotenv, logic);
+            bot = new TgBot(token, env(dotenv, "TELEGRAM_API_URL"), offset, logic);
+        } else {
+            bot = new TgBot(token, env(dotenv, "TELEGRAM_API_URL"), offset,
+                    loadBreachFilter(dotenv), loadWordlist(dotenv));
         }
-        TgBot bot = new TgBot(token);
+        AdmissionControl admission = loadAdmissionControl(dotenv);
+        if (admission != null) {
+            bot.setAdmissionControl(admission);
+        }
+        configurePipeline(dotenv, bot);
+        AuditLog auditLog = loadAuditLog(dotenv);
+        bot.setAuditLog(auditLog);
+        String shareFile = env(dotenv, "SHARE_FILE");
+        ShareStore shares = shareFile == null ? null : loadShares(Paths.get(shareFile));
+        if (shares != null) {
+            bot.setShareStore(shares);
+        }
+        Profiler profiler = loadProfiler(dotenv, bot);
+        Closeable stopReplication = replication;
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            bot.stop();
+            if (profiler != null) {
+                try {
+                    profiler.stop();
+                } catch (IOException e) {
+                    System.err.println("Запись профиля не сохранена: " + e.getMessage());
+                }
+            }
+            if (auditLog != null) {
+                auditLog.close();
+            }
+            if (shares != null) {
+                try {
+                    shares.save(Paths.get(shareFile), System.currentTimeMillis());
+                } catch (IOException e) {
+                    System.err.println("Одноразовые ссылки не сохранены: " + e.getMessage());
+                }
+            }
+            if (stopReplication != null) {
+                try {
+                    stopReplication.close();
+                } catch (IOException e) {
+
+                }
+            }
+        }, "shutdown"));
         bot.start();
     }
-}
\ No newline at end of file
+
+    /**
+     * Настраивает репликацию базы passwords.db.
+     * Если задана REPLICATION_PORT, процесс основной: база открывается сразу, а резервные копии
+     * получают журнал изменений на этом порту локального адреса. Основной и резервный процессы
+     * должны знать общий секрет REPLICATION_SECRET (не короче 16 байт), иначе процесс завершается.
+     * Если задана REPLICA_OF ("host:port" основного процесса), процесс резервный: база
+     * догоняет основную и дальше получает изменения, бот отвечает только на /get и /list.
+     * Когда появляется файл PROMOTE_FILE (по умолчанию promote), копия повышается до основной:
+     * бот начинает принимать записи, а если задана REPLICATION_PORT - сам отдает журнал.
+     * Возвращает то, что нужно закрыть при остановке.
+     */
+    private static Closeable startReplication(Dotenv dotenv, PasswordLogic logic) throws IOException, InterruptedException {
+        String url = "jdbc:sqlite:" + PasswordDatabase.DB_FILE;
+        String port = env(dotenv, "REPLICATION_PORT");
+        String primary = env(dotenv, "REPLICA_OF");
+        String secretValue = env(dotenv, "REPLICATION_SECRET");
+        byte[] secret = secretValue == null ? null : secretValue.getBytes(StandardCharsets.UTF_8);
+        try {
+            ReplicationServer.checkSecret(secret);
+        } catch (IllegalArgumentException e) {
+            System.err.println("Неверные настройки репликации: " + e.getMessage());
+            System.exit(1);
+            return null;
+        }
+        if (primary == null) {
+            logic.open();
+            ReplicationServer server = new ReplicationServer(url, Integer.parseInt(port), secret);
+            server.start();
+            return server;
+        }
+
+        Replica replica = Replica.of(Paths.get(PasswordDatabase.DB_FILE), primary, secret);
+        replica.start();
+        while (!replica.awaitSynced(REPLICA_SYNC_WAIT_MS)) {
+            System.err.println("Ожидание основного процесса " + primary);
+        }
+        logic.setReadOnly(true);
+        logic.open();
+
+        String promoteFile = env(dotenv, "PROMOTE_FILE");
+        Path trigger = Paths.get(promoteFile == null ? "promote" : promoteFile);
+        ReplicationServer[] server = new ReplicationServer[1];
+        Thread watcher = new Thread(() -> {
+            try {
+                while (!Files.exists(trigger)) {
+                    Thread.sleep(PROMOTE_CHECK_MS);
+                }
+                replica.promote();
+                logic.setReadOnly(false);
+                Files.deleteIfExists(trigger);
+                System.err.println("Резервная копия повышена до основной");
+                if (port != null) {
+                    server[0] = new ReplicationServer(url, Integer.parseInt(port), secret);
+                    server[0].start();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException | SQLException e) {
+                System.err.println("Резервная копия не повышена: " + e.getMessage());
+            }
+        }, "promote-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+        return () -> {
+            watcher.interrupt();
+            replica.close();
+            if (server[0] != null) {
+                server[0].close();
+            }
+        };
+    }
+
+    /**
+     * Запускает ботов из TOKEN_BOTS в одном процессе. Данные арендаторов хранятся в DATA_DIR
+     * (по умолчанию текущий каталог); TENANT_THREADS потоков обработки (по умолчанию 8),
+     * до PIPELINE апдейтов одного бота в работе (по умолчанию 64), до DB_CONNECTIONS
+     * соединений с базами (по умолчанию 16), исходящих сообщений не больше OUTBOUND_RATE
+     * в секунду (по умолчанию 30). При остановке печатает отчет по арендаторам.
+     */
+    private static void runTenants(Dotenv dotenv) throws IOException {
+        String dataDir = env(dotenv, "DATA_DIR");
+        MultiTenantRuntime runtime;
+        try {
+            double rate = parse(env(dotenv, "OUTBOUND_RATE"), 30);
+            runtime = new MultiTenantRuntime(
+                    MultiTenantRuntime.parse(env(dotenv, "TOKEN_BOTS")),
+                    env(dotenv, "TELEGRAM_API_URL"),
+                    Paths.get(dataDir == null ? "." : dataDir),
+                    (int) parse(env(dotenv, "TENANT_THREADS"), 8),
+                    (int) parse(env(dotenv, "PIPELINE"), 64),
+                    (int) parse(env(dotenv, "DB_CONNECTIONS"), 16),
+                    new OutboundLimiter(rate, (int) Math.ceil(rate)),
+                    loadBreachFilter(dotenv), loadWordlist(dotenv));
+        } catch (IllegalArgumentException e) {
+            System.err.println("Неверные настройки арендаторов: " + e.getMessage());
+            System.exit(1);
+            return;
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            runtime.stop();
+            System.err.print(runtime.report());
+        }, "shutdown"));
+        runtime.start();
+    }
+
+    /** Разбирает число из настройки или возвращает значение по умолчанию, если она не задана. */
+    private static double parse(String value, double defaultValue) {
+        return value == null ? defaultValue : Double.parseDouble(value);
+    }
+
+    /**
+     * Учебный прогон: бот отвечает на команды TRAINING через локальную заглушку api
+     * и останавливается. Запускается с -XX:ArchiveClassesAtExit, чтобы JVM сохранила
+     * загруженные классы в архив AppCDS.
+     */
+    private static void train() throws IOException, InterruptedException {
+        try (StubTelegramApi api = StubTelegramApi.start()) {
+            TgBot bot = new TgBot("train", api.url(), null, null, null);
+            bot.setAdmissionControl(new AdmissionControl(TRAINING.length, TRAINING.length, 1));
+            bot.start();
+            for (String text : TRAINING) {
+                api.send(TRAINING_CHAT, text);
+                if (api.awaitReply(TRAINING_TIMEOUT_MS) == null) {
+                    throw new IOException("Нет ответа на " + text);
+                }
+            }
+            bot.stop();
+        }
+    }
+
+    /**
+     * Возвращает значение из переменной окружения, а если её нет - из .env.
+     */
+    private static String env(Dotenv dotenv, String name) {
+        String value = System.getenv(name);
+        if (value == null || value.isBlank()) {
+            value = dotenv.get(name);
+        }
+        return value == null || value.isBlank() ? null : value;
+    }
+
+    /**
+     * Создает контроль допуска из CHAT_RATE (сообщений в секунду на чат), CHAT_BURST
+     * (сообщений подряд) и MAX_CONCURRENT (одновременно обрабатываемых сообщений).
+     * Если ни одна переменная не задана, возвращает null, и используются лимиты по умолчанию.
+     */
+    private static AdmissionControl loadAdmissionControl(Dotenv dotenv) {
+        String rate = env(dotenv, "CHAT_RATE");
+        String burst = env(dotenv, "CHAT_BURST");
+        String concurrent = env(dotenv, "MAX_CONCURRENT");
+        if (rate == null && burst == null && concurrent == null) {
+            return null;
+        }
+        try {
+            return new AdmissionControl(
+                    rate == null ? 2 : Double.parseDouble(rate),
+                    burst == null ? 10 : Integer.parseInt(burst),
+                    concurrent == null ? 16 : Integer.parseInt(concurrent));
+        } catch (IllegalArgumentException e) {
+            System.err.println("Неверные лимиты сообщений, используются лимиты по умолчанию: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Включает режим конвейера, если задана переменная PIPELINE.
+     * При неверных значениях бот работает в обычном режиме.
+     */
+    private static void configurePipeline(Dotenv dotenv, TgBot bot) {
+        String inFlight = env(dotenv, "PIPELINE");
+        if (inFlight == null) {
+            return;
+        }
+        String threads = env(dotenv, "PIPELINE_THREADS");
+        try {
+            bot.enablePipeline(Integer.parseInt(inFlight), threads == null ? 4 : Integer.parseInt(threads));
+        } catch (IllegalArgumentException e) {
+            System.err.println("Неверные размеры конвейера, используется обычный режим: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Подключает запись JFR с сохранением в каталог PROFILE_DIR (по умолчанию текущий),
+     * если заданы администраторы ADMIN_CHAT_IDS (номера чатов через запятую) или PROFILE=on.
+     * С PROFILE=on запись начинается сразу. Возвращает null, если профилирование не настроено.
+     */
+    private static Profiler loadProfiler(Dotenv dotenv, TgBot bot) {
+        String ids = env(dotenv, "ADMIN_CHAT_IDS");
+        boolean always = "on".equals(env(dotenv, "PROFILE"));
+        if (ids == null && !always) {
+            return null;
+        }
+        Set<Long> admins = new HashSet<>();
+        try {
+            for (String id : ids == null ? new String[0] : ids.split(",")) {
+                if (!id.isBlank()) admins.add(Long.parseLong(id.trim()));
+            }
+        } catch (NumberFormatException e) {
+            System.err.println("Неверный список ADMIN_CHAT_IDS, /profile недоступна: " + e.getMessage());
+            admins.clear();
+        }
+        String dir = env(dotenv, "PROFILE_DIR");
+        Profiler profiler = new Profiler(Paths.get(dir == null ? "." : dir));
+        bot.setProfiler(profiler, admins);
+        if (always) {
+            try {
+                profiler.start();
+            } catch (IOException | IllegalStateException e) {
+                System.err.println("Запись профиля не начата: " + e.getMessage());
+            }
+        }
+        return profiler;
+    }
+
+    /**
+     * Открывает журнал операций в каталоге AUDIT_DIR (по умолчанию audit).
+     * Если каталог недоступен, бот работает без журнала.
+     */
+    private static AuditLog loadAuditLog(Dotenv dotenv) {
+        String dir = env(dotenv, "AUDIT_DIR");
+        try {
+            return AuditLog.open(Paths.get(dir == null ? "audit" : dir));
+        } catch (IOException e) {
+            System.err.println("Журнал операций не открыт: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Загружает одноразовые ссылки /share, сохраненные при прошлой остановке в файл SHARE_FILE.
+     * Если файла нет или он не читается, ссылки начинаются с пустого хранилища.
+     */
+    private static ShareStore loadShares(Path file) {
+        ShareStore shares = new ShareStore();
+        if (Files.exists(file)) {
+            try {
+                shares.load(file, System.currentTimeMillis());
+            } catch (IOException e) {
+                System.err.println("Одноразовые ссылки не загружены: " + e.getMessage());
+            }
+        }
+        return shares;
+    }
+
+    /**
+     * Открывает фильтр утекших паролей из файла, указанного в BREACH_FILTER.
+     * Если путь не задан или файл не открывается, бот работает без проверки утечек.
+     */
+    private static BreachFilter loadBreachFilter(Dotenv dotenv) {
+        String path = env(dotenv, "BREACH_FILTER");
+        if (path == null) {
+            return null;
+        }
+        try {
+            return BreachFilter.open(Paths.get(path));
+        } catch (IOException e) {
+            System.err.println("Фильтр утечек не загружен: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Открывает список слов для парольных фраз из файла, указанного в WORDLIST
+     * (собирается командой Wordlist). Если путь не задан, используется встроенный список.
+     */
+    private static Wordlist loadWordlist(Dotenv dotenv) {
+        String path = env(dotenv, "WORDLIST");
+        if (path == null) {
+            return null;
+        }
+        try {
+            return Wordlist.open(Paths.get(path));
+        } catch (IOException e) {
+            System.err.println("Список слов не загружен: " + e.getMessage());
+            return null;
+        }
+    }
+}
@@ -0,0 +1,427 @@
+package org.example;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Каталог текстов ответов бота на одном языке (ключи - Text).
+ * Каталоги читаются из ресурсов messages_<язык>.properties один раз при загрузке класса,
+ * и каждый шаблон сразу разбирается в массив частей: постоянные куски текста и номера
+ * аргументов между ними. Отрисовка ничего не разбирает и не ищет по строкам: куски и аргументы
+ * копируются в буфер потока, выделенный с запасом под самый длинный шаблон, и на ответ
+ * выделяется только итоговая строка. Буфер затирается после каждой отрисовки: аргументами
+ * бывают пароли (в том числе SecretBuffer). Шаблон без аргументов хранится готовой строкой.
+ * Ключ, которого нет в каталоге языка, берется из каталога по умолчанию.
+ */
+public final class Messages {
+
+    /** Язык по умолчанию; его каталог обязан содержать все ключи */
+    public static final String DEFAULT_LANGUAGE = "ru";
+
+    /** Поддерживаемые языки */
+    public static final List<String> LANGUAGES = List.of("ru", "en");
+
+    /** Запас буфера потока сверх самого длинного шаблона, символы */
+    private static final int SLACK = 256;
+
+    /** Буфер потока, выросший больше этого размера, после отрисовки заменяется исходным */
+    private static final int MAX_KEPT = 64 * 1024;
+
+    /** Каталоги по языку */
+    private static final Map<String, Messages> CATALOGS = loadAll();
+
+    /** Начальный размер буфера потока */
+    private static final int INITIAL_CAPACITY = initialCapacity();
+
+    /** Буфер отрисовки текущего потока */
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    /** Язык каталога */
+    private final String language;
+
+    /** Разобранные шаблоны по Text.ordinal() */
+    private final Template[] templates;
+
+    private Messages(String language, Template[] templates) {
+        this.language = language;
+        this.templates = templates;
+    }
+
+    /**
+     * Шаблон, разобранный в части: parts[0] arg[0] parts[1] arg[1] ... parts[n].
+     */
+    private static final class Template {
+
+        /** Постоянные куски текста; на один больше, чем аргументов */
+        final String[] parts;
+
+        /** Номера аргументов между кусками */
+        final int[] args;
+
+        /** Сколько аргументов нужно шаблону (наибольший номер + 1) */
+        final int arity;
+
+        /** Номера использованных аргументов: бит a - есть {a} */
+        final int used;
+
+        /** Суммарная длина кусков */
+        final int length;
+
+        /** Готовый текст шаблона без аргументов или null */
+        final String constant;
+
+        Template(String[] parts, int[] args) {
+            this.parts = parts;
+            this.args = args;
+            int max = -1;
+            int bits = 0;
+            for (int a : args) {
+                max = Math.max(max, a);
+                bits |= 1 << a;
+            }
+            this.arity = max + 1;
+            this.used = bits;
+            int n = 0;
+            for (String p : parts) n += p.length();
+            this.length = n;
+            this.constant = args.length == 0 ? parts[0] : null;
+        }
+
+        /**
+         * Разбирает текст шаблона: {цифра} - аргумент, остальные символы, включая
+         * другие фигурные скобки, - постоянный текст.
+         */
+        static Template parse(String text) {
+            List<String> parts = new ArrayList<>();
+            List<Integer> args = new ArrayList<>();
+            StringBuilder part = new StringBuilder();
+            int i = 0;
+            while (i < text.length()) {
+                char c = text.charAt(i);
+                if (c == '{' && i + 2 < text.length() && Character.isDigit(text.charAt(i + 1))
+                        && text.charAt(i + 2) == '}') {
+                    parts.add(part.toString());
+                    part.setLength(0);
+                    args.add(text.charAt(i + 1) - '0');
+                    i += 3;
+                } else {
+                    part.append(c);
+                    i++;
+                }
+            }
+            parts.add(part.toString());
+            int[] a = new int[args.size()];
+            for (int k = 0; k < a.length; k++) a[k] = args.get(k);
+            return new Template(parts.toArray(new String[0]), a);
+        }
+    }
+
+    /**
+     * Буфер отрисовки потока. Сборка ответа из нескольких шаблонов (Writer) занимает буфер;
+     * если в это время отрисовывается отдельный текст, для него берется временный буфер.
+     */
+    private static final class Scratch {
+        char[] chars = new char[INITIAL_CAPACITY];
+        int length;
+        boolean busy;
+        final Writer writer = new Writer(this);
+
+        /** Обеспечивает место еще для extra символов; старый массив затирается. */
+        void ensure(int extra) {
+            int required = length + extra;
+            if (required <= chars.length) return;
+            char[] grown = Arrays.copyOf(chars, Math.max(required, 2 * chars.length));
+            Arrays.fill(chars, 0, length, '\0');
+            chars = grown;
+        }
+
+        void append(String s) {
+            int n = s.length();
+            ensure(n);
+            s.getChars(0, n, chars, length);
+            length += n;
+        }
+
+        void append(CharSequence s) {
+            int n = s.length();
+            ensure(n);
+            for (int i = 0; i < n; i++) chars[length++] = s.charAt(i);
+        }
+
+        /** Дописывает число без промежуточной строки. */
+        void append(long v) {
+            if (v == Long.MIN_VALUE) {
+                append(String.valueOf(v));
+                return;
+            }
+            ensure(20);
+            if (v < 0) {
+                chars[length++] = '-';
+                v = -v;
+            }
+            int digits = 1;
+            for (long t = v; t >= 10; t /= 10) digits++;
+            for (int i = length + digits - 1; i >= length; i--) {
+                chars[i] = (char) ('0' + v % 10);
+                v /= 10;
+            }
+            length += digits;
+        }
+
+        void append(Object a) {
+            if (a instanceof String s) {
+                append(s);
+            } else if (a instanceof CharSequence s) {
+                append(s);
+            } else if (a instanceof Integer || a instanceof Long) {
+                append(((Number) a).longValue());
+            } else {
+                append(String.valueOf(a));
+            }
+        }
+
+        /** Возвращает собранный текст и затирает буфер. */
+        String take() {
+            String s = new String(chars, 0, length);
+            Arrays.fill(chars, 0, length, '\0');
+            length = 0;
+            busy = false;
+            if (chars.length > MAX_KEPT) chars = new char[INITIAL_CAPACITY];
+            return s;
+        }
+    }
+
+    /**
+     * Сборка ответа из нескольких шаблонов (заголовок и строки списка) в буфере потока.
+     * Получается через writer() и завершается toString(); сборки одного потока не вкладываются.
+     */
+    public static final class Writer {
+
+        /** Буфер, в который идет сборка */
+        private final Scratch scratch;
+
+        /** Каталог текущей сборки */
+        private Messages messages;
+
+        private Writer(Scratch scratch) {
+            this.scratch = scratch;
+        }
+
+        /** Дописывает текст key без аргументов. */
+        public Writer append(Text key) {
+            messages.render(scratch, key, 0, null, null, null, null);
+            return this;
+        }
+
+        /** Дописывает текст key с аргументом a. */
+        public Writer append(Text key, Object a) {
+            messages.render(scratch, key, 1, a, null, null, null);
+            return this;
+        }
+
+        /** Дописывает текст key с аргументами a и b. */
+        public Writer append(Text key, Object a, Object b) {
+            messages.render(scratch, key, 2, a, b, null, null);
+            return this;
+        }
+
+        /** Дописывает текст key с аргументами a, b и c. */
+        public Writer append(Text key, Object a, Object b, Object c) {
+            messages.render(scratch, key, 3, a, b, c, null);
+            return this;
+        }
+
+        /** Дописывает текст key с аргументами args. */
+        public Writer append(Text key, Object... args) {
+            messages.render(scratch, key, args.length, null, null, null, args);
+            return this;
+        }
+
+        /** Дописывает текст без перевода (название, пароль, разделитель). */
+        public Writer append(CharSequence text) {
+            scratch.append((Object) text);
+            return this;
+        }
+
+        /** Возвращает собранный ответ и освобождает буфер потока. */
+        @Override
+        public String toString() {
+            return scratch.take();
+        }
+    }
+
+    /**
+     * Возвращает каталог языка code ("en", "en-US", "ru") или каталог по умолчанию,
+     * если язык не поддерживается или code равен null.
+     */
+    public static Messages forLanguage(String code) {
+        if (code == null) return getDefault();
+        int dash = code.indexOf('-');
+        String lang = (dash < 0 ? code : code.substring(0, dash)).toLowerCase();
+        Messages m = CATALOGS.get(lang);
+        return m == null ? getDefault() : m;
+    }
+
+    /** Возвращает каталог языка по умолчанию. */
+    public static Messages getDefault() {
+        return CATALOGS.get(DEFAULT_LANGUAGE);
+    }
+
+    /** Возвращает язык каталога. */
+    public String getLanguage() {
+        return language;
+    }
+
+    /**
+     * Возвращает текст key без аргументов: готовую строку, без копирования.
+     * Бросает IllegalArgumentException, если шаблону нужны аргументы.
+     */
+    public String get(Text key) {
+        Template t = templates[key.ordinal()];
+        if (t.constant != null) return t.constant;
+        return format(key, new Object[0]);
+    }
+
+    /** Возвращает текст key с аргументом a. */
+    public String format(Text key, Object a) {
+        Scratch s = scratch();
+        render(s, key, 1, a, null, null, null);
+        return s.take();
+    }
+
+    /** Возвращает текст key с аргументами a и b. */
+    public String format(Text key, Object a, Object b) {
+        Scratch s = scratch();
+        render(s, key, 2, a, b, null, null);
+        return s.take();
+    }
+
+    /** Возвращает текст key с аргументами a, b и c. */
+    public String format(Text key, Object a, Object b, Object c) {
+        Scratch s = scratch();
+        render(s, key, 3, a, b, c, null);
+        return s.take();
+    }
+
+    /** Возвращает текст key с аргументами args. */
+    public String format(Text key, Object... args) {
+        Scratch s = scratch();
+        render(s, key, args.length, null, null, null, args);
+        return s.take();
+    }
+
+    /**
+     * Начинает сборку ответа из нескольких шаблонов в буфере потока.
+     * Незавершенная сборка потока (например, прерванная исключением) отбрасывается.
+     */
+    public Writer writer() {
+        Scratch s = SCRATCH.get();
+        Arrays.fill(s.chars, 0, s.length, '\0');
+        s.length = 0;
+        s.busy = true;
+        s.writer.messages = this;
+        return s.writer;
+    }
+
+    /** Буфер потока или временный, если буфер потока занят сборкой. */
+    private static Scratch scratch() {
+        Scratch s = SCRATCH.get();
+        return s.busy ? new Scratch() : s;
+    }
+
+    /**
+     * Дописывает шаблон key в буфер s. Аргументы: первые три - a, b, c, если args равен null,
+     * иначе все из args; count - сколько их передано.
+     */
+    private void render(Scratch s, Text key, int count, Object a, Object b, Object c, Object[] args) {
+        Template t = templates[key.ordinal()];
+        if (t.arity > count) {
+            throw new IllegalArgumentException("Тексту " + key + " нужно аргументов: " + t.arity + ", передано " + count);
+        }
+        s.ensure(t.length);
+        String[] parts = t.parts;
+        int[] indexes = t.args;
+        s.append(parts[0]);
+        for (int i = 0; i < indexes.length; i++) {
+            int k = indexes[i];
+            s.append(args != null ? args[k] : k == 0 ? a : k == 1 ? b : c);
+            s.append(parts[i + 1]);
+        }
+    }
+
+    /**
+     * Загружает каталоги всех языков. Бросает IllegalStateException, если каталог
+     * не проходит проверку load().
+     */
+    private static Map<String, Messages> loadAll() {
+        Map<String, String> defaults = read(DEFAULT_LANGUAGE);
+        Map<String, Messages> catalogs = new LinkedHashMap<>();
+        for (String lang : LANGUAGES) {
+            catalogs.put(lang, load(lang, lang.equals(DEFAULT_LANGUAGE) ? defaults : read(lang), defaults));
+        }
+        return catalogs;
+    }
+
+    /**
+     * Собирает каталог языка lang из текстов texts; недостающие тексты берутся из defaults.
+     * Бросает IllegalStateException, если в defaults нет ключа, в texts есть неизвестный ключ
+     * или перевод использует не те аргументы, что текст по умолчанию: пропущенный {1}
+     * молча убрал бы из ответа, например, пароль.
+     */
+    static Messages load(String lang, Map<String, String> texts, Map<String, String> defaults) {
+        Template[] templates = new Template[Text.values().length];
+        for (Text key : Text.values()) {
+            String text = defaults.get(key.name());
+            if (text == null) throw new IllegalStateException("Нет текста " + key + " в каталоге " + DEFAULT_LANGUAGE);
+            templates[key.ordinal()] = Template.parse(text);
+        }
+        for (Map.Entry<String, String> e : texts.entrySet()) {
+            Text key;
+            try {
+                key = Text.valueOf(e.getKey());
+            } catch (IllegalArgumentException ex) {
+                throw new IllegalStateException("Неизвестный ключ " + e.getKey() + " в каталоге " + lang);
+            }
+            Template t = Template.parse(e.getValue());
+            if (t.used != templates[key.ordinal()].used) {
+                throw new IllegalStateException("Аргументы текста " + key + " каталога " + lang
+                        + " не совпадают с каталогом " + DEFAULT_LANGUAGE);
+            }
+            templates[key.ordinal()] = t;
+        }
+        return new Messages(lang, templates);
+    }
+
+    /** Читает ресурс messages_<lang>.properties в UTF-8. */
+    private static Map<String, String> read(String lang) {
+        String resource = "/messages_" + lang + ".properties";
+        Properties p = new Properties();
+        try (InputStream in = Messages.class.getResourceAsStream(resource)) {
+            if (in == null) throw new IllegalStateException("Нет ресурса " + resource);
+            p.load(new InputStreamReader(in, StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        Map<String, String> texts = new LinkedHashMap<>();
+        for (String name : p.stringPropertyNames()) texts.put(name, p.getProperty(name));
+        return texts;
+    }
+
+    /** Самый длинный шаблон всех каталогов плюс запас. */
+    private static int initialCapacity() {
+        int max = 0;
+        for (Messages m : CATALOGS.values()) {
+            for (Template t : m.templates) max = Math.max(max, t.length);
+        }
+        return max + SLACK;
+    }
+}
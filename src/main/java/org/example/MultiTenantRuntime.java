@@ -0,0 +1,235 @@
+package org.example;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Несколько ботов (арендаторов) в одной JVM.
+ * У каждого арендатора свой токен и свое пространство данных: база passwords-<имя>.db,
+ * сессии и настройки пользователей (свой PasswordLogic), контрольная точка update_offset-<имя>
+ * и журнал операций audit/<имя>. Пользователь одного бота не видит данных другого,
+ * даже если у него тот же chat id.
+ * Общие для всех: пул потоков обработки с честной очередью по арендаторам (FairExecutor),
+ * пул соединений SQLite (ConnectionPool), лимит исходящих сообщений (OutboundLimiter),
+ * фильтр утекших паролей и список слов. Боты работают в режиме конвейера (UpdatePipeline).
+ */
+public class MultiTenantRuntime {
+
+    /** Допустимое имя арендатора: оно входит в имена файлов */
+    private static final Pattern NAME = Pattern.compile("[A-Za-z0-9_-]{1,32}");
+
+    /** Сколько миллисекунд stop() ждет остановки потоков обработки */
+    private static final long SHUTDOWN_DEADLINE_MS = 10_000;
+
+    /**
+     * Арендатор: имя и токен бота.
+     */
+    public static final class Tenant {
+
+        /** Имя арендатора */
+        private final String name;
+
+        /** Токен бота */
+        private final String token;
+
+        /**
+         * Создает арендатора с указанным именем и токеном.
+         */
+        public Tenant(String name, String token) {
+            if (!NAME.matcher(name).matches()) {
+                throw new IllegalArgumentException("Неверное имя арендатора: " + name);
+            }
+            if (token == null || token.isBlank()) {
+                throw new IllegalArgumentException("Не задан токен арендатора " + name);
+            }
+            this.name = name;
+            this.token = token;
+        }
+
+        /** Возвращает имя арендатора. */
+        public String getName() { return name; }
+
+        /** Возвращает токен бота. */
+        public String getToken() { return token; }
+    }
+
+    /** Работающий арендатор */
+    private static final class Running {
+
+        final Tenant tenant;
+        final PasswordLogic logic;
+        final TgBot bot;
+        final FairExecutor.Lane lane;
+        final AuditLog auditLog;
+
+        Running(Tenant tenant, PasswordLogic logic, TgBot bot, FairExecutor.Lane lane, AuditLog auditLog) {
+            this.tenant = tenant;
+            this.logic = logic;
+            this.bot = bot;
+            this.lane = lane;
+            this.auditLog = auditLog;
+        }
+    }
+
+    /** Общий пул потоков обработки */
+    private final FairExecutor executor;
+
+    /** Общий пул соединений */
+    private final ConnectionPool pool;
+
+    /** Общий лимит исходящих сообщений */
+    private final OutboundLimiter outbound;
+
+    /** Арендаторы в порядке конфигурации */
+    private final List<Running> tenants = new ArrayList<>();
+
+    /**
+     * Создает ботов для арендаторов.
+     *
+     * tenants Арендаторы с уникальными именами.
+     * apiUrl Адрес тг api (null - обычный адрес).
+     * dataDir Каталог для баз, контрольных точек и журналов арендаторов.
+     * threads Сколько потоков обрабатывают сообщения всех арендаторов.
+     * maxInFlight Сколько апдейтов одного арендатора может быть в работе одновременно.
+     * maxConnections Сколько соединений с базами может быть открыто одновременно.
+     * outbound Общий лимит исходящих сообщений (null - без лимита).
+     * breachFilter Фильтр утекших паролей или null.
+     * wordlist Список слов для парольных фраз или null (встроенный).
+     */
+    public MultiTenantRuntime(List<Tenant> tenants, String apiUrl, Path dataDir, int threads, int maxInFlight,
+                              int maxConnections, OutboundLimiter outbound,
+                              BreachFilter breachFilter, Wordlist wordlist) throws IOException {
+        Set<String> names = new HashSet<>();
+        for (Tenant t : tenants) {
+            if (!names.add(t.name)) {
+                throw new IllegalArgumentException("Имя арендатора повторяется: " + t.name);
+            }
+        }
+        Files.createDirectories(dataDir);
+        this.executor = new FairExecutor("tenant-worker", threads);
+        this.pool = new ConnectionPool(maxConnections);
+        this.outbound = outbound;
+
+        for (Tenant t : tenants) {
+            String url = "jdbc:sqlite:" + dataDir.resolve("passwords-" + t.name + ".db");
+            PasswordLogic logic = new PasswordLogic(System::currentTimeMillis, () -> new PasswordDatabase(url, pool));
+            logic.setBreachFilter(breachFilter);
+            if (wordlist != null) {
+                logic.setWordlist(wordlist);
+            }
+            AuditLog auditLog = null;
+            try {
+                auditLog = AuditLog.open(dataDir.resolve("audit").resolve(t.name));
+                logic.setAuditLog(auditLog);
+            } catch (IOException e) {
+                System.err.println("Журнал операций " + t.name + " не открыт: " + e.getMessage());
+            }
+            TgBot bot = new TgBot(t.token, apiUrl, dataDir.resolve(TgBot.DEFAULT_OFFSET_FILE + "-" + t.name), logic);
+            FairExecutor.Lane lane = executor.lane(t.name);
+            bot.enablePipeline(maxInFlight, lane, outbound);
+            this.tenants.add(new Running(t, logic, bot, lane, auditLog));
+        }
+    }
+
+    /**
+     * Разбирает список арендаторов вида "имя=токен,имя2=токен2".
+     */
+    public static List<Tenant> parse(String spec) {
+        List<Tenant> out = new ArrayList<>();
+        for (String item : spec.split(",")) {
+            if (item.isBlank()) continue;
+            int eq = item.indexOf('=');
+            if (eq == -1) {
+                throw new IllegalArgumentException("Ожидается имя=токен: " + item.strip());
+            }
+            out.add(new Tenant(item.substring(0, eq).strip(), item.substring(eq + 1).strip()));
+        }
+        return out;
+    }
+
+    /**
+     * Задает лимиты входящих сообщений арендатора name вместо лимитов по умолчанию.
+     */
+    public void setAdmissionControl(String name, AdmissionControl admission) {
+        for (Running r : tenants) {
+            if (r.tenant.name.equals(name)) {
+                r.logic.setAdmissionControl(admission);
+                return;
+            }
+        }
+        throw new IllegalArgumentException("Нет арендатора " + name);
+    }
+
+    /**
+     * Запускает всех ботов.
+     */
+    public void start() {
+        for (Running r : tenants) {
+            r.bot.start();
+        }
+    }
+
+    /**
+     * Останавливает всех ботов одновременно (каждый дожидается своих апдейтов и сохраняет
+     * контрольную точку), затем общий пул потоков, соединения и журналы.
+     */
+    public void stop() {
+        List<Thread> stopping = new ArrayList<>();
+        for (Running r : tenants) {
+            Thread t = new Thread(r.bot::stop, "stop-" + r.tenant.name);
+            stopping.add(t);
+            t.start();
+        }
+        try {
+            for (Thread t : stopping) t.join();
+            executor.shutdown();
+            executor.awaitTermination(TimeUnit.MILLISECONDS.toNanos(SHUTDOWN_DEADLINE_MS));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        pool.close();
+        for (Running r : tenants) {
+            if (r.auditLog != null) {
+                r.auditLog.close();
+            }
+        }
+    }
+
+    /**
+     * Возвращает счетчики очереди обработки арендатора name.
+     */
+    public FairExecutor.Lane getLane(String name) {
+        for (Running r : tenants) {
+            if (r.tenant.name.equals(name)) return r.lane;
+        }
+        throw new IllegalArgumentException("Нет арендатора " + name);
+    }
+
+    /**
+     * Возвращает отчет по арендаторам: обработано сообщений, в очереди, среднее ожидание
+     * в очереди и время работы, отклонено по лимитам; а также состояние общих пулов.
+     */
+    public String report() {
+        StringBuilder sb = new StringBuilder();
+        for (Running r : tenants) {
+            FairExecutor.Lane lane = r.lane;
+            AdmissionControl admission = r.logic.getAdmissionControl();
+            long done = lane.getCompleted();
+            sb.append(String.format("%s: обработано %d, в очереди %d, ожидание %.2f мс, работа %.2f мс, отклонено %d%n",
+                    r.tenant.name, done, lane.getQueued(),
+                    done == 0 ? 0.0 : lane.getWaitNanos() / 1e6 / done,
+                    done == 0 ? 0.0 : lane.getBusyNanos() / 1e6 / done,
+                    admission.getThrottled() + admission.getOverloaded()));
+        }
+        sb.append(String.format("соединений %d (свободно %d, ожиданий %d), отложено отправок %d%n",
+                pool.getOpen(), pool.getIdle(), pool.getWaits(), outbound == null ? 0 : outbound.getDelayed()));
+        return sb.toString();
+    }
+}
@@ -0,0 +1,76 @@
+package org.example;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Контрольная точка получения обновлений: offset для следующего getUpdates,
+ * то есть update_id последнего обработанного обновления плюс 1.
+ * Файл из 8 байт: offset и offset ^ MAGIC для проверки целостности.
+ * Запись идет во временный файл с последующим атомарным переименованием,
+ * поэтому при падении процесса остается либо старая, либо новая контрольная точка.
+ */
+public class OffsetCheckpoint {
+
+    /** Маска для проверки целостности ("PBUO") */
+    private static final int MAGIC = 0x5042554F;
+
+    /** Файл контрольной точки */
+    private final Path file;
+
+    /**
+     * Создает контрольную точку в указанном файле.
+     */
+    public OffsetCheckpoint(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Возвращает сохраненный offset или 0, если файла нет или он поврежден
+     * (0 - получать обновления с первого неподтвержденного).
+     */
+    public int load() {
+        try {
+            byte[] b = Files.readAllBytes(file);
+            if (b.length != 8) return 0;
+            ByteBuffer buf = ByteBuffer.wrap(b);
+            int offset = buf.getInt();
+            return (offset ^ MAGIC) == buf.getInt() ? offset : 0;
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Сохраняет offset. Если durable, данные и переименование сбрасываются на диск,
+     * и контрольная точка переживет не только падение процесса, но и отключение питания.
+     */
+    public void save(int offset, boolean durable) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(8).putInt(offset).putInt(offset ^ MAGIC);
+        buf.flip();
+
+        Path dir = file.toAbsolutePath().getParent();
+        Path tmp = Files.createTempFile(dir, "offset", ".tmp");
+        try {
+            try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                while (buf.hasRemaining()) ch.write(buf);
+                if (durable) ch.force(true);
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        if (durable) {
+            try (FileChannel d = FileChannel.open(dir, StandardOpenOption.READ)) {
+                d.force(true);
+            } catch (IOException e) {
+                // не на всех системах каталог можно открыть для синхронизации
+            }
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package org.example;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Общий лимит исходящих сообщений для нескольких ботов в одном процессе:
+ * в среднем не больше ratePerSecond сообщений в секунду и не больше burst подряд.
+ * Лимит не блокирует поток: reserve() бронирует место в расписании отправки
+ * (алгоритм GCRA - хранится только теоретическое время следующей отправки)
+ * и возвращает, сколько наносекунд нужно подождать перед отправкой.
+ */
+public class OutboundLimiter {
+
+    /** Интервал между сообщениями в наносекундах */
+    private final long intervalNanos;
+
+    /** На сколько наносекунд можно опередить расписание (burst - 1 интервалов) */
+    private final long toleranceNanos;
+
+    /** Источник времени в наносекундах */
+    private final LongSupplier nanoClock;
+
+    /** Теоретическое время следующей отправки (под блокировкой this) */
+    private long nextNanos;
+
+    /** Сколько отправок пришлось отложить */
+    private final LongAdder delayed = new LongAdder();
+
+    /**
+     * Создает лимит с системными часами.
+     */
+    public OutboundLimiter(double ratePerSecond, int burst) {
+        this(ratePerSecond, burst, System::nanoTime);
+    }
+
+    /**
+     * Создает лимит с заданным источником времени в наносекундах.
+     */
+    public OutboundLimiter(double ratePerSecond, int burst, LongSupplier nanoClock) {
+        if (ratePerSecond <= 0 || burst < 1) {
+            throw new IllegalArgumentException("Лимиты должны быть положительными");
+        }
+        this.intervalNanos = Math.max(1, (long) (1e9 / ratePerSecond));
+        this.toleranceNanos = (burst - 1) * intervalNanos;
+        this.nanoClock = nanoClock;
+        this.nextNanos = nanoClock.getAsLong();
+    }
+
+    /**
+     * Бронирует отправку одного сообщения и возвращает, сколько наносекунд подождать
+     * перед ней (0 - можно отправлять сразу).
+     */
+    public long reserve() {
+        long now = nanoClock.getAsLong();
+        long wait;
+        synchronized (this) {
+            long next = Math.max(nextNanos, now);
+            wait = Math.max(0, next - toleranceNanos - now);
+            nextNanos = next + intervalNanos;
+        }
+        if (wait > 0) delayed.increment();
+        return wait;
+    }
+
+    /** Возвращает, сколько отправок пришлось отложить. */
+    public long getDelayed() { return delayed.sum(); }
+}
@@ -1,8 +1,17 @@
 package org.example;
 
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
 
 /**
  * База данных на SQLite.
@@ -10,19 +19,120 @@ import java.util.List;
  */
 public class PasswordDatabase {
 
+    /** Файл базы данных в текущей директории */
+    static final String DB_FILE = "passwords.db";
+
     /**
      * URL для подключения к SQLite базе данных.
      * Файл базы данных называется passwords.db и создается в текущей директории.
      * Формат: jdbc:sqlite:passwords.db
      */
-    private static final String DB_URL = "jdbc:sqlite:passwords.db";
+    private static final String DB_URL = "jdbc:sqlite:" + DB_FILE;
+
+    /**
+     * Количество прежних версий записи, которое хранится, если пользователь не задал своё значение.
+     */
+    public static final int DEFAULT_HISTORY_LIMIT = 5;
+
+    /** Строк в одной транзакции фонового заполнения данных миграций */
+    private static final int BACKFILL_CHUNK_ROWS = 1000;
+
+    /** Доля времени, которую занимает фоновое заполнение данных миграций */
+    private static final double BACKFILL_DUTY_CYCLE = 0.25;
+
+    /** Алгоритм отпечатков паролей */
+    private static final String FINGERPRINT_ALGORITHM = "HmacSHA256";
+
+    /**
+     * Секретный ключ для отпечатков паролей. Создается случайно при первом запуске
+     * и хранится в таблице meta. null, если ключ не удалось загрузить.
+     */
+    private SecretKeySpec fingerprintKey;
+
+    /** HMAC отпечатков с ключом fingerprintKey для каждого потока: создание Mac дорогое */
+    private final ThreadLocal<Mac> fingerprintMacs = new ThreadLocal<>();
+
+    /** Журнал операций с учетными данными или null, если он не ведется */
+    private volatile AuditLog auditLog;
+
+    /** URL для подключения к базе данных */
+    private final String url;
+
+    /** Общий пул соединений или null, если соединение открывается на каждую операцию */
+    private final ConnectionPool pool;
+
+    /** Миграции схемы; null, если их не удалось применить */
+    private SchemaMigrations migrations;
 
     /**
      * Создает новый экземпляр PasswordDatabase и инициализирует базу данных.
      * При создании автоматически вызывает метод init() для создания таблицы, если она не существует.
      */
     public PasswordDatabase() {
-        init();
+        this(DB_URL, BACKFILL_CHUNK_ROWS, BACKFILL_DUTY_CYCLE);
+    }
+
+    /**
+     * Создает экземпляр для базы данных по указанному URL с заданными параметрами
+     * фонового заполнения данных миграций.
+     */
+    PasswordDatabase(String url, int backfillChunkRows, double backfillDutyCycle) {
+        this(url, null, backfillChunkRows, backfillDutyCycle);
+    }
+
+    /**
+     * Создает экземпляр для базы данных по указанному URL, который берет соединения
+     * из общего пула (например, база одного арендатора в MultiTenantRuntime).
+     */
+    public PasswordDatabase(String url, ConnectionPool pool) {
+        this(url, pool, BACKFILL_CHUNK_ROWS, BACKFILL_DUTY_CYCLE);
+    }
+
+    private PasswordDatabase(String url, ConnectionPool pool, int backfillChunkRows, double backfillDutyCycle) {
+        this.url = url;
+        this.pool = pool;
+        init(backfillChunkRows, backfillDutyCycle);
+    }
+
+    /**
+     * Открывает соединение с базой или берет его из пула; закрытие возвращает его в пул.
+     * Время открытия видно в записи JFR (BotEvents.ConnectEvent).
+     */
+    private Connection connect() throws SQLException {
+        BotEvents.ConnectEvent event = new BotEvents.ConnectEvent();
+        event.begin();
+        try {
+            return pool == null ? DriverManager.getConnection(url) : pool.get(url);
+        } finally {
+            event.pooled = pool != null;
+            event.commit();
+        }
+    }
+
+    /**
+     * Ждет завершения фонового заполнения данных миграций не дольше timeoutMs миллисекунд
+     * (при timeoutMs = 0 только проверяет).
+     * Возвращает true, если заполнение закончено.
+     */
+    public boolean awaitMigrations(long timeoutMs) throws InterruptedException {
+        SchemaMigrations m = migrations;
+        return m == null || m.awaitBackfills(timeoutMs);
+    }
+
+    /**
+     * Подключает журнал операций: чтение, сохранение, удаление, история, восстановление
+     * и плановая смена записей отмечаются в нем вместе с результатом, в том числе с ошибками SQL.
+     */
+    public void setAuditLog(AuditLog auditLog) {
+        this.auditLog = auditLog;
+    }
+
+    /** Отмечает операцию в журнале, если он подключен. */
+    private void audit(long userId, AuditLog.Operation operation, String service, AuditLog.Outcome outcome) {
+        AuditLog log = auditLog;
+        if (log != null) {
+            log.record(userId, operation, service, outcome);
+        }
     }
 
     /**
@@ -46,17 +156,24 @@ public class PasswordDatabase {
          */
         private final String password;
 
+        /**
+         * Номер изменения записи; увеличивается при каждом сохранении.
+         */
+        private final int version;
+
         /**
          * Создает новую запись с указанными данными.
          *
          * service Название сервиса, не может быть null.
          * login Логин пользователя, не может быть null.
          * password Пароль пользователя, не может быть null.
+         * version Номер изменения записи.
          */
-        Entry(String service, String login, String password) {
+        Entry(String service, String login, String password, int version) {
             this.service = service;
             this.login = login;
             this.password = password;
+            this.version = version;
         }
 
         /**
@@ -76,21 +193,178 @@ public class PasswordDatabase {
          * Возвращает строку с паролем.
          */
         public String getPassword() { return password; }
+
+        /**
+         * Возвращает номер изменения записи (для saveIfVersion).
+         */
+        public int getVersion() { return version; }
+    }
+
+    /**
+     * Роль участника общего хранилища.
+     */
+    public enum Role {
+        /** Только чтение */
+        VIEWER,
+        /** Чтение и изменение записей */
+        EDITOR,
+        /** Изменение записей и управление участниками */
+        OWNER;
+
+        /** Можно ли изменять записи хранилища. */
+        public boolean canWrite() {
+            return this != VIEWER;
+        }
+    }
+
+    /**
+     * Участие чата в общем хранилище.
+     */
+    public static final class Membership {
+
+        /** Номер хранилища */
+        private final long vaultId;
+
+        /** Название хранилища */
+        private final String name;
+
+        /** Роль чата в хранилище */
+        private final Role role;
+
+        /**
+         * Создает описание участия с указанными данными.
+         */
+        Membership(long vaultId, String name, Role role) {
+            this.vaultId = vaultId;
+            this.name = name;
+            this.role = role;
+        }
+
+        /** Возвращает номер хранилища. */
+        public long getVaultId() { return vaultId; }
+
+        /** Возвращает название хранилища. */
+        public String getName() { return name; }
+
+        /** Возвращает роль чата в хранилище. */
+        public Role getRole() { return role; }
+    }
+
+    /**
+     * Результат saveIfVersion.
+     */
+    public static final class VersionedSave {
+
+        /** Запись изменили или удалили после чтения */
+        public static final VersionedSave CONFLICT = new VersionedSave(null);
+
+        /** Ошибка базы данных, транзакция откатена */
+        public static final VersionedSave FAILED = new VersionedSave(null);
+
+        /** Другие сервисы с тем же паролем, если версия сохранена */
+        private final List<String> reused;
+
+        private VersionedSave(List<String> reused) {
+            this.reused = reused;
+        }
+
+        /** Сохранена ли новая версия. */
+        public boolean isSaved() { return reused != null; }
+
+        /** Возвращает названия других сервисов с тем же паролем (пустой список, если версия не сохранена). */
+        public List<String> getReused() { return reused == null ? List.of() : reused; }
+    }
+
+    /**
+     * Внутренний класс, представляющий одну прежнюю версию записи из истории.
+     * Пароль в объект не попадает: история показывает только, когда и с каким логином
+     * была сохранена версия.
+     */
+    public class HistoryEntry {
+
+        /**
+         * Номер версии. Чем больше номер, тем новее версия.
+         */
+        private final int version;
+
+        /**
+         * Логин, который был сохранен в этой версии.
+         */
+        private final String login;
+
+        /**
+         * Момент, когда версия была заменена новой, в миллисекундах от начала эпохи.
+         */
+        private final long changedAt;
+
+        /**
+         * Создает описание версии с указанными данными.
+         */
+        HistoryEntry(int version, String login, long changedAt) {
+            this.version = version;
+            this.login = login;
+            this.changedAt = changedAt;
+        }
+
+        /**
+         * Возвращает номер версии.
+         */
+        public int getVersion() { return version; }
+
+        /**
+         * Возвращает логин, сохраненный в этой версии.
+         */
+        public String getLogin() { return login; }
+
+        /**
+         * Возвращает момент замены версии в миллисекундах от начала эпохи.
+         */
+        public long getChangedAt() { return changedAt; }
     }
 
     /**
-     * Инициализирует базу данных, создавая таблицу credentials, если она не существует.
-     * Таблица имеет следующую структуру:
+     * Инициализирует базу данных миграциями схемы (см. migrations()) и загружает ключ отпечатков.
+     * Таблица credentials имеет следующую структуру:
      * - user_id: идентификатор пользователя Telegram (целое число)
      * - service: название сервиса (текст)
      * - login: логин пользователя (текст)
      * - password: пароль пользователя (текст)
      * Первичный ключ состоит из комбинации user_id и service, что гарантирует уникальность
      * сервисов для каждого пользователя.
+     * Таблица credential_history хранит прежние версии записей. Она объявлена WITHOUT ROWID,
+     * поэтому строки лежат прямо в B-дереве первичного ключа (user_id, service, version)
+     * без отдельного индекса.
+     * Таблица rotation_schedule хранит интервал и срок плановой смены пароля для записи.
+     * Колонка credentials.fingerprint хранит HMAC-отпечаток пароля, индекс
+     * (user_id, fingerprint, service) позволяет искать повторы паролей без расшифровки
+     * и сравнения самих паролей. Отпечатки для старых строк вычисляются в фоне порциями,
+     * пока заполнение не закончено, повторы среди старых строк могут не находиться.
+     * Колонка credentials.version - номер изменения записи для оптимистической блокировки.
+     * Таблицы vaults и vault_members описывают общие хранилища и роли их участников;
+     * записи общего хранилища лежат в credentials с user_id = vaultKey(номер хранилища).
+     * Таблица change_log - журнал изменений для резервной копии, его пишут триггеры (см. ChangeLog).
      * В случае ошибки SQL исключение перехватывается и бот продолжает работу.
      */
-    private void init() {
-        String sql = """
+    private void init(int backfillChunkRows, double backfillDutyCycle) {
+        try (Connection c = connect()) {
+            SchemaMigrations m = new SchemaMigrations(url, migrations(), backfillChunkRows, backfillDutyCycle);
+            m.migrate();
+            fingerprintKey = loadFingerprintKey(c);
+            migrations = m;
+            m.startBackfills();
+        } catch (SQLException e) {
+
+        }
+    }
+
+    /**
+     * Миграции схемы по порядку. Новая колонка, индекс или таблица добавляется
+     * новой миграцией в конец списка; примененные миграции не меняются.
+     * Миграции 2 и 3 проверяют наличие колонок, потому что базы, созданные до появления
+     * schema_version, уже могут их содержать.
+     */
+    private List<SchemaMigrations.Migration> migrations() {
+        String credentials = """
             CREATE TABLE IF NOT EXISTS credentials (
                 user_id INTEGER NOT NULL,
                 service TEXT NOT NULL,
@@ -99,48 +373,410 @@ public class PasswordDatabase {
                 PRIMARY KEY (user_id, service)
             );
             """;
+        String history = """
+            CREATE TABLE IF NOT EXISTS credential_history (
+                user_id INTEGER NOT NULL,
+                service TEXT NOT NULL,
+                version INTEGER NOT NULL,
+                login TEXT NOT NULL,
+                password TEXT NOT NULL,
+                changed_at INTEGER NOT NULL,
+                PRIMARY KEY (user_id, service, version)
+            ) WITHOUT ROWID;
+            """;
+        String rotation = """
+            CREATE TABLE IF NOT EXISTS rotation_schedule (
+                user_id INTEGER NOT NULL,
+                service TEXT NOT NULL,
+                interval_ms INTEGER NOT NULL,
+                next_due INTEGER NOT NULL,
+                PRIMARY KEY (user_id, service)
+            ) WITHOUT ROWID;
+            """;
+        String meta = """
+            CREATE TABLE IF NOT EXISTS meta (
+                name TEXT PRIMARY KEY,
+                value BLOB NOT NULL
+            );
+            """;
+        String fingerprintIndex = """
+            CREATE INDEX IF NOT EXISTS credentials_fingerprint
+            ON credentials(user_id, fingerprint, service);
+            """;
+        String vaults = """
+            CREATE TABLE IF NOT EXISTS vaults (
+                vault_id INTEGER PRIMARY KEY AUTOINCREMENT,
+                name TEXT NOT NULL UNIQUE COLLATE NOCASE,
+                created_by INTEGER NOT NULL,
+                created_at INTEGER NOT NULL
+            );
+            """;
+        String members = """
+            CREATE TABLE IF NOT EXISTS vault_members (
+                vault_id INTEGER NOT NULL,
+                member_id INTEGER NOT NULL,
+                role INTEGER NOT NULL,
+                PRIMARY KEY (vault_id, member_id)
+            ) WITHOUT ROWID;
+            """;
+        String memberIndex = """
+            CREATE INDEX IF NOT EXISTS vault_members_member
+            ON vault_members(member_id, vault_id);
+            """;
 
-        try (Connection c = DriverManager.getConnection(DB_URL);
-             Statement st = c.createStatement()) {
-            st.execute(sql);
-        } catch (SQLException e) {
+        return List.of(
+                new SchemaMigrations.Migration(1, "credentials, credential_history, rotation_schedule, meta",
+                        c -> execute(c, credentials, history, rotation, meta)),
+                new SchemaMigrations.Migration(2, "credentials.fingerprint", c -> {
+                    if (!hasColumn(c, "credentials", "fingerprint")) {
+                        execute(c, "ALTER TABLE credentials ADD COLUMN fingerprint TEXT;");
+                    }
+                    execute(c, fingerprintIndex);
+                }, this::backfillFingerprints),
+                new SchemaMigrations.Migration(3, "credentials.version", c -> {
+                    if (!hasColumn(c, "credentials", "version")) {
+                        execute(c, "ALTER TABLE credentials ADD COLUMN version INTEGER NOT NULL DEFAULT 0;");
+                    }
+                }),
+                new SchemaMigrations.Migration(4, "vaults, vault_members",
+                        c -> execute(c, vaults, members, memberIndex)),
+                new SchemaMigrations.Migration(5, "change_log", ChangeLog::install),
+                new SchemaMigrations.Migration(6, "change_log keys only", ChangeLog::keysOnly));
+    }
+
+    /** Выполняет SQL-команды по очереди. */
+    private static void execute(Connection c, String... sql) throws SQLException {
+        try (Statement st = c.createStatement()) {
+            for (String s : sql) {
+                st.execute(s);
+            }
+        }
+    }
+
+    /**
+     * Проверяет, есть ли в таблице колонка с указанным именем.
+     */
+    private static boolean hasColumn(Connection c, String table, String column) throws SQLException {
+        try (Statement st = c.createStatement();
+             ResultSet rs = st.executeQuery("PRAGMA table_info(" + table + ");")) {
+            while (rs.next()) {
+                if (column.equalsIgnoreCase(rs.getString("name"))) return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Загружает ключ отпечатков из таблицы meta, создавая его при первом запуске.
+     */
+    private static SecretKeySpec loadFingerprintKey(Connection c) throws SQLException {
+        try (PreparedStatement ps = c.prepareStatement("SELECT value FROM meta WHERE name = 'fingerprint_key';");
+             ResultSet rs = ps.executeQuery()) {
+            if (rs.next()) {
+                return new SecretKeySpec(rs.getBytes("value"), FINGERPRINT_ALGORITHM);
+            }
+        }
+
+        byte[] key = new byte[32];
+        new SecureRandom().nextBytes(key);
+        try (PreparedStatement ps = c.prepareStatement(
+                "INSERT OR IGNORE INTO meta(name, value) VALUES ('fingerprint_key', ?);")) {
+            ps.setBytes(1, key);
+            ps.executeUpdate();
+        }
+        return loadFingerprintKey(c);
+    }
+
+    /**
+     * Порция заполнения миграции 2: вычисляет отпечатки для строк, сохраненных до появления
+     * колонки fingerprint, среди limit строк с rowid больше after.
+     * Строки, которые бот уже пересохранил с отпечатком, не трогаются.
+     * Возвращает rowid последней просмотренной строки или -1, если строк не осталось.
+     */
+    private long backfillFingerprints(Connection c, long after, int limit) throws SQLException {
+        if (fingerprintKey == null) throw new SQLException("Ключ отпечатков не загружен");
+        String select = """
+            SELECT rowid AS row_id, user_id, password, fingerprint FROM credentials
+            WHERE rowid > ? ORDER BY rowid LIMIT ?;
+            """;
+        String update = "UPDATE credentials SET fingerprint = ? WHERE rowid = ? AND fingerprint IS NULL;";
+
+        long last = -1;
+        try (PreparedStatement sel = c.prepareStatement(select);
+             PreparedStatement upd = c.prepareStatement(update)) {
+            sel.setLong(1, after);
+            sel.setInt(2, limit);
+            try (ResultSet rs = sel.executeQuery()) {
+                while (rs.next()) {
+                    last = rs.getLong("row_id");
+                    if (rs.getString("fingerprint") != null) continue;
+                    upd.setString(1, fingerprint(rs.getLong("user_id"), rs.getString("password")));
+                    upd.setLong(2, last);
+                    upd.addBatch();
+                }
+            }
+            upd.executeBatch();
+        }
+        return last;
+    }
+
+    /**
+     * Возвращает HMAC-SHA256 отпечаток пароля в шестнадцатеричном виде.
+     * В отпечаток входит идентификатор пользователя, поэтому одинаковые пароли
+     * разных пользователей дают разные отпечатки.
+     * Пароль кодируется в UTF-8 прямо в HMAC, без копии в куче (он может быть SecretBuffer).
+     * Возвращает null, если ключ не загружен.
+     */
+    private String fingerprint(long userId, CharSequence password) {
+        if (fingerprintKey == null) return null;
+        try {
+            Mac mac = fingerprintMacs.get();
+            if (mac == null) {
+                mac = Mac.getInstance(FINGERPRINT_ALGORITHM);
+                mac.init(fingerprintKey);
+                fingerprintMacs.set(mac);
+            }
+            mac.reset();
+            updateUtf8(mac, Long.toString(userId));
+            mac.update((byte) 0);
+            updateUtf8(mac, password);
+            return HexFormat.of().formatHex(mac.doFinal());
+        } catch (GeneralSecurityException e) {
+            return null;
+        }
+    }
 
+    /**
+     * Передает в mac символы s в UTF-8, побайтно совпадающем с String.getBytes(UTF_8)
+     * (одиночный суррогат заменяется на '?'), не создавая массив байтов.
+     */
+    static void updateUtf8(Mac mac, CharSequence s) {
+        int n = s.length();
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                mac.update((byte) c);
+            } else if (c < 0x800) {
+                mac.update((byte) (0xC0 | c >> 6));
+                mac.update((byte) (0x80 | c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                mac.update((byte) (0xF0 | cp >> 18));
+                mac.update((byte) (0x80 | cp >> 12 & 0x3F));
+                mac.update((byte) (0x80 | cp >> 6 & 0x3F));
+                mac.update((byte) (0x80 | cp & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                mac.update((byte) '?');
+            } else {
+                mac.update((byte) (0xE0 | c >> 12));
+                mac.update((byte) (0x80 | c >> 6 & 0x3F));
+                mac.update((byte) (0x80 | c & 0x3F));
+            }
         }
     }
 
+    /**
+     * Сохраняет или обновляет запись в базе данных, храня не более DEFAULT_HISTORY_LIMIT прежних версий.
+     *
+     * userId Идентификатор пользователя Telegram (chatId).
+     * service Название сервиса, для которого сохраняются учетные данные.
+     * login Логин пользователя для указанного сервиса.
+     * password Пароль пользователя для указанного сервиса.
+     * Возвращает названия других сервисов пользователя с тем же паролем.
+     */
+    public List<String> save(long userId, String service, String login, CharSequence password) {
+        return save(userId, service, login, password, DEFAULT_HISTORY_LIMIT);
+    }
+
     /**
      * Сохраняет или обновляет запись в базе данных.
-     * Если запись с указанными user_id и service уже существует, она обновляется.
+     * Если запись с указанными user_id и service уже существует, её текущая версия
+     * переносится в credential_history, а сама запись обновляется.
      * Если не существует - создается новая запись.
+     * Архивирование, upsert и обрезка истории выполняются одной транзакцией,
+     * поэтому запись на диск происходит один раз, как и при одиночном upsert.
      *
      * userId Идентификатор пользователя Telegram (chatId).
      * service Название сервиса, для которого сохраняются учетные данные.
      * login Логин пользователя для указанного сервиса.
      * password Пароль пользователя для указанного сервиса.
+     * historyLimit Сколько прежних версий хранить (0 - не хранить историю).
      *
-     * В случае ошибки SQL исключение перехватывается и бот продолжает работу.
+     * Возвращает названия других сервисов пользователя с тем же паролем
+     * (поиск по индексу отпечатков в той же транзакции) или пустой список.
+     * В случае ошибки SQL транзакция откатывается, исключение перехватывается,
+     * возвращается пустой список и бот продолжает работу.
+     */
+    public List<String> save(long userId, String service, String login, CharSequence password, int historyLimit) {
+        return save(userId, userId, service, login, password, historyLimit);
+    }
+
+    /**
+     * Как save(userId, service, login, password, historyLimit), но операцию выполняет чат chatId
+     * (например, участник общего хранилища с ключом userId); в журнал операций попадает chatId.
+     */
+    public List<String> save(long chatId, long userId, String service, String login, CharSequence password,
+                             int historyLimit) {
+        try (BotEvents.QueryEvent q = BotEvents.query("save");
+             Connection c = connect()) {
+            c.setAutoCommit(false);
+            try {
+                String fingerprint = writeVersion(c, userId, service, login, password, historyLimit);
+                List<String> reused = servicesWithFingerprint(c, userId, fingerprint, service);
+                c.commit();
+                q.rows = 1;
+                audit(chatId, AuditLog.Operation.SAVE, service, AuditLog.Outcome.OK);
+                return reused;
+            } catch (SQLException e) {
+                c.rollback();
+            }
+        } catch (SQLException e) {
+
+        }
+        audit(chatId, AuditLog.Operation.SAVE, service, AuditLog.Outcome.ERROR);
+        return new ArrayList<>();
+    }
+
+    /**
+     * Сохраняет новую версию существующей записи, только если её номер изменения
+     * все еще равен expectedVersion (оптимистическая блокировка).
+     * Проверка выполняется первой записывающей командой транзакции, поэтому из двух
+     * одновременных изменений по одной и той же версии проходит только одно,
+     * а второе видит уже новый номер.
+     *
+     * Возвращает сохраненный результат с названиями других сервисов с тем же паролем, как save,
+     * VersionedSave.CONFLICT, если запись изменили или удалили после чтения,
+     * или VersionedSave.FAILED при ошибке SQL (в том числе SQLITE_BUSY).
+     */
+    public VersionedSave saveIfVersion(long userId, String service, String login, CharSequence password,
+                                      int historyLimit, int expectedVersion) {
+        return saveIfVersion(userId, userId, service, login, password, historyLimit, expectedVersion);
+    }
+
+    /**
+     * Как saveIfVersion(userId, ...), но операцию выполняет чат chatId; в журнал операций попадает chatId.
+     */
+    public VersionedSave saveIfVersion(long chatId, long userId, String service, String login, CharSequence password,
+                                      int historyLimit, int expectedVersion) {
+        String claim = "UPDATE credentials SET version = version WHERE user_id = ? AND service = ? AND version = ?;";
+        try (BotEvents.QueryEvent q = BotEvents.query("saveIfVersion");
+             Connection c = connect()) {
+            c.setAutoCommit(false);
+            try {
+                try (PreparedStatement ps = c.prepareStatement(claim)) {
+                    ps.setLong(1, userId);
+                    ps.setString(2, service);
+                    ps.setInt(3, expectedVersion);
+                    if (ps.executeUpdate() == 0) {
+                        c.rollback();
+                        q.rows = 0;
+                        audit(chatId, AuditLog.Operation.SAVE, service, AuditLog.Outcome.NOT_FOUND);
+                        return VersionedSave.CONFLICT;
+                    }
+                }
+                String fingerprint = writeVersion(c, userId, service, login, password, historyLimit);
+                List<String> reused = servicesWithFingerprint(c, userId, fingerprint, service);
+                c.commit();
+                q.rows = 1;
+                audit(chatId, AuditLog.Operation.SAVE, service, AuditLog.Outcome.OK);
+                return new VersionedSave(reused);
+            } catch (SQLException e) {
+                c.rollback();
+            }
+        } catch (SQLException e) {
+
+        }
+        audit(chatId, AuditLog.Operation.SAVE, service, AuditLog.Outcome.ERROR);
+        return VersionedSave.FAILED;
+    }
+
+    /**
+     * Возвращает сервисы пользователя с указанным отпечатком пароля, кроме exceptService.
      */
-    public void save(long userId, String service, String login, String password) {
+    private static List<String> servicesWithFingerprint(Connection c, long userId, String fingerprint,
+                                                        String exceptService) throws SQLException {
+        List<String> out = new ArrayList<>();
+        if (fingerprint == null) return out;
         String sql = """
-            INSERT INTO credentials(user_id, service, login, password)
-            VALUES (?, ?, ?, ?)
+            SELECT service FROM credentials
+            WHERE user_id = ? AND fingerprint = ? AND service <> ?
+            ORDER BY service;
+            """;
+        try (PreparedStatement ps = c.prepareStatement(sql)) {
+            ps.setLong(1, userId);
+            ps.setString(2, fingerprint);
+            ps.setString(3, exceptService);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    out.add(rs.getString("service"));
+                }
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Выполняет в рамках открытой транзакции архивирование текущей версии,
+     * upsert новой версии с отпечатком пароля и обрезку истории до historyLimit записей.
+     * Возвращает отпечаток нового пароля.
+     */
+    private String writeVersion(Connection c, long userId, String service,
+                              String login, CharSequence password, int historyLimit) throws SQLException {
+        String archive = """
+            INSERT INTO credential_history(user_id, service, version, login, password, changed_at)
+            SELECT user_id, service,
+                   COALESCE((SELECT MAX(version) FROM credential_history
+                             WHERE user_id = ? AND service = ?), 0) + 1,
+                   login, password, ?
+            FROM credentials
+            WHERE user_id = ? AND service = ?;
+            """;
+        String upsert = """
+            INSERT INTO credentials(user_id, service, login, password, fingerprint)
+            VALUES (?, ?, ?, ?, ?)
             ON CONFLICT(user_id, service)
             DO UPDATE SET login = excluded.login,
-                          password = excluded.password;
+                          password = excluded.password,
+                          fingerprint = excluded.fingerprint,
+                          version = credentials.version + 1;
+            """;
+        String prune = """
+            DELETE FROM credential_history
+            WHERE user_id = ? AND service = ?
+              AND version <= (SELECT MAX(version) FROM credential_history
+                              WHERE user_id = ? AND service = ?) - ?;
             """;
 
-        try (Connection c = DriverManager.getConnection(DB_URL);
-             PreparedStatement ps = c.prepareStatement(sql)) {
+        if (historyLimit > 0) {
+            try (PreparedStatement ps = c.prepareStatement(archive)) {
+                ps.setLong(1, userId);
+                ps.setString(2, service);
+                ps.setLong(3, System.currentTimeMillis());
+                ps.setLong(4, userId);
+                ps.setString(5, service);
+                ps.executeUpdate();
+            }
+        }
 
+        String fingerprint = fingerprint(userId, password);
+        try (PreparedStatement ps = c.prepareStatement(upsert)) {
             ps.setLong(1, userId);
             ps.setString(2, service);
             ps.setString(3, login);
-            ps.setString(4, password);
+            ps.setString(4, password.toString());
+            ps.setString(5, fingerprint);
             ps.executeUpdate();
+        }
 
-        } catch (SQLException e) {
-
+        try (PreparedStatement ps = c.prepareStatement(prune)) {
+            ps.setLong(1, userId);
+            ps.setString(2, service);
+            ps.setLong(3, userId);
+            ps.setString(4, service);
+            ps.setInt(5, Math.max(historyLimit, 0));
+            ps.executeUpdate();
         }
+        return fingerprint;
     }
 
     /**
@@ -151,35 +787,65 @@ public class PasswordDatabase {
      *
      * Возвращает объект Entry с найденными данными или null, если запись не найдена.
      * В случае ошибки SQL исключение перехватывается, возвращает null и бот продолжает работу.
+     * В журнал операций поиск не попадает: он нужен для проверки существования записи,
+     * а пароль, показанный пользователю, отмечает read().
      */
     public Entry find(long userId, String service) {
+        return find(userId, userId, service, false);
+    }
+
+    /**
+     * Ищет запись, чтобы показать ее пользователю, и отмечает чтение (Operation.READ)
+     * в журнале операций. В остальном работает как find().
+     */
+    public Entry read(long userId, String service) {
+        return read(userId, userId, service);
+    }
+
+    /**
+     * Как read(userId, service), но запись показывается чату chatId; в журнал операций попадает chatId.
+     */
+    public Entry read(long chatId, long userId, String service) {
+        return find(chatId, userId, service, true);
+    }
+
+    private Entry find(long chatId, long userId, String service, boolean audited) {
         String sql = """
-            SELECT service, login, password
+            SELECT service, login, password, version
             FROM credentials
             WHERE user_id = ? AND service = ?;
             """;
 
-        try (Connection c = DriverManager.getConnection(DB_URL);
+        try (BotEvents.QueryEvent q = BotEvents.query("find");
+             Connection c = connect();
              PreparedStatement ps = c.prepareStatement(sql)) {
 
             ps.setLong(1, userId);
             ps.setString(2, service);
 
             try (ResultSet rs = ps.executeQuery()) {
-                if (!rs.next()) return null;
+                if (!rs.next()) {
+                    q.rows = 0;
+                    if (audited) audit(chatId, AuditLog.Operation.READ, service, AuditLog.Outcome.NOT_FOUND);
+                    return null;
+                }
+                q.rows = 1;
+                if (audited) audit(chatId, AuditLog.Operation.READ, service, AuditLog.Outcome.OK);
                 return new Entry(
                         rs.getString("service"),
                         rs.getString("login"),
-                        rs.getString("password")
+                        rs.getString("password"),
+                        rs.getInt("version")
                 );
             }
         } catch (SQLException e) {
+            if (audited) audit(chatId, AuditLog.Operation.READ, service, AuditLog.Outcome.ERROR);
             return null;
         }
     }
 
     /**
-     * Удаляет запись из базы данных по идентификатору пользователя и названию сервиса.
+     * Удаляет запись, всю её историю и расписание смены из базы данных по идентификатору пользователя и названию сервиса.
      *
      * userId Идентификатор пользователя Telegram (chatId).
      * service Название сервиса, запись которого нужно удалить.
@@ -187,18 +853,47 @@ public class PasswordDatabase {
      * В случае ошибки SQL исключение перехватывается и бот продолжает работу.
      */
     public void delete(long userId, String service) {
+        delete(userId, userId, service);
+    }
+
+    /**
+     * Как delete(userId, service), но операцию выполняет чат chatId; в журнал операций попадает chatId.
+     */
+    public void delete(long chatId, long userId, String service) {
         String sql = "DELETE FROM credentials WHERE user_id=? AND service=?;";
+        String historySql = "DELETE FROM credential_history WHERE user_id=? AND service=?;";
+        String rotationSql = "DELETE FROM rotation_schedule WHERE user_id=? AND service=?;";
 
-        try (Connection c = DriverManager.getConnection(DB_URL);
-             PreparedStatement ps = c.prepareStatement(sql)) {
+        try (BotEvents.QueryEvent q = BotEvents.query("delete");
+             Connection c = connect()) {
+            c.setAutoCommit(false);
+            try (PreparedStatement ps = c.prepareStatement(sql);
+                 PreparedStatement hs = c.prepareStatement(historySql);
+                 PreparedStatement rot = c.prepareStatement(rotationSql)) {
 
-            ps.setLong(1, userId);
-            ps.setString(2, service);
-            ps.executeUpdate();
+                ps.setLong(1, userId);
+                ps.setString(2, service);
+                int rows = ps.executeUpdate();
+
+                hs.setLong(1, userId);
+                hs.setString(2, service);
+                rows += hs.executeUpdate();
 
+                rot.setLong(1, userId);
+                rot.setString(2, service);
+                rows += rot.executeUpdate();
+
+                c.commit();
+                q.rows = rows;
+                audit(chatId, AuditLog.Operation.DELETE, service, AuditLog.Outcome.OK);
+                return;
+            } catch (SQLException e) {
+                c.rollback();
+            }
         } catch (SQLException e) {
 
         }
+        audit(chatId, AuditLog.Operation.DELETE, service, AuditLog.Outcome.ERROR);
     }
 
     /**
@@ -213,7 +908,8 @@ public class PasswordDatabase {
         String sql = "SELECT service FROM credentials WHERE user_id=? ORDER BY service;";
         List<String> out = new ArrayList<>();
 
-        try (Connection c = DriverManager.getConnection(DB_URL);
+        try (BotEvents.QueryEvent q = BotEvents.query("listServices");
+             Connection c = connect();
              PreparedStatement ps = c.prepareStatement(sql)) {
 
             ps.setLong(1, userId);
@@ -222,8 +918,470 @@ public class PasswordDatabase {
                     out.add(rs.getString("service"));
                 }
             }
+            q.rows = out.size();
+        } catch (SQLException e) {
+        }
+        return out;
+    }
+
+    /**
+     * Возвращает прежние версии записи, начиная с самой новой.
+     * userId Идентификатор пользователя Telegram (chatId).
+     * service Название сервиса.
+     * Если истории нет или произошла ошибка SQL, возвращает пустой список.
+     */
+    public List<HistoryEntry> history(long userId, String service) {
+        return history(userId, userId, service);
+    }
+
+    /**
+     * Как history(userId, service), но историю смотрит чат chatId; в журнал операций попадает chatId.
+     */
+    public List<HistoryEntry> history(long chatId, long userId, String service) {
+        String sql = """
+            SELECT version, login, changed_at
+            FROM credential_history
+            WHERE user_id = ? AND service = ?
+            ORDER BY version DESC;
+            """;
+        List<HistoryEntry> out = new ArrayList<>();
+
+        try (BotEvents.QueryEvent q = BotEvents.query("history");
+             Connection c = connect();
+             PreparedStatement ps = c.prepareStatement(sql)) {
+
+            ps.setLong(1, userId);
+            ps.setString(2, service);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    out.add(new HistoryEntry(
+                            rs.getInt("version"),
+                            rs.getString("login"),
+                            rs.getLong("changed_at")
+                    ));
+                }
+            }
+            q.rows = out.size();
+            audit(chatId, AuditLog.Operation.HISTORY, service, AuditLog.Outcome.OK);
         } catch (SQLException e) {
+            audit(chatId, AuditLog.Operation.HISTORY, service, AuditLog.Outcome.ERROR);
         }
         return out;
     }
-}
\ No newline at end of file
+
+    /**
+     * Восстанавливает прежнюю версию записи.
+     * Текущая версия при этом сама попадает в историю, так что восстановление можно отменить
+     * повторным /restore. Чтение версии и запись выполняются одной транзакцией.
+     *
+     * userId Идентификатор пользователя Telegram (chatId).
+     * service Название сервиса.
+     * version Номер версии из истории.
+     * historyLimit Сколько прежних версий хранить после восстановления.
+     *
+     * Возвращает true, если версия найдена и восстановлена, иначе false.
+     */
+    public boolean restore(long userId, String service, int version, int historyLimit) {
+        return restore(userId, userId, service, version, historyLimit);
+    }
+
+    /**
+     * Как restore(userId, ...), но операцию выполняет чат chatId; в журнал операций попадает chatId.
+     */
+    public boolean restore(long chatId, long userId, String service, int version, int historyLimit) {
+        String sql = """
+            SELECT login, password
+            FROM credential_history
+            WHERE user_id = ? AND service = ? AND version = ?;
+            """;
+
+        try (BotEvents.QueryEvent q = BotEvents.query("restore");
+             Connection c = connect()) {
+            c.setAutoCommit(false);
+            try {
+                String login;
+                String password;
+                try (PreparedStatement ps = c.prepareStatement(sql)) {
+                    ps.setLong(1, userId);
+                    ps.setString(2, service);
+                    ps.setInt(3, version);
+                    try (ResultSet rs = ps.executeQuery()) {
+                        if (!rs.next()) {
+                            c.rollback();
+                            q.rows = 0;
+                            audit(chatId, AuditLog.Operation.RESTORE, service, AuditLog.Outcome.NOT_FOUND);
+                            return false;
+                        }
+                        login = rs.getString("login");
+                        password = rs.getString("password");
+                    }
+                }
+                writeVersion(c, userId, service, login, password, Math.max(historyLimit, 1));
+                c.commit();
+                q.rows = 1;
+                audit(chatId, AuditLog.Operation.RESTORE, service, AuditLog.Outcome.OK);
+                return true;
+            } catch (SQLException e) {
+                c.rollback();
+            }
+        } catch (SQLException e) {
+
+        }
+        audit(chatId, AuditLog.Operation.RESTORE, service, AuditLog.Outcome.ERROR);
+        return false;
+    }
+
+    /**
+     * Сохраняет интервал и срок плановой смены пароля для записи.
+     * В случае ошибки SQL исключение перехватывается и бот продолжает работу.
+     */
+    public void saveRotation(RotationScheduler.Task task) {
+        String sql = """
+            INSERT INTO rotation_schedule(user_id, service, interval_ms, next_due)
+            VALUES (?, ?, ?, ?)
+            ON CONFLICT(user_id, service)
+            DO UPDATE SET interval_ms = excluded.interval_ms,
+                          next_due = excluded.next_due;
+            """;
+
+        try (BotEvents.QueryEvent q = BotEvents.query("saveRotation");
+             Connection c = connect();
+             PreparedStatement ps = c.prepareStatement(sql)) {
+
+            ps.setLong(1, task.getUserId());
+            ps.setString(2, task.getService());
+            ps.setLong(3, task.getIntervalMs());
+            ps.setLong(4, task.getDueAt());
+            q.rows = ps.executeUpdate();
+
+        } catch (SQLException e) {
+
+        }
+    }
+
+    /**
+     * Отменяет плановую смену пароля для записи.
+     * В случае ошибки SQL исключение перехватывается и бот продолжает работу.
+     */
+    public void deleteRotation(long userId, String service) {
+        String sql = "DELETE FROM rotation_schedule WHERE user_id=? AND service=?;";
+
+        try (BotEvents.QueryEvent q = BotEvents.query("deleteRotation");
+             Connection c = connect();
+             PreparedStatement ps = c.prepareStatement(sql)) {
+
+            ps.setLong(1, userId);
+            ps.setString(2, service);
+            q.rows = ps.executeUpdate();
+
+        } catch (SQLException e) {
+
+        }
+    }
+
+    /**
+     * Возвращает все назначенные смены паролей. Используется при запуске бота,
+     * чтобы заполнить RotationScheduler.
+     * В случае ошибки SQL возвращает пустой список.
+     */
+    public List<RotationScheduler.Task> listRotations() {
+        String sql = "SELECT user_id, service, interval_ms, next_due FROM rotation_schedule;";
+        List<RotationScheduler.Task> out = new ArrayList<>();
+
+        try (BotEvents.QueryEvent q = BotEvents.query("listRotations");
+             Connection c = connect();
+             PreparedStatement ps = c.prepareStatement(sql);
+             ResultSet rs = ps.executeQuery()) {
+
+            while (rs.next()) {
+                out.add(new RotationScheduler.Task(
+                        rs.getLong("user_id"),
+                        rs.getString("service"),
+                        rs.getLong("interval_ms"),
+                        rs.getLong("next_due")
+                ));
+            }
+            q.rows = out.size();
+        } catch (SQLException e) {
+        }
+        return out;
+    }
+
+    /**
+     * Меняет пароли для пачки созревших задач одной транзакцией.
+     * Для каждой задачи, запись которой еще существует, генерирует новый пароль,
+     * сохраняет его с архивированием прежней версии и сдвигает срок следующей смены.
+     * Задачи, запись которых уже удалена, снимаются с расписания.
+     * Задача пропускается без смены пароля, если ее строки в rotation_schedule уже нет
+     * или смену переназначили с другим интервалом или сроком после того, как задача созрела
+     * (/rotate 0 или новый /rotate): первой записывающей командой сдвигается срок, только если
+     * строка еще совпадает с задачей.
+     *
+     * due Созревшие задачи.
+     * now Текущее время в миллисекундах.
+     * generator Генерирует новый пароль для задачи; null - задача пропускается без изменений
+     * (вызывающий сам назначает ее повторно).
+     * historyLimit Возвращает, сколько прежних версий хранить для владельца задачи.
+     *
+     * Возвращает новые пароли по задачам в порядке их обработки.
+     * В случае ошибки SQL транзакция откатывается и возвращается null.
+     */
+    public <S extends CharSequence> Map<RotationScheduler.Task, S> rotate(
+            List<RotationScheduler.Task> due, long now, Function<RotationScheduler.Task, S> generator,
+            ToIntFunction<RotationScheduler.Task> historyLimit) {
+        String loginSql = "SELECT login FROM credentials WHERE user_id=? AND service=?;";
+        String nextSql = """
+            UPDATE rotation_schedule SET next_due = ?
+            WHERE user_id = ? AND service = ? AND interval_ms = ? AND next_due <= ?;
+            """;
+        String dropSql = "DELETE FROM rotation_schedule WHERE user_id=? AND service=?;";
+        Map<RotationScheduler.Task, S> out = new LinkedHashMap<>();
+
+        try (BotEvents.QueryEvent q = BotEvents.query("rotate");
+             Connection c = connect()) {
+            c.setAutoCommit(false);
+            try (PreparedStatement login = c.prepareStatement(loginSql);
+                 PreparedStatement next = c.prepareStatement(nextSql);
+                 PreparedStatement drop = c.prepareStatement(dropSql)) {
+
+                for (RotationScheduler.Task task : due) {
+                    login.setLong(1, task.getUserId());
+                    login.setString(2, task.getService());
+                    String currentLogin;
+                    try (ResultSet rs = login.executeQuery()) {
+                        currentLogin = rs.next() ? rs.getString("login") : null;
+                    }
+
+                    if (currentLogin == null) {
+                        drop.setLong(1, task.getUserId());
+                        drop.setString(2, task.getService());
+                        drop.executeUpdate();
+                        continue;
+                    }
+
+                    S password = generator.apply(task);
+                    if (password == null) continue;
+
+                    next.setLong(1, task.next(now).getDueAt());
+                    next.setLong(2, task.getUserId());
+                    next.setString(3, task.getService());
+                    next.setLong(4, task.getIntervalMs());
+                    next.setLong(5, task.getDueAt());
+                    if (next.executeUpdate() == 0) continue;
+
+                    writeVersion(c, task.getUserId(), task.getService(), currentLogin, password,
+                            historyLimit.applyAsInt(task));
+
+                    out.put(task, password);
+                }
+                c.commit();
+                q.rows = out.size();
+                for (RotationScheduler.Task task : out.keySet()) {
+                    audit(task.getUserId(), AuditLog.Operation.ROTATE, task.getService(), AuditLog.Outcome.OK);
+                }
+                return out;
+            } catch (SQLException e) {
+                c.rollback();
+            }
+        } catch (SQLException e) {
+
+        }
+        for (RotationScheduler.Task task : due) {
+            audit(task.getUserId(), AuditLog.Operation.ROTATE, task.getService(), AuditLog.Outcome.ERROR);
+        }
+        return null;
+    }
+
+    /**
+     * Находит группы сервисов пользователя с одинаковым паролем.
+     * Группировка выполняется одним запросом по индексу (user_id, fingerprint, service),
+     * сами пароли не читаются и не сравниваются.
+     * Возвращает список групп, в каждой не меньше двух сервисов в алфавитном порядке.
+     * В случае ошибки SQL возвращает пустой список.
+     */
+    public List<List<String>> findReusedPasswords(long userId) {
+        String sql = """
+            SELECT group_concat(service, char(31)) AS services
+            FROM credentials
+            WHERE user_id = ? AND fingerprint IS NOT NULL
+            GROUP BY fingerprint
+            HAVING COUNT(*) > 1
+            ORDER BY MIN(service);
+            """;
+        List<List<String>> out = new ArrayList<>();
+
+        try (BotEvents.QueryEvent q = BotEvents.query("findReusedPasswords");
+             Connection c = connect();
+             PreparedStatement ps = c.prepareStatement(sql)) {
+
+            ps.setLong(1, userId);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    out.add(List.of(rs.getString("services").split("\u001f")));
+                }
+            }
+            q.rows = out.size();
+        } catch (SQLException e) {
+        }
+        return out;
+    }
+
+    /**
+     * Возвращает ключ записей общего хранилища для колонки user_id.
+     * Ключи лежат у нижней границы long, где не бывает идентификаторов чатов тг.
+     */
+    public static long vaultKey(long vaultId) {
+        return Long.MIN_VALUE + vaultId;
+    }
+
+    /**
+     * Создает общее хранилище и делает создателя его владельцем.
+     * Возвращает номер хранилища или -1, если название занято или произошла ошибка SQL.
+     */
+    public long createVault(String name, long ownerId) {
+        String vault = "INSERT INTO vaults(name, created_by, created_at) VALUES (?, ?, ?);";
+        String owner = "INSERT INTO vault_members(vault_id, member_id, role) VALUES (?, ?, ?);";
+
+        try (BotEvents.QueryEvent q = BotEvents.query("createVault");
+             Connection c = connect()) {
+            c.setAutoCommit(false);
+            try (PreparedStatement ps = c.prepareStatement(vault, Statement.RETURN_GENERATED_KEYS);
+                 PreparedStatement os = c.prepareStatement(owner)) {
+                ps.setString(1, name);
+                ps.setLong(2, ownerId);
+                ps.setLong(3, System.currentTimeMillis());
+                ps.executeUpdate();
+                long id;
+                try (ResultSet keys = ps.getGeneratedKeys()) {
+                    if (!keys.next()) throw new SQLException("Нет номера хранилища");
+                    id = keys.getLong(1);
+                }
+                os.setLong(1, id);
+                os.setLong(2, ownerId);
+                os.setInt(3, Role.OWNER.ordinal());
+                os.executeUpdate();
+                c.commit();
+                q.rows = 1;
+                return id;
+            } catch (SQLException e) {
+                c.rollback();
+            }
+        } catch (SQLException e) {
+
+        }
+        return -1;
+    }
+
+    /**
+     * Возвращает хранилища, в которых участвует чат, с его ролями.
+     * В случае ошибки SQL возвращает пустой список.
+     */
+    public List<Membership> memberships(long memberId) {
+        String sql = """
+            SELECT v.vault_id, v.name, m.role
+            FROM vault_members m JOIN vaults v ON v.vault_id = m.vault_id
+            WHERE m.member_id = ?
+            ORDER BY v.name;
+            """;
+        List<Membership> out = new ArrayList<>();
+
+        try (BotEvents.QueryEvent q = BotEvents.query("memberships");
+             Connection c = connect();
+             PreparedStatement ps = c.prepareStatement(sql)) {
+
+            ps.setLong(1, memberId);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    out.add(new Membership(rs.getLong("vault_id"), rs.getString("name"),
+                            Role.values()[rs.getInt("role")]));
+                }
+            }
+            q.rows = out.size();
+        } catch (SQLException e) {
+        }
+        return out;
+    }
+
+    /**
+     * Возвращает участников хранилища: идентификатор чата -> роль.
+     * В случае ошибки SQL возвращает пустую таблицу.
+     */
+    public Map<Long, Role> members(long vaultId) {
+        String sql = "SELECT member_id, role FROM vault_members WHERE vault_id = ? ORDER BY role DESC, member_id;";
+        Map<Long, Role> out = new LinkedHashMap<>();
+
+        try (BotEvents.QueryEvent q = BotEvents.query("members");
+             Connection c = connect();
+             PreparedStatement ps = c.prepareStatement(sql)) {
+
+            ps.setLong(1, vaultId);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    out.put(rs.getLong("member_id"), Role.values()[rs.getInt("role")]);
+                }
+            }
+            q.rows = out.size();
+        } catch (SQLException e) {
+        }
+        return out;
+    }
+
+    /**
+     * Добавляет участника хранилища или меняет его роль.
+     * Возвращает false, если это лишило бы хранилище последнего владельца или произошла ошибка SQL.
+     */
+    public boolean setMember(long vaultId, long memberId, Role role) {
+        String upsert = """
+            INSERT INTO vault_members(vault_id, member_id, role) VALUES (?, ?, ?)
+            ON CONFLICT(vault_id, member_id) DO UPDATE SET role = excluded.role;
+            """;
+        return changeMembers(vaultId, upsert, memberId, role);
+    }
+
+    /**
+     * Удаляет участника хранилища.
+     * Возвращает false, если это последний владелец или произошла ошибка SQL.
+     */
+    public boolean removeMember(long vaultId, long memberId) {
+        return changeMembers(vaultId, "DELETE FROM vault_members WHERE vault_id = ? AND member_id = ?;",
+                memberId, null);
+    }
+
+    /**
+     * Выполняет изменение участников одной транзакцией и откатывает его,
+     * если в хранилище не осталось владельцев.
+     */
+    private boolean changeMembers(long vaultId, String sql, long memberId, Role role) {
+        String owners = "SELECT COUNT(*) FROM vault_members WHERE vault_id = ? AND role = ?;";
+
+        try (BotEvents.QueryEvent q = BotEvents.query("changeMembers");
+             Connection c = connect()) {
+            c.setAutoCommit(false);
+            try (PreparedStatement ps = c.prepareStatement(sql);
+                 PreparedStatement os = c.prepareStatement(owners)) {
+                ps.setLong(1, vaultId);
+                ps.setLong(2, memberId);
+                if (role != null) ps.setInt(3, role.ordinal());
+                int rows = ps.executeUpdate();
+
+                os.setLong(1, vaultId);
+                os.setInt(2, Role.OWNER.ordinal());
+                try (ResultSet rs = os.executeQuery()) {
+                    if (!rs.next() || rs.getInt(1) == 0) {
+                        c.rollback();
+                        q.rows = 0;
+                        return false;
+                    }
+                }
+                c.commit();
+                q.rows = rows;
+                return true;
+            } catch (SQLException e) {
+                c.rollback();
+            }
+        } catch (SQLException e) {
+
+        }
+        return false;
+    }
+}
@@ -1,16 +1,36 @@
 package org.example;
 
-import java.security.SecureRandom;
-import java.util.HashMap;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
 
 /**
  * Класс с логикой обработки команд тг бота.
  * Реализует:
  * настройку генерации паролей через диалог (/settings)
- * генерацию паролей (/password)
+ * генерацию паролей и парольных фраз (/password, /settings фраза)
  * менеджер паролей пользователя (/add, /list, /get, /delete, /change)
+ * историю версий записей (/history, /restore, /retention)
+ * плановую смену паролей (/rotate)
+ * поиск повторно используемых паролей (/audit)
+ * политику генерации: минимумы по наборам, похожие символы, шаблоны (/policy)
+ * кнопки под ответами диалогов (см. respond и handleCallback)
+ * ответы на языке чата (/language, тексты в каталоге Messages)
  */
 public class PasswordLogic {
 
@@ -20,68 +40,215 @@ public class PasswordLogic {
     /** Максимальная допустимая длина пароля */
     private static final int MAX_LENGTH = 64;
 
-    /** Состояние: нет активного диалога */
-    private static final int STATE_NONE = 0;
+    /**
+     * Наименьшая энтропия пароля по шаблону в битах (граница оценки «слабый» в StrengthEstimator):
+     * шаблон из одних постоянных символов дал бы один и тот же пароль
+     */
+    private static final int MIN_TEMPLATE_BITS = 28;
+
+    /**
+     * Минимальное количество слов в парольной фразе: во встроенном списке 662 слова
+     * (около 9.4 бита на слово), семь слов дают около 65 бит
+     */
+    private static final int MIN_WORDS = 7;
+
+    /** Максимальное количество слов в парольной фразе */
+    private static final int MAX_WORDS = 12;
+
+    /** Максимальная длина разделителя слов в парольной фразе */
+    private static final int MAX_SEPARATOR = 3;
+
+    /** Файл, в который компилируется встроенный список слов */
+    private static final String BUNDLED_WORDLIST_CACHE = "wordlist.bin";
+
+    /** Максимальное количество хранимых версий одной записи */
+    private static final int MAX_HISTORY_LIMIT = 50;
+
+    /** Максимальный интервал плановой смены пароля в днях */
+    private static final int MAX_ROTATION_DAYS = 365;
+
+    /** Сколько паролей меняется одной транзакцией при плановой смене */
+    private static final int ROTATION_BATCH = 100;
+
+    /** Длительность суток в миллисекундах */
+    private static final long DAY_MS = 24L * 60 * 60 * 1000;
+
+    /** Через сколько миллисекунд повторить плановую смену после ошибки базы данных */
+    private static final long ROTATION_RETRY_MS = 60L * 60 * 1000;
+
+    /** Сколько миллисекунд действует одноразовая ссылка /share */
+    private static final long SHARE_TTL_MS = 10L * 60 * 1000;
+
+    /** Наибольшая длина названия общего хранилища */
+    private static final int MAX_VAULT_NAME = 32;
+
+    /** Команды, которым нужен доступ на чтение к выбранному хранилищу */
+    private static final Set<String> VAULT_READ = Set.of("/list", "/get", "/history", "/audit", "/share");
+
+    /** Команды, которым нужен доступ на изменение выбранного хранилища */
+    private static final Set<String> VAULT_WRITE = Set.of("/add", "/delete", "/change", "/restore");
+
+    /** Команды, доступные, пока бот работает поверх резервной копии базы */
+    private static final Set<String> READ_ONLY = Set.of("/start", "/settings", "/password", "/list", "/get", "/profile",
+            "/language");
+
+    /** Команды, названия которых попадают в события JFR; остальной текст не записывается */
+    private static final Set<String> COMMANDS = Set.of("/start", "/settings", "/password", "/add", "/list", "/get",
+            "/delete", "/change", "/history", "/restore", "/retention", "/rotate", "/audit", "/policy", "/vault",
+            "/share", "/redeem", "/profile", "/language");
+
+    /** Наибольшая длина данных кнопки (callback_data в тг), байты */
+    private static final int MAX_CALLBACK_DATA = 64;
+
+    /** Длины пароля, выбираемые одной кнопкой в форме /settings */
+    private static final int[] LENGTH_PRESETS = {8, 12, 16, 24, 32};
+
+    /** Флаги наборов символов в данных кнопок формы /settings */
+    private static final int DIGITS = 1;
+    private static final int UPPER = 2;
+    private static final int LOWER = 4;
+    private static final int SPECIAL = 8;
+
+    /** Генератор случайных чисел для паролей (SecureRandom пачками, см. BufferedSecureRandom) */
+    private final Random random = new BufferedSecureRandom();
+
+    /**
+     * Настройки пользователей и состояния диалогов. Объект настроек - блокировка чата:
+     * под ней сообщения и нажатия чата меняют настройки, а поток плановой смены их читает.
+     */
+    private final Map<Long, UserSettings> userSettings = new ConcurrentHashMap<>();
+
+    /**
+     * Кэш участия в общих хранилищах: чат -> (номер хранилища -> участие).
+     * Загружается одним запросом при первом обращении чата и сбрасывается для чата
+     * при изменении его участия, поэтому проверка доступа не обращается к базе.
+     */
+    private final Map<Long, Map<Long, PasswordDatabase.Membership>> memberships = new ConcurrentHashMap<>();
 
-    /** Состояние: ожидание ввода длины пароля */
-    private static final int STATE_WAIT_LENGTH = 1;
+    /**
+     * База данных для хранения сервисов, логинов и паролей.
+     * Открывается при первом обращении (см. database()), чтобы загрузка драйвера SQLite
+     * и создание таблиц не задерживали запуск бота.
+     */
+    private volatile PasswordDatabase database;
 
-    /** Состояние: вопрос об использовании цифр */
-    private static final int STATE_ASK_DIGITS = 2;
+    /** Расписание плановой смены паролей */
+    private final RotationScheduler rotations = new RotationScheduler();
 
-    /** Состояние: вопрос об использовании заглавных букв */
-    private static final int STATE_ASK_UPPER = 3;
+    /** Источник текущего времени в миллисекундах */
+    private final LongSupplier clock;
 
-    /** Состояние: вопрос об использовании строчных букв */
-    private static final int STATE_ASK_LOWER = 4;
+    /** Открывает базу данных при первом обращении */
+    private final Supplier<PasswordDatabase> opener;
 
-    /** Состояние: вопрос об использовании специальных символов */
-    private static final int STATE_ASK_SPECIAL = 5;
+    /** Фильтр утекших паролей или null, если он не подключен */
+    private volatile BreachFilter breachFilter;
 
-    /** Состояние: нет активного диалога менеджера паролей */
-    private static final int PM_NONE = 0;
+    /** Список слов для парольных фраз; встроенный открывается при первом использовании */
+    private volatile Wordlist wordlist;
 
-    /** Состояние: ожидание ввода названия сервиса при добавлении */
-    private static final int PM_ADD_WAIT_SERVICE = 1;
+    /** Бот работает поверх резервной копии базы: записи запрещены (см. Replica) */
+    private volatile boolean readOnly;
 
-    /** Состояние: ожидание ввода логина/email при добавлении */
-    private static final int PM_ADD_WAIT_LOGIN = 2;
+    /** Контроль допуска сообщений: 2 сообщения в секунду, до 10 подряд, до 16 одновременно */
+    private volatile AdmissionControl admission = new AdmissionControl(2, 10, 16);
 
-    /** Состояние: выбор способа создания пароля при добавлении */
-    private static final int PM_ADD_WAIT_METHOD = 3;
+    /** Журнал операций с учетными данными или null, если он не ведется */
+    private volatile AuditLog auditLog;
 
-    /** Состояние: ожидание ручного ввода пароля при добавлении */
-    private static final int PM_ADD_WAIT_PASSWORD = 4;
+    /** Одноразовые ссылки на записи (/share) */
+    private volatile ShareStore shares = new ShareStore();
 
-    /** Состояние: подтверждение удаления записи */
-    private static final int PM_DELETE_CONFIRM = 5;
+    /** Запись JFR, которой управляет /profile, или null */
+    private volatile Profiler profiler;
 
-    /** Состояние: выбор способа изменения пароля */
-    private static final int PM_CHANGE_WAIT_METHOD = 6;
+    /** Чаты администраторов, которым доступна /profile */
+    private volatile Set<Long> admins = Set.of();
 
-    /** Состояние: ожидание ручного ввода нового пароля */
-    private static final int PM_CHANGE_WAIT_PASSWORD = 7;
+    /**
+     * Создает логику бота с системными часами.
+     */
+    public PasswordLogic() {
+        this(System::currentTimeMillis);
+    }
 
-    /** Строка с цифрами для генерации пароля */
-    private static final String DIGITS = "0123456789";
+    /**
+     * Создает логику бота с заданным источником времени.
+     * Назначенные ранее смены паролей загружаются из базы данных при её открытии.
+     */
+    public PasswordLogic(LongSupplier clock) {
+        this(clock, PasswordDatabase::new);
+    }
+
+    /**
+     * Создает логику бота, которая хранит данные в базе, открытой opener
+     * (например, в отдельной базе арендатора, см. MultiTenantRuntime).
+     */
+    public PasswordLogic(LongSupplier clock, Supplier<PasswordDatabase> opener) {
+        this.clock = clock;
+        this.opener = opener;
+    }
+
+    /**
+     * Ответ бота: текст и кнопки под ним.
+     */
+    public static final class Reply {
 
-    /** Строка с заглавными буквами для генерации пароля */
-    private static final String UPPER = "ABCDEFGHIJKLMNOPQRSTUVWXYZ";
+        /** Текст ответа */
+        private final String text;
+
+        /** Строки кнопок; пустой список - без кнопок */
+        private final List<List<Button>> keyboard;
+
+        /** Текст показывается уведомлением, сообщение с кнопками не меняется */
+        private final boolean notice;
+
+        Reply(String text) {
+            this(text, List.of(), false);
+        }
+
+        Reply(String text, List<List<Button>> keyboard) {
+            this(text, keyboard, false);
+        }
+
+        private Reply(String text, List<List<Button>> keyboard, boolean notice) {
+            this.text = text;
+            this.keyboard = keyboard;
+            this.notice = notice;
+        }
+
+        /** Возвращает текст ответа. */
+        public String getText() { return text; }
+
+        /** Возвращает строки кнопок (пустой список - без кнопок). */
+        public List<List<Button>> getKeyboard() { return keyboard; }
+
+        /** Возвращает true, если текст нужно показать уведомлением, не меняя сообщение. */
+        public boolean isNotice() { return notice; }
+    }
+
+    /**
+     * Кнопка под ответом: надпись и данные, которые тг вернет при нажатии.
+     */
+    public static final class Button {
 
-    /** Строка со строчными буквами для генерации пароля */
-    private static final String LOWER = "abcdefghijklmnopqrstuvwxyz";
+        /** Надпись */
+        private final String text;
 
-    /** Строка со специальными символами для генерации пароля */
-    private static final String SPECIAL = "!@#$%^&*()_-+=<>?/{}[]";
+        /** Данные нажатия (callback_data) */
+        private final String data;
 
-    /** Генератор случайных чисел */
-    private final SecureRandom random = new SecureRandom();
+        Button(String text, String data) {
+            this.text = text;
+            this.data = data;
+        }
 
-    /** Настройки пользователей и состояния диалогов */
-    private final Map<Long, UserSettings> userSettings = new HashMap<>();
+        /** Возвращает надпись. */
+        public String getText() { return text; }
 
-    /** База данных для хранения сервисов, логинов и паролей */
-    private final PasswordDatabase database = new PasswordDatabase();
+        /** Возвращает данные нажатия. */
+        public String getData() { return data; }
+    }
 
 
     /**
@@ -94,283 +261,1658 @@ public class PasswordLogic {
         boolean lower = true;
         boolean special = true;
 
-        int state = STATE_NONE;
-        int pmState = PM_NONE;
+        int minDigits = 1;
+        int minUpper = 1;
+        int minLower = 1;
+        int minSpecial = 1;
+        boolean excludeAmbiguous = false;
+        String symbols = PasswordPolicy.SPECIAL;
+        String template;
+
+        /** Скомпилированная политика; сбрасывается в null при изменении настроек */
+        volatile PasswordPolicy policy;
+
+        boolean passphrase = false;
+        int words = MIN_WORDS;
+        String separator = "-";
+        boolean capitalize = false;
+
+        /**
+         * Ответы диалога /settings до проверки: длина и наборы символов (флаги DIGITS, UPPER...).
+         * В настройки они попадают только вместе, если политика с ними компилируется.
+         */
+        int pendingLength;
+        int pendingFlags;
+
+        int historyLimit = PasswordDatabase.DEFAULT_HISTORY_LIMIT;
+
+        /** Выбранное общее хранилище или 0 - личное */
+        long vault;
 
-        String tmpService;
-        String tmpLogin;
+        /** Название выбранного общего хранилища */
+        String vaultName;
+
+        /** Каталог ответов на языке чата */
+        volatile Messages messages = Messages.getDefault();
+
+        /** Язык выбран командой /language: язык из профиля тг его больше не меняет */
+        volatile boolean languageChosen;
+
+        /** Текущий диалог пользователя */
+        final Session dialog = new Session();
+
+        /** Окно уже обработанных update_id */
+        final UpdateWindow updates = new UpdateWindow();
     }
 
     /**
-     * Основной метод обработки сообщений пользователя.
+     * События диалога. Следующее состояние по событию берется из таблицы переходов;
+     * неверный ввод не порождает события, и состояние не меняется.
      */
-    public String handleMessage(long chatId, String text) {
+    private enum Event {
+        /** Команда /settings */
+        SETTINGS,
+        /** Команда /settings фраза */
+        PHRASE,
+        /** Команда /add */
+        ADD,
+        /** Команда /delete */
+        DELETE,
+        /** Команда /change */
+        CHANGE,
+        /** Ответ принят, следующий вопрос */
+        NEXT,
+        /** Выбран ручной ввод пароля */
+        MANUAL,
+        /** Настройки противоречивы, диалог начинается заново */
+        RETRY,
+        /** Диалог завершен */
+        DONE,
+        /** Диалог прерван другой командой */
+        CANCEL
+    }
+
+    /**
+     * Состояния диалогов. Каждое состояние - неизменяемый обработчик-одиночка:
+     * он разбирает ответ пользователя, выполняет действие и сообщает событие сессии,
+     * а следующее состояние выбирает таблица TRANSITIONS.
+     * code - постоянный номер состояния для сериализации сессии; его нельзя менять
+     * у существующих состояний.
+     */
+    private enum State {
+        IDLE(0, false) {
+            String handle(PasswordLogic logic, long chatId, UserSettings settings, String text) {
+                return null;
+            }
+        },
+
+        WAIT_LENGTH(1, false) {
+            String handle(PasswordLogic logic, long chatId, UserSettings settings, String text) {
+                Messages m = settings.messages;
+                int length = parseInt(text);
+                if (length < MIN_LENGTH || length > MAX_LENGTH) {
+                    return m.format(Text.ENTER_NUMBER, MIN_LENGTH, MAX_LENGTH);
+                }
+                settings.pendingLength = length;
+                settings.pendingFlags = 0;
+                settings.dialog.fire(Event.NEXT);
+                return m.get(Text.ASK_DIGITS);
+            }
+        },
+
+        ASK_DIGITS(2, false) {
+            String handle(PasswordLogic logic, long chatId, UserSettings settings, String text) {
+                Boolean v = parseYesNo(text);
+                if (v == null) return settings.messages.get(Text.ANSWER_YES_NO);
+                if (v) settings.pendingFlags |= DIGITS;
+                settings.dialog.fire(Event.NEXT);
+                return settings.messages.get(Text.ASK_UPPER);
+            }
+        },
+
+        ASK_UPPER(3, false) {
+            String handle(PasswordLogic logic, long chatId, UserSettings settings, String text) {
+                Boolean v = parseYesNo(text);
+                if (v == null) return settings.messages.get(Text.ANSWER_YES_NO);
+                if (v) settings.pendingFlags |= UPPER;
+                settings.dialog.fire(Event.NEXT);
+                return settings.messages.get(Text.ASK_LOWER);
+            }
+        },
+
+        ASK_LOWER(4, false) {
+            String handle(PasswordLogic logic, long chatId, UserSettings settings, String text) {
+                Boolean v = parseYesNo(text);
+                if (v == null) return settings.messages.get(Text.ANSWER_YES_NO);
+                if (v) settings.pendingFlags |= LOWER;
+                settings.dialog.fire(Event.NEXT);
+                return settings.messages.get(Text.ASK_SPECIAL);
+            }
+        },
+
+        ASK_SPECIAL(5, false) {
+            String handle(PasswordLogic logic, long chatId, UserSettings settings, String text) {
+                Messages m = settings.messages;
+                Boolean v = parseYesNo(text);
+                if (v == null) return m.get(Text.ANSWER_YES_NO);
+                int flags = settings.pendingFlags | (v ? SPECIAL : 0);
+                PasswordPolicy policy;
+                try {
+                    policy = compile(settings, settings.pendingLength, flags);
+                } catch (IllegalArgumentException e) {
+                    settings.dialog.fire(Event.RETRY);
+                    return m.format(Text.SETTINGS_CONFLICT, e.getMessage(), MIN_LENGTH, MAX_LENGTH);
+                }
+                settings.length = settings.pendingLength;
+                settings.digits = (flags & DIGITS) != 0;
+                settings.upper = (flags & UPPER) != 0;
+                settings.lower = (flags & LOWER) != 0;
+                settings.special = (flags & SPECIAL) != 0;
+                settings.passphrase = false;
+                settings.policy = policy;
+                settings.dialog.fire(Event.DONE);
+                return m.format(Text.SETTINGS_SAVED, settings.length, settings.digits, settings.upper,
+                        settings.lower, settings.special, logic.generatorStrength(settings).describe(m));
+            }
+        },
+
+        WAIT_WORDS(6, false) {
+            String handle(PasswordLogic logic, long chatId, UserSettings settings, String text) {
+                int words = parseInt(text);
+                if (words < MIN_WORDS || words > MAX_WORDS) {
+                    return settings.messages.format(Text.ENTER_NUMBER, MIN_WORDS, MAX_WORDS);
+                }
+                settings.words = words;
+                settings.dialog.fire(Event.NEXT);
+                return settings.messages.format(Text.ENTER_SEPARATOR, MAX_SEPARATOR);
+            }
+        },
+
+        WAIT_SEPARATOR(7, false) {
+            String handle(PasswordLogic logic, long chatId, UserSettings settings, String text) {
+                if (text.equalsIgnoreCase("пробел") || text.equalsIgnoreCase("space")) {
+                    settings.separator = " ";
+                } else if (text.equalsIgnoreCase("нет") || text.equalsIgnoreCase("none")) {
+                    settings.separator = "";
+                } else if (text.length() <= MAX_SEPARATOR) {
+                    settings.separator = text;
+                } else {
+                    return settings.messages.format(Text.SEPARATOR_TOO_LONG, MAX_SEPARATOR);
+                }
+                settings.dialog.fire(Event.NEXT);
+                return settings.messages.get(Text.ASK_CAPITALIZE);
+            }
+        },
+
+        ASK_CAPITALIZE(8, false) {
+            String handle(PasswordLogic logic, long chatId, UserSettings settings, String text) {
+                Messages m = settings.messages;
+                Boolean v = parseYesNo(text);
+                if (v == null) return m.get(Text.ANSWER_YES_NO);
+                settings.dialog.fire(Event.DONE);
+                if (logic.wordlist() == null) return m.get(Text.WORDLIST_UNAVAILABLE);
+                settings.capitalize = v;
+                settings.passphrase = true;
+                return m.format(Text.PHRASE_SAVED, settings.words, settings.separator, settings.capitalize,
+                        logic.generatorStrength(settings).describe(m));
+            }
+        },
+
+        ADD_SERVICE(9, true) {
+            String handle(PasswordLogic logic, long chatId, UserSettings settings, String text) {
+                settings.dialog.service = text;
+                settings.dialog.fire(Event.NEXT);
+                return settings.messages.get(Text.ENTER_LOGIN);
+            }
+        },
+
+        ADD_LOGIN(10, true) {
+            String handle(PasswordLogic logic, long chatId, UserSettings settings, String text) {
+                settings.dialog.login = text;
+                settings.dialog.fire(Event.NEXT);
+                return settings.messages.get(Text.ASK_METHOD);
+            }
+        },
+
+        ADD_METHOD(11, true) {
+            String handle(PasswordLogic logic, long chatId, UserSettings settings, String text) {
+                Messages m = settings.messages;
+                Session d = settings.dialog;
+                if (text.equals("1")) {
+                    try (SecretBuffer pass = logic.generateSecret(settings)) {
+                        String service = d.service;
+                        logic.database().save(chatId, owner(chatId, settings), service, d.login, pass,
+                                settings.historyLimit);
+                        d.fire(Event.DONE);
+                        return m.format(Text.PASSWORD_SAVED, service, pass, logic.generatorStrength(settings).describe(m));
+                    }
+                }
+                if (text.equals("2")) {
+                    d.fire(Event.MANUAL);
+                    return m.get(Text.ENTER_PASSWORD);
+                }
+                return m.get(Text.ENTER_1_OR_2);
+            }
+        },
+
+        ADD_PASSWORD(12, true) {
+            String handle(PasswordLogic logic, long chatId, UserSettings settings, String text) {
+                Messages m = settings.messages;
+                if (logic.isBreached(text)) return m.get(Text.BREACHED);
+                Session d = settings.dialog;
+                List<String> reused = logic.database().save(chatId, owner(chatId, settings), d.service, d.login, text,
+                        settings.historyLimit);
+                d.fire(Event.DONE);
+                return m.format(Text.DATA_SAVED, StrengthEstimator.estimate(text).describe(m), reuseWarning(m, reused));
+            }
+        },
+
+        DELETE_CONFIRM(13, true) {
+            String handle(PasswordLogic logic, long chatId, UserSettings settings, String text) {
+                Messages m = settings.messages;
+                Boolean ok = parseYesNo(text);
+                if (ok == null) return m.get(Text.ANSWER_YES_NO);
+
+                String service = settings.dialog.service;
+                settings.dialog.fire(Event.DONE);
+                if (ok) {
+                    long owner = owner(chatId, settings);
+                    logic.database().delete(chatId, owner, service);
+                    logic.rotations.cancel(owner, service);
+                    return m.format(Text.DELETED, service);
+                }
+                return m.get(Text.DELETE_CANCELLED);
+            }
+        },
+
+        CHANGE_METHOD(14, true) {
+            String handle(PasswordLogic logic, long chatId, UserSettings settings, String text) {
+                Messages m = settings.messages;
+                Session d = settings.dialog;
+                if (text.equals("1")) {
+                    String service = d.service;
+                    int version = d.version;
+                    d.fire(Event.DONE);
+                    long owner = owner(chatId, settings);
+                    PasswordDatabase.Entry e = logic.database().find(owner, service);
+                    if (e == null) return m.format(Text.SERVICE_NOT_FOUND_USE_LIST, service);
+                    try (SecretBuffer newPass = logic.generateSecret(settings)) {
+                        PasswordDatabase.VersionedSave saved = logic.database().saveIfVersion(chatId, owner,
+                                e.getService(), e.getLogin(), newPass, settings.historyLimit, version);
+                        if (!saved.isSaved()) return notSaved(m, saved, e.getService());
+                        return m.format(Text.PASSWORD_GENERATED, e.getService(), newPass,
+                                logic.generatorStrength(settings).describe(m));
+                    }
+                }
+                if (text.equals("2")) {
+                    d.fire(Event.MANUAL);
+                    return m.get(Text.ENTER_NEW_PASSWORD);
+                }
+                return m.get(Text.ENTER_1_OR_2);
+            }
+        },
+
+        CHANGE_PASSWORD(15, true) {
+            String handle(PasswordLogic logic, long chatId, UserSettings settings, String text) {
+                Messages m = settings.messages;
+                if (logic.isBreached(text)) return m.get(Text.BREACHED);
+                String service = settings.dialog.service;
+                int version = settings.dialog.version;
+                settings.dialog.fire(Event.DONE);
+                long owner = owner(chatId, settings);
+                PasswordDatabase.Entry e = logic.database().find(owner, service);
+                if (e == null) return m.format(Text.SERVICE_NOT_FOUND_USE_LIST, service);
+                PasswordDatabase.VersionedSave saved = logic.database().saveIfVersion(
+                        chatId, owner, e.getService(), e.getLogin(), text, settings.historyLimit, version);
+                if (!saved.isSaved()) return notSaved(m, saved, e.getService());
+                return m.format(Text.PASSWORD_CHANGED, e.getService(), StrengthEstimator.estimate(text).describe(m),
+                        reuseWarning(m, saved.getReused()));
+            }
+        };
+
+        /** Постоянный номер состояния для сериализации */
+        final byte code;
+
+        /** Состояние диалога менеджера паролей (прерывается командой /password) */
+        final boolean manager;
+
+        State(int code, boolean manager) {
+            this.code = (byte) code;
+            this.manager = manager;
+        }
+
+        /**
+         * Обрабатывает ответ пользователя в этом состоянии и возвращает текст ответа.
+         * chatId - чат, приславший ответ; записи берутся из выбранного им хранилища (owner()).
+         */
+        abstract String handle(PasswordLogic logic, long chatId, UserSettings settings, String text);
+    }
+
+    /** Таблица переходов: [состояние][событие] -> следующее состояние или null */
+    private static final State[][] TRANSITIONS = new State[State.values().length][Event.values().length];
+
+    /** Состояния по постоянному номеру */
+    private static final State[] BY_CODE = new State[State.values().length];
+
+    static {
+        on(State.IDLE, Event.SETTINGS, State.WAIT_LENGTH);
+        on(State.IDLE, Event.PHRASE, State.WAIT_WORDS);
+        on(State.IDLE, Event.ADD, State.ADD_SERVICE);
+        on(State.IDLE, Event.DELETE, State.DELETE_CONFIRM);
+        on(State.IDLE, Event.CHANGE, State.CHANGE_METHOD);
+
+        on(State.WAIT_LENGTH, Event.NEXT, State.ASK_DIGITS);
+        on(State.ASK_DIGITS, Event.NEXT, State.ASK_UPPER);
+        on(State.ASK_UPPER, Event.NEXT, State.ASK_LOWER);
+        on(State.ASK_LOWER, Event.NEXT, State.ASK_SPECIAL);
+        on(State.ASK_SPECIAL, Event.RETRY, State.WAIT_LENGTH);
+        on(State.ASK_SPECIAL, Event.DONE, State.IDLE);
+
+        on(State.WAIT_WORDS, Event.NEXT, State.WAIT_SEPARATOR);
+        on(State.WAIT_SEPARATOR, Event.NEXT, State.ASK_CAPITALIZE);
+        on(State.ASK_CAPITALIZE, Event.DONE, State.IDLE);
+
+        on(State.ADD_SERVICE, Event.NEXT, State.ADD_LOGIN);
+        on(State.ADD_LOGIN, Event.NEXT, State.ADD_METHOD);
+        on(State.ADD_METHOD, Event.MANUAL, State.ADD_PASSWORD);
+        on(State.ADD_METHOD, Event.DONE, State.IDLE);
+        on(State.ADD_PASSWORD, Event.DONE, State.IDLE);
+
+        on(State.DELETE_CONFIRM, Event.DONE, State.IDLE);
+
+        on(State.CHANGE_METHOD, Event.MANUAL, State.CHANGE_PASSWORD);
+        on(State.CHANGE_METHOD, Event.DONE, State.IDLE);
+        on(State.CHANGE_PASSWORD, Event.DONE, State.IDLE);
+
+        for (State s : State.values()) {
+            on(s, Event.CANCEL, State.IDLE);
+            if (BY_CODE[s.code] != null) throw new ExceptionInInitializerError("Повтор кода состояния " + s.code);
+            BY_CODE[s.code] = s;
+        }
+    }
+
+    /** Добавляет переход в таблицу. */
+    private static void on(State from, Event event, State to) {
+        TRANSITIONS[from.ordinal()][event.ordinal()] = to;
+    }
+
+    /**
+     * Диалог одного пользователя: состояние и промежуточные данные диалога
+     * (сервис, логин и номер изменения записи для /change). Сериализуется в несколько байт:
+     * байт состояния с флагами наличия полей, затем строки как длина (2 байта) и UTF-8
+     * и номер изменения (4 байта).
+     */
+    private static final class Session {
+
+        /** Флаг: за байтом состояния следует сервис */
+        private static final int HAS_SERVICE = 0x40;
+
+        /** Флаг: за сервисом следует логин */
+        private static final int HAS_LOGIN = 0x80;
+
+        /** Флаг: за строками следует номер изменения записи */
+        private static final int HAS_VERSION = 0x20;
+
+        State state = State.IDLE;
+        String service;
+        String login;
+        int version;
+
+        /**
+         * Переводит диалог в следующее состояние по таблице переходов.
+         * При возврате в IDLE промежуточные данные очищаются.
+         */
+        void fire(Event event) {
+            State next = TRANSITIONS[state.ordinal()][event.ordinal()];
+            if (next == null) throw new IllegalStateException("Нет перехода " + state + " -> " + event);
+            state = next;
+            if (next == State.IDLE) {
+                service = null;
+                login = null;
+                version = 0;
+            }
+        }
+
+        /** Сериализует сессию. */
+        byte[] toBytes() {
+            byte[] s = service == null ? null : service.getBytes(StandardCharsets.UTF_8);
+            byte[] l = login == null ? null : login.getBytes(StandardCharsets.UTF_8);
+            boolean v = version != 0;
+            ByteBuffer buf = ByteBuffer.allocate(1 + (s == null ? 0 : 2 + s.length) + (l == null ? 0 : 2 + l.length)
+                    + (v ? 4 : 0));
+            buf.put((byte) (state.code | (s == null ? 0 : HAS_SERVICE) | (l == null ? 0 : HAS_LOGIN)
+                    | (v ? HAS_VERSION : 0)));
+            if (s != null) buf.putShort((short) s.length).put(s);
+            if (l != null) buf.putShort((short) l.length).put(l);
+            if (v) buf.putInt(version);
+            return buf.array();
+        }
+
+        /**
+         * Восстанавливает сессию из байтов toBytes.
+         * Бросает IllegalArgumentException, если данные повреждены.
+         */
+        void fromBytes(byte[] data) {
+            try {
+                ByteBuffer buf = ByteBuffer.wrap(data);
+                int head = buf.get() & 0xFF;
+                int code = head & ~(HAS_SERVICE | HAS_LOGIN | HAS_VERSION);
+                if (code >= BY_CODE.length || BY_CODE[code] == null) {
+                    throw new IllegalArgumentException("Неизвестное состояние диалога " + code);
+                }
+                String s = (head & HAS_SERVICE) != 0 ? readString(buf) : null;
+                String l = (head & HAS_LOGIN) != 0 ? readString(buf) : null;
+                int v = (head & HAS_VERSION) != 0 ? buf.getInt() : 0;
+                if (buf.hasRemaining()) throw new IllegalArgumentException("Лишние байты в сессии");
+                state = BY_CODE[code];
+                service = s;
+                login = l;
+                version = v;
+            } catch (BufferUnderflowException e) {
+                throw new IllegalArgumentException("Сессия обрезана", e);
+            }
+        }
+
+        private static String readString(ByteBuffer buf) {
+            byte[] b = new byte[buf.getShort() & 0xFFFF];
+            buf.get(b);
+            return new String(b, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Подключает фильтр утекших паролей для проверки паролей, введенных вручную.
+     */
+    public void setBreachFilter(BreachFilter breachFilter) {
+        this.breachFilter = breachFilter;
+    }
+
+    /**
+     * Подключает список слов для парольных фраз вместо встроенного.
+     */
+    public void setWordlist(Wordlist wordlist) {
+        this.wordlist = wordlist;
+    }
+
+    /**
+     * Задает контроль допуска сообщений вместо настроенного по умолчанию.
+     */
+    public void setAdmissionControl(AdmissionControl admission) {
+        this.admission = admission;
+    }
+
+    /**
+     * Возвращает контроль допуска сообщений (для счетчиков отказов).
+     */
+    public AdmissionControl getAdmissionControl() {
+        return admission;
+    }
+
+    /**
+     * Включает или выключает режим только для чтения (бот поверх резервной копии базы):
+     * доступны /get, /list и команды без базы, плановая смена паролей не выполняется.
+     * В режиме только для чтения роли в общих хранилищах не кэшируются: их меняет репликация.
+     * При выключении (копия стала основной базой) расписание смены паролей перечитывается
+     * из базы, потому что она менялась репликацией.
+     */
+    public synchronized void setReadOnly(boolean readOnly) {
+        this.readOnly = readOnly;
+        memberships.clear();
+        if (!readOnly && database != null) {
+            for (RotationScheduler.Task task : database.listRotations()) {
+                rotations.schedule(task);
+            }
+        }
+    }
+
+    /**
+     * Задает хранилище одноразовых ссылок вместо пустого (например, загруженное из файла).
+     */
+    public void setShareStore(ShareStore shares) {
+        this.shares = shares;
+    }
+
+    /**
+     * Подключает запись JFR, которой администраторы из admins управляют командой /profile.
+     * Для остальных чатов команда неизвестна.
+     */
+    public void setProfiler(Profiler profiler, Set<Long> admins) {
+        this.admins = Set.copyOf(admins);
+        this.profiler = profiler;
+    }
+
+    /**
+     * Подключает журнал операций с учетными данными (null - не вести журнал).
+     */
+    public synchronized void setAuditLog(AuditLog auditLog) {
+        this.auditLog = auditLog;
+        if (database != null) {
+            database.setAuditLog(auditLog);
+        }
+    }
+
+    /**
+     * Сериализует текущий диалог пользователя в несколько байт
+     * (для сохранения или передачи другому экземпляру бота).
+     */
+    public byte[] exportDialog(long chatId) {
+        return getUserSettings(chatId).dialog.toBytes();
+    }
+
+    /**
+     * Восстанавливает диалог пользователя из байтов exportDialog.
+     * Бросает IllegalArgumentException, если данные повреждены.
+     */
+    public void importDialog(long chatId, byte[] data) {
+        getUserSettings(chatId).dialog.fromBytes(data);
+    }
+
+    /**
+     * Обрабатывает апдейт тг ровно один раз: повторно доставленный апдейт
+     * (тот же update_id) не продвигает диалог, и для него возвращается null.
+     * Сначала проверяется контроль допуска: сообщения сверх лимита отклоняются
+     * до обращения к настройкам и базе данных, о превышении лимита чат узнает один раз.
+     */
+    public String handleUpdate(long chatId, int updateId, String text) {
+        Reply reply = respond(chatId, updateId, text);
+        return reply == null ? null : reply.getText();
+    }
+
+    /**
+     * Обрабатывает сообщение из апдейта тг так же, как handleUpdate, и добавляет к ответу
+     * кнопки текущего шага диалога: форму /settings, способ создания пароля в /add и /change,
+     * подтверждение /delete. Нажатие кнопки обрабатывает handleCallback.
+     */
+    public Reply respond(long chatId, int updateId, String text) {
+        return respond(chatId, updateId, text, null);
+    }
+
+    /**
+     * Обрабатывает сообщение так же, как respond, с языком из профиля тг отправителя
+     * (language_code, например "en" или "en-US"; null - неизвестен). Пока язык не выбран
+     * командой /language, чату отвечают на этом языке, если он поддерживается (см. Messages).
+     */
+    public Reply respond(long chatId, int updateId, String text, String language) {
+        return admit(chatId, updateId, false, () -> {
+            UserSettings settings = getUserSettings(chatId);
+            if (language != null && !settings.languageChosen) settings.messages = Messages.forLanguage(language);
+            String reply = handleMessage(chatId, text);
+            return reply == null ? null : new Reply(reply, keyboard(settings));
+        });
+    }
+
+    /**
+     * Обрабатывает нажатие кнопки (callback_query) ровно один раз и с тем же контролем допуска,
+     * что и сообщения. Возвращает новый текст и кнопки для сообщения с нажатой кнопкой
+     * или null, если сообщение менять не нужно.
+     * Данные кнопки содержат все ответы диалога, поэтому нажатие не зависит от сохраненного
+     * состояния диалога: ответы проходят через те же состояния, что и при вводе текстом.
+     */
+    public Reply handleCallback(long chatId, int updateId, String data) {
+        String command = data == null || data.isEmpty() ? "callback" : "callback:" + data.charAt(0);
+        return admit(chatId, updateId, true, () -> traced(chatId, command, () -> {
+            UserSettings settings = getUserSettings(chatId);
+            synchronized (settings) {
+                return callback(chatId, data);
+            }
+        }));
+    }
+
+    /**
+     * Вызывает handler, записывая событие JFR о команде command и состояниях диалога
+     * до и после нее, если запись идет.
+     */
+    private <T> T traced(long chatId, String command, Supplier<T> handler) {
+        BotEvents.CommandEvent event = new BotEvents.CommandEvent();
+        if (!event.isEnabled()) return handler.get();
+        Session dialog = getUserSettings(chatId).dialog;
+        event.chatId = chatId;
+        event.command = command;
+        event.stateBefore = dialog.state.name();
+        event.begin();
+        try {
+            return handler.get();
+        } finally {
+            event.stateAfter = dialog.state.name();
+            event.commit();
+        }
+    }
+
+    /**
+     * Название команды для события JFR: команда из COMMANDS, answer для ответа в диалоге
+     * или unknown. Сам текст сообщения не возвращается: в нем могут быть пароли.
+     */
+    private String commandName(long chatId, String text) {
         text = text.trim();
+        String cmd = first(text);
+        if (getUserSettings(chatId).dialog.state != State.IDLE && !cmd.equals("/settings") && !text.equals("/password")) {
+            return "answer";
+        }
+        return COMMANDS.contains(cmd) ? cmd : "unknown";
+    }
+
+    /**
+     * Проверяет контроль допуска и повторную доставку апдейта и вызывает handler.
+     * notice - отказ показывается уведомлением (для нажатий кнопок).
+     */
+    private Reply admit(long chatId, int updateId, boolean notice, Supplier<Reply> handler) {
+        AdmissionControl ac = admission;
+        switch (ac.acquire(chatId)) {
+            case THROTTLED:
+                return new Reply(knownMessages(chatId).get(Text.THROTTLED), List.of(), notice);
+            case THROTTLED_AGAIN:
+                return null;
+            case OVERLOADED:
+                return new Reply(knownMessages(chatId).get(Text.OVERLOADED), List.of(), notice);
+            default:
+                break;
+        }
+        try {
+            if (!getUserSettings(chatId).updates.firstDelivery(updateId)) return null;
+            return handler.get();
+        } finally {
+            ac.release();
+        }
+    }
+
+    /**
+     * Каталог ответов чата без создания настроек (для отказов контроля допуска):
+     * каталог по умолчанию, если чат еще не писал боту.
+     */
+    private Messages knownMessages(long chatId) {
+        UserSettings settings = userSettings.get(chatId);
+        return settings == null ? Messages.getDefault() : settings.messages;
+    }
+
+    /**
+     * Обрабатывает данные нажатой кнопки. Первый символ - действие:
+     * s<длина>.<флаги> - показать форму /settings с этими параметрами (без сохранения);
+     * S<длина>.<флаги> - сохранить параметры; g и m <хранилище>\n<сервис>\n<логин> - /add
+     * с генерацией или ручным вводом пароля; x<хранилище>\n<сервис> - удалить запись;
+     * n - отменить удаление; r и R <хранилище>\n<версия>\n<сервис> - /change с генерацией
+     * или ручным вводом. <хранилище> - номер хранилища, выбранного при показе кнопки (0 - личное):
+     * если с тех пор выбрано другое, кнопка не действует.
+     */
+    private Reply callback(long chatId, String data) {
+        if (data == null || data.isEmpty()) return null;
         UserSettings settings = getUserSettings(chatId);
+        Messages m = settings.messages;
+        Session dialog = settings.dialog;
+        char action = data.charAt(0);
+        String rest = data.substring(1);
+        int nl = rest.indexOf('\n');
+        String shownVault = null;
+        if ("gmrRx".indexOf(action) >= 0 && nl >= 0) {
+            shownVault = rest.substring(0, nl);
+            rest = rest.substring(nl + 1);
+            nl = rest.indexOf('\n');
+        }
 
-        if (settings.pmState != PM_NONE && !text.equals("/settings") && !text.equals("/password")) {
-            return handleManagerStep(chatId, text, settings);
+        switch (action) {
+            case 's':
+            case 'S': {
+                int dot = rest.indexOf('.');
+                int length = dot < 0 ? -1 : parseInt(rest.substring(0, dot));
+                int flags = dot < 0 ? -1 : parseInt(rest.substring(dot + 1));
+                if (length < MIN_LENGTH || length > MAX_LENGTH || flags < 0
+                        || flags > (DIGITS | UPPER | LOWER | SPECIAL)) {
+                    return null;
+                }
+                if (action == 's') return new Reply(settingsForm(m, length, flags), settingsKeyboard(m, length, flags));
+                dialog.fire(Event.CANCEL);
+                dialog.fire(Event.SETTINGS);
+                try {
+                    compile(settings, length, flags);
+                } catch (IllegalArgumentException e) {
+                    return new Reply(m.format(Text.SETTINGS_CONFLICT, e.getMessage(), MIN_LENGTH, MAX_LENGTH),
+                            settingsKeyboard(m, length, flags));
+                }
+                String reply = replay(chatId, settings, String.valueOf(length), yesNo(flags, DIGITS),
+                        yesNo(flags, UPPER), yesNo(flags, LOWER), yesNo(flags, SPECIAL));
+                return new Reply(reply, keyboard(settings));
+            }
+            case 'n':
+                if (dialog.state == State.DELETE_CONFIRM) dialog.fire(Event.CANCEL);
+                return new Reply(m.get(Text.DELETE_CANCELLED));
+            case 'g':
+            case 'm':
+            case 'r':
+            case 'R':
+                if (shownVault == null || nl < 0) return null;
+                break;
+            case 'x':
+                if (shownVault == null) return null;
+                break;
+            default:
+                return null;
+        }
+        if (!shownVault.equals(Long.toString(settings.vault))) return new Reply(m.get(Text.BUTTON_OTHER_VAULT));
+
+        if (readOnly) return new Reply(m.get(Text.READ_ONLY));
+        String denied = checkAccess(chatId, settings, true);
+        if (denied != null) {
+            if (dialog.state.manager) dialog.fire(Event.CANCEL);
+            return new Reply(denied);
         }
+        long owner = owner(chatId, settings);
+        dialog.fire(Event.CANCEL);
 
-        if (settings.state != STATE_NONE && !text.equals("/settings") && !text.equals("/password")) {
-            return handleSettingsStep(text, settings);
+        if (action == 'g' || action == 'm') {
+            dialog.fire(Event.ADD);
+            return new Reply(replay(chatId, settings, rest.substring(0, nl), rest.substring(nl + 1),
+                    action == 'g' ? "1" : "2"));
+        }
+        if (action == 'x') {
+            String reply = handleDelete(owner, rest, settings);
+            if (dialog.state != State.DELETE_CONFIRM) return new Reply(reply);
+            return new Reply(replay(chatId, settings, "+"));
+        }
+        String reply = handleChange(owner, rest.substring(nl + 1), settings);
+        if (dialog.state != State.CHANGE_METHOD) return new Reply(reply);
+        dialog.version = parseInt(rest.substring(0, nl));
+        return new Reply(replay(chatId, settings, action == 'r' ? "1" : "2"));
+    }
+
+    /** Передает ответы текущему диалогу по очереди и возвращает ответ на последний. */
+    private String replay(long chatId, UserSettings settings, String... answers) {
+        String reply = null;
+        for (String answer : answers) {
+            reply = settings.dialog.state.handle(this, chatId, settings, answer);
+        }
+        return reply;
+    }
+
+    /**
+     * Кнопки для текущего шага диалога или пустой список. Если данные кнопки не помещаются
+     * в MAX_CALLBACK_DATA (длинное название сервиса или логин), шаг остается только текстовым.
+     */
+    private static List<List<Button>> keyboard(UserSettings settings) {
+        Messages m = settings.messages;
+        Session d = settings.dialog;
+        switch (d.state) {
+            case WAIT_LENGTH:
+                return settingsKeyboard(m, settings.length, flags(settings));
+            case ADD_METHOD:
+                if (d.service.indexOf('\n') >= 0) return List.of();
+                return choice(m, "g", "m", settings.vault + "\n" + d.service + "\n" + d.login);
+            case CHANGE_METHOD:
+                return choice(m, "r", "R", settings.vault + "\n" + d.version + "\n" + d.service);
+            case DELETE_CONFIRM:
+                String delete = "x" + settings.vault + "\n" + d.service;
+                if (!fits(delete)) return List.of();
+                return List.of(List.of(new Button(m.get(Text.BUTTON_DELETE), delete),
+                        new Button(m.get(Text.BUTTON_CANCEL), "n")));
+            default:
+                return List.of();
         }
+    }
+
+    /** Кнопки выбора способа создания пароля: генерация или ручной ввод. */
+    private static List<List<Button>> choice(Messages m, String generate, String manual, String args) {
+        if (!fits(generate + args)) return List.of();
+        return List.of(List.of(new Button(m.get(Text.BUTTON_GENERATE), generate + args),
+                new Button(m.get(Text.BUTTON_MANUAL), manual + args)));
+    }
+
+    /** Помещаются ли данные в callback_data. */
+    private static boolean fits(String data) {
+        return data.getBytes(StandardCharsets.UTF_8).length <= MAX_CALLBACK_DATA;
+    }
+
+    /**
+     * Форма /settings: выбор длины, переключатели наборов символов и сохранение.
+     * Каждая кнопка несет итоговые параметры целиком, поэтому между нажатиями ничего не хранится.
+     */
+    private static List<List<Button>> settingsKeyboard(Messages m, int length, int flags) {
+        List<Button> presets = new ArrayList<>();
+        for (int l : LENGTH_PRESETS) {
+            presets.add(new Button(l == length ? "• " + l : String.valueOf(l), "s" + l + "." + flags));
+        }
+        List<Button> steps = new ArrayList<>();
+        if (length > MIN_LENGTH) steps.add(new Button("−1", "s" + (length - 1) + "." + flags));
+        if (length < MAX_LENGTH) steps.add(new Button("+1", "s" + (length + 1) + "." + flags));
+        return List.of(presets, steps,
+                List.of(toggle(m.get(Text.BUTTON_DIGITS), length, flags, DIGITS),
+                        toggle(m.get(Text.BUTTON_UPPER), length, flags, UPPER)),
+                List.of(toggle(m.get(Text.BUTTON_LOWER), length, flags, LOWER),
+                        toggle(m.get(Text.BUTTON_SPECIAL), length, flags, SPECIAL)),
+                List.of(new Button(m.get(Text.BUTTON_SAVE), "S" + length + "." + flags)));
+    }
+
+    /** Кнопка-переключатель набора символов flag. */
+    private static Button toggle(String name, int length, int flags, int flag) {
+        return new Button(((flags & flag) != 0 ? "✓ " : "✗ ") + name, "s" + length + "." + (flags ^ flag));
+    }
+
+    /** Текст формы /settings с выбранными параметрами. */
+    private static String settingsForm(Messages m, int length, int flags) {
+        return m.format(Text.SETTINGS_FORM, length, yesNo(flags, DIGITS), yesNo(flags, UPPER), yesNo(flags, LOWER),
+                yesNo(flags, SPECIAL));
+    }
 
+    /** Ответ + или - для флага набора символов. */
+    private static String yesNo(int flags, int flag) {
+        return (flags & flag) != 0 ? "+" : "-";
+    }
+
+    /**
+     * Основной метод обработки сообщений пользователя.
+     */
+    public String handleMessage(long chatId, String text) {
+        return traced(chatId, commandName(chatId, text), () -> {
+            UserSettings settings = getUserSettings(chatId);
+            synchronized (settings) {
+                return message(chatId, text);
+            }
+        });
+    }
+
+    /** Обработка сообщения без записи события. */
+    private String message(long chatId, String text) {
+        text = text.trim();
+        UserSettings settings = getUserSettings(chatId);
+        Messages m = settings.messages;
         String cmd = first(text);
         String arg = second(text);
 
+        Session dialog = settings.dialog;
+        if (dialog.state != State.IDLE && !cmd.equals("/settings") && !text.equals("/password")) {
+            if (dialog.state.manager) {
+                String denied = checkAccess(chatId, settings, true);
+                if (denied != null) {
+                    dialog.fire(Event.CANCEL);
+                    return denied;
+                }
+            }
+            return dialog.state.handle(this, chatId, settings, text);
+        }
+
+        if (readOnly && !READ_ONLY.contains(cmd)) return m.get(Text.READ_ONLY);
+        if (VAULT_READ.contains(cmd) || VAULT_WRITE.contains(cmd)) {
+            String denied = checkAccess(chatId, settings, VAULT_WRITE.contains(cmd));
+            if (denied != null) return denied;
+        }
+        long owner = owner(chatId, settings);
+
         switch (cmd) {
             case "/start":
-                return """
-                        Команды:
-                        /settings — настройки генерации
-                        /password — сгенерировать пароль
-
-                        /add — добавить запись
-                        /list — список сервисов
-                        /get <сервис> — логин и пароль
-                        /delete <сервис> — удалить (+/-)
-                        /change <сервис> — изменить пароль
-                        """;
+                return m.get(Text.HELP);
 
             case "/settings":
-                settings.pmState = PM_NONE;
-                settings.state = STATE_WAIT_LENGTH;
-                return "Введите длину пароля (" + MIN_LENGTH + "–" + MAX_LENGTH + "):";
+                dialog.fire(Event.CANCEL);
+                if ("фраза".equals(arg) || "phrase".equals(arg)) {
+                    dialog.fire(Event.PHRASE);
+                    return m.format(Text.ENTER_WORDS, MIN_WORDS, MAX_WORDS);
+                }
+                dialog.fire(Event.SETTINGS);
+                return m.format(Text.ENTER_LENGTH, MIN_LENGTH, MAX_LENGTH);
 
             case "/password":
-                settings.pmState = PM_NONE;
-                return "Ваш пароль: " + generatePasswordRaw(settings);
+                if (dialog.state.manager) dialog.fire(Event.CANCEL);
+                try (SecretBuffer pass = generateSecret(settings)) {
+                    return m.format(Text.YOUR_PASSWORD, pass);
+                }
 
             case "/add":
-                settings.pmState = PM_ADD_WAIT_SERVICE;
-                return "Введите название сервиса:";
+                dialog.fire(Event.ADD);
+                return m.get(Text.ENTER_SERVICE);
 
             case "/list":
-                return listServices(chatId);
+                return listServices(owner, m);
 
             case "/get":
-                return handleGet(chatId, arg);
+                return handleGet(chatId, owner, arg, m);
 
             case "/delete":
-                return handleDelete(chatId, arg, settings);
+                return handleDelete(owner, arg, settings);
 
             case "/change":
-                return handleChange(chatId, arg, settings);
+                return handleChange(owner, arg, settings);
+
+            case "/history":
+                return handleHistory(chatId, owner, arg, m);
+
+            case "/restore":
+                return handleRestore(chatId, owner, arg, settings);
+
+            case "/retention":
+                return handleRetention(arg, settings);
+
+            case "/rotate":
+                if (settings.vault != 0) return m.get(Text.ROTATE_PERSONAL_ONLY);
+                return handleRotate(chatId, arg, m);
+
+            case "/audit":
+                return handleAudit(owner, m);
+
+            case "/policy":
+                return handlePolicy(arg, settings);
+
+            case "/vault":
+                return handleVault(chatId, arg, settings);
+
+            case "/share":
+                return handleShare(chatId, owner, arg, m);
+
+            case "/redeem":
+                return handleRedeem(chatId, arg, m);
+
+            case "/profile":
+                if (profiler == null || !admins.contains(chatId)) return m.get(Text.UNKNOWN_COMMAND);
+                return handleProfile(arg, m);
+
+            case "/language":
+                return handleLanguage(arg, settings);
 
             default:
-                return "Неизвестная команда. Напишите /start";
+                return m.get(Text.UNKNOWN_COMMAND);
         }
     }
 
     /**
-     * Обрабатывает шаги диалога менеджера паролей.
+     * Команда /language — язык ответов чата: без аргумента текущий, ru или en - выбрать.
+     * Выбранный язык больше не меняется по языку из профиля тг.
      */
-    private String handleManagerStep(long chatId, String text, UserSettings settings) {
-        switch (settings.pmState) {
-            case PM_ADD_WAIT_SERVICE:
-                settings.tmpService = text;
-                settings.pmState = PM_ADD_WAIT_LOGIN;
-                return "Введите логин/email:";
+    private String handleLanguage(String arg, UserSettings settings) {
+        if (arg == null) return settings.messages.get(Text.LANGUAGE);
+        String lang = arg.toLowerCase();
+        if (!Messages.LANGUAGES.contains(lang)) return settings.messages.get(Text.LANGUAGE_USAGE);
+        settings.messages = Messages.forLanguage(lang);
+        settings.languageChosen = true;
+        return settings.messages.get(Text.LANGUAGE_SET);
+    }
 
-            case PM_ADD_WAIT_LOGIN:
-                settings.tmpLogin = text;
-                settings.pmState = PM_ADD_WAIT_METHOD;
-                return """
-                        Выберите способ создания пароля:
-                        1. Автоматическая генерация
-                        2. Ввод вручную
-                        """;
+    /**
+     * Команда /profile — запись JFR: без аргумента состояние, start - начать,
+     * dump - сохранить последние минуты в файл, stop - сохранить и остановить.
+     */
+    private String handleProfile(String arg, Messages m) {
+        Profiler p = profiler;
+        try {
+            if ("start".equals(arg)) {
+                return m.get(p.start() ? Text.PROFILE_STARTED : Text.PROFILE_RUNNING_ALREADY);
+            }
+            if ("dump".equals(arg) || "stop".equals(arg)) {
+                Path file = "dump".equals(arg) ? p.dump() : p.stop();
+                return file == null ? m.get(Text.PROFILE_NOT_RUNNING) : m.format(Text.PROFILE_SAVED, file.toAbsolutePath());
+            }
+        } catch (IOException | IllegalStateException e) {
+            return m.format(Text.PROFILE_ERROR, e.getMessage());
+        }
+        if (arg != null) return m.get(Text.PROFILE_USAGE);
+        if (!p.isRunning()) return m.get(Text.PROFILE_IDLE);
+        return m.format(Text.PROFILE_RUNNING,
+                new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date(p.getStartTime())));
+    }
 
-            case PM_ADD_WAIT_METHOD:
-                if (text.equals("1")) {
-                    String pass = generatePasswordRaw(settings);
-                    database.save(chatId, settings.tmpService, settings.tmpLogin, pass);
-                    String service = settings.tmpService;
-                    resetManager(settings);
-                    return "Пароль для " + service + ": " + pass + "\nДанные сохранены";
-                }
-                if (text.equals("2")) {
-                    settings.pmState = PM_ADD_WAIT_PASSWORD;
-                    return "Введите пароль:";
-                }
-                return "Введите 1 или 2";
+    /** Команда /get — показать логин и пароль сервиса из хранилища owner чату chatId. */
+    private String handleGet(long chatId, long owner, String service, Messages m) {
+        if (service == null) return m.get(Text.GET_USAGE);
+        PasswordDatabase.Entry e = database().read(chatId, owner, service);
+        if (e == null) return m.get(Text.SERVICE_NOT_FOUND);
+        return m.format(Text.ENTRY, e.getService(), e.getLogin(), e.getPassword());
+    }
 
-            case PM_ADD_WAIT_PASSWORD:
-                database.save(chatId, settings.tmpService, settings.tmpLogin, text);
-                resetManager(settings);
-                return "Данные сохранены";
+    /**
+     * Команда /share — одноразовая ссылка на запись, которую другой чат получает командой
+     * /redeem в течение SHARE_TTL_MS. Пароль не попадает в историю чата владельца.
+     */
+    private String handleShare(long chatId, long owner, String service, Messages m) {
+        if (service == null) return m.get(Text.SHARE_USAGE);
+        PasswordDatabase.Entry e = database().find(owner, service);
+        if (e == null) return m.get(Text.SERVICE_NOT_FOUND);
+        ShareStore.Share share = shares.put(owner, e.getService(), SHARE_TTL_MS, clock.getAsLong());
+        if (share == null) return m.get(Text.SHARE_LIMIT);
+        audit(chatId, AuditLog.Operation.SHARE, e.getService(), AuditLog.Outcome.OK);
+        return m.format(Text.SHARE_CREATED, e.getService(), SHARE_TTL_MS / 60_000, share.getToken());
+    }
 
-            case PM_DELETE_CONFIRM: {
-                Boolean ok = parseYesNo(text);
-                if (ok == null) return "Ответьте + или -";
+    /** Команда /redeem — получить запись по одноразовой ссылке. */
+    private String handleRedeem(long chatId, String token, Messages m) {
+        if (token == null) return m.get(Text.REDEEM_USAGE);
+        ShareStore.Share share = shares.find(token, clock.getAsLong());
+        if (share == null) return m.get(Text.LINK_INVALID);
+        if (share.getOwnerId() == chatId) return m.get(Text.LINK_OWN);
+        if (!shares.remove(share)) return m.get(Text.LINK_INVALID);
+
+        PasswordDatabase.Entry e = database().find(share.getOwnerId(), share.getService());
+        audit(chatId, AuditLog.Operation.REDEEM, share.getService(),
+                e == null ? AuditLog.Outcome.NOT_FOUND : AuditLog.Outcome.OK);
+        if (e == null) return m.get(Text.ENTRY_REMOVED);
+        return m.format(Text.REDEEMED, e.getService(), e.getLogin(), e.getPassword());
+    }
 
-                if (ok) {
-                    String serviceToDelete = settings.tmpService;
-                    database.delete(chatId, serviceToDelete);
-                    resetManager(settings);
-                    return "Данные для \"" + serviceToDelete + "\" удалены";
-                }
+    /** Записывает операцию в журнал, если он ведется. */
+    private void audit(long chatId, AuditLog.Operation operation, String service, AuditLog.Outcome outcome) {
+        AuditLog log = auditLog;
+        if (log != null) {
+            log.record(chatId, operation, service, outcome);
+        }
+    }
 
-                resetManager(settings);
-                return "Удаление отменено";
-            }
+    /** Команда /delete — запрос подтверждения удаления. */
+    private String handleDelete(long chatId, String service, UserSettings settings) {
+        Messages m = settings.messages;
+        if (service == null) return m.get(Text.DELETE_USAGE);
+        PasswordDatabase.Entry e = database().find(chatId, service);
+        if (e == null) return m.get(Text.SERVICE_NOT_FOUND);
+        settings.dialog.service = e.getService();
+        settings.dialog.fire(Event.DELETE);
+        return m.format(Text.DELETE_CONFIRM, e.getService());
+    }
 
-            case PM_CHANGE_WAIT_METHOD:
-                if (text.equals("1")) {
-                    PasswordDatabase.Entry e = database.find(chatId, settings.tmpService);
-                    if (e == null) {
-                        resetManager(settings);
-                        return "Сервис \"" + settings.tmpService + "\" не найден.\nИспользуйте /list.";
+    /** Команда /change — запуск процесса изменения пароля. */
+    private String handleChange(long chatId, String service, UserSettings settings) {
+        Messages m = settings.messages;
+        if (service == null) return m.get(Text.CHANGE_USAGE);
+
+        PasswordDatabase.Entry e = database().find(chatId, service);
+        if (e == null) {
+            return m.format(Text.SERVICE_NOT_FOUND_USE_LIST, service);
+        }
+
+        settings.dialog.service = e.getService();
+        settings.dialog.version = e.getVersion();
+        settings.dialog.fire(Event.CHANGE);
+
+        return m.format(Text.CHANGE_METHOD, e.getService(), e.getLogin());
+    }
+
+    /** Команда /history — список прежних версий записи хранилища owner. */
+    private String handleHistory(long chatId, long owner, String service, Messages m) {
+        if (service == null) return m.get(Text.HISTORY_USAGE);
+        PasswordDatabase.Entry e = database().find(owner, service);
+        if (e == null) return m.get(Text.SERVICE_NOT_FOUND);
+
+        List<PasswordDatabase.HistoryEntry> versions = database().history(chatId, owner, e.getService());
+        if (versions.isEmpty()) return m.format(Text.HISTORY_EMPTY, e.getService());
+
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm");
+        Messages.Writer w = m.writer().append(Text.HISTORY_HEADER, e.getService(), versions.size());
+        for (PasswordDatabase.HistoryEntry v : versions) {
+            w.append(Text.HISTORY_LINE, v.getVersion(), format.format(new Date(v.getChangedAt())), v.getLogin());
+        }
+        return w.append(Text.HISTORY_FOOTER, e.getService()).toString();
+    }
+
+    /** Команда /restore — восстановление прежней версии записи хранилища owner. */
+    private String handleRestore(long chatId, long owner, String arg, UserSettings settings) {
+        Messages m = settings.messages;
+        String usage = m.get(Text.RESTORE_USAGE);
+        if (arg == null) return usage;
+
+        int i = arg.lastIndexOf(' ');
+        if (i == -1) return usage;
+        String service = arg.substring(0, i).trim();
+        int version;
+        try {
+            version = Integer.parseInt(arg.substring(i + 1));
+        } catch (NumberFormatException ex) {
+            return usage;
+        }
+
+        if (!database().restore(chatId, owner, service, version, settings.historyLimit)) {
+            return m.format(Text.VERSION_NOT_FOUND, version, service);
+        }
+        return m.format(Text.RESTORED, version, service);
+    }
+
+    /** Команда /retention — сколько прежних версий хранить для каждой записи. */
+    private String handleRetention(String arg, UserSettings settings) {
+        Messages m = settings.messages;
+        if (arg == null) return m.format(Text.RETENTION, settings.historyLimit, MAX_HISTORY_LIMIT);
+        int limit;
+        try {
+            limit = Integer.parseInt(arg);
+        } catch (NumberFormatException ex) {
+            return m.format(Text.ENTER_NUMBER, 0, MAX_HISTORY_LIMIT);
+        }
+        if (limit < 0 || limit > MAX_HISTORY_LIMIT) return m.format(Text.ENTER_NUMBER, 0, MAX_HISTORY_LIMIT);
+        settings.historyLimit = limit;
+        return m.format(Text.RETENTION_SET, limit);
+    }
+
+    /** Команда /rotate — назначение или отмена плановой смены пароля. */
+    private String handleRotate(long chatId, String arg, Messages m) {
+        String usage = m.get(Text.ROTATE_USAGE);
+        if (arg == null) return usage;
+
+        int i = arg.lastIndexOf(' ');
+        if (i == -1) return usage;
+        String service = arg.substring(0, i).trim();
+        int days;
+        try {
+            days = Integer.parseInt(arg.substring(i + 1));
+        } catch (NumberFormatException ex) {
+            return usage;
+        }
+        if (days < 0 || days > MAX_ROTATION_DAYS) return m.format(Text.ROTATE_DAYS, MAX_ROTATION_DAYS);
+
+        PasswordDatabase.Entry e = database().find(chatId, service);
+        if (e == null) return m.get(Text.SERVICE_NOT_FOUND);
+
+        if (days == 0) {
+            rotations.cancel(chatId, e.getService());
+            database().deleteRotation(chatId, e.getService());
+            return m.format(Text.ROTATE_OFF, e.getService());
+        }
+
+        long interval = days * DAY_MS;
+        RotationScheduler.Task task = new RotationScheduler.Task(
+                chatId, e.getService(), interval, clock.getAsLong() + interval);
+        database().saveRotation(task);
+        rotations.schedule(task);
+        return m.format(Text.ROTATE_ON, e.getService(), days);
+    }
+
+    /**
+     * Меняет все пароли, срок плановой смены которых наступил.
+     * Пароли генерируются по текущим настройкам владельца (под блокировкой его чата, до начала
+     * транзакции) в буферы SecretPool и сохраняются пачками по ROTATION_BATCH записей, каждая
+     * пачка - одной транзакцией; после пачки буферы затираются.
+     * Возвращает уведомления для чатов: chatId -> текст сообщения.
+     * В режиме только для чтения ничего не меняет.
+     */
+    public Map<Long, String> rotateDue() {
+        if (readOnly) return Map.of();
+        PasswordDatabase db = database();
+        long now = clock.getAsLong();
+        Map<Long, StringBuilder> messages = new LinkedHashMap<>();
+
+        List<RotationScheduler.Task> due;
+        while (!(due = rotations.pollDue(now, ROTATION_BATCH)).isEmpty()) {
+            List<RotationScheduler.Task> failed = new ArrayList<>();
+            Map<RotationScheduler.Task, SecretBuffer> passwords = new IdentityHashMap<>();
+            Map<RotationScheduler.Task, Integer> limits = new IdentityHashMap<>();
+            try {
+                for (RotationScheduler.Task t : due) {
+                    UserSettings settings = getUserSettings(t.getUserId());
+                    synchronized (settings) {
+                        try {
+                            passwords.put(t, generateSecret(settings));
+                            limits.put(t, settings.historyLimit);
+                        } catch (RuntimeException e) {
+                            System.err.println("Плановая смена пароля не выполнена: " + e.getMessage());
+                            failed.add(t);
+                        }
                     }
-                    String newPass = generatePasswordRaw(settings);
-                    database.save(chatId, e.getService(), e.getLogin(), newPass);
-                    String service = e.getService();
-                    resetManager(settings);
-                    return "Новый пароль для " + service + ": " + newPass + "\nПароль изменён";
                 }
-                if (text.equals("2")) {
-                    settings.pmState = PM_CHANGE_WAIT_PASSWORD;
-                    return "Введите новый пароль:";
+                Map<RotationScheduler.Task, SecretBuffer> rotated = db.rotate(due, now, passwords::get,
+                        t -> limits.getOrDefault(t, PasswordDatabase.DEFAULT_HISTORY_LIMIT));
+
+                if (rotated == null) {
+                    for (RotationScheduler.Task t : due) {
+                        rotations.scheduleIfAbsent(retry(t, now));
+                    }
+                    break;
+                }
+                for (RotationScheduler.Task t : failed) {
+                    rotations.scheduleIfAbsent(retry(t, now));
                 }
-                return "Введите 1 или 2";
 
-            case PM_CHANGE_WAIT_PASSWORD: {
-                PasswordDatabase.Entry e = database.find(chatId, settings.tmpService);
-                if (e == null) {
-                    resetManager(settings);
-                    return "Сервис \"" + settings.tmpService + "\" не найден.\nИспользуйте /list.";
+                for (Map.Entry<RotationScheduler.Task, SecretBuffer> r : rotated.entrySet()) {
+                    RotationScheduler.Task t = r.getKey();
+                    rotations.scheduleIfAbsent(t.next(now));
+                    Messages m = getUserSettings(t.getUserId()).messages;
+                    messages.computeIfAbsent(t.getUserId(), k -> new StringBuilder(m.get(Text.ROTATED_HEADER)))
+                            .append(m.format(Text.ROTATED_LINE, t.getService(), r.getValue()));
                 }
-                database.save(chatId, e.getService(), e.getLogin(), text);
-                resetManager(settings);
-                return "Пароль для " + e.getService() + " изменён";
+            } finally {
+                for (SecretBuffer password : passwords.values()) password.close();
             }
+        }
 
-            default:
-                resetManager(settings);
-                return null;
+        Map<Long, String> out = new LinkedHashMap<>();
+        for (Map.Entry<Long, StringBuilder> m : messages.entrySet()) {
+            out.put(m.getKey(), m.getValue().toString());
         }
+        return out;
+    }
+
+    /** Задача плановой смены, повторяемая через ROTATION_RETRY_MS после ошибки. */
+    private static RotationScheduler.Task retry(RotationScheduler.Task t, long now) {
+        return new RotationScheduler.Task(t.getUserId(), t.getService(), t.getIntervalMs(), now + ROTATION_RETRY_MS);
+    }
+
+    /** Ключ записей выбранного хранилища: чат для личного, vaultKey для общего. */
+    private static long owner(long chatId, UserSettings settings) {
+        return settings.vault == 0 ? chatId : PasswordDatabase.vaultKey(settings.vault);
     }
 
     /**
-     * Обрабатывает шаг настройки генерации пароля.
+     * Проверяет доступ чата к выбранному хранилищу по кэшу участия.
+     * Возвращает null, если доступ есть, иначе текст отказа.
      */
-    private String handleSettingsStep(String text, UserSettings settings) {
-        Boolean v;
+    private String checkAccess(long chatId, UserSettings settings, boolean write) {
+        if (settings.vault == 0) return null;
+        PasswordDatabase.Membership m = memberships(chatId).get(settings.vault);
+        if (m == null) {
+            return settings.messages.format(Text.NO_SELECTED_VAULT_ACCESS, settings.vaultName);
+        }
+        if (write && !m.getRole().canWrite()) {
+            return settings.messages.format(Text.VAULT_READ_ONLY, m.getName());
+        }
+        return null;
+    }
 
-        switch (settings.state) {
-            case STATE_WAIT_LENGTH:
-                settings.length = Integer.parseInt(text);
-                settings.state = STATE_ASK_DIGITS;
-                return "Использовать цифры? (+ / -)";
+    /**
+     * Участие чата в общих хранилищах из кэша; при первом обращении загружается из базы.
+     * Загрузка идет внутри computeIfAbsent, поэтому сброс кэша после изменения участия
+     * не может быть перезаписан загрузкой, начатой до изменения.
+     * В режиме только для чтения участие меняет репликация в обход бота, поэтому
+     * оно каждый раз читается из базы и в кэш не попадает.
+     */
+    private Map<Long, PasswordDatabase.Membership> memberships(long chatId) {
+        if (readOnly) return loadMemberships(chatId);
+        return memberships.computeIfAbsent(chatId, this::loadMemberships);
+    }
 
-            case STATE_ASK_DIGITS:
-                v = parseYesNo(text);
-                if (v == null) return "Ответьте + или -";
-                settings.digits = v;
-                settings.state = STATE_ASK_UPPER;
-                return "Использовать заглавные буквы? (+ / -)";
+    /** Загружает участие чата в хранилищах из базы. */
+    private Map<Long, PasswordDatabase.Membership> loadMemberships(long chatId) {
+        Map<Long, PasswordDatabase.Membership> byVault = new LinkedHashMap<>();
+        for (PasswordDatabase.Membership m : database().memberships(chatId)) {
+            byVault.put(m.getVaultId(), m);
+        }
+        return byVault;
+    }
 
-            case STATE_ASK_UPPER:
-                v = parseYesNo(text);
-                if (v == null) return "Ответьте + или -";
-                settings.upper = v;
-                settings.state = STATE_ASK_LOWER;
-                return "Использовать строчные буквы? (+ / -)";
+    /** Участие чата в хранилище с указанным названием или null. */
+    private PasswordDatabase.Membership membershipByName(long chatId, String name) {
+        for (PasswordDatabase.Membership m : memberships(chatId).values()) {
+            if (m.getName().equalsIgnoreCase(name)) return m;
+        }
+        return null;
+    }
 
-            case STATE_ASK_LOWER:
-                v = parseYesNo(text);
-                if (v == null) return "Ответьте + или -";
-                settings.lower = v;
-                settings.state = STATE_ASK_SPECIAL;
-                return "Использовать специальные символы? (+ / -)";
+    /**
+     * Команда /vault — общие хранилища:
+     * /vault — список хранилищ чата
+     * /vault create <название> — создать (создатель становится владельцем)
+     * /vault use [название] — выбрать хранилище для команд (без названия — личное)
+     * /vault members <название> — участники
+     * /vault add <название> <id чата> [viewer|editor|owner] — добавить участника или сменить роль
+     * /vault remove <название> <id чата> — удалить участника
+     * Участником может быть и групповой чат: тогда хранилищем пользуются из этой группы.
+     */
+    private String handleVault(long chatId, String arg, UserSettings settings) {
+        Messages msg = settings.messages;
+        String usage = msg.get(Text.VAULT_USAGE);
+        if (arg == null) {
+            Messages.Writer w = msg.writer().append(Text.VAULT_LIST_HEADER, settings.vault == 0 ? "* " : "  ");
+            for (PasswordDatabase.Membership m : memberships(chatId).values()) {
+                w.append(Text.VAULT_LIST_LINE, m.getVaultId() == settings.vault ? "* " : "  ", m.getName(),
+                        roleName(msg, m.getRole()));
+            }
+            return w.append("\n").append(usage).toString();
+        }
 
-            case STATE_ASK_SPECIAL:
-                v = parseYesNo(text);
-                if (v == null) return "Ответьте + или -";
-                settings.special = v;
-                settings.state = STATE_NONE;
-                return "Новые параметры. Длина = " + settings.length
-                        + "; наличие цифр " + settings.digits
-                        + "; наличие заглавных букв " + settings.upper
-                        + "; наличие строчных букв " + settings.lower
-                        + "; наличие спецсимволов " + settings.special;
+        String action = first(arg);
+        String rest = second(arg);
+        switch (action) {
+            case "create": {
+                if (rest == null || rest.length() > MAX_VAULT_NAME || !rest.matches("[\\p{L}\\p{N}_-]+")) {
+                    return msg.format(Text.VAULT_NAME_INVALID, MAX_VAULT_NAME);
+                }
+                long id = database().createVault(rest, chatId);
+                if (id < 0) return msg.format(Text.VAULT_EXISTS, rest);
+                memberships.remove(chatId);
+                return msg.format(Text.VAULT_CREATED, rest);
+            }
+            case "use": {
+                if (rest == null) {
+                    settings.vault = 0;
+                    settings.vaultName = null;
+                    return msg.get(Text.PERSONAL_SELECTED);
+                }
+                PasswordDatabase.Membership m = membershipByName(chatId, rest);
+                if (m == null) return msg.format(Text.NO_VAULT_ACCESS, rest);
+                settings.dialog.fire(Event.CANCEL);
+                settings.vault = m.getVaultId();
+                settings.vaultName = m.getName();
+                return msg.format(Text.VAULT_SELECTED, m.getName(), roleName(msg, m.getRole()));
+            }
+            case "members": {
+                if (rest == null) return usage;
+                PasswordDatabase.Membership m = membershipByName(chatId, rest);
+                if (m == null) return msg.format(Text.NO_VAULT_ACCESS, rest);
+                Map<Long, PasswordDatabase.Role> members = database().members(m.getVaultId());
+                Messages.Writer w = msg.writer().append(Text.MEMBERS_HEADER, m.getName());
+                for (Map.Entry<Long, PasswordDatabase.Role> e : members.entrySet()) {
+                    w.append(Text.MEMBERS_LINE, e.getKey(), roleName(msg, e.getValue()));
+                }
+                return w.toString();
+            }
+            case "add":
+            case "remove": {
+                String[] parts = rest == null ? new String[0] : rest.split("\\s+");
+                if (parts.length < 2 || parts.length > 3 || (action.equals("remove") && parts.length != 2)) {
+                    return usage;
+                }
+                PasswordDatabase.Membership m = membershipByName(chatId, parts[0]);
+                if (m == null) return msg.format(Text.NO_VAULT_ACCESS, parts[0]);
+                if (m.getRole() != PasswordDatabase.Role.OWNER) return msg.get(Text.OWNER_ONLY);
+                long member;
+                try {
+                    member = Long.parseLong(parts[1]);
+                } catch (NumberFormatException e) {
+                    return usage;
+                }
 
+                boolean ok;
+                if (action.equals("add")) {
+                    PasswordDatabase.Role role = parts.length == 3 ? parseRole(parts[2]) : PasswordDatabase.Role.EDITOR;
+                    if (role == null) return usage;
+                    ok = database().setMember(m.getVaultId(), member, role);
+                } else {
+                    ok = database().removeMember(m.getVaultId(), member);
+                }
+                memberships.remove(member);
+                if (!ok) return msg.get(Text.LAST_OWNER);
+                return msg.format(action.equals("add") ? Text.MEMBER_ADDED : Text.MEMBER_REMOVED, member, m.getName());
+            }
             default:
-                settings.state = STATE_NONE;
-                return null;
+                return usage;
         }
     }
 
-    /** Команда /get — показать логин и пароль сервиса. */
-    private String handleGet(long chatId, String service) {
-        if (service == null) return "Использование: /get <сервис>";
-        PasswordDatabase.Entry e = database.find(chatId, service);
-        if (e == null) return "Сервис не найден";
-        return e.getService() + ":\nЛогин: " + e.getLogin() + "\nПароль: " + e.getPassword();
+    /** Название роли для ответов. */
+    private static String roleName(Messages m, PasswordDatabase.Role role) {
+        switch (role) {
+            case OWNER: return m.get(Text.ROLE_OWNER);
+            case EDITOR: return m.get(Text.ROLE_EDITOR);
+            default: return m.get(Text.ROLE_VIEWER);
+        }
     }
 
-    /** Команда /delete — запрос подтверждения удаления. */
-    private String handleDelete(long chatId, String service, UserSettings settings) {
-        if (service == null) return "Использование: /delete <сервис>";
-        PasswordDatabase.Entry e = database.find(chatId, service);
-        if (e == null) return "Сервис не найден";
-        settings.tmpService = e.getService();
-        settings.pmState = PM_DELETE_CONFIRM;
-        return "Удалить данные для \"" + e.getService() + "\"? (+ / -)";
+    /** Разбирает роль из команды или возвращает null. */
+    private static PasswordDatabase.Role parseRole(String s) {
+        switch (s.toLowerCase()) {
+            case "viewer": case "чтение": return PasswordDatabase.Role.VIEWER;
+            case "editor": case "изменение": return PasswordDatabase.Role.EDITOR;
+            case "owner": case "владелец": return PasswordDatabase.Role.OWNER;
+            default: return null;
+        }
     }
 
-    /** Команда /change — запуск процесса изменения пароля. */
-    private String handleChange(long chatId, String service, UserSettings settings) {
-        if (service == null) return "Использование: /change <сервис>";
+    /**
+     * Команда /policy — просмотр и изменение политики генерации:
+     * /policy минимум <цифры> <заглавные> <строчные> <спецсимволы>
+     * /policy похожие + | -
+     * /policy символы <набор>
+     * /policy шаблон <шаблон> | -
+     * (или min, similar, symbols, template)
+     * Изменение применяется, только если политика компилируется без ошибок.
+     */
+    private String handlePolicy(String arg, UserSettings settings) {
+        Messages m = settings.messages;
+        String usage = m.get(Text.POLICY_USAGE);
+        if (arg == null) return describePolicy(m.writer(), settings).append("\n\n").append(usage).toString();
+
+        String name = first(arg);
+        String value = second(arg);
+        if (value == null) return usage;
+
+        int[] oldMins = {settings.minDigits, settings.minUpper, settings.minLower, settings.minSpecial};
+        boolean oldAmbiguous = settings.excludeAmbiguous;
+        String oldSymbols = settings.symbols;
+        String oldTemplate = settings.template;
+
+        switch (name) {
+            case "минимум":
+            case "min": {
+                String[] parts = value.split("\\s+");
+                if (parts.length != 4) return usage;
+                try {
+                    settings.minDigits = Integer.parseInt(parts[0]);
+                    settings.minUpper = Integer.parseInt(parts[1]);
+                    settings.minLower = Integer.parseInt(parts[2]);
+                    settings.minSpecial = Integer.parseInt(parts[3]);
+                } catch (NumberFormatException e) {
+                    return usage;
+                }
+                break;
+            }
+            case "похожие":
+            case "similar": {
+                Boolean v = parseYesNo(value);
+                if (v == null) return usage;
+                settings.excludeAmbiguous = !v;
+                break;
+            }
+            case "символы":
+            case "symbols":
+                settings.symbols = value;
+                break;
+            case "шаблон":
+            case "template":
+                settings.template = value.equals("-") ? null : value;
+                break;
+            default:
+                return usage;
+        }
 
-        PasswordDatabase.Entry e = database.find(chatId, service);
-        if (e == null) {
-            return "Сервис \"" + service + "\" не найден.\nИспользуйте /list.";
+        settings.policy = null;
+        try {
+            policy(settings);
+        } catch (IllegalArgumentException e) {
+            settings.minDigits = oldMins[0];
+            settings.minUpper = oldMins[1];
+            settings.minLower = oldMins[2];
+            settings.minSpecial = oldMins[3];
+            settings.excludeAmbiguous = oldAmbiguous;
+            settings.symbols = oldSymbols;
+            settings.template = oldTemplate;
+            settings.policy = null;
+            return m.format(Text.POLICY_UNCHANGED, e.getMessage());
         }
+        settings.passphrase = false;
+        String strength = generatorStrength(settings).describe(m);
+        return describePolicy(m.writer(), settings).append("\n").append(strength).toString();
+    }
 
-        settings.tmpService = e.getService();
-        settings.pmState = PM_CHANGE_WAIT_METHOD;
+    /** Дописывает текстовое описание политики генерации. */
+    private static Messages.Writer describePolicy(Messages.Writer w, UserSettings settings) {
+        Messages m = settings.messages;
+        return w.append(Text.POLICY, settings.minDigits, settings.minUpper, settings.minLower, settings.minSpecial,
+                m.get(settings.excludeAmbiguous ? Text.AMBIGUOUS_EXCLUDED : Text.AMBIGUOUS_ALLOWED), settings.symbols,
+                settings.template == null ? m.get(Text.TEMPLATE_NONE) : settings.template);
+    }
 
-        return "Текущий логин для " + e.getService() + ": " + e.getLogin() + "\n"
-                + "Выберите способ создания нового пароля:\n"
-                + "1. Автоматическая генерация\n"
-                + "2. Ввод вручную";
+    /** Команда /audit — группы сервисов с одинаковым паролем. */
+    private String handleAudit(long chatId, Messages m) {
+        List<List<String>> groups = database().findReusedPasswords(chatId);
+        if (groups.isEmpty()) return m.get(Text.AUDIT_NONE);
+
+        Messages.Writer w = m.writer().append(Text.AUDIT_HEADER);
+        for (int i = 0; i < groups.size(); i++) {
+            w.append(Text.AUDIT_LINE, i + 1, String.join(", ", groups.get(i)));
+        }
+        return w.toString();
     }
 
-    /** Генерация пароля по текущим настройкам. */
-    private String generatePasswordRaw(UserSettings settings) {
-        StringBuilder alphabet = new StringBuilder();
-        if (settings.digits) alphabet.append(DIGITS);
-        if (settings.upper) alphabet.append(UPPER);
-        if (settings.lower) alphabet.append(LOWER);
-        if (settings.special) alphabet.append(SPECIAL);
+    /** Ответ, если saveIfVersion не сохранил версию: конфликт версий или ошибка базы данных. */
+    private static String notSaved(Messages m, PasswordDatabase.VersionedSave saved, String service) {
+        return m.format(saved == PasswordDatabase.VersionedSave.CONFLICT ? Text.CHANGE_CONFLICT : Text.CHANGE_FAILED,
+                service);
+    }
 
-        String chars = alphabet.toString();
-        StringBuilder p = new StringBuilder();
-        for (int i = 0; i < settings.length; i++) {
-            p.append(chars.charAt(random.nextInt(chars.length())));
+    /** Предупреждение о том, что пароль уже используется для других сервисов. */
+    private static String reuseWarning(Messages m, List<String> reused) {
+        if (reused.isEmpty()) return "";
+        return m.format(Text.REUSE_WARNING, String.join(", ", reused));
+    }
+
+    /** Оценка надёжности паролей, которые генерируются по текущим настройкам. */
+    private StrengthEstimator.Estimate generatorStrength(UserSettings settings) {
+        Wordlist list = settings.passphrase ? wordlist() : null;
+        if (list != null) {
+            return StrengthEstimator.forGenerator(settings.words, list.size());
         }
-        return p.toString();
+        return StrengthEstimator.forBits(policy(settings).entropyBits());
     }
 
-    /** Список сервисов пользователя. */
-    private String listServices(long chatId) {
-        List<String> list = database.listServices(chatId);
-        if (list.isEmpty()) return "У вас пока нет сервисов";
+    /**
+     * Генерация пароля по текущим настройкам в буфер общего пула секретов.
+     * Буфер нужно закрыть, чтобы затереть пароль и вернуть буфер в пул.
+     */
+    private SecretBuffer generateSecret(UserSettings settings) {
+        BotEvents.GenerateEvent event = new BotEvents.GenerateEvent();
+        event.begin();
+        SecretBuffer password = SecretPool.shared().acquire();
+        try {
+            Wordlist list = settings.passphrase ? wordlist() : null;
+            if (list != null) {
+                generatePassphrase(settings, list, password);
+            } else {
+                policy(settings).generate(random, password);
+            }
+            if (event.shouldCommit()) {
+                event.kind = list != null ? "passphrase" : "password";
+                event.length = list != null ? settings.words : password.length();
+                event.commit();
+            }
+            return password;
+        } catch (RuntimeException e) {
+            password.close();
+            throw e;
+        }
+    }
 
-        StringBuilder sb = new StringBuilder("Ваши сервисы (всего: " + list.size() + "):\n");
-        for (int i = 0; i < list.size(); i++) {
-            sb.append(i + 1).append(". ").append(list.get(i)).append("\n");
+    /**
+     * Возвращает скомпилированную политику генерации, компилируя её при первом
+     * обращении после изменения настроек.
+     * Бросает IllegalArgumentException, если настройки противоречивы.
+     */
+    private PasswordPolicy policy(UserSettings settings) {
+        PasswordPolicy p = settings.policy;
+        if (p == null) {
+            p = compile(settings, settings.length, flags(settings));
+            settings.policy = p;
         }
-        return sb.toString().trim();
+        return p;
     }
 
-    /** Сброс состояния менеджера паролей. */
-    private void resetManager(UserSettings settings) {
-        settings.pmState = PM_NONE;
-        settings.tmpService = null;
-        settings.tmpLogin = null;
+    /**
+     * Компилирует политику из настроек settings с длиной length и наборами символов flags,
+     * не меняя настроек. Бросает IllegalArgumentException, если сочетание противоречиво,
+     * а шаблон короче MIN_LENGTH, длиннее MAX_LENGTH или слабее MIN_TEMPLATE_BITS.
+     */
+    private static PasswordPolicy compile(UserSettings settings, int length, int flags) {
+        PasswordPolicy.Builder b = new PasswordPolicy.Builder()
+                .length(length)
+                .symbols(settings.symbols)
+                .excludeAmbiguous(settings.excludeAmbiguous)
+                .template(settings.template);
+        if ((flags & DIGITS) != 0) b.digits(settings.minDigits);
+        if ((flags & UPPER) != 0) b.upper(settings.minUpper);
+        if ((flags & LOWER) != 0) b.lower(settings.minLower);
+        if ((flags & SPECIAL) != 0) b.special(settings.minSpecial);
+        PasswordPolicy policy = b.build();
+        if (settings.template != null) {
+            if (policy.getLength() < MIN_LENGTH || policy.getLength() > MAX_LENGTH) {
+                throw new IllegalArgumentException(
+                        "Длина шаблона должна быть от " + MIN_LENGTH + " до " + MAX_LENGTH + " символов");
+            }
+            if (policy.entropyBits() < MIN_TEMPLATE_BITS) {
+                throw new IllegalArgumentException("Шаблон дает слишком предсказуемый пароль ("
+                        + Math.round(policy.entropyBits()) + " бит, нужно не меньше " + MIN_TEMPLATE_BITS + ")");
+            }
+        }
+        return policy;
+    }
+
+    /** Наборы символов настроек как флаги DIGITS, UPPER, LOWER, SPECIAL. */
+    private static int flags(UserSettings settings) {
+        return (settings.digits ? DIGITS : 0) | (settings.upper ? UPPER : 0)
+                | (settings.lower ? LOWER : 0) | (settings.special ? SPECIAL : 0);
+    }
+
+    /** Проверяет пароль по фильтру утечек, если фильтр подключен. */
+    private boolean isBreached(String password) {
+        BreachFilter filter = breachFilter;
+        return filter != null && filter.mightContain(password);
+    }
+
+    /**
+     * Генерация парольной фразы: слова выбираются из списка равновероятно
+     * и независимо, так что энтропия равна words * log2(размер списка).
+     * Фраза дописывается в out.
+     */
+    private void generatePassphrase(UserSettings settings, Wordlist list, SecretBuffer out) {
+        for (int i = 0; i < settings.words; i++) {
+            if (i > 0) out.append(settings.separator);
+            int start = out.length();
+            list.appendWord(random.nextInt(list.size()), out);
+            if (settings.capitalize && out.length() > start) {
+                out.set(start, Character.toUpperCase(out.charAt(start)));
+            }
+        }
+    }
+
+    /**
+     * Возвращает список слов, при первом обращении открывая встроенный.
+     * Возвращает null, если список открыть не удалось.
+     */
+    private Wordlist wordlist() {
+        Wordlist list = wordlist;
+        if (list == null) {
+            synchronized (this) {
+                list = wordlist;
+                if (list == null) {
+                    try {
+                        list = Wordlist.openBundled(Paths.get(BUNDLED_WORDLIST_CACHE));
+                        wordlist = list;
+                    } catch (IOException e) {
+                        return null;
+                    }
+                }
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Открывает базу данных сразу, а не при первом обращении.
+     */
+    public void open() {
+        database();
+    }
+
+    /**
+     * Возвращает базу данных, при первом обращении открывая её
+     * и загружая назначенные ранее смены паролей в расписание.
+     */
+    private PasswordDatabase database() {
+        PasswordDatabase db = database;
+        if (db == null) {
+            synchronized (this) {
+                db = database;
+                if (db == null) {
+                    db = opener.get();
+                    db.setAuditLog(auditLog);
+                    for (RotationScheduler.Task task : db.listRotations()) {
+                        rotations.schedule(task);
+                    }
+                    database = db;
+                }
+            }
+        }
+        return db;
+    }
+
+    /**
+     * Список сервисов пользователя. Собирается в буфере потока (Messages.Writer),
+     * который уже выделен с запасом, а не в новом StringBuilder, растущем по ходу списка.
+     */
+    private String listServices(long chatId, Messages m) {
+        List<String> list = database().listServices(chatId);
+        if (list.isEmpty()) return m.get(Text.LIST_EMPTY);
+
+        Messages.Writer w = m.writer().append(Text.LIST_HEADER, list.size());
+        for (int i = 0; i < list.size(); i++) {
+            w.append(Text.LIST_LINE, i + 1, list.get(i));
+        }
+        return w.toString();
     }
 
     /** Получение настроек пользователя. */
@@ -382,7 +1924,7 @@ public class PasswordLogic {
      Преобразует текстовый ответ (+/-) в логическое значение.
      Возвращает true для "+", false для "-", null для других значений
      */
-    private Boolean parseYesNo(String text) {
+    private static Boolean parseYesNo(String text) {
         if (text.equals("+")) {
             return true;
         } else if (text.equals("-")) {
@@ -390,6 +1932,16 @@ public class PasswordLogic {
         }
         return null;
     }
+
+    /** Разбирает число; возвращает -1, если это не число. */
+    private static int parseInt(String text) {
+        try {
+            return Integer.parseInt(text);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
     /** Возвращает команду. */
     private String first(String t) {
         int i = t.indexOf(' ');
@@ -0,0 +1,258 @@
+package org.example;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Скомпилированная политика генерации паролей.
+ * Политика описывает наборы символов с минимальным количеством символов из каждого,
+ * исключение похожих символов (0/O, 1/l/I), свой набор спецсимволов и шаблоны для
+ * конкретных сайтов. Она один раз компилируется Builder'ом в неизменяемый объект
+ * с готовыми массивами символов, после чего generate делает один проход без
+ * повторных попыток: сначала обязательные символы каждого набора, затем остальные
+ * из общего набора, затем перемешивание Фишера-Йетса.
+ * Объект неизменяемый и безопасен для потоков.
+ */
+public final class PasswordPolicy {
+
+    /** Цифры */
+    public static final String DIGITS = "0123456789";
+
+    /** Заглавные буквы */
+    public static final String UPPER = "ABCDEFGHIJKLMNOPQRSTUVWXYZ";
+
+    /** Строчные буквы */
+    public static final String LOWER = "abcdefghijklmnopqrstuvwxyz";
+
+    /** Спецсимволы по умолчанию */
+    public static final String SPECIAL = "!@#$%^&*()_-+=<>?/{}[]";
+
+    /** Похожие друг на друга символы, которые можно исключить */
+    public static final String AMBIGUOUS = "0O1lI|";
+
+    /** Длина пароля (для шаблона - длина шаблона) */
+    private final int length;
+
+    /** Наборы символов, из которых берутся обязательные символы */
+    private final char[][] required;
+
+    /** Сколько символов обязательно взять из каждого набора required */
+    private final int[] minimums;
+
+    /** Общий набор символов для остальных позиций */
+    private final char[] pool;
+
+    /** Набор символов для каждой позиции шаблона или null, если шаблона нет */
+    private final char[][] template;
+
+    /**
+     * Создает скомпилированную политику. Используйте Builder.
+     */
+    private PasswordPolicy(int length, char[][] required, int[] minimums, char[] pool, char[][] template) {
+        this.length = length;
+        this.required = required;
+        this.minimums = minimums;
+        this.pool = pool;
+        this.template = template;
+    }
+
+    /**
+     * Генерирует пароль за один проход.
+     */
+    public String generate(Random random) {
+        try (SecretBuffer out = SecretPool.shared().acquire()) {
+            generate(random, out);
+            return out.toString();
+        }
+    }
+
+    /**
+     * Генерирует пароль за один проход и дописывает его в out, не создавая копий в куче.
+     */
+    public void generate(Random random, SecretBuffer out) {
+        int base = out.length();
+        if (template != null) {
+            for (int i = 0; i < length; i++) {
+                char[] set = template[i];
+                out.append(set[random.nextInt(set.length)]);
+            }
+            return;
+        }
+
+        for (int c = 0; c < required.length; c++) {
+            char[] set = required[c];
+            for (int i = 0; i < minimums[c]; i++) {
+                out.append(set[random.nextInt(set.length)]);
+            }
+        }
+        while (out.length() - base < length) {
+            out.append(pool[random.nextInt(pool.length)]);
+        }
+        for (int i = length - 1; i > 0; i--) {
+            out.swap(base + i, base + random.nextInt(i + 1));
+        }
+    }
+
+    /**
+     * Возвращает длину генерируемых паролей.
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * Возвращает оценку энтропии пароля в битах: сумму log2 размера набора по позициям.
+     * Для политики без шаблона это length * log2(размер общего набора).
+     */
+    public double entropyBits() {
+        double bits = 0;
+        if (template != null) {
+            for (char[] set : template) bits += Math.log(set.length) / Math.log(2);
+        } else {
+            bits = length * Math.log(pool.length) / Math.log(2);
+        }
+        return bits;
+    }
+
+    /**
+     * Построитель политики. Объект изменяемый, build() возвращает неизменяемую политику.
+     * Наборы, для которых не вызваны digits, upper, lower или special, в пароль не попадают.
+     */
+    public static final class Builder {
+
+        /** Порядок наборов: цифры, заглавные, строчные, спецсимволы */
+        private final String[] sets = {DIGITS, UPPER, LOWER, SPECIAL};
+
+        /** Минимальное количество по наборам, -1 - набор не используется */
+        private final int[] minimums = {-1, -1, -1, -1};
+
+        /** Длина пароля */
+        private int length = 10;
+
+        /** Исключать ли похожие символы */
+        private boolean excludeAmbiguous;
+
+        /** Шаблон или null */
+        private String template;
+
+        /** Включает цифры с минимальным количеством min. */
+        public Builder digits(int min) { minimums[0] = Math.max(min, 0); return this; }
+
+        /** Включает заглавные буквы с минимальным количеством min. */
+        public Builder upper(int min) { minimums[1] = Math.max(min, 0); return this; }
+
+        /** Включает строчные буквы с минимальным количеством min. */
+        public Builder lower(int min) { minimums[2] = Math.max(min, 0); return this; }
+
+        /** Включает спецсимволы с минимальным количеством min. */
+        public Builder special(int min) { minimums[3] = Math.max(min, 0); return this; }
+
+        /** Задает свой набор спецсимволов. */
+        public Builder symbols(String symbols) { sets[3] = symbols; return this; }
+
+        /** Задает длину пароля. */
+        public Builder length(int length) { this.length = length; return this; }
+
+        /** Исключает похожие символы (0, O, 1, l, I, |) из всех наборов. */
+        public Builder excludeAmbiguous(boolean exclude) { this.excludeAmbiguous = exclude; return this; }
+
+        /**
+         * Задает шаблон: a - строчная буква, A - заглавная, 9 - цифра, # - спецсимвол,
+         * * - любой символ из включенных наборов, \ - следующий символ как есть,
+         * остальные символы остаются как есть. Например "Aaaa-9999-##".
+         * Шаблон задает длину пароля; минимальные количества при этом не используются.
+         */
+        public Builder template(String template) { this.template = template; return this; }
+
+        /**
+         * Компилирует политику.
+         * Бросает IllegalArgumentException, если не выбран ни один набор, набор пуст
+         * после исключения похожих символов, или обязательных символов больше длины.
+         */
+        public PasswordPolicy build() {
+            char[][] chars = new char[4][];
+            StringBuilder pool = new StringBuilder();
+            int required = 0;
+            int used = 0;
+            for (int c = 0; c < 4; c++) {
+                chars[c] = filter(sets[c]);
+                if (minimums[c] < 0) continue;
+                if (chars[c].length == 0) {
+                    throw new IllegalArgumentException("Набор символов пуст после исключения похожих");
+                }
+                pool.append(chars[c]);
+                required += minimums[c];
+                used++;
+            }
+
+            if (template != null) {
+                char[][] positions = compileTemplate(chars, filter(pool.toString()));
+                return new PasswordPolicy(positions.length, null, null, null, positions);
+            }
+
+            if (used == 0) {
+                throw new IllegalArgumentException("Не выбран ни один набор символов");
+            }
+            if (length <= 0) {
+                throw new IllegalArgumentException("Длина пароля должна быть положительной");
+            }
+            if (required > length) {
+                throw new IllegalArgumentException("Обязательных символов больше, чем длина пароля");
+            }
+
+            char[][] requiredSets = new char[used][];
+            int[] mins = new int[used];
+            int k = 0;
+            for (int c = 0; c < 4; c++) {
+                if (minimums[c] < 0) continue;
+                requiredSets[k] = chars[c];
+                mins[k] = minimums[c];
+                k++;
+            }
+            return new PasswordPolicy(length, requiredSets, mins, filter(pool.toString()), null);
+        }
+
+        /** Разбирает шаблон в набор символов для каждой позиции. */
+        private char[][] compileTemplate(char[][] chars, char[] any) {
+            List<char[]> positions = new ArrayList<>();
+            for (int i = 0; i < template.length(); i++) {
+                char t = template.charAt(i);
+                char[] set = switch (t) {
+                    case '9' -> chars[0];
+                    case 'A' -> chars[1];
+                    case 'a' -> chars[2];
+                    case '#' -> chars[3];
+                    case '*' -> any;
+                    case '\\' -> {
+                        if (i + 1 >= template.length()) {
+                            throw new IllegalArgumentException("Шаблон заканчивается на \\");
+                        }
+                        yield new char[]{template.charAt(++i)};
+                    }
+                    default -> new char[]{t};
+                };
+                if (set.length == 0) {
+                    throw new IllegalArgumentException("Для символа шаблона «" + t + "» нет доступных символов");
+                }
+                positions.add(set);
+            }
+            if (positions.isEmpty()) {
+                throw new IllegalArgumentException("Пустой шаблон");
+            }
+            return positions.toArray(new char[0][]);
+        }
+
+        /** Убирает повторы и, если нужно, похожие символы. */
+        private char[] filter(String set) {
+            StringBuilder out = new StringBuilder();
+            for (int i = 0; i < set.length(); i++) {
+                char ch = set.charAt(i);
+                if (excludeAmbiguous && AMBIGUOUS.indexOf(ch) >= 0) continue;
+                if (out.indexOf(String.valueOf(ch)) >= 0) continue;
+                out.append(ch);
+            }
+            return out.toString().toCharArray();
+        }
+    }
+}
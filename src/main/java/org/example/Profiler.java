@@ -0,0 +1,106 @@
+package org.example;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.time.Duration;
+import java.util.Date;
+
+/**
+ * Непрерывная запись JDK Flight Recorder работающего бота с настройками JDK "default"
+ * (накладные расходы около 1%) и событиями BotEvents.
+ * Запись идет по кругу: хранятся последние MAX_AGE, но не больше MAX_SIZE байт,
+ * и dump() сохраняет их в файл profile-<время>.jfr в каталоге dir, не останавливая запись.
+ * Файл открывается в JDK Mission Control или командой jfr print.
+ * Управляется командой администратора /profile (см. PasswordLogic.setProfiler)
+ * или переменной PROFILE при запуске. Методы синхронизированы.
+ */
+public class Profiler {
+
+    /** Сколько последних минут хранит запись */
+    static final Duration MAX_AGE = Duration.ofMinutes(10);
+
+    /** Наибольший размер записи на диске, байты */
+    static final long MAX_SIZE = 64L * 1024 * 1024;
+
+    /** Каталог для сохраненных записей */
+    private final Path dir;
+
+    /** Текущая запись или null */
+    private Recording recording;
+
+    /**
+     * Создает профилировщик, который сохраняет записи в каталог dir.
+     */
+    public Profiler(Path dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * Начинает непрерывную запись. Возвращает false, если запись уже идет.
+     */
+    public synchronized boolean start() throws IOException {
+        if (isRunning()) return false;
+        Configuration config;
+        try {
+            config = Configuration.getConfiguration("default");
+        } catch (ParseException e) {
+            throw new IOException("Настройки JFR не прочитаны", e);
+        }
+        Recording r = new Recording(config);
+        r.setName("passwordbot");
+        r.setToDisk(true);
+        r.setMaxAge(MAX_AGE);
+        r.setMaxSize(MAX_SIZE);
+        r.enable(BotEvents.UpdateEvent.class);
+        r.enable(BotEvents.CommandEvent.class);
+        r.enable(BotEvents.QueryEvent.class);
+        r.enable(BotEvents.ConnectEvent.class);
+        r.enable(BotEvents.GenerateEvent.class);
+        r.enable(BotEvents.SendEvent.class);
+        r.start();
+        recording = r;
+        return true;
+    }
+
+    /**
+     * Сохраняет накопленную запись в файл и продолжает запись.
+     * Возвращает путь к файлу или null, если запись не идет.
+     */
+    public synchronized Path dump() throws IOException {
+        if (!isRunning()) return null;
+        Files.createDirectories(dir);
+        Path file = dir.resolve("profile-" + new SimpleDateFormat("yyyyMMdd-HHmmss-SSS").format(new Date()) + ".jfr");
+        recording.dump(file);
+        return file;
+    }
+
+    /**
+     * Сохраняет запись в файл и останавливает ее.
+     * Возвращает путь к файлу или null, если запись не шла.
+     */
+    public synchronized Path stop() throws IOException {
+        Path file = dump();
+        if (recording != null) {
+            recording.close();
+            recording = null;
+        }
+        return file;
+    }
+
+    /** Возвращает true, если запись идет. */
+    public synchronized boolean isRunning() {
+        return recording != null && recording.getState() == RecordingState.RUNNING;
+    }
+
+    /** Возвращает время начала текущей записи в миллисекундах или 0. */
+    public synchronized long getStartTime() {
+        return isRunning() ? recording.getStartTime().toEpochMilli() : 0;
+    }
+}
@@ -0,0 +1,309 @@
+package org.example;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Резервная копия базы: подключается к ReplicationServer основного процесса, отвечает
+ * на его вызов общим секретом, получает
+ * полную копию базы (если своей нет или она отстала) и дальше применяет изменения из журнала
+ * пачками, по транзакции на кадр. Изменения записываются и в журнал копии с теми же номерами,
+ * поэтому после перезапуска копия продолжает с места остановки, а после повышения сама
+ * может отдавать журнал следующей копии.
+ * Пока копия резервная, триггеры журнала в ее базе удалены, а бот поверх нее работает только
+ * на чтение (PasswordLogic.setReadOnly). promote() останавливает получение изменений
+ * и возвращает триггеры - база становится основной.
+ * Отставание - время от изменения в основной базе до его применения в копии.
+ */
+public class Replica implements Closeable {
+
+    /** Через сколько миллисекунд повторять подключение после обрыва */
+    private static final long RECONNECT_MS = 500;
+
+    /** Через сколько миллисекунд без данных связь считается оборванной */
+    private static final int READ_TIMEOUT_MS = (int) (ReplicationServer.HEARTBEAT_MS * 5);
+
+    /** Файл базы копии */
+    private final Path file;
+
+    /** URL базы копии */
+    private final String url;
+
+    /** Адрес основного процесса */
+    private final InetSocketAddress primary;
+
+    /** Общий секрет с основным процессом */
+    private final byte[] secret;
+
+    /** Номер последнего примененного изменения (под блокировкой this) */
+    private long applied;
+
+    /** Копия получила состояние основной базы хотя бы раз (под блокировкой this) */
+    private boolean synced;
+
+    /** Отставание последнего кадра, миллисекунды */
+    private volatile long lagMillis;
+
+    /** Наибольшее отставание, миллисекунды */
+    private volatile long maxLagMillis;
+
+    /** Сколько получено полных копий */
+    private volatile long snapshots;
+
+    /** Поток получения изменений */
+    private Thread thread;
+
+    /** Текущее подключение */
+    private volatile Socket socket;
+
+    /** Получение изменений остановлено */
+    private volatile boolean stopped;
+
+    /**
+     * Создает копию в файле file, которая получает изменения от host:port с общим секретом secret.
+     */
+    public Replica(Path file, String host, int port, byte[] secret) {
+        ReplicationServer.checkSecret(secret);
+        this.file = file;
+        this.url = "jdbc:sqlite:" + file;
+        this.primary = new InetSocketAddress(host, port);
+        this.secret = secret.clone();
+    }
+
+    /**
+     * Разбирает адрес основного процесса вида "host:port" и создает копию в файле file.
+     */
+    public static Replica of(Path file, String address, byte[] secret) {
+        int colon = address.lastIndexOf(':');
+        if (colon == -1) {
+            throw new IllegalArgumentException("Ожидается host:port: " + address);
+        }
+        return new Replica(file, address.substring(0, colon), Integer.parseInt(address.substring(colon + 1)), secret);
+    }
+
+    /**
+     * Начинает получать изменения в фоновом потоке.
+     */
+    public synchronized void start() {
+        thread = new Thread(this::run, "replica");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** Цикл получения изменений с переподключением после обрыва. */
+    private void run() {
+        while (!stopped) {
+            try (Socket s = new Socket()) {
+                socket = s;
+                s.connect(primary, READ_TIMEOUT_MS);
+                s.setSoTimeout(READ_TIMEOUT_MS);
+                s.setTcpNoDelay(true);
+                follow(s);
+            } catch (IOException | SQLException e) {
+                if (stopped) return;
+                try {
+                    Thread.sleep(RECONNECT_MS);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /** Сообщает основному процессу, с какого изменения продолжить, и применяет кадры. */
+    private void follow(Socket s) throws IOException, SQLException {
+        byte[] id = new byte[0];
+        long from = 0;
+        if (Files.exists(file)) {
+            try (Connection c = DriverManager.getConnection(url)) {
+                ChangeLog.dropTriggers(c);
+                byte[] local = ChangeLog.databaseId(c);
+                if (local != null) {
+                    id = local;
+                    from = ChangeLog.head(c) + 1;
+                }
+            } catch (SQLException e) {
+
+            }
+            synchronized (this) {
+                applied = Math.max(0, from - 1);
+            }
+        }
+        DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+        byte[] challenge = new byte[ReplicationServer.CHALLENGE_BYTES];
+        in.readFully(challenge);
+        out.write(ReplicationServer.proof(secret, challenge));
+        out.writeByte(id.length);
+        out.write(id);
+        out.writeLong(from);
+        out.flush();
+
+        while (!stopped) {
+            int frame = in.readByte();
+            switch (frame) {
+                case 'S' -> receiveSnapshot(in);
+                case 'B' -> {
+                    int n = in.readInt();
+                    List<ChangeLog.Change> batch = new ArrayList<>(n);
+                    for (int i = 0; i < n; i++) batch.add(ChangeLog.read(in));
+                    apply(batch);
+                }
+                case 'H' -> {
+                    long head = in.readLong();
+                    synchronized (this) {
+                        if (head <= applied) lagMillis = 0;
+                        synced = true;
+                        notifyAll();
+                    }
+                }
+                default -> throw new IOException("Неизвестный кадр " + frame);
+            }
+        }
+    }
+
+    /** Принимает полную копию базы во временный файл и заменяет им базу копии. */
+    private void receiveSnapshot(DataInputStream in) throws IOException, SQLException {
+        long size = in.readLong();
+        Path tmp = file.resolveSibling(file.getFileName() + ".snapshot");
+        try (OutputStream out = Files.newOutputStream(tmp)) {
+            copy(in, out, size);
+        }
+        long head;
+        try (Connection c = DriverManager.getConnection("jdbc:sqlite:" + tmp)) {
+            ChangeLog.dropTriggers(c);
+            head = ChangeLog.head(c);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        snapshots++;
+        synchronized (this) {
+            applied = head;
+            synced = true;
+            notifyAll();
+        }
+    }
+
+    /** Копирует ровно size байт из потока. */
+    private static void copy(InputStream in, OutputStream out, long size) throws IOException {
+        byte[] buf = new byte[1 << 16];
+        while (size > 0) {
+            int n = in.read(buf, 0, (int) Math.min(buf.length, size));
+            if (n < 0) throw new IOException("Копия базы обрезана");
+            out.write(buf, 0, n);
+            size -= n;
+        }
+    }
+
+    /** Применяет кадр изменений одной транзакцией. */
+    private void apply(List<ChangeLog.Change> batch) throws SQLException {
+        try (Connection c = DriverManager.getConnection(url)) {
+            c.setAutoCommit(false);
+            ChangeLog.apply(c, batch);
+            c.commit();
+        }
+        ChangeLog.Change last = batch.get(batch.size() - 1);
+        long lag = Math.max(0, System.currentTimeMillis() - last.getChangedAt());
+        lagMillis = lag;
+        if (lag > maxLagMillis) maxLagMillis = lag;
+        synchronized (this) {
+            applied = last.getSeq();
+            notifyAll();
+        }
+    }
+
+    /**
+     * Ждет, пока копия получит состояние основной базы (полную копию или подтверждение,
+     * что своя база не отстает), не дольше timeoutMs миллисекунд.
+     * Возвращает true, если дождалась.
+     */
+    public synchronized boolean awaitSynced(long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (!synced) {
+            long left = deadline - System.currentTimeMillis();
+            if (left <= 0) return false;
+            wait(left);
+        }
+        return true;
+    }
+
+    /**
+     * Ждет, пока копия применит изменение с номером seq, не дольше timeoutMs миллисекунд.
+     * Возвращает true, если дождалась.
+     */
+    public synchronized boolean awaitApplied(long seq, long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (applied < seq) {
+            long left = deadline - System.currentTimeMillis();
+            if (left <= 0) return false;
+            wait(left);
+        }
+        return true;
+    }
+
+    /** Возвращает номер последнего примененного изменения. */
+    public synchronized long getApplied() { return applied; }
+
+    /** Возвращает отставание последнего примененного кадра в миллисекундах (0, если копия не отстает). */
+    public long getLagMillis() { return lagMillis; }
+
+    /** Возвращает наибольшее отставание в миллисекундах. */
+    public long getMaxLagMillis() { return maxLagMillis; }
+
+    /** Возвращает, сколько получено полных копий базы. */
+    public long getSnapshots() { return snapshots; }
+
+    /**
+     * Повышает копию до основной базы: останавливает получение изменений и возвращает
+     * триггеры журнала, чтобы новые записи попадали в журнал с продолжением нумерации.
+     * Старый основной процесс к этому моменту должен быть остановлен.
+     */
+    public void promote() throws SQLException {
+        close();
+        try (Connection c = DriverManager.getConnection(url)) {
+            ChangeLog.createTriggers(c);
+        }
+    }
+
+    /**
+     * Останавливает получение изменений; уже примененные остаются в базе.
+     */
+    @Override
+    public void close() {
+        stopped = true;
+        Socket s = socket;
+        if (s != null) {
+            try {
+                s.close();
+            } catch (IOException e) {
+
+            }
+        }
+        Thread t;
+        synchronized (this) {
+            t = thread;
+        }
+        if (t != null) {
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
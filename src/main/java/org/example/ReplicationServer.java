@@ -0,0 +1,266 @@
+package org.example;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Отдает журнал изменений основной базы резервным копиям (Replica) по TCP на локальном адресе.
+ * Подключение к локальному порту доступно любому процессу на машине, поэтому сначала сервер
+ * отправляет случайный вызов из CHALLENGE_BYTES байт, а копия отвечает HMAC-SHA256 вызова
+ * на общем секрете (REPLICATION_SECRET). Без верного ответа сервер разрывает связь,
+ * ничего не отправив.
+ * Затем резервная копия сообщает идентификатор своей базы и номер следующего
+ * нужного ей изменения. Если это продолжение журнала этой базы, сервер досылает изменения
+ * с этого номера, иначе (пустая копия, чужая база или изменения уже вытеснены из журнала)
+ * сначала отправляет полную копию базы (VACUUM INTO) и продолжает с ее последнего изменения.
+ * Дальше сервер раз в POLL_MS проверяет журнал и отправляет новые изменения пачками
+ * до BATCH изменений, а когда изменений нет - раз в HEARTBEAT_MS сообщает номер последнего,
+ * чтобы копия знала, что не отстает, и замечала обрыв связи.
+ * Формат: кадр 'S' - длина и содержимое файла копии; 'B' - количество и изменения
+ * (см. ChangeLog.write); 'H' - номер последнего изменения.
+ */
+public class ReplicationServer implements Closeable {
+
+    /** Изменений в одном кадре */
+    static final int BATCH = 500;
+
+    /** Как часто проверяется журнал, когда новых изменений нет, миллисекунды */
+    static final long POLL_MS = 5;
+
+    /** Как часто отправляется номер последнего изменения, когда новых нет, миллисекунды */
+    static final long HEARTBEAT_MS = 1000;
+
+    /** Длина вызова при подключении, байты */
+    static final int CHALLENGE_BYTES = 32;
+
+    /** Наименьшая длина общего секрета, байты */
+    static final int MIN_SECRET_BYTES = 16;
+
+    /** Сколько ждать ответа на вызов, миллисекунды */
+    private static final int AUTH_TIMEOUT_MS = 5000;
+
+    /** Алгоритм ответа на вызов */
+    private static final String PROOF_ALGORITHM = "HmacSHA256";
+
+    /** URL основной базы */
+    private final String url;
+
+    /** Общий секрет с резервными копиями */
+    private final byte[] secret;
+
+    /** Источник вызовов */
+    private final SecureRandom random = new SecureRandom();
+
+    /** Слушающий сокет */
+    private final ServerSocket server;
+
+    /** Подключенные резервные копии */
+    private final Set<Socket> sessions = ConcurrentHashMap.newKeySet();
+
+    /** Сколько отправлено полных копий */
+    private final AtomicLong snapshots = new AtomicLong();
+
+    /** Сколько отправлено изменений */
+    private final AtomicLong sent = new AtomicLong();
+
+    /** Сервер закрыт */
+    private volatile boolean closed;
+
+    /**
+     * Создает сервер для базы url на порту port локального адреса (0 - любой свободный).
+     * Журнал получают только копии, знающие secret (не короче MIN_SECRET_BYTES байт).
+     */
+    public ReplicationServer(String url, int port, byte[] secret) throws IOException {
+        checkSecret(secret);
+        this.url = url;
+        this.secret = secret.clone();
+        this.server = new ServerSocket(port, 8, InetAddress.getLoopbackAddress());
+    }
+
+    /** Бросает IllegalArgumentException, если секрет короче MIN_SECRET_BYTES байт. */
+    static void checkSecret(byte[] secret) {
+        if (secret == null || secret.length < MIN_SECRET_BYTES) {
+            throw new IllegalArgumentException("Секрет репликации должен быть не короче " + MIN_SECRET_BYTES + " байт");
+        }
+    }
+
+    /** Ответ на вызов challenge: HMAC-SHA256 на секрете secret. */
+    static byte[] proof(byte[] secret, byte[] challenge) {
+        try {
+            Mac mac = Mac.getInstance(PROOF_ALGORITHM);
+            mac.init(new SecretKeySpec(secret, PROOF_ALGORITHM));
+            return mac.doFinal(challenge);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Начинает принимать подключения резервных копий.
+     */
+    public void start() {
+        Thread t = new Thread(this::accept, "replication-server");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /** Возвращает порт, на котором сервер принимает подключения. */
+    public int getPort() { return server.getLocalPort(); }
+
+    /** Возвращает, сколько отправлено полных копий базы. */
+    public long getSnapshots() { return snapshots.get(); }
+
+    /** Возвращает, сколько отправлено изменений. */
+    public long getSent() { return sent.get(); }
+
+    /** Принимает подключения, по потоку на каждую резервную копию. */
+    private void accept() {
+        while (!closed) {
+            try {
+                Socket socket = server.accept();
+                socket.setTcpNoDelay(true);
+                sessions.add(socket);
+                Thread t = new Thread(() -> serve(socket), "replication-" + socket.getPort());
+                t.setDaemon(true);
+                t.start();
+            } catch (IOException e) {
+                if (!closed) System.err.println("Репликация: " + e.getMessage());
+            }
+        }
+    }
+
+    /** Обслуживает одну резервную копию до обрыва связи. */
+    private void serve(Socket socket) {
+        try (socket;
+             Connection c = DriverManager.getConnection(url)) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            if (!authenticate(socket, in, out)) {
+                System.err.println("Репликация: подключение без верного секрета отклонено");
+                return;
+            }
+            byte[] replicaId = new byte[in.readUnsignedByte()];
+            in.readFully(replicaId);
+            long from = in.readLong();
+
+            if (from < 1 || !Arrays.equals(replicaId, ChangeLog.databaseId(c))
+                    || from < ChangeLog.oldest(c) || from > ChangeLog.head(c) + 1) {
+                from = sendSnapshot(c, out) + 1;
+            }
+
+            long lastBeat = System.currentTimeMillis();
+            while (!closed) {
+                List<ChangeLog.Change> batch = ChangeLog.read(c, from, BATCH);
+                if (!batch.isEmpty()) {
+                    out.writeByte('B');
+                    out.writeInt(batch.size());
+                    for (ChangeLog.Change ch : batch) ChangeLog.write(out, ch);
+                    out.flush();
+                    from = batch.get(batch.size() - 1).getSeq() + 1;
+                    sent.addAndGet(batch.size());
+                    continue;
+                }
+                if (System.currentTimeMillis() - lastBeat >= HEARTBEAT_MS) {
+                    out.writeByte('H');
+                    out.writeLong(from - 1);
+                    out.flush();
+                    lastBeat = System.currentTimeMillis();
+                }
+                Thread.sleep(POLL_MS);
+            }
+        } catch (IOException | SQLException e) {
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            sessions.remove(socket);
+        }
+    }
+
+    /**
+     * Отправляет вызов и проверяет ответ копии. Возвращает false, если ответ неверный.
+     */
+    private boolean authenticate(Socket socket, DataInputStream in, DataOutputStream out) throws IOException {
+        byte[] challenge = new byte[CHALLENGE_BYTES];
+        random.nextBytes(challenge);
+        out.write(challenge);
+        out.flush();
+        socket.setSoTimeout(AUTH_TIMEOUT_MS);
+        byte[] answer = new byte[proof(secret, challenge).length];
+        in.readFully(answer);
+        socket.setSoTimeout(0);
+        return MessageDigest.isEqual(answer, proof(secret, challenge));
+    }
+
+    /**
+     * Отправляет полную копию базы и возвращает номер последнего изменения в ней.
+     */
+    private long sendSnapshot(Connection c, DataOutputStream out) throws IOException, SQLException {
+        Path copy = Files.createTempFile("replica-snapshot", ".db");
+        try {
+            Files.delete(copy);
+            try (Statement st = c.createStatement()) {
+                st.execute("VACUUM INTO '" + copy.toString().replace("'", "''") + "';");
+            }
+            long head;
+            try (Connection s = DriverManager.getConnection("jdbc:sqlite:" + copy)) {
+                head = ChangeLog.head(s);
+            }
+            out.writeByte('S');
+            out.writeLong(Files.size(copy));
+            try (InputStream file = Files.newInputStream(copy)) {
+                file.transferTo(out);
+            }
+            out.flush();
+            snapshots.incrementAndGet();
+            return head;
+        } finally {
+            Files.deleteIfExists(copy);
+        }
+    }
+
+    /**
+     * Перестает принимать подключения и разрывает связь с резервными копиями.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            server.close();
+        } catch (IOException e) {
+
+        }
+        for (Socket s : sessions) {
+            try {
+                s.close();
+            } catch (IOException e) {
+
+            }
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package org.example;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Планировщик плановой смены паролей.
+ * Хранит сроки смены в двоичной куче, упорядоченной по времени:
+ * проверка "есть ли что-то к смене" стоит O(1) (просмотр вершины кучи),
+ * извлечение каждой созревшей задачи - O(log n).
+ * Перепланирование и отмена не ищут задачу в куче: актуальная задача для пары
+ * (пользователь, сервис) хранится в отдельной таблице, а устаревшие элементы кучи
+ * просто пропускаются при извлечении.
+ * Время не берётся из системных часов, а передаётся в pollDue, поэтому
+ * планировщик проверяется на смоделированных часах.
+ */
+public class RotationScheduler {
+
+    /**
+     * Одна задача смены пароля. Объект неизменяемый.
+     */
+    public static class Task {
+
+        /** Идентификатор пользователя Telegram (chatId). */
+        private final long userId;
+
+        /** Название сервиса. */
+        private final String service;
+
+        /** Интервал смены в миллисекундах. */
+        private final long intervalMs;
+
+        /** Момент, когда пароль нужно сменить, в миллисекундах от начала эпохи. */
+        private final long dueAt;
+
+        /**
+         * Создает задачу с указанными параметрами.
+         */
+        public Task(long userId, String service, long intervalMs, long dueAt) {
+            this.userId = userId;
+            this.service = service;
+            this.intervalMs = intervalMs;
+            this.dueAt = dueAt;
+        }
+
+        /** Возвращает идентификатор пользователя. */
+        public long getUserId() { return userId; }
+
+        /** Возвращает название сервиса. */
+        public String getService() { return service; }
+
+        /** Возвращает интервал смены в миллисекундах. */
+        public long getIntervalMs() { return intervalMs; }
+
+        /** Возвращает момент следующей смены. */
+        public long getDueAt() { return dueAt; }
+
+        /**
+         * Возвращает следующую задачу после смены пароля в момент now.
+         * Если бот долго не работал, пропущенные интервалы не догоняются:
+         * следующая смена назначается через интервал от now.
+         */
+        public Task next(long now) {
+            long due = dueAt + intervalMs;
+            if (due <= now) {
+                due = now + intervalMs;
+            }
+            return new Task(userId, service, intervalMs, due);
+        }
+    }
+
+    /** Куча задач по возрастанию времени смены. Может содержать устаревшие элементы. */
+    private final PriorityQueue<Task> queue =
+            new PriorityQueue<>((a, b) -> Long.compare(a.dueAt, b.dueAt));
+
+    /** Актуальная задача для каждой пары (пользователь, сервис). */
+    private final Map<String, Task> current = new HashMap<>();
+
+    /**
+     * Назначает или переназначает смену пароля.
+     * Предыдущая задача для той же записи перестает действовать.
+     */
+    public synchronized void schedule(Task task) {
+        current.put(key(task.userId, task.service), task);
+        queue.add(task);
+        compactIfNeeded();
+    }
+
+    /**
+     * Назначает смену пароля, только если для записи нет актуальной задачи: смена, назначенная
+     * заново, пока выполнялась извлеченная задача, не заменяется ее продолжением.
+     */
+    public synchronized void scheduleIfAbsent(Task task) {
+        if (current.containsKey(key(task.userId, task.service))) return;
+        schedule(task);
+    }
+
+    /**
+     * Отменяет плановую смену пароля для записи.
+     */
+    public synchronized void cancel(long userId, String service) {
+        current.remove(key(userId, service));
+        compactIfNeeded();
+    }
+
+    /**
+     * Возвращает задачу для записи или null, если смена не назначена.
+     */
+    public synchronized Task get(long userId, String service) {
+        return current.get(key(userId, service));
+    }
+
+    /**
+     * Извлекает не более max задач, срок которых наступил к моменту now.
+     * Извлеченные задачи перестают быть актуальными; после смены пароля
+     * их нужно снова передать в schedule через Task.next.
+     */
+    public synchronized List<Task> pollDue(long now, int max) {
+        List<Task> out = new ArrayList<>();
+        while (out.size() < max) {
+            Task head = queue.peek();
+            if (head == null || head.dueAt > now) break;
+            queue.poll();
+
+            String k = key(head.userId, head.service);
+            if (current.get(k) == head) {
+                current.remove(k);
+                out.add(head);
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Возвращает количество назначенных смен.
+     */
+    public synchronized int size() {
+        return current.size();
+    }
+
+    /**
+     * Перестраивает кучу, когда устаревших элементов в ней больше, чем актуальных.
+     * Так память остается пропорциональной числу назначенных смен даже при частых
+     * перепланированиях, а стоимость перестройки делится между ними.
+     */
+    private void compactIfNeeded() {
+        if (queue.size() > 64 && queue.size() > 2 * current.size()) {
+            queue.clear();
+            queue.addAll(current.values());
+        }
+    }
+
+    /** Ключ записи в таблице актуальных задач. */
+    private static String key(long userId, String service) {
+        return userId + "\u0000" + service;
+    }
+}
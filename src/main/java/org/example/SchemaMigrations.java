@@ -0,0 +1,290 @@
+package org.example;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Версионные миграции схемы базы данных.
+ * Номер примененной миграции записывается в таблицу schema_version в одной транзакции
+ * с изменением схемы, поэтому миграции применяются по порядку и ровно один раз.
+ * Изменения схемы (таблицы, колонки, индексы) выполняются при запуске и должны быть быстрыми.
+ * Долгое заполнение данных идет в фоновом потоке порциями по rowid: каждая порция - короткая
+ * транзакция, которая вместе с данными сохраняет позицию в schema_version. Между порциями
+ * бот читает и пишет как обычно, а после перезапуска заполнение продолжается с сохраненной позиции.
+ * Поток отдыхает между порциями так, чтобы заполнение занимало не больше dutyCycle времени.
+ */
+public class SchemaMigrations {
+
+    /** Сколько ошибок подряд допускается в заполнении до остановки до следующего запуска */
+    private static final int MAX_FAILURES = 5;
+
+    /** Изменение схемы */
+    public interface Step {
+
+        /** Выполняет изменение в транзакции вызывающего. */
+        void apply(Connection c) throws SQLException;
+    }
+
+    /** Порционное заполнение данных */
+    public interface Backfill {
+
+        /**
+         * Обрабатывает до limit строк с rowid больше after в транзакции вызывающего.
+         * Возвращает rowid последней обработанной строки или -1, если строк не осталось.
+         */
+        long chunk(Connection c, long after, int limit) throws SQLException;
+    }
+
+    /**
+     * Миграция: номер, описание, изменение схемы и необязательное заполнение данных.
+     */
+    public static class Migration {
+
+        /** Номер версии схемы после миграции */
+        private final int version;
+
+        /** Описание для таблицы schema_version */
+        private final String description;
+
+        /** Изменение схемы */
+        private final Step step;
+
+        /** Заполнение данных или null */
+        private final Backfill backfill;
+
+        /**
+         * Создает миграцию без заполнения данных.
+         */
+        public Migration(int version, String description, Step step) {
+            this(version, description, step, null);
+        }
+
+        /**
+         * Создает миграцию с фоновым заполнением данных.
+         */
+        public Migration(int version, String description, Step step, Backfill backfill) {
+            this.version = version;
+            this.description = description;
+            this.step = step;
+            this.backfill = backfill;
+        }
+
+        /** Возвращает номер версии схемы после миграции. */
+        public int getVersion() { return version; }
+
+        /** Возвращает описание миграции. */
+        public String getDescription() { return description; }
+    }
+
+    /** URL базы данных */
+    private final String url;
+
+    /** Миграции по возрастанию номера */
+    private final List<Migration> migrations;
+
+    /** Строк в одной порции заполнения */
+    private final int chunkRows;
+
+    /** Доля времени, которую занимает заполнение */
+    private final double dutyCycle;
+
+    /** Фоновый поток заполнения или null, если он не запускался */
+    private Thread worker;
+
+    /** Признак остановки заполнения */
+    private volatile boolean closed;
+
+    /**
+     * Создает набор миграций.
+     *
+     * url URL базы данных.
+     * migrations Миграции по возрастанию номера.
+     * chunkRows Сколько строк обрабатывается в одной транзакции заполнения.
+     * dutyCycle Доля времени от 0 до 1, которую занимает заполнение (остальное - паузы).
+     */
+    public SchemaMigrations(String url, List<Migration> migrations, int chunkRows, double dutyCycle) {
+        if (chunkRows < 1 || !(dutyCycle > 0 && dutyCycle <= 1)) {
+            throw new IllegalArgumentException("Неверные параметры заполнения");
+        }
+        for (int i = 1; i < migrations.size(); i++) {
+            if (migrations.get(i).version <= migrations.get(i - 1).version) {
+                throw new IllegalArgumentException("Миграции должны идти по возрастанию номера");
+            }
+        }
+        this.url = url;
+        this.migrations = List.copyOf(migrations);
+        this.chunkRows = chunkRows;
+        this.dutyCycle = dutyCycle;
+    }
+
+    /**
+     * Применяет недостающие миграции по порядку и возвращает версию схемы.
+     * Если миграция не удалась, она откатывается вместе с записью о версии,
+     * а исключение передается вызывающему.
+     */
+    public int migrate() throws SQLException {
+        String schemaVersion = """
+            CREATE TABLE IF NOT EXISTS schema_version (
+                version INTEGER PRIMARY KEY,
+                description TEXT NOT NULL,
+                applied_at INTEGER NOT NULL,
+                backfill_after INTEGER NOT NULL DEFAULT 0,
+                backfill_done INTEGER NOT NULL
+            );
+            """;
+        String insert = """
+            INSERT INTO schema_version(version, description, applied_at, backfill_done)
+            VALUES (?, ?, ?, ?);
+            """;
+
+        try (Connection c = DriverManager.getConnection(url)) {
+            try (Statement st = c.createStatement()) {
+                st.execute(schemaVersion);
+            }
+            int current = version(c);
+            for (Migration m : migrations) {
+                if (m.version <= current) continue;
+                c.setAutoCommit(false);
+                try (PreparedStatement ps = c.prepareStatement(insert)) {
+                    m.step.apply(c);
+                    ps.setInt(1, m.version);
+                    ps.setString(2, m.description);
+                    ps.setLong(3, System.currentTimeMillis());
+                    ps.setInt(4, m.backfill == null ? 1 : 0);
+                    ps.executeUpdate();
+                    c.commit();
+                } catch (SQLException e) {
+                    c.rollback();
+                    throw e;
+                } finally {
+                    c.setAutoCommit(true);
+                }
+                current = m.version;
+            }
+            return current;
+        }
+    }
+
+    /** Возвращает наибольший примененный номер миграции или 0. */
+    private static int version(Connection c) throws SQLException {
+        try (Statement st = c.createStatement();
+             ResultSet rs = st.executeQuery("SELECT COALESCE(MAX(version), 0) FROM schema_version;")) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    /**
+     * Запускает фоновое заполнение данных для примененных миграций, у которых оно не завершено.
+     * Повторный вызов ничего не делает.
+     */
+    public synchronized void startBackfills() {
+        if (worker != null || closed) return;
+        worker = new Thread(this::runBackfills, "schema-backfill");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /** Заполняет данные миграций по очереди, порция за порцией. */
+    private void runBackfills() {
+        try (Connection c = DriverManager.getConnection(url)) {
+            for (Migration m : migrations) {
+                if (m.backfill == null) continue;
+                long after = position(c, m.version);
+                int failures = 0;
+                while (after >= 0 && !closed) {
+                    long start = System.nanoTime();
+                    try {
+                        after = chunk(c, m, after);
+                        failures = 0;
+                    } catch (SQLException e) {
+                        if (++failures >= MAX_FAILURES) return;
+                    }
+                    long elapsed = System.nanoTime() - start;
+                    TimeUnit.NANOSECONDS.sleep((long) (elapsed * (1 - dutyCycle) / dutyCycle));
+                }
+            }
+        } catch (SQLException | InterruptedException e) {
+
+        }
+    }
+
+    /**
+     * Возвращает позицию заполнения миграции или -1, если заполнение завершено
+     * или миграция не применена.
+     */
+    private static long position(Connection c, int version) throws SQLException {
+        try (PreparedStatement ps = c.prepareStatement(
+                "SELECT backfill_after, backfill_done FROM schema_version WHERE version = ?;")) {
+            ps.setInt(1, version);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (!rs.next() || rs.getInt("backfill_done") != 0) return -1;
+                return rs.getLong("backfill_after");
+            }
+        }
+    }
+
+    /**
+     * Выполняет одну порцию заполнения в транзакции и сохраняет новую позицию.
+     * Транзакция начинается с записи в schema_version, чтобы сразу занять блокировку на запись:
+     * иначе при встречной записи бота транзакция, начатая с чтения, получила бы SQLITE_BUSY.
+     * Возвращает новую позицию или -1, если заполнение завершено.
+     */
+    private long chunk(Connection c, Migration m, long after) throws SQLException {
+        c.setAutoCommit(false);
+        try (PreparedStatement claim = c.prepareStatement(
+                     "UPDATE schema_version SET backfill_after = backfill_after WHERE version = ?;");
+             PreparedStatement save = c.prepareStatement(
+                     "UPDATE schema_version SET backfill_after = ?, backfill_done = ? WHERE version = ?;")) {
+            claim.setInt(1, m.version);
+            claim.executeUpdate();
+            long last = m.backfill.chunk(c, after, chunkRows);
+            save.setLong(1, last < 0 ? after : last);
+            save.setInt(2, last < 0 ? 1 : 0);
+            save.setInt(3, m.version);
+            save.executeUpdate();
+            c.commit();
+            return last;
+        } catch (SQLException e) {
+            c.rollback();
+            throw e;
+        } finally {
+            c.setAutoCommit(true);
+        }
+    }
+
+    /**
+     * Ждет завершения фонового заполнения не дольше timeoutMs миллисекунд
+     * (при timeoutMs = 0 только проверяет). Возвращает true, если поток заполнения закончил работу или не запускался.
+     */
+    public boolean awaitBackfills(long timeoutMs) throws InterruptedException {
+        Thread t;
+        synchronized (this) {
+            t = worker;
+        }
+        if (t == null) return true;
+        if (timeoutMs > 0) t.join(timeoutMs);
+        return !t.isAlive();
+    }
+
+    /**
+     * Останавливает заполнение. Текущая порция откатывается или фиксируется целиком,
+     * и после следующего запуска заполнение продолжится с сохраненной позиции.
+     */
+    public void close() throws InterruptedException {
+        Thread t;
+        synchronized (this) {
+            closed = true;
+            t = worker;
+        }
+        if (t != null) {
+            t.interrupt();
+            t.join();
+        }
+    }
+}
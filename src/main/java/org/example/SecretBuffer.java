@@ -0,0 +1,183 @@
+package org.example;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+
+/**
+ * Секрет (пароль или парольная фраза) вне кучи: символы UTF-16 в прямом ByteBuffer.
+ * Сборщик мусора не копирует такой буфер, а close() затирает символы нулями и возвращает
+ * буфер в пул (см. SecretPool), поэтому генерация, отпечаток и сборка ответа не оставляют
+ * в куче отдельных копий пароля. Копия в куче появляется только там, где ее требует библиотека:
+ * toString() для JDBC и join() для текста ответа Bot API.
+ * Если секрет не помещается, буфер временно растет вне пула, а при close() возвращается
+ * к исходному. Не синхронизирован: буфер принадлежит одному потоку от выдачи до close().
+ * Пул каждый раз выдает новый объект SecretBuffer поверх своей памяти, поэтому запоздалый
+ * close() прежнего владельца не затрагивает того, кто получил ту же память позже.
+ */
+public final class SecretBuffer implements CharSequence, AutoCloseable {
+
+    /** Пул, в который возвращается буфер, или null */
+    private final SecretPool pool;
+
+    /** Пустые символы закрытого буфера: запись после close() не попадает в память пула */
+    private static final CharBuffer CLOSED = CharBuffer.allocate(0);
+
+    /** Исходные символы буфера (из пула); CLOSED после close() */
+    private CharBuffer home;
+
+    /** Текущие символы: home или выросший буфер */
+    private CharBuffer chars;
+
+    /** Длина секрета */
+    private int length;
+
+    /** Буфер закрыт, память возвращена в пул */
+    private boolean closed;
+
+    /**
+     * Создает буфер вне пула на capacity символов. Его тоже нужно закрыть, чтобы затереть.
+     */
+    public SecretBuffer(int capacity) {
+        this(allocate(capacity), null);
+    }
+
+    SecretBuffer(CharBuffer chars, SecretPool pool) {
+        this.home = chars;
+        this.chars = chars;
+        this.pool = pool;
+    }
+
+    /** Выделяет capacity символов вне кучи. */
+    static CharBuffer allocate(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Размер буфера должен быть положительным");
+        }
+        return ByteBuffer.allocateDirect(2 * capacity).asCharBuffer();
+    }
+
+    /** Возвращает количество символов, которое помещается без роста. */
+    public int capacity() {
+        return chars.capacity();
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length) throw new IndexOutOfBoundsException(index);
+        return chars.get(index);
+    }
+
+    /**
+     * Возвращает копию части секрета в куче (для интерфейса CharSequence).
+     */
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().substring(start, end);
+    }
+
+    /** Дописывает символ. */
+    public SecretBuffer append(char c) {
+        ensureCapacity(length + 1);
+        chars.put(length++, c);
+        return this;
+    }
+
+    /** Дописывает символы s. */
+    public SecretBuffer append(CharSequence s) {
+        ensureCapacity(length + s.length());
+        for (int i = 0; i < s.length(); i++) {
+            chars.put(length++, s.charAt(i));
+        }
+        return this;
+    }
+
+    /** Заменяет символ с номером index. */
+    public void set(int index, char c) {
+        if (index < 0 || index >= length) throw new IndexOutOfBoundsException(index);
+        chars.put(index, c);
+    }
+
+    /** Меняет местами символы i и j. */
+    public void swap(int i, int j) {
+        char t = charAt(i);
+        chars.put(i, charAt(j));
+        chars.put(j, t);
+    }
+
+    /**
+     * Возвращает копию секрета в куче для библиотек, которые принимают только String.
+     * Промежуточный массив затирается.
+     */
+    @Override
+    public String toString() {
+        char[] copy = new char[length];
+        chars.get(0, copy);
+        try {
+            return new String(copy);
+        } finally {
+            Arrays.fill(copy, '\0');
+        }
+    }
+
+    /** Затирает секрет нулями; длина становится 0. */
+    public void wipe() {
+        for (int i = 0; i < length; i++) {
+            chars.put(i, '\0');
+        }
+        length = 0;
+        chars = home;
+    }
+
+    /**
+     * Затирает секрет и возвращает память в пул. Повторный вызов ничего не делает,
+     * в том числе после того, как память выдана другому владельцу.
+     */
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        wipe();
+        CharBuffer memory = home;
+        home = CLOSED;
+        chars = CLOSED;
+        if (pool != null) pool.release(memory);
+    }
+
+    /**
+     * Собирает строку из частей (текст ответа с паролем) одним копированием:
+     * отдельная строка с секретом не создается, промежуточный массив затирается.
+     */
+    public static String join(CharSequence... parts) {
+        int n = 0;
+        for (CharSequence p : parts) n += p.length();
+        char[] out = new char[n];
+        int k = 0;
+        for (CharSequence p : parts) {
+            for (int i = 0; i < p.length(); i++) out[k++] = p.charAt(i);
+        }
+        try {
+            return new String(out);
+        } finally {
+            Arrays.fill(out, '\0');
+        }
+    }
+
+    /**
+     * Увеличивает буфер вне пула, если в нем меньше required символов.
+     * Старые символы переносятся, а выросший буфер затирается и отбрасывается в wipe().
+     */
+    private void ensureCapacity(int required) {
+        if (required <= chars.capacity()) return;
+        CharBuffer grown = allocate(Math.max(required, 2 * chars.capacity()));
+        for (int i = 0; i < length; i++) {
+            grown.put(i, chars.get(i));
+            chars.put(i, '\0');
+        }
+        chars = grown;
+    }
+}
@@ -0,0 +1,93 @@
+package org.example;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Пул буферов секретов вне кучи (см. SecretBuffer).
+ * Все буферы выделяются при создании пула одним прямым ByteBuffer: прямая память выделяется
+ * дорого и освобождается только сборщиком, поэтому она не выделяется на каждый запрос.
+ * acquire() выдает пустой буфер, close() буфера затирает его и возвращает память в пул.
+ * Свободная память лежит в ArrayBlockingQueue; на выдачу создается только небольшой объект
+ * SecretBuffer, который принадлежит одному владельцу, так что запоздалый повторный close()
+ * не может вернуть в пул память, уже выданную другому.
+ * Если свободных буферов нет, выдается буфер вне пула (он тоже затирается при close(),
+ * а память освобождает сборщик); такие промахи считаются.
+ */
+public final class SecretPool {
+
+    /** Буферов в общем пуле: больше, чем потоков, одновременно генерирующих пароли */
+    public static final int DEFAULT_BUFFERS = 64;
+
+    /** Символов в буфере общего пула: пароль до 64 символов или фраза до 12 слов */
+    public static final int DEFAULT_CAPACITY = 256;
+
+    /** Общий пул процесса */
+    private static final SecretPool SHARED = new SecretPool(DEFAULT_BUFFERS, DEFAULT_CAPACITY);
+
+    /** Свободная память буферов */
+    private final ArrayBlockingQueue<CharBuffer> free;
+
+    /** Символов в буфере */
+    private final int capacity;
+
+    /** Сколько раз свободного буфера не нашлось */
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Создает пул из buffers буферов по capacity символов.
+     */
+    public SecretPool(int buffers, int capacity) {
+        if (buffers < 1 || capacity < 1) {
+            throw new IllegalArgumentException("Размеры пула должны быть положительными");
+        }
+        if (2L * buffers * capacity > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Пул секретов больше 2 ГБ");
+        }
+        this.capacity = capacity;
+        this.free = new ArrayBlockingQueue<>(buffers);
+        ByteBuffer memory = ByteBuffer.allocateDirect(2 * buffers * capacity);
+        for (int i = 0; i < buffers; i++) {
+            free.add(memory.slice(2 * i * capacity, 2 * capacity).asCharBuffer());
+        }
+    }
+
+    /** Возвращает общий пул процесса. */
+    public static SecretPool shared() {
+        return SHARED;
+    }
+
+    /**
+     * Выдает пустой буфер. Его нужно закрыть, чтобы затереть и вернуть в пул.
+     */
+    public SecretBuffer acquire() {
+        CharBuffer memory = free.poll();
+        if (memory == null) {
+            misses.incrementAndGet();
+            return new SecretBuffer(capacity);
+        }
+        return new SecretBuffer(memory, this);
+    }
+
+    /** Возвращает в пул затертую память закрытого буфера. */
+    void release(CharBuffer memory) {
+        free.offer(memory);
+    }
+
+    /** Возвращает количество символов в буфере пула. */
+    public int capacity() {
+        return capacity;
+    }
+
+    /** Возвращает количество свободных буферов. */
+    public int available() {
+        return free.size();
+    }
+
+    /** Возвращает, сколько раз выдавался буфер вне пула. */
+    public long getMisses() {
+        return misses.get();
+    }
+}
@@ -0,0 +1,323 @@
+package org.example;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+/**
+ * Хранилище одноразовых ссылок на запись (/share): токен, владелец, сервис и срок действия.
+ * Сама запись не копируется - получатель читает ее из базы в момент использования ссылки,
+ * поэтому пароль не лежит в памяти и в файле хранилища.
+ *
+ * Токен - 128 случайных бит. Ссылки лежат в хеш-таблице фиксированного размера с цепочками
+ * и одновременно в хешированном колесе таймеров: ячейка колеса - список ссылок, срок которых
+ * истекает в один тик. Списки сцеплены полями самих ссылок, поэтому добавление, использование
+ * и удаление - O(1) без выделения памяти сверх самой ссылки, а потоков-таймеров нет совсем:
+ * истекшие ссылки убираются, когда колесо доходит до их тика при очередном вызове
+ * (срок проверяется и при использовании, так что истекшая ссылка не сработает никогда).
+ * Если срок длиннее оборота колеса, ссылка пропускается, пока срок не наступит.
+ * Количество ссылок ограничено maxEntries: при заполнении новые не создаются.
+ * Методы синхронизированы.
+ */
+public class ShareStore {
+
+    /** Признак файла хранилища */
+    private static final int MAGIC = 0x53484152;
+
+    /** Версия формата файла */
+    private static final int VERSION = 1;
+
+    /** Сколько ссылок хранится по умолчанию */
+    public static final int DEFAULT_MAX_ENTRIES = 100_000;
+
+    /** Тик колеса по умолчанию, миллисекунды */
+    private static final long DEFAULT_TICK_MS = 1000;
+
+    /** Ячеек колеса по умолчанию: оборот около 17 минут */
+    private static final int DEFAULT_WHEEL_SLOTS = 1024;
+
+    /**
+     * Одноразовая ссылка.
+     */
+    public static final class Share {
+
+        /** Старшие биты токена */
+        private final long hi;
+
+        /** Младшие биты токена */
+        private final long lo;
+
+        /** Владелец записи (чат или хранилище) */
+        private final long ownerId;
+
+        /** Сервис */
+        private final String service;
+
+        /** Когда ссылка перестает действовать, миллисекунды */
+        private final long expiresAt;
+
+        /** Следующая ссылка в цепочке хеш-таблицы */
+        private Share nextInTable;
+
+        /** Соседние ссылки в ячейке колеса */
+        private Share prevInWheel;
+        private Share nextInWheel;
+
+        /** Ячейка колеса */
+        private int slot;
+
+        private Share(long hi, long lo, long ownerId, String service, long expiresAt) {
+            this.hi = hi;
+            this.lo = lo;
+            this.ownerId = ownerId;
+            this.service = service;
+            this.expiresAt = expiresAt;
+        }
+
+        /** Возвращает владельца записи. */
+        public long getOwnerId() { return ownerId; }
+
+        /** Возвращает сервис. */
+        public String getService() { return service; }
+
+        /** Возвращает время, когда ссылка перестает действовать. */
+        public long getExpiresAt() { return expiresAt; }
+
+        /** Возвращает токен ссылки. */
+        public String getToken() {
+            return Base64.getUrlEncoder().withoutPadding()
+                    .encodeToString(ByteBuffer.allocate(16).putLong(hi).putLong(lo).array());
+        }
+    }
+
+    /** Сколько ссылок может храниться одновременно */
+    private final int maxEntries;
+
+    /** Длительность тика колеса, миллисекунды */
+    private final long tickMs;
+
+    /** Хеш-таблица по токену */
+    private final Share[] table;
+
+    /** Ячейки колеса: первая ссылка списка */
+    private final Share[] wheel;
+
+    /** Источник токенов */
+    private final SecureRandom random = new SecureRandom();
+
+    /** Сколько ссылок хранится */
+    private int size;
+
+    /** Тик, до которого (не включая) колесо обработано; -1 - еще ни разу */
+    private long processedTick = -1;
+
+    /** Сколько ссылок истекло неиспользованными */
+    private long expired;
+
+    /**
+     * Создает хранилище с размерами по умолчанию.
+     */
+    public ShareStore() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_TICK_MS, DEFAULT_WHEEL_SLOTS);
+    }
+
+    /**
+     * Создает хранилище не больше чем на maxEntries ссылок с колесом из wheelSlots ячеек
+     * по tickMs миллисекунд.
+     */
+    public ShareStore(int maxEntries, long tickMs, int wheelSlots) {
+        if (maxEntries < 1 || tickMs < 1 || wheelSlots < 1) {
+            throw new IllegalArgumentException("Размеры хранилища должны быть положительными");
+        }
+        this.maxEntries = maxEntries;
+        this.tickMs = tickMs;
+        this.table = new Share[Integer.highestOneBit(Math.max(1, maxEntries - 1)) << 1];
+        this.wheel = new Share[Integer.highestOneBit(Math.max(1, wheelSlots - 1)) << 1];
+    }
+
+    /**
+     * Создает ссылку на запись service владельца ownerId, действующую ttlMs миллисекунд.
+     * Возвращает ссылку или null, если хранилище заполнено.
+     */
+    public synchronized Share put(long ownerId, String service, long ttlMs, long now) {
+        expire(now);
+        if (size >= maxEntries) return null;
+        long hi;
+        long lo;
+        do {
+            hi = random.nextLong();
+            lo = random.nextLong();
+        } while (lookup(hi, lo) != null);
+        Share s = new Share(hi, lo, ownerId, service, now + ttlMs);
+        add(s);
+        return s;
+    }
+
+    /**
+     * Возвращает действующую ссылку по токену, не удаляя ее, или null.
+     */
+    public synchronized Share find(String token, long now) {
+        expire(now);
+        byte[] raw;
+        try {
+            raw = Base64.getUrlDecoder().decode(token);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (raw.length != 16) return null;
+        ByteBuffer buf = ByteBuffer.wrap(raw);
+        Share s = lookup(buf.getLong(), buf.getLong());
+        return s == null || s.expiresAt <= now ? null : s;
+    }
+
+    /**
+     * Удаляет ссылку (она использована). Возвращает false, если ее уже нет.
+     */
+    public synchronized boolean remove(Share s) {
+        if (lookup(s.hi, s.lo) != s) return false;
+        unlink(s);
+        return true;
+    }
+
+    /**
+     * Убирает ссылки, срок которых истек к моменту now, проходя ячейки колеса
+     * за прошедшие тики (не больше одного оборота). Возвращает количество убранных.
+     */
+    public synchronized int expire(long now) {
+        long current = now / tickMs;
+        if (processedTick < 0) processedTick = current;
+        int removed = 0;
+        long from = Math.max(processedTick, current - wheel.length);
+        for (long t = from; t < current; t++) {
+            Share s = wheel[(int) (t & (wheel.length - 1))];
+            while (s != null) {
+                Share next = s.nextInWheel;
+                if (s.expiresAt <= now) {
+                    unlink(s);
+                    removed++;
+                }
+                s = next;
+            }
+        }
+        processedTick = Math.max(processedTick, current);
+        expired += removed;
+        return removed;
+    }
+
+    /** Возвращает количество хранимых ссылок. */
+    public synchronized int size() { return size; }
+
+    /** Возвращает, сколько ссылок истекло неиспользованными. */
+    public synchronized long getExpired() { return expired; }
+
+    /** Ищет ссылку по токену. */
+    private Share lookup(long hi, long lo) {
+        for (Share s = table[index(hi, lo)]; s != null; s = s.nextInTable) {
+            if (s.hi == hi && s.lo == lo) return s;
+        }
+        return null;
+    }
+
+    /** Ячейка хеш-таблицы для токена. */
+    private int index(long hi, long lo) {
+        long h = (hi ^ lo) * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 32) & (table.length - 1);
+    }
+
+    /** Добавляет ссылку в хеш-таблицу и в ячейку колеса ее срока. */
+    private void add(Share s) {
+        int i = index(s.hi, s.lo);
+        s.nextInTable = table[i];
+        table[i] = s;
+
+        s.slot = (int) (Math.max(s.expiresAt / tickMs, processedTick) & (wheel.length - 1));
+        s.nextInWheel = wheel[s.slot];
+        if (s.nextInWheel != null) s.nextInWheel.prevInWheel = s;
+        wheel[s.slot] = s;
+        size++;
+    }
+
+    /** Убирает ссылку из хеш-таблицы и колеса. */
+    private void unlink(Share s) {
+        int i = index(s.hi, s.lo);
+        if (table[i] == s) {
+            table[i] = s.nextInTable;
+        } else {
+            Share p = table[i];
+            while (p.nextInTable != s) p = p.nextInTable;
+            p.nextInTable = s.nextInTable;
+        }
+
+        if (s.prevInWheel != null) {
+            s.prevInWheel.nextInWheel = s.nextInWheel;
+        } else {
+            wheel[s.slot] = s.nextInWheel;
+        }
+        if (s.nextInWheel != null) s.nextInWheel.prevInWheel = s.prevInWheel;
+        s.nextInTable = s.prevInWheel = s.nextInWheel = null;
+        size--;
+    }
+
+    /**
+     * Сохраняет действующие ссылки в файл (через временный файл, права только у владельца).
+     */
+    public synchronized void save(Path file, long now) throws IOException {
+        expire(now);
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.deleteIfExists(tmp);
+        if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+            Files.createFile(tmp, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(size);
+            for (Share head : table) {
+                for (Share s = head; s != null; s = s.nextInTable) {
+                    out.writeLong(s.hi);
+                    out.writeLong(s.lo);
+                    out.writeLong(s.ownerId);
+                    out.writeLong(s.expiresAt);
+                    out.writeUTF(s.service);
+                }
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Загружает ссылки из файла, сохраненного save(), пропуская истекшие и не превышая
+     * размер хранилища. Возвращает количество загруженных.
+     */
+    public synchronized int load(Path file, long now) throws IOException {
+        expire(now);
+        int loaded = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Неизвестный формат файла ссылок " + file);
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                long hi = in.readLong();
+                long lo = in.readLong();
+                long ownerId = in.readLong();
+                long expiresAt = in.readLong();
+                String service = in.readUTF();
+                if (expiresAt <= now || size >= maxEntries || lookup(hi, lo) != null) continue;
+                add(new Share(hi, lo, ownerId, service, expiresAt));
+                loaded++;
+            }
+        }
+        return loaded;
+    }
+}
@@ -0,0 +1,469 @@
+package org.example;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Оценка надёжности пароля в духе zxcvbn.
+ * Пароль разбивается на участки, каждый из которых объясняется самым дешёвым для
+ * перебора шаблоном: словарным словом (в том числе с заглавными буквами и заменами
+ * вроде 0 вместо o), клавиатурной последовательностью, последовательностью символов
+ * (abc, 987), повтором или годом. Остальные символы считаются случайными.
+ * Оценка - двоичный логарифм числа попыток при наилучшем разбиении (динамическое
+ * программирование по позициям), то есть энтропия в битах.
+ * Словарь загружается один раз при загрузке класса и хранится в WordTrie.
+ */
+public final class StrengthEstimator {
+
+    /** Минимальная длина участка, который считается шаблоном */
+    private static final int MIN_MATCH = 3;
+
+    /**
+     * Сколько первых символов разбирается на шаблоны. Разбор требует O(n^2) памяти
+     * и около O(n^3) времени, поэтому остаток длинного пароля считается случайными символами.
+     */
+    static final int MAX_SCORED = 64;
+
+    /** Словарь частых паролей и слов */
+    private static final WordTrie DICTIONARY = loadDictionary("/common-passwords.txt");
+
+    /** Ряды клавиатуры (латинская и русская раскладки), сдвинутые вправо сверху вниз */
+    private static final String[] KEYBOARD_ROWS = {
+            "1234567890-=",
+            "qwertyuiop[]",
+            "asdfghjkl;'",
+            "zxcvbnm,./",
+            "1234567890-=",
+            "йцукенгшщзхъ",
+            "фывапролджэ",
+            "ячсмитьбю."
+    };
+
+    /** Количество клавиш, с которых может начинаться клавиатурная последовательность */
+    private static final int KEY_COUNT = 47;
+
+    /** Средняя степень клавиши в графе соседства клавиатуры */
+    private static final double KEY_DEGREE = 4.6;
+
+    /** Позиция символа на клавиатуре: ряд * 64 + столбец + 1, 0 - символа нет на клавиатуре */
+    private static final int[] KEY_POS = buildKeyPositions();
+
+    /** Нижние границы уровней надёжности в битах */
+    private static final double[] SCORE_BITS = {0, 28, 40, 60, 80};
+
+    /** Тип участка: случайные символы */
+    private static final int BRUTEFORCE = 0;
+
+    /** Тип участка: словарное слово */
+    private static final int DICTIONARY_WORD = 1;
+
+    /** Тип участка: клавиатурная последовательность */
+    private static final int KEYBOARD = 2;
+
+    /** Тип участка: последовательность символов */
+    private static final int SEQUENCE = 3;
+
+    /** Тип участка: повтор */
+    private static final int REPEAT = 4;
+
+    /** Тип участка: год */
+    private static final int YEAR = 5;
+
+    /** Тексты уровней надёжности по возрастанию в каталоге ответов (см. Messages) */
+    private static final Text[] LABEL_TEXTS = {
+            Text.SCORE_VERY_WEAK, Text.SCORE_WEAK, Text.SCORE_FAIR, Text.SCORE_GOOD, Text.SCORE_STRONG
+    };
+
+    /** Тексты найденных шаблонов в каталоге ответов по типу участка */
+    private static final Text[] PATTERN_TEXTS = {
+            null, Text.PATTERN_DICTIONARY, Text.PATTERN_KEYBOARD,
+            Text.PATTERN_SEQUENCE, Text.PATTERN_REPEAT, Text.PATTERN_YEAR
+    };
+
+    /**
+     * Результат оценки пароля. Объект неизменяемый.
+     */
+    public static final class Estimate {
+
+        /** Энтропия в битах */
+        private final double bits;
+
+        /** Уровень надёжности от 0 до 4 */
+        private final int score;
+
+        /** Тип самого длинного найденного шаблона (BRUTEFORCE - шаблона нет) */
+        private final int type;
+
+        /**
+         * Создает результат оценки.
+         */
+        Estimate(double bits, int type) {
+            this.bits = bits;
+            this.type = type;
+            int s = 0;
+            while (s + 1 < SCORE_BITS.length && bits >= SCORE_BITS[s + 1]) s++;
+            this.score = s;
+        }
+
+        /** Возвращает энтропию в битах. */
+        public double getBits() { return bits; }
+
+        /** Возвращает уровень надёжности от 0 (очень слабый) до 4 (надёжный). */
+        public int getScore() { return score; }
+
+        /** Возвращает название уровня надёжности на языке каталога messages. */
+        public String getLabel(Messages messages) { return messages.get(LABEL_TEXTS[score]); }
+
+        /** Возвращает описание найденного шаблона на языке каталога messages или null. */
+        public String getPattern(Messages messages) {
+            return type == BRUTEFORCE ? null : messages.get(PATTERN_TEXTS[type]);
+        }
+
+        /**
+         * Возвращает вердикт для пользователя на языке каталога messages, например
+         * "Надёжность: слабый (≈ 30 бит), найдено: словарное слово".
+         */
+        public String describe(Messages messages) {
+            long b = Math.round(bits);
+            if (type == BRUTEFORCE) return messages.format(Text.STRENGTH, getLabel(messages), b);
+            return messages.format(Text.STRENGTH_PATTERN, getLabel(messages), b, getPattern(messages));
+        }
+    }
+
+    private StrengthEstimator() {
+    }
+
+    /**
+     * Оценивает надёжность пароля, сгенерированного случайно из алфавита
+     * заданного размера: энтропия равна length * log2(alphabetSize).
+     */
+    public static Estimate forGenerator(int length, int alphabetSize) {
+        return new Estimate(alphabetSize <= 1 ? 0 : length * log2(alphabetSize), BRUTEFORCE);
+    }
+
+    /**
+     * Возвращает оценку для заранее известной энтропии в битах.
+     */
+    public static Estimate forBits(double bits) {
+        return new Estimate(Math.max(bits, 0), BRUTEFORCE);
+    }
+
+    /**
+     * Оценивает надёжность произвольного пароля. На шаблоны разбираются только
+     * первые MAX_SCORED символов, остальные добавляют биты как случайные.
+     */
+    public static Estimate estimate(String password) {
+        int n = password.length();
+        if (n == 0) return new Estimate(0, BRUTEFORCE);
+        if (n > MAX_SCORED) {
+            Estimate head = estimate(password.substring(0, MAX_SCORED));
+            double tail = (n - MAX_SCORED) * log2(cardinality(password));
+            return new Estimate(head.bits + tail, head.type);
+        }
+
+        Matches m = matches(password);
+        double charBits = log2(cardinality(password));
+        double[] bits = new double[n + 1];
+        int[] start = new int[n + 1];
+        int[] type = new int[n + 1];
+
+        for (int j = 1; j <= n; j++) {
+            bits[j] = bits[j - 1] + charBits;
+            start[j] = j - 1;
+            type[j] = BRUTEFORCE;
+            for (int i = 0; i <= j - MIN_MATCH; i++) {
+                double b = bits[i] + m.bits[i][j];
+                if (b < bits[j]) {
+                    bits[j] = b;
+                    start[j] = i;
+                    type[j] = m.type[i][j];
+                }
+            }
+        }
+
+        int longest = 0;
+        int longestType = BRUTEFORCE;
+        for (int j = n; j > 0; j = start[j]) {
+            if (type[j] != BRUTEFORCE && j - start[j] > longest) {
+                longest = j - start[j];
+                longestType = type[j];
+            }
+        }
+        return new Estimate(bits[n], longestType);
+    }
+
+    /**
+     * Стоимость и тип самого дешёвого шаблона для каждого участка [i, j) пароля.
+     * Если шаблона нет, стоимость - бесконечность.
+     */
+    private static final class Matches {
+        final double[][] bits;
+        final int[][] type;
+
+        Matches(int n) {
+            bits = new double[n][n + 1];
+            type = new int[n][n + 1];
+            for (double[] row : bits) {
+                Arrays.fill(row, Double.POSITIVE_INFINITY);
+            }
+        }
+
+        /** Записывает шаблон, если он дешевле уже найденного для этого участка. */
+        void set(int i, int j, double b, int t) {
+            if (b < bits[i][j]) {
+                bits[i][j] = b;
+                type[i][j] = t;
+            }
+        }
+    }
+
+    /**
+     * Находит все шаблоны во всех позициях пароля.
+     */
+    private static Matches matches(String password) {
+        int n = password.length();
+        Matches m = new Matches(n);
+        String lower = lowerCase(password);
+        String leet = unleet(lower);
+
+        for (int i = 0; i < n; i++) {
+            dictionaryMatches(password, lower, lower, i, m);
+            if (!leet.equals(lower)) {
+                dictionaryMatches(password, lower, leet, i, m);
+            }
+            keyboardMatch(lower, i, m);
+            sequenceMatch(lower, i, m);
+            repeatMatch(password, i, m);
+            yearMatch(password, i, m);
+        }
+        return m;
+    }
+
+    /**
+     * Ищет словарные слова, начинающиеся с позиции i.
+     * Ранг слова в словаре - число попыток; заглавные буквы и замены
+     * символов добавляют биты за варианты написания.
+     */
+    private static void dictionaryMatches(String password, String lower, String walk, int i, Matches m) {
+        int node = DICTIONARY.root();
+        for (int j = i; j < walk.length(); j++) {
+            node = DICTIONARY.child(node, walk.charAt(j));
+            if (node < 0) return;
+            int rank = DICTIONARY.rank(node);
+            if (rank > 0 && j - i + 1 >= MIN_MATCH) {
+                double b = log2(rank) + upperBits(password, i, j + 1) + differences(lower, walk, i, j + 1);
+                m.set(i, j + 1, b, DICTIONARY_WORD);
+            }
+        }
+    }
+
+    /**
+     * Ищет клавиатурную последовательность (qwerty, 1q2w3e, йцукен), начинающуюся с позиции i.
+     * Каждая смена направления после первой добавляет log2(KEY_DEGREE) бит.
+     */
+    private static void keyboardMatch(String lower, int i, Matches m) {
+        int turns = 0;
+        int direction = 0;
+        int j = i + 1;
+        while (j < lower.length() && adjacent(lower.charAt(j - 1), lower.charAt(j))) {
+            int d = keyPos(lower.charAt(j)) - keyPos(lower.charAt(j - 1));
+            if (d != direction) {
+                turns++;
+                direction = d;
+            }
+            j++;
+            if (j - i >= MIN_MATCH) {
+                m.set(i, j, log2(KEY_COUNT) + (turns - 1) * log2(KEY_DEGREE) + log2(j - i), KEYBOARD);
+            }
+        }
+    }
+
+    /**
+     * Ищет последовательность символов с постоянным шагом 1 или -1 (abcd, 4321).
+     */
+    private static void sequenceMatch(String lower, int i, Matches m) {
+        if (i + 1 >= lower.length()) return;
+        int delta = lower.charAt(i + 1) - lower.charAt(i);
+        if (delta != 1 && delta != -1) return;
+
+        char c = lower.charAt(i);
+        double base = Character.isDigit(c) ? log2(10) : Character.isLetter(c) ? log2(26) : log2(33);
+        int j = i + 2;
+        while (j < lower.length() && lower.charAt(j) - lower.charAt(j - 1) == delta) {
+            j++;
+            m.set(i, j, base + log2(j - i) + (delta < 0 ? 1 : 0), SEQUENCE);
+        }
+    }
+
+    /**
+     * Ищет повтор блока, начинающийся с позиции i (aaaa, abcabc).
+     * Из всех длин блока выбирается та, что покрывает больше символов;
+     * стоимость - оценка самого блока плюс log2 числа повторов.
+     */
+    private static void repeatMatch(String password, int i, Matches m) {
+        int n = password.length();
+        int bestBlock = 0;
+        int bestCount = 0;
+        for (int b = 1; i + 2 * b <= n; b++) {
+            int k = 1;
+            while (i + (k + 1) * b <= n && password.regionMatches(i, password, i + k * b, b)) k++;
+            if (k >= 2 && b * k > bestBlock * bestCount) {
+                bestBlock = b;
+                bestCount = k;
+            }
+        }
+        if (bestCount < 2 || bestBlock * bestCount < MIN_MATCH) return;
+
+        String block = password.substring(i, i + bestBlock);
+        double blockBits = bestBlock == 1 ? log2(cardinality(block)) : estimate(block).getBits();
+        for (int k = 2; k <= bestCount; k++) {
+            if (bestBlock * k >= MIN_MATCH) {
+                m.set(i, i + bestBlock * k, blockBits + log2(k), REPEAT);
+            }
+        }
+    }
+
+    /**
+     * Ищет год от 1900 до 2039 в позиции i.
+     */
+    private static void yearMatch(String password, int i, Matches m) {
+        if (i + 4 > password.length()) return;
+        int year = 0;
+        for (int j = i; j < i + 4; j++) {
+            char c = password.charAt(j);
+            if (c < '0' || c > '9') return;
+            year = year * 10 + (c - '0');
+        }
+        if (year >= 1900 && year <= 2039) {
+            m.set(i, i + 4, log2(140), YEAR);
+        }
+    }
+
+    /**
+     * Биты за заглавные буквы в слове: 0 - их нет, 1 - заглавная только первая
+     * или все буквы заглавные, иначе по биту на каждую заглавную.
+     */
+    private static double upperBits(String s, int from, int to) {
+        int upper = 0;
+        for (int i = from; i < to; i++) {
+            if (Character.isUpperCase(s.charAt(i))) upper++;
+        }
+        if (upper == 0) return 0;
+        if (upper == to - from || (upper == 1 && Character.isUpperCase(s.charAt(from)))) return 1;
+        return Math.min(upper, to - from - upper) + 1;
+    }
+
+    /** Количество позиций на отрезке, где строки различаются. */
+    private static int differences(String a, String b, int from, int to) {
+        int d = 0;
+        for (int i = from; i < to; i++) {
+            if (a.charAt(i) != b.charAt(i)) d++;
+        }
+        return d;
+    }
+
+    /** Переводит символы в нижний регистр по одному, сохраняя длину строки. */
+    private static String lowerCase(String s) {
+        char[] out = s.toCharArray();
+        for (int i = 0; i < out.length; i++) {
+            out[i] = Character.toLowerCase(out[i]);
+        }
+        return new String(out);
+    }
+
+    /** Заменяет типичные подстановки (@ -> a, 0 -> o, $ -> s и т.д.) на буквы. */
+    private static String unleet(String s) {
+        char[] out = s.toCharArray();
+        for (int i = 0; i < out.length; i++) {
+            out[i] = switch (out[i]) {
+                case '@', '4' -> 'a';
+                case '3' -> 'e';
+                case '1', '!' -> 'i';
+                case '0' -> 'o';
+                case '$', '5' -> 's';
+                case '7' -> 't';
+                default -> out[i];
+            };
+        }
+        return new String(out);
+    }
+
+    /** Количество символов в наборах, из которых состоит строка. */
+    private static int cardinality(String s) {
+        boolean digit = false, lower = false, upper = false, cyrillic = false, other = false;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c >= '0' && c <= '9') digit = true;
+            else if (c >= 'a' && c <= 'z') lower = true;
+            else if (c >= 'A' && c <= 'Z') upper = true;
+            else if (Character.UnicodeBlock.of(c) == Character.UnicodeBlock.CYRILLIC) cyrillic = true;
+            else other = true;
+        }
+        int card = (digit ? 10 : 0) + (lower ? 26 : 0) + (upper ? 26 : 0)
+                + (cyrillic ? 66 : 0) + (other ? 33 : 0);
+        return Math.max(card, 2);
+    }
+
+    /** Соседние ли клавиши: в одном ряду рядом или в соседних рядах со сдвигом. */
+    private static boolean adjacent(char a, char b) {
+        int pa = keyPos(a);
+        int pb = keyPos(b);
+        if (pa == 0 || pb == 0) return false;
+        int ra = (pa - 1) / 64, ca = (pa - 1) % 64;
+        int rb = (pb - 1) / 64, cb = (pb - 1) % 64;
+        if (ra == rb) return Math.abs(ca - cb) == 1;
+        if (rb == ra + 1) return cb == ca || cb == ca - 1;
+        if (ra == rb + 1) return ca == cb || ca == cb - 1;
+        return false;
+    }
+
+    /** Позиция символа на клавиатуре или 0. */
+    private static int keyPos(char c) {
+        return c < KEY_POS.length ? KEY_POS[c] : 0;
+    }
+
+    /**
+     * Строит таблицу позиций клавиш. Символы, которые есть в обеих раскладках
+     * (цифры), получают позицию из первой, латинской.
+     */
+    private static int[] buildKeyPositions() {
+        int[] pos = new int[0x500];
+        for (int r = 0; r < KEYBOARD_ROWS.length; r++) {
+            String row = KEYBOARD_ROWS[r];
+            for (int c = 0; c < row.length(); c++) {
+                char ch = row.charAt(c);
+                if (pos[ch] == 0) pos[ch] = r * 64 + c + 1;
+            }
+        }
+        return pos;
+    }
+
+    /** Загружает словарь из ресурса, пропуская пустые строки и комментарии. */
+    private static WordTrie loadDictionary(String resource) {
+        List<String> words = new ArrayList<>();
+        try (InputStream in = StrengthEstimator.class.getResourceAsStream(resource)) {
+            if (in == null) return WordTrie.build(words);
+            BufferedReader r = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            String line;
+            while ((line = r.readLine()) != null) {
+                line = line.trim().toLowerCase();
+                if (!line.isEmpty() && !line.startsWith("#")) words.add(line);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return WordTrie.build(words);
+    }
+
+    /** Двоичный логарифм. */
+    private static double log2(double x) {
+        return Math.log(x) / Math.log(2);
+    }
+}
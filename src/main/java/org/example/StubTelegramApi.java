@@ -0,0 +1,370 @@
+package org.example;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Локальная заглушка Telegram Bot API на 127.0.0.1.
+ * Отдает боту сообщения, добавленные через send, в ответ на getUpdates
+ * и складывает ответы бота (sendMessage, editMessageText) в очередь для awaitReply.
+ * Нажатия кнопок под ответами бота добавляются через press.
+ * Используется для учебного прогона архива AppCDS (Main --train) и замера времени запуска;
+ * в тг ничего не отправляется.
+ * Сообщения, добавленные через send(token, ...), получает только бот с этим токеном
+ * (несколько ботов в одном процессе, см. MultiTenantRuntime); сообщения из send(chatId, text)
+ * получает любой бот, для токена которого отдельных сообщений нет.
+ */
+public class StubTelegramApi implements Closeable {
+
+    /** Сколько миллисекунд getUpdates ждет новых сообщений, если их нет */
+    private static final long POLL_WAIT_MS = 500;
+
+    /** Сколько сообщений getUpdates отдает за раз, если limit не задан (как в тг) */
+    private static final int DEFAULT_LIMIT = 100;
+
+    /** Данные кнопки в reply_markup */
+    private static final Pattern CALLBACK_DATA = Pattern.compile("\"callback_data\":\"((?:[^\"\\\\]|\\\\.)*)\"");
+
+    /** HTTP-сервер заглушки */
+    private final HttpServer server;
+
+    /** Потоки сервера: getUpdates ждет сообщений, поэтому нужен не один поток */
+    private final ExecutorService executor;
+
+    /** Сообщения для любого бота */
+    private final Mailbox common = new Mailbox();
+
+    /** Сообщения для ботов с определенным токеном */
+    private final Map<String, Mailbox> mailboxes = new HashMap<>();
+
+    /** Ответы бота в порядке получения */
+    private final BlockingQueue<Reply> replies = new LinkedBlockingQueue<>();
+
+    /** Сколько вызовов api сделали боты, кроме getUpdates */
+    private final AtomicLong calls = new AtomicLong();
+
+    /** Номер последнего сообщения, отправленного ботами (под блокировкой заглушки) */
+    private int lastMessageId;
+
+    /**
+     * Сообщения для одного токена (под блокировкой заглушки).
+     */
+    private static final class Mailbox {
+
+        /** Сообщения в формате JSON; update_id сообщения равен его номеру в списке плюс 1 */
+        final List<String> updates = new ArrayList<>();
+
+        /** update_id, начиная с которого сообщения еще не подтверждены ботом */
+        int confirmed = 1;
+    }
+
+    /**
+     * Ответ бота, полученный заглушкой: новое сообщение или замена текста сообщения.
+     */
+    public static final class Reply {
+
+        /** Токен бота, отправившего ответ */
+        private final String token;
+
+        /** Чат, которому адресован ответ */
+        private final long chatId;
+
+        /** Номер сообщения */
+        private final int messageId;
+
+        /** Текст ответа */
+        private final String text;
+
+        /** Кнопки под сообщением (reply_markup в JSON) или null */
+        private final String markup;
+
+        /** Ответ заменяет текст уже отправленного сообщения */
+        private final boolean edit;
+
+        /**
+         * Создает ответ с указанными данными.
+         */
+        Reply(String token, long chatId, int messageId, String text, String markup, boolean edit) {
+            this.token = token;
+            this.chatId = chatId;
+            this.messageId = messageId;
+            this.text = text;
+            this.markup = markup;
+            this.edit = edit;
+        }
+
+        /** Возвращает токен бота, отправившего ответ. */
+        public String getToken() { return token; }
+
+        /** Возвращает чат, которому адресован ответ. */
+        public long getChatId() { return chatId; }
+
+        /** Возвращает номер сообщения. */
+        public int getMessageId() { return messageId; }
+
+        /** Возвращает текст ответа. */
+        public String getText() { return text; }
+
+        /** Возвращает true, если ответ заменяет текст отправленного сообщения. */
+        public boolean isEdit() { return edit; }
+
+        /** Возвращает данные кнопок под сообщением по порядку (пустой список - без кнопок). */
+        public List<String> getButtons() {
+            List<String> data = new ArrayList<>();
+            if (markup == null) return data;
+            Matcher m = CALLBACK_DATA.matcher(markup);
+            while (m.find()) data.add(unquote(m.group(1)));
+            return data;
+        }
+    }
+
+    /**
+     * Создает заглушку поверх запущенного сервера.
+     */
+    private StubTelegramApi(HttpServer server, ExecutorService executor) {
+        this.server = server;
+        this.executor = executor;
+    }
+
+    /**
+     * Запускает заглушку на свободном порту.
+     */
+    public static StubTelegramApi start() throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        ExecutorService executor = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "stub-telegram-api");
+            t.setDaemon(true);
+            return t;
+        });
+        StubTelegramApi api = new StubTelegramApi(server, executor);
+        server.createContext("/", api::handle);
+        server.setExecutor(executor);
+        server.start();
+        return api;
+    }
+
+    /**
+     * Возвращает адрес api для TelegramBot.Builder.apiUrl (токен дописывается ботом).
+     */
+    public String url() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/bot";
+    }
+
+    /**
+     * Добавляет сообщение пользователя, которое бот получит при следующем getUpdates.
+     */
+    public void send(long chatId, String text) {
+        send(null, chatId, text);
+    }
+
+    /**
+     * Добавляет сообщение пользователя, которое получит только бот с токеном token
+     * (null - любой бот).
+     */
+    public synchronized void send(String token, long chatId, String text) {
+        Mailbox box = token == null ? common : mailboxes.computeIfAbsent(token, t -> new Mailbox());
+        int id = box.updates.size() + 1;
+        long date = System.currentTimeMillis() / 1000;
+        box.updates.add("{\"update_id\":" + id + ",\"message\":{\"message_id\":" + id + ",\"date\":" + date
+                + ",\"chat\":{\"id\":" + chatId + ",\"type\":\"private\"}"
+                + ",\"from\":{\"id\":" + chatId + ",\"is_bot\":false,\"first_name\":\"stub\"}"
+                + ",\"text\":" + quote(text) + "}}");
+        notifyAll();
+    }
+
+    /**
+     * Добавляет нажатие кнопки с данными data под сообщением messageId, которое получит
+     * только бот с токеном token (null - любой бот).
+     */
+    public synchronized void press(String token, long chatId, int messageId, String data) {
+        Mailbox box = token == null ? common : mailboxes.computeIfAbsent(token, t -> new Mailbox());
+        int id = box.updates.size() + 1;
+        long date = System.currentTimeMillis() / 1000;
+        box.updates.add("{\"update_id\":" + id + ",\"callback_query\":{\"id\":\"" + id + "\""
+                + ",\"from\":{\"id\":" + chatId + ",\"is_bot\":false,\"first_name\":\"stub\"}"
+                + ",\"message\":{\"message_id\":" + messageId + ",\"date\":" + date
+                + ",\"chat\":{\"id\":" + chatId + ",\"type\":\"private\"}}"
+                + ",\"chat_instance\":\"" + chatId + "\",\"data\":" + quote(data) + "}}");
+        notifyAll();
+    }
+
+    /**
+     * Возвращает, сколько вызовов api сделали боты, не считая getUpdates
+     * (отправка и замена сообщений, ответы на нажатия кнопок).
+     */
+    public long getCalls() {
+        return calls.get();
+    }
+
+    /**
+     * Ждет следующий ответ бота не дольше timeoutMs миллисекунд.
+     * Возвращает null, если ответа не было.
+     */
+    public Reply awaitReply(long timeoutMs) throws InterruptedException {
+        return replies.poll(timeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Останавливает заглушку.
+     */
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /** Обрабатывает запрос вида /bot<токен>/<метод>. */
+    private void handle(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        String method = path.substring(path.lastIndexOf('/') + 1);
+        String token = path.startsWith("/bot") && path.lastIndexOf('/') > 4
+                ? path.substring(4, path.lastIndexOf('/')) : "";
+        Map<String, String> params = parseForm(exchange.getRequestURI().getRawQuery());
+        params.putAll(parseForm(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8)));
+
+        if (!method.equals("getUpdates")) calls.incrementAndGet();
+        String result;
+        try {
+            result = switch (method) {
+                case "getUpdates" -> getUpdates(token, params);
+                case "sendMessage" -> sendMessage(token, params);
+                case "editMessageText" -> editMessageText(token, params);
+                default -> "true";
+            };
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            result = "[]";
+        }
+
+        byte[] body = ("{\"ok\":true,\"result\":" + result + "}").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * getUpdates: до limit неподтвержденных сообщений для токена начиная с offset;
+     * если их нет, ждет POLL_WAIT_MS.
+     */
+    private synchronized String getUpdates(String token, Map<String, String> params) throws InterruptedException {
+        Mailbox box = mailboxes.getOrDefault(token, common);
+        String offset = params.get("offset");
+        if (offset != null && Integer.parseInt(offset) > box.confirmed) {
+            box.confirmed = Integer.parseInt(offset);
+        }
+        if (box.confirmed > box.updates.size()) {
+            wait(POLL_WAIT_MS);
+        }
+        String limit = params.get("limit");
+        int last = Math.min(box.updates.size(),
+                box.confirmed - 1 + (limit == null ? DEFAULT_LIMIT : Integer.parseInt(limit)));
+        StringBuilder sb = new StringBuilder("[");
+        for (int id = box.confirmed; id <= last; id++) {
+            if (sb.length() > 1) sb.append(',');
+            sb.append(box.updates.get(id - 1));
+        }
+        return sb.append(']').toString();
+    }
+
+    /** sendMessage: сохраняет ответ бота и возвращает отправленное сообщение. */
+    private String sendMessage(String token, Map<String, String> params) {
+        long chatId = Long.parseLong(params.getOrDefault("chat_id", "0"));
+        String text = params.getOrDefault("text", "");
+        int messageId;
+        synchronized (this) {
+            messageId = ++lastMessageId;
+        }
+        replies.add(new Reply(token, chatId, messageId, text, params.get("reply_markup"), false));
+        return "{\"message_id\":" + messageId + ",\"date\":" + System.currentTimeMillis() / 1000
+                + ",\"chat\":{\"id\":" + chatId + ",\"type\":\"private\"},\"text\":" + quote(text) + "}";
+    }
+
+    /** editMessageText: сохраняет новый текст сообщения и возвращает измененное сообщение. */
+    private String editMessageText(String token, Map<String, String> params) {
+        long chatId = Long.parseLong(params.getOrDefault("chat_id", "0"));
+        int messageId = Integer.parseInt(params.getOrDefault("message_id", "0"));
+        String text = params.getOrDefault("text", "");
+        replies.add(new Reply(token, chatId, messageId, text, params.get("reply_markup"), true));
+        return "{\"message_id\":" + messageId + ",\"date\":" + System.currentTimeMillis() / 1000
+                + ",\"chat\":{\"id\":" + chatId + ",\"type\":\"private\"},\"text\":" + quote(text) + "}";
+    }
+
+    /** Разбирает параметры в формате application/x-www-form-urlencoded. */
+    private static Map<String, String> parseForm(String form) {
+        Map<String, String> params = new HashMap<>();
+        if (form == null || form.isEmpty()) return params;
+        for (String pair : form.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq == -1) continue;
+            params.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+                    URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+        }
+        return params;
+    }
+
+    /** Разбирает содержимое строки JSON (без кавычек). */
+    private static String unquote(String s) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c != '\\' || i + 1 == s.length()) {
+                sb.append(c);
+                continue;
+            }
+            char e = s.charAt(++i);
+            switch (e) {
+                case 'n' -> sb.append('\n');
+                case 'r' -> sb.append('\r');
+                case 't' -> sb.append('\t');
+                case 'u' -> {
+                    sb.append((char) Integer.parseInt(s.substring(i + 1, i + 5), 16));
+                    i += 4;
+                }
+                default -> sb.append(e);
+            }
+        }
+        return sb.toString();
+    }
+
+    /** Записывает строку как строку JSON. */
+    private static String quote(String s) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"' -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                case '\t' -> sb.append("\\t");
+                default -> {
+                    if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+                    else sb.append(c);
+                }
+            }
+        }
+        return sb.append('"').toString();
+    }
+}
@@ -0,0 +1,172 @@
+package org.example;
+
+/**
+ * Ключи текстов ответов бота. Тексты на каждом языке лежат в ресурсе messages_<язык>.properties
+ * под именами констант и разбираются один раз при загрузке Messages; константа, которой нет
+ * в каталоге по умолчанию, - ошибка загрузки. Аргументы шаблонов ({0}, {1}, ...) видны в каталоге.
+ */
+public enum Text {
+    // Общие ответы
+    HELP,
+    UNKNOWN_COMMAND,
+    THROTTLED,
+    OVERLOADED,
+    READ_ONLY,
+    BREACHED,
+
+    // Команда /language
+    LANGUAGE,
+    LANGUAGE_SET,
+    LANGUAGE_USAGE,
+
+    // Диалоги /settings и /password
+    ENTER_NUMBER,
+    ENTER_LENGTH,
+    ENTER_WORDS,
+    ANSWER_YES_NO,
+    ASK_DIGITS,
+    ASK_UPPER,
+    ASK_LOWER,
+    ASK_SPECIAL,
+    SETTINGS_CONFLICT,
+    SETTINGS_SAVED,
+    ENTER_SEPARATOR,
+    SEPARATOR_TOO_LONG,
+    ASK_CAPITALIZE,
+    WORDLIST_UNAVAILABLE,
+    PHRASE_SAVED,
+    SETTINGS_FORM,
+    YOUR_PASSWORD,
+
+    // Диалоги /add, /delete и /change
+    ENTER_SERVICE,
+    ENTER_LOGIN,
+    ASK_METHOD,
+    ENTER_1_OR_2,
+    ENTER_PASSWORD,
+    ENTER_NEW_PASSWORD,
+    PASSWORD_SAVED,
+    DATA_SAVED,
+    REUSE_WARNING,
+    DELETE_USAGE,
+    DELETE_CONFIRM,
+    DELETED,
+    DELETE_CANCELLED,
+    CHANGE_USAGE,
+    CHANGE_METHOD,
+    PASSWORD_GENERATED,
+    PASSWORD_CHANGED,
+    CHANGE_CONFLICT,
+    CHANGE_FAILED,
+    SERVICE_NOT_FOUND,
+    SERVICE_NOT_FOUND_USE_LIST,
+
+    // Надписи кнопок
+    BUTTON_GENERATE,
+    BUTTON_MANUAL,
+    BUTTON_DELETE,
+    BUTTON_CANCEL,
+    BUTTON_DIGITS,
+    BUTTON_UPPER,
+    BUTTON_LOWER,
+    BUTTON_SPECIAL,
+    BUTTON_SAVE,
+
+    // Команды /list и /get
+    LIST_EMPTY,
+    LIST_HEADER,
+    LIST_LINE,
+    GET_USAGE,
+    ENTRY,
+
+    // Команды /share и /redeem
+    SHARE_USAGE,
+    SHARE_LIMIT,
+    SHARE_CREATED,
+    REDEEM_USAGE,
+    LINK_INVALID,
+    LINK_OWN,
+    ENTRY_REMOVED,
+    REDEEMED,
+
+    // История версий: /history, /restore, /retention
+    HISTORY_USAGE,
+    HISTORY_EMPTY,
+    HISTORY_HEADER,
+    HISTORY_LINE,
+    HISTORY_FOOTER,
+    RESTORE_USAGE,
+    VERSION_NOT_FOUND,
+    RESTORED,
+    RETENTION,
+    RETENTION_SET,
+
+    // Плановая смена паролей
+    ROTATE_USAGE,
+    ROTATE_DAYS,
+    ROTATE_PERSONAL_ONLY,
+    ROTATE_OFF,
+    ROTATE_ON,
+    ROTATED_HEADER,
+    ROTATED_LINE,
+
+    // Команда /audit
+    AUDIT_NONE,
+    AUDIT_HEADER,
+    AUDIT_LINE,
+
+    // Команда /policy
+    POLICY,
+    AMBIGUOUS_EXCLUDED,
+    AMBIGUOUS_ALLOWED,
+    TEMPLATE_NONE,
+    POLICY_UNCHANGED,
+    POLICY_USAGE,
+
+    // Общие хранилища: /vault и проверка доступа
+    VAULT_USAGE,
+    VAULT_LIST_HEADER,
+    VAULT_LIST_LINE,
+    VAULT_NAME_INVALID,
+    VAULT_EXISTS,
+    VAULT_CREATED,
+    PERSONAL_SELECTED,
+    VAULT_SELECTED,
+    NO_VAULT_ACCESS,
+    NO_SELECTED_VAULT_ACCESS,
+    VAULT_READ_ONLY,
+    BUTTON_OTHER_VAULT,
+    MEMBERS_HEADER,
+    MEMBERS_LINE,
+    OWNER_ONLY,
+    LAST_OWNER,
+    MEMBER_ADDED,
+    MEMBER_REMOVED,
+    ROLE_OWNER,
+    ROLE_EDITOR,
+    ROLE_VIEWER,
+
+    // Команда /profile
+    PROFILE_STARTED,
+    PROFILE_RUNNING_ALREADY,
+    PROFILE_NOT_RUNNING,
+    PROFILE_SAVED,
+    PROFILE_ERROR,
+    PROFILE_USAGE,
+    PROFILE_IDLE,
+    PROFILE_RUNNING,
+
+    // Оценка надёжности (StrengthEstimator)
+    STRENGTH,
+    STRENGTH_PATTERN,
+    SCORE_VERY_WEAK,
+    SCORE_WEAK,
+    SCORE_FAIR,
+    SCORE_GOOD,
+    SCORE_STRONG,
+    PATTERN_DICTIONARY,
+    PATTERN_KEYBOARD,
+    PATTERN_SEQUENCE,
+    PATTERN_REPEAT,
+    PATTERN_YEAR
+}
@@ -2,50 +2,416 @@ package org.example;
 
 import com.pengrad.telegrambot.TelegramBot;
 import com.pengrad.telegrambot.UpdatesListener;
+import com.pengrad.telegrambot.model.CallbackQuery;
+import com.pengrad.telegrambot.model.MaybeInaccessibleMessage;
 import com.pengrad.telegrambot.model.Message;
 import com.pengrad.telegrambot.model.Update;
+import com.pengrad.telegrambot.model.request.InlineKeyboardButton;
+import com.pengrad.telegrambot.model.request.InlineKeyboardMarkup;
+import com.pengrad.telegrambot.request.AnswerCallbackQuery;
+import com.pengrad.telegrambot.request.BaseRequest;
+import com.pengrad.telegrambot.request.EditMessageText;
+import com.pengrad.telegrambot.request.GetUpdates;
 import com.pengrad.telegrambot.request.SendMessage;
+import com.pengrad.telegrambot.response.BaseResponse;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Адаптер тг получает апдейты, передаёт текст в PasswordLogic
- * и отправляет текстовый ответ обратно пользователю.
+ * и отправляет текстовый ответ обратно пользователю, с кнопками, если они есть у шага диалога.
+ * Нажатие кнопки (callback_query) заменяет текст и кнопки сообщения, под которым она была,
+ * вместо отправки нового сообщения.
+ * После каждой пачки апдейтов сохраняет контрольную точку (update_id последнего
+ * обработанного плюс 1) и при запуске продолжает получение с неё, поэтому перезапуск
+ * не теряет и не повторяет ответы. stop() дожидается текущей пачки и плановой смены
+ * паролей, но не дольше SHUTDOWN_DEADLINE_MS.
+ * В режиме конвейера (enablePipeline) апдейты обрабатываются без блокировки потока
+ * получения обновлений, см. UpdatePipeline.
  */
 public class TgBot {
 
+    /** Файл контрольной точки по умолчанию */
+    public static final String DEFAULT_OFFSET_FILE = "update_offset";
+
+    /** Сколько миллисекунд stop() ждет завершения обработки */
+    private static final long SHUTDOWN_DEADLINE_MS = 10_000;
+
     /** Клиент тг api */
     private final TelegramBot bot;
 
     /** логика бота (генерация паролей, обработка команд)*/
     private final PasswordLogic logic;
 
+    /** Как часто проверять расписание плановой смены паролей, в секундах */
+    private static final long ROTATION_CHECK_SECONDS = 60;
+
+    /** Поток, проверяющий расписание плановой смены паролей */
+    private final ScheduledExecutorService rotationTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "password-rotation");
+        t.setDaemon(true);
+        return t;
+    });
+
     /**
      * Создаёт тг бота с заданным токеном
      */
     public TgBot(String token) {
-        this.bot = new TelegramBot(token);
-        this.logic = new PasswordLogic();
+        this(token, null, null);
+    }
+
+    /** Контрольная точка получения обновлений или null, если она не сохраняется */
+    private final OffsetCheckpoint checkpoint;
+
+    /** Блокировка на время обработки пачки апдейтов; stop() ждет её освобождения */
+    private final ReentrantLock batchLock = new ReentrantLock();
+
+    /** offset для следующего getUpdates: update_id последнего обработанного апдейта плюс 1 */
+    private volatile int nextOffset;
+
+    /** Бот останавливается: новые апдейты не обрабатываются */
+    private volatile boolean stopping;
+
+    /** Сколько миллисекунд ждать обработки, если тг повторно отдал только апдейты, которые уже в работе */
+    private static final long PIPELINE_POLL_PAUSE_MS = 100;
+
+    /** Сколько апдейтов в работе в режиме конвейера; 0 - обычный режим */
+    private int pipelineInFlight;
+
+    /** Сколько потоков конвейера обращаются к базе данных */
+    private int pipelineThreads;
+
+    /** Общий пул обработки конвейера или null, если у конвейера свой пул */
+    private Executor pipelineStorage;
+
+    /** Общий лимит исходящих сообщений или null */
+    private OutboundLimiter pipelineOutbound;
+
+    /** Конвейер или null в обычном режиме */
+    private volatile UpdatePipeline pipeline;
+
+    /**
+     * Создаёт тг бота с заданным токеном, фильтром утекших паролей
+     * и списком слов для парольных фраз (оба могут быть null)
+     */
+    public TgBot(String token, BreachFilter breachFilter, Wordlist wordlist) {
+        this(token, null, Paths.get(DEFAULT_OFFSET_FILE), breachFilter, wordlist);
+    }
+
+    /**
+     * Создаёт тг бота, который обращается к api по адресу apiUrl
+     * (например, к локальной заглушке StubTelegramApi; null - обычный адрес тг)
+     * и хранит контрольную точку в offsetFile (null - не хранить)
+     */
+    public TgBot(String token, String apiUrl, Path offsetFile, BreachFilter breachFilter, Wordlist wordlist) {
+        this(token, apiUrl, offsetFile, new PasswordLogic());
+        this.logic.setBreachFilter(breachFilter);
+        if (wordlist != null) {
+            this.logic.setWordlist(wordlist);
+        }
+    }
+
+    /**
+     * Создаёт тг бота с готовой логикой (например, арендатора в MultiTenantRuntime,
+     * у которого своя база данных)
+     */
+    public TgBot(String token, String apiUrl, Path offsetFile, PasswordLogic logic) {
+        this.checkpoint = offsetFile == null ? null : new OffsetCheckpoint(offsetFile);
+        TelegramBot.Builder builder = new TelegramBot.Builder(token);
+        if (apiUrl != null) {
+            builder.apiUrl(apiUrl);
+        }
+        this.bot = builder.build();
+        this.logic = logic;
+    }
+
+
+    /**
+     * Задает лимиты сообщений вместо лимитов по умолчанию
+     */
+    public void setAdmissionControl(AdmissionControl admission) {
+        logic.setAdmissionControl(admission);
     }
 
+    /**
+     * Подключает журнал операций с учетными данными
+     */
+    public void setAuditLog(AuditLog auditLog) {
+        logic.setAuditLog(auditLog);
+    }
+
+    /**
+     * Подключает запись JFR, которой управляют администраторы командой /profile
+     */
+    public void setProfiler(Profiler profiler, Set<Long> admins) {
+        logic.setProfiler(profiler, admins);
+    }
+
+    /**
+     * Задает хранилище одноразовых ссылок /share
+     */
+    public void setShareStore(ShareStore shares) {
+        logic.setShareStore(shares);
+    }
+
+    /**
+     * Включает режим конвейера: до maxInFlight апдейтов в работе одновременно,
+     * storageThreads потоков для обработки. Вызывается до start()
+     */
+    public void enablePipeline(int maxInFlight, int storageThreads) {
+        if (maxInFlight < 1 || storageThreads < 1) {
+            throw new IllegalArgumentException("Размеры конвейера должны быть положительными");
+        }
+        this.pipelineInFlight = maxInFlight;
+        this.pipelineThreads = storageThreads;
+    }
+
+    /**
+     * Включает режим конвейера с общим пулом обработки storage и общим лимитом исходящих
+     * сообщений outbound (null - без лимита). Вызывается до start()
+     */
+    public void enablePipeline(int maxInFlight, Executor storage, OutboundLimiter outbound) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("Размеры конвейера должны быть положительными");
+        }
+        this.pipelineInFlight = maxInFlight;
+        this.pipelineStorage = storage;
+        this.pipelineOutbound = outbound;
+    }
 
     /**
-     * Запускает получение обновлений и обработку входящих сообщений
+     * Запускает получение обновлений с сохраненной контрольной точки, обработку
+     * входящих сообщений и периодическую плановую смену паролей.
+     * Первая проверка расписания - через ROTATION_CHECK_SECONDS, а не сразу: она открывает
+     * базу, и ответ на первое сообщение после запуска не ждет этого на таймере.
      */
     public void start() {
-        bot.setUpdatesListener(updates -> {
+        rotationTimer.scheduleWithFixedDelay(this::rotatePasswords,
+                ROTATION_CHECK_SECONDS, ROTATION_CHECK_SECONDS, TimeUnit.SECONDS);
+
+        nextOffset = checkpoint == null ? 0 : checkpoint.load();
+        if (pipelineInFlight > 0) {
+            pipeline = pipelineStorage == null
+                    ? new UpdatePipeline(logic, bot, nextOffset, pipelineInFlight, pipelineThreads)
+                    : new UpdatePipeline(logic, bot, nextOffset, pipelineInFlight, pipelineStorage, pipelineOutbound);
+            bot.setUpdatesListener(this::processPipelined, new GetUpdates().offset(nextOffset));
+        } else {
+            bot.setUpdatesListener(this::process, new GetUpdates().offset(nextOffset));
+        }
+    }
+
+    /**
+     * Обрабатывает пачку апдейтов и сохраняет контрольную точку.
+     * Если бот останавливается посреди пачки, подтверждаются только обработанные апдейты,
+     * остальные тг отдаст после перезапуска.
+     * Апдейт, обработка которого упала, тоже подтверждается: иначе тг отдавал бы его снова и снова.
+     */
+    private int process(List<Update> updates) {
+        batchLock.lock();
+        try {
+            int confirmed = UpdatesListener.CONFIRMED_UPDATES_NONE;
             for (Update update : updates) {
-                Message message = update.message();
-                String messageText = message.text();
-                long chatId = message.chat().id();
-                String replyText = logic.handleMessage(
-                        chatId,
-                        messageText
-                );
-                if (replyText != null && !replyText.isBlank()) {
-                    SendMessage response = new SendMessage(chatId, replyText);
-                    bot.execute(response);
+                if (stopping) break;
+                if (update.updateId() < nextOffset) {
+                    confirmed = update.updateId();
+                    continue;
+                }
+                try {
+                    handle(update);
+                } catch (RuntimeException e) {
+                    System.err.println("Апдейт " + update.updateId() + " не обработан: " + e);
                 }
+                confirmed = update.updateId();
+                nextOffset = confirmed + 1;
+            }
+            saveCheckpoint(false);
+            return confirmed;
+        } finally {
+            batchLock.unlock();
+        }
+    }
+
+    /**
+     * Обрабатывает сообщение или нажатие кнопки и отправляет ответ.
+     * На нажатие сначала заменяется сообщение, а потом снимается ожидание с кнопки:
+     * пользователь видит результат на один вызов api раньше.
+     * Время обработки и отправки видно в записи JFR (BotEvents.UpdateEvent).
+     */
+    private void handle(Update update) {
+        BotEvents.UpdateEvent event = new BotEvents.UpdateEvent();
+        event.begin();
+        CallbackQuery query = update.callbackQuery();
+        if (query != null) {
+            MaybeInaccessibleMessage pressed = query.maybeInaccessibleMessage();
+            PasswordLogic.Reply reply = pressed == null ? null
+                    : logic.handleCallback(pressed.chat().id(), update.updateId(), query.data());
+            if (reply != null && !reply.isNotice() && !reply.getText().isBlank()) {
+                execute(edit(pressed, reply));
+            }
+            execute(answer(query, reply));
+            if (pressed != null) recordUpdate(event, update, pressed.chat().id(), "callback");
+            return;
+        }
+        Message message = update.message();
+        if (message == null || message.text() == null) return;
+        long chatId = message.chat().id();
+        PasswordLogic.Reply reply = logic.respond(chatId, update.updateId(), message.text(), language(message));
+        if (reply != null && !reply.getText().isBlank()) {
+            execute(message(chatId, reply));
+        }
+        recordUpdate(event, update, chatId, "message");
+    }
+
+    /** Язык из профиля тг отправителя сообщения или null. */
+    static String language(Message message) {
+        return message.from() == null ? null : message.from().languageCode();
+    }
+
+    /** Записывает событие апдейта, если запись идет. */
+    static void recordUpdate(BotEvents.UpdateEvent event, Update update, long chatId, String kind) {
+        if (!event.shouldCommit()) return;
+        event.updateId = update.updateId();
+        event.chatId = chatId;
+        event.kind = kind;
+        event.commit();
+    }
+
+    /** Отправляет запрос и ждет ответа, записывая событие вызова Bot API. */
+    private <T extends BaseRequest<T, R>, R extends BaseResponse> void execute(T request) {
+        BotEvents.SendEvent event = BotEvents.send(request);
+        R response = bot.execute(request);
+        event.ok = response != null && response.isOk();
+        event.commit();
+    }
+
+    /** Запрос отправки ответа новым сообщением. */
+    static SendMessage message(long chatId, PasswordLogic.Reply reply) {
+        SendMessage request = new SendMessage(chatId, reply.getText());
+        if (!reply.getKeyboard().isEmpty()) request.replyMarkup(markup(reply.getKeyboard()));
+        return request;
+    }
+
+    /** Запрос замены текста и кнопок сообщения, под которым нажата кнопка. */
+    static EditMessageText edit(MaybeInaccessibleMessage pressed, PasswordLogic.Reply reply) {
+        EditMessageText request = new EditMessageText(pressed.chat().id(), pressed.messageId(), reply.getText());
+        if (!reply.getKeyboard().isEmpty()) request.replyMarkup(markup(reply.getKeyboard()));
+        return request;
+    }
+
+    /** Ответ на нажатие кнопки; уведомление, если ответ не меняет сообщение. */
+    static AnswerCallbackQuery answer(CallbackQuery query, PasswordLogic.Reply reply) {
+        AnswerCallbackQuery request = new AnswerCallbackQuery(query.id());
+        if (reply != null && reply.isNotice()) request.text(reply.getText());
+        return request;
+    }
+
+    /** Кнопки под сообщением в формате тг. */
+    private static InlineKeyboardMarkup markup(List<List<PasswordLogic.Button>> keyboard) {
+        InlineKeyboardMarkup markup = new InlineKeyboardMarkup();
+        for (List<PasswordLogic.Button> row : keyboard) {
+            InlineKeyboardButton[] buttons = new InlineKeyboardButton[row.size()];
+            for (int i = 0; i < buttons.length; i++) {
+                buttons[i] = new InlineKeyboardButton(row.get(i).getText()).callbackData(row.get(i).getData());
+            }
+            markup.addRow(buttons);
+        }
+        return markup;
+    }
+
+    /**
+     * Передает пачку апдейтов в конвейер и подтверждает только полностью обработанные:
+     * остальные тг отдаст снова, и конвейер их пропустит как уже принятые.
+     * Поток ждет здесь, если конвейер заполнен.
+     */
+    private int processPipelined(List<Update> updates) {
+        batchLock.lock();
+        try {
+            boolean accepted = false;
+            for (Update update : updates) {
+                if (stopping) break;
+                accepted |= pipeline.submit(update);
+            }
+            if (!accepted && !stopping) {
+                pipeline.awaitProgress(PIPELINE_POLL_PAUSE_MS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            batchLock.unlock();
+        }
+        nextOffset = pipeline.nextOffset();
+        saveCheckpoint(false);
+        return nextOffset > 0 ? nextOffset - 1 : UpdatesListener.CONFIRMED_UPDATES_NONE;
+    }
+
+    /**
+     * Останавливает бота: прекращает получение обновлений, ждет текущую пачку апдейтов
+     * вместе с отправкой ответов и плановую смену паролей (не дольше SHUTDOWN_DEADLINE_MS)
+     * и сохраняет контрольную точку на диск.
+     * Изменения в базе данных фиксируются транзакциями по ходу работы, так что после
+     * завершения записывающих задач сбрасывать больше нечего.
+     */
+    public void stop() {
+        stopping = true;
+        bot.removeGetUpdatesListener();
+        rotationTimer.shutdown();
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(SHUTDOWN_DEADLINE_MS);
+        try {
+            if (batchLock.tryLock(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                batchLock.unlock();
+            }
+            UpdatePipeline p = pipeline;
+            if (p != null) {
+                p.awaitIdle(deadline - System.nanoTime());
+                nextOffset = p.nextOffset();
+            }
+            rotationTimer.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        saveCheckpoint(true);
+        if (pipeline != null) {
+            pipeline.shutdown();
+        }
+        rotationTimer.shutdownNow();
+        bot.shutdown();
+    }
+
+    /**
+     * Сохраняет контрольную точку. Ошибка записи не останавливает обработку, но выводится:
+     * без контрольной точки перезапуск повторит уже обработанные апдейты.
+     */
+    private void saveCheckpoint(boolean durable) {
+        if (checkpoint == null || nextOffset == 0) return;
+        try {
+            checkpoint.save(nextOffset, durable);
+        } catch (IOException e) {
+            System.err.println("Контрольная точка не сохранена: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Меняет созревшие по расписанию пароли и уведомляет владельцев.
+     * Исключение не должно остановить периодическую задачу, поэтому оно перехватывается.
+     */
+    private void rotatePasswords() {
+        try {
+            for (Map.Entry<Long, String> m : logic.rotateDue().entrySet()) {
+                execute(new SendMessage(m.getKey(), m.getValue()));
             }
-            return UpdatesListener.CONFIRMED_UPDATES_ALL;
-        });
+        } catch (RuntimeException e) {
+            System.err.println("Плановая смена паролей прервана: " + e);
+        }
     }
 }
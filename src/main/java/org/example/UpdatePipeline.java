@@ -0,0 +1,271 @@
+package org.example;
+
+import com.pengrad.telegrambot.Callback;
+import com.pengrad.telegrambot.TelegramBot;
+import com.pengrad.telegrambot.model.CallbackQuery;
+import com.pengrad.telegrambot.model.MaybeInaccessibleMessage;
+import com.pengrad.telegrambot.model.Message;
+import com.pengrad.telegrambot.model.Update;
+import com.pengrad.telegrambot.request.AnswerCallbackQuery;
+import com.pengrad.telegrambot.request.BaseRequest;
+import com.pengrad.telegrambot.response.BaseResponse;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Неблокирующая обработка апдейтов: поток получения обновлений только принимает апдейт,
+ * а дальше он проходит стадии на CompletableFuture:
+ * прием → разбор → очередь чата → обработка (PasswordLogic и JDBC на отдельном пуле
+ * с ограниченной очередью) → ответ → отправка (асинхронный execute, без ожидания в потоке).
+ *
+ * Одновременно в работе не больше maxInFlight апдейтов: submit() ждет свободного места,
+ * и пока конвейер заполнен, новые getUpdates не запрашиваются (обратное давление до тг).
+ * Апдейты одного чата обрабатываются и отправляются строго по очереди, разных чатов - параллельно.
+ * nextOffset() - update_id, до которого все апдейты обработаны и ответы отправлены;
+ * только его можно подтверждать тг и сохранять в контрольной точке.
+ * Несколько ботов в одном процессе (MultiTenantRuntime) передают общий пул обработки
+ * и общий лимит исходящих сообщений: ответ, не укладывающийся в лимит, отправляется позже
+ * без ожидания в потоке.
+ * Нажатия кнопок (callback_query) проходят те же стадии: ответ на нажатие отправляется сразу,
+ * а новый текст заменяет сообщение с кнопкой (editMessageText) вместо нового сообщения.
+ */
+public class UpdatePipeline {
+
+    /** Логика бота */
+    private final PasswordLogic logic;
+
+    /** Клиент тг api */
+    private final TelegramBot bot;
+
+    /** Места в конвейере */
+    private final Semaphore permits;
+
+    /** Стадия обработки: PasswordLogic и обращения к базе данных */
+    private final Executor storage;
+
+    /** Собственный пул стадии обработки или null, если пул общий */
+    private final ThreadPoolExecutor ownStorage;
+
+    /** Общий лимит исходящих сообщений или null */
+    private final OutboundLimiter outbound;
+
+    /** Последняя стадия каждого чата, за которой встает следующий апдейт этого чата */
+    private final Map<Long, CompletableFuture<Void>> chats = new ConcurrentHashMap<>();
+
+    /** update_id апдейтов в работе (под блокировкой this) */
+    private final TreeSet<Integer> inFlight = new TreeSet<>();
+
+    /** Наибольший принятый update_id (под блокировкой this) */
+    private int lastSubmitted;
+
+    /**
+     * Создает конвейер.
+     *
+     * logic Логика бота.
+     * bot Клиент тг api для отправки ответов.
+     * offset Первый update_id, который нужно обработать (апдейты до него уже обработаны).
+     * maxInFlight Сколько апдейтов может быть в работе одновременно.
+     * storageThreads Сколько потоков обращаются к базе данных.
+     */
+    public UpdatePipeline(PasswordLogic logic, TelegramBot bot, int offset, int maxInFlight, int storageThreads) {
+        this(logic, bot, offset, maxInFlight, storagePool(maxInFlight, storageThreads), null, true);
+    }
+
+    /**
+     * Создает конвейер с общим пулом обработки storage и общим лимитом исходящих сообщений
+     * outbound (null - без лимита). Общий пул не останавливается в shutdown().
+     */
+    public UpdatePipeline(PasswordLogic logic, TelegramBot bot, int offset, int maxInFlight,
+                          Executor storage, OutboundLimiter outbound) {
+        this(logic, bot, offset, maxInFlight, storage, outbound, false);
+    }
+
+    private UpdatePipeline(PasswordLogic logic, TelegramBot bot, int offset, int maxInFlight,
+                           Executor storage, OutboundLimiter outbound, boolean ownStorage) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("Размеры конвейера должны быть положительными");
+        }
+        this.logic = logic;
+        this.bot = bot;
+        this.lastSubmitted = offset - 1;
+        this.permits = new Semaphore(maxInFlight);
+        this.storage = storage;
+        this.ownStorage = ownStorage ? (ThreadPoolExecutor) storage : null;
+        this.outbound = outbound;
+    }
+
+    /** Создает собственный пул стадии обработки с очередью на maxInFlight задач. */
+    private static ThreadPoolExecutor storagePool(int maxInFlight, int storageThreads) {
+        if (maxInFlight < 1 || storageThreads < 1) {
+            throw new IllegalArgumentException("Размеры конвейера должны быть положительными");
+        }
+        return new ThreadPoolExecutor(storageThreads, storageThreads, 0, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(maxInFlight), r -> {
+            Thread t = new Thread(r, "pipeline-storage");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Принимает апдейт в конвейер, при необходимости дожидаясь свободного места.
+     * Возвращает false, если апдейт уже был принят (тг отдает неподтвержденные апдейты повторно).
+     */
+    public boolean submit(Update update) throws InterruptedException {
+        int id = update.updateId();
+        synchronized (this) {
+            if (id <= lastSubmitted) return false;
+        }
+        permits.acquire();
+        synchronized (this) {
+            lastSubmitted = id;
+            inFlight.add(id);
+        }
+
+        Message message = update.message();
+        CallbackQuery query = update.callbackQuery();
+        MaybeInaccessibleMessage pressed = query == null ? null : query.maybeInaccessibleMessage();
+        if (query != null && pressed == null) {
+            execute(new AnswerCallbackQuery(query.id()), new CompletableFuture<>());
+        }
+        if (pressed == null && (message == null || message.text() == null)) {
+            complete(id);
+            return true;
+        }
+        long chatId = pressed != null ? pressed.chat().id() : message.chat().id();
+        BotEvents.UpdateEvent event = new BotEvents.UpdateEvent();
+        event.pipelined = true;
+        event.begin();
+
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        CompletableFuture<Void> previous = chats.put(chatId, done);
+        (previous == null ? CompletableFuture.<Void>completedFuture(null) : previous)
+                .thenApplyAsync(x -> pressed != null
+                        ? logic.handleCallback(chatId, id, query.data())
+                        : logic.respond(chatId, id, message.text(), TgBot.language(message)), storage)
+                .thenCompose(reply -> pressed != null ? answer(query, pressed, reply) : reply(chatId, reply))
+                .whenComplete((x, e) -> {
+                    TgBot.recordUpdate(event, update, chatId, pressed != null ? "callback" : "message");
+                    chats.remove(chatId, done);
+                    complete(id);
+                    done.complete(null);
+                });
+        return true;
+    }
+
+    /** Отправляет ответ на сообщение новым сообщением. */
+    private CompletableFuture<Void> reply(long chatId, PasswordLogic.Reply reply) {
+        if (reply == null || reply.getText().isBlank()) return CompletableFuture.completedFuture(null);
+        return send(TgBot.message(chatId, reply));
+    }
+
+    /**
+     * Отвечает на нажатие кнопки без ожидания лимита (иначе кнопка остается в состоянии загрузки)
+     * и заменяет сообщение с кнопкой новым текстом.
+     */
+    private CompletableFuture<Void> answer(CallbackQuery query, MaybeInaccessibleMessage pressed,
+                                           PasswordLogic.Reply reply) {
+        execute(TgBot.answer(query, reply), new CompletableFuture<>());
+        if (reply == null || reply.isNotice() || reply.getText().isBlank()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return send(TgBot.edit(pressed, reply));
+    }
+
+    /**
+     * Отправляет запрос без ожидания в потоке; ошибка отправки не останавливает очередь чата.
+     * Если запрос не укладывается в общий лимит, отправка откладывается на нужное время.
+     */
+    private <T extends BaseRequest<T, R>, R extends BaseResponse> CompletableFuture<Void> send(T request) {
+        CompletableFuture<Void> sent = new CompletableFuture<>();
+        long wait = outbound == null ? 0 : outbound.reserve();
+        if (wait > 0) {
+            CompletableFuture.delayedExecutor(wait, TimeUnit.NANOSECONDS, Runnable::run)
+                    .execute(() -> execute(request, sent));
+        } else {
+            execute(request, sent);
+        }
+        return sent;
+    }
+
+    /**
+     * Передает запрос клиенту тг api и завершает sent по его результату.
+     * Событие вызова Bot API охватывает и ожидание в очереди клиента.
+     */
+    private <T extends BaseRequest<T, R>, R extends BaseResponse> void execute(T request, CompletableFuture<Void> sent) {
+        BotEvents.SendEvent event = BotEvents.send(request);
+        bot.execute(request, new Callback<T, R>() {
+            @Override
+            public void onResponse(T r, R response) {
+                event.ok = response != null && response.isOk();
+                event.commit();
+                sent.complete(null);
+            }
+
+            @Override
+            public void onFailure(T r, IOException e) {
+                event.commit();
+                sent.complete(null);
+            }
+        });
+    }
+
+    /** Отмечает апдейт обработанным и освобождает место. */
+    private void complete(int id) {
+        synchronized (this) {
+            inFlight.remove(id);
+            notifyAll();
+        }
+        permits.release();
+    }
+
+    /**
+     * Возвращает offset для подтверждения: update_id, до которого все апдейты обработаны.
+     */
+    public synchronized int nextOffset() {
+        return inFlight.isEmpty() ? lastSubmitted + 1 : inFlight.first();
+    }
+
+    /**
+     * Ждет, пока какой-нибудь апдейт будет обработан, не дольше timeoutMs миллисекунд.
+     * Возвращает сразу, если в работе ничего нет.
+     */
+    public synchronized void awaitProgress(long timeoutMs) throws InterruptedException {
+        if (!inFlight.isEmpty()) {
+            wait(timeoutMs);
+        }
+    }
+
+    /**
+     * Ждет, пока все принятые апдейты будут обработаны, не дольше timeoutNanos.
+     * Возвращает true, если в работе ничего не осталось.
+     */
+    public synchronized boolean awaitIdle(long timeoutNanos) throws InterruptedException {
+        long deadline = System.nanoTime() + timeoutNanos;
+        while (!inFlight.isEmpty()) {
+            long left = deadline - System.nanoTime();
+            if (left <= 0) return false;
+            TimeUnit.NANOSECONDS.timedWait(this, left);
+        }
+        return true;
+    }
+
+    /**
+     * Останавливает собственные потоки обработки (общий пул останавливает его владелец).
+     * Незавершенные апдейты не подтверждаются и будут получены снова после перезапуска.
+     */
+    public void shutdown() {
+        if (ownStorage != null) {
+            ownStorage.shutdownNow();
+        }
+    }
+}
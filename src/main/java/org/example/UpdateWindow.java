@@ -0,0 +1,65 @@
+package org.example;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * Окно дедупликации апдейтов одного чата по update_id.
+ * Хранит старший увиденный update_id и битовую маску уже обработанных id
+ * в диапазоне WINDOW ниже него (как окно защиты от повторов в IPsec).
+ * Оба значения упакованы в один long и меняются через compareAndSet, поэтому
+ * проверка выполняется за O(1) без блокировок и занимает постоянную память.
+ * Апдейт старше окна считается повтором: тг отдает апдейты одного чата по возрастанию update_id.
+ */
+public final class UpdateWindow {
+
+    /** Размер окна в update_id */
+    public static final int WINDOW = 32;
+
+    /** Доступ к state через compareAndSet */
+    private static final VarHandle STATE;
+
+    static {
+        try {
+            STATE = MethodHandles.lookup().findVarHandle(UpdateWindow.class, "state", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /** Старшие 32 бита - старший увиденный update_id, младшие - маска окна; 0 - апдейтов еще не было */
+    private volatile long state;
+
+    /**
+     * Отмечает апдейт как обработанный. Возвращает true, если апдейт пришел впервые,
+     * и false, если это повтор (или апдейт старше окна).
+     */
+    public boolean firstDelivery(int updateId) {
+        while (true) {
+            long s = state;
+            long next;
+            if (s == 0) {
+                next = pack(updateId, 1);
+            } else {
+                int high = (int) (s >>> 32);
+                int bits = (int) s;
+                if (updateId > high) {
+                    long shift = (long) updateId - high;
+                    next = pack(updateId, shift >= WINDOW ? 1 : (bits << shift) | 1);
+                } else {
+                    long age = (long) high - updateId;
+                    if (age >= WINDOW) return false;
+                    int bit = 1 << age;
+                    if ((bits & bit) != 0) return false;
+                    next = pack(high, bits | bit);
+                }
+            }
+            if (STATE.compareAndSet(this, s, next)) return true;
+        }
+    }
+
+    /** Упаковывает окно в long. */
+    private static long pack(int high, int bits) {
+        return ((long) high << 32) | (bits & 0xFFFFFFFFL);
+    }
+}
@@ -0,0 +1,115 @@
+package org.example;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * Неизменяемое префиксное дерево слов, упакованное в массивы.
+ * Узлы лежат в порядке обхода в ширину, дети каждого узла идут подряд
+ * и отсортированы по символу, поэтому переход к ребенку - двоичный поиск
+ * по небольшому отрезку массива без объектов на каждый узел.
+ * Для каждого слова хранится его ранг (место в частотном списке, начиная с 1).
+ */
+public final class WordTrie {
+
+    /** Символ, ведущий в узел */
+    private final char[] label;
+
+    /** Индекс первого ребенка узла */
+    private final int[] firstChild;
+
+    /** Количество детей узла */
+    private final int[] childCount;
+
+    /** Ранг слова, заканчивающегося в узле, или 0, если слово здесь не заканчивается */
+    private final int[] rank;
+
+    /**
+     * Создает дерево из уже упакованных массивов.
+     */
+    private WordTrie(char[] label, int[] firstChild, int[] childCount, int[] rank) {
+        this.label = label;
+        this.firstChild = firstChild;
+        this.childCount = childCount;
+        this.rank = rank;
+    }
+
+    /**
+     * Строит дерево из списка слов, упорядоченного по частоте (первое слово - самое частое).
+     * Повторяющиеся слова получают ранг первого вхождения.
+     */
+    public static WordTrie build(List<String> words) {
+        Node root = new Node();
+        int nodes = 1;
+        for (int i = 0; i < words.size(); i++) {
+            Node n = root;
+            for (char c : words.get(i).toCharArray()) {
+                Node next = n.children.get(c);
+                if (next == null) {
+                    next = new Node();
+                    n.children.put(c, next);
+                    nodes++;
+                }
+                n = next;
+            }
+            if (n.rank == 0) n.rank = i + 1;
+        }
+
+        char[] label = new char[nodes];
+        int[] firstChild = new int[nodes];
+        int[] childCount = new int[nodes];
+        int[] rank = new int[nodes];
+
+        List<Node> order = new ArrayList<>(nodes);
+        order.add(root);
+        for (int i = 0; i < order.size(); i++) {
+            Node n = order.get(i);
+            rank[i] = n.rank;
+            firstChild[i] = order.size();
+            childCount[i] = n.children.size();
+            for (var e : n.children.entrySet()) {
+                label[order.size()] = e.getKey();
+                order.add(e.getValue());
+            }
+        }
+        return new WordTrie(label, firstChild, childCount, rank);
+    }
+
+    /**
+     * Возвращает корень дерева для пошагового обхода через child.
+     */
+    public int root() {
+        return 0;
+    }
+
+    /**
+     * Возвращает ребенка узла по символу или -1, если такого перехода нет.
+     */
+    public int child(int node, char c) {
+        int from = firstChild[node];
+        int i = Arrays.binarySearch(label, from, from + childCount[node], c);
+        return i < 0 ? -1 : i;
+    }
+
+    /**
+     * Возвращает ранг слова, заканчивающегося в узле, или 0.
+     */
+    public int rank(int node) {
+        return rank[node];
+    }
+
+    /**
+     * Возвращает количество узлов дерева.
+     */
+    public int size() {
+        return label.length;
+    }
+
+    /** Узел дерева на время построения. */
+    private static class Node {
+        final TreeMap<Character, Node> children = new TreeMap<>();
+        int rank;
+    }
+}
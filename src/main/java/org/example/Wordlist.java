@@ -0,0 +1,253 @@
+package org.example;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Список слов для парольных фраз в компактном двоичном файле.
+ * Формат файла: магическое число, количество слов n, контрольная сумма исходного текста
+ * (long, 0 - неизвестна), таблица из n + 1 смещений (int), затем байты всех слов в UTF-8
+ * подряд. Слово i занимает байты [offset[i], offset[i + 1]) после таблицы.
+ * Файлы прежнего формата (MAGIC_V1, без контрольной суммы) по-прежнему открываются.
+ * Файл отображается в память, а не разбирается в List<String>: открытие не зависит
+ * от размера списка, а слово декодируется только тогда, когда оно выбрано.
+ * Чтение идет абсолютными обращениями к буферу, поэтому список безопасен для потоков.
+ */
+public class Wordlist {
+
+    /** Магическое число в начале файла ("PBW2") */
+    private static final int MAGIC = 0x50425732;
+
+    /** Размер заголовка файла в байтах */
+    private static final int HEADER = 16;
+
+    /** Магическое число файла прежнего формата без контрольной суммы ("PBWL") */
+    private static final int MAGIC_V1 = 0x5042574C;
+
+    /** Размер заголовка файла прежнего формата в байтах */
+    private static final int HEADER_V1 = 8;
+
+    /** Ресурс со встроенным списком слов */
+    private static final String BUNDLED = "/wordlist.txt";
+
+    /** Отображенный в память файл */
+    private final ByteBuffer buf;
+
+    /** Количество слов */
+    private final int size;
+
+    /** Размер заголовка файла */
+    private final int header;
+
+    /** Контрольная сумма исходного текста или 0 */
+    private final long source;
+
+    /** Смещение начала байтов слов от начала файла */
+    private final int dataStart;
+
+    /**
+     * Создает список поверх отображенного буфера.
+     */
+    private Wordlist(ByteBuffer buf, int size, int header, long source) {
+        this.buf = buf;
+        this.size = size;
+        this.header = header;
+        this.source = source;
+        this.dataStart = header + 4 * (size + 1);
+    }
+
+    /**
+     * Открывает двоичный файл списка, отображая его в память только для чтения.
+     * Бросает IOException, если файл не найден или имеет неверный формат.
+     */
+    public static Wordlist open(Path file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            int magic = buf.capacity() < HEADER_V1 ? 0 : buf.getInt(0);
+            int header = magic == MAGIC ? HEADER : magic == MAGIC_V1 ? HEADER_V1 : -1;
+            if (header < 0 || buf.capacity() < header) {
+                throw new IOException("Неверный формат списка слов: " + file);
+            }
+            int n = buf.getInt(4);
+            if (n <= 1 || header + 4L * (n + 1) > buf.capacity()
+                    || header + 4L * (n + 1) + buf.getInt(header + 4 * n) > buf.capacity()) {
+                throw new IOException("Повреждённый список слов: " + file);
+            }
+            return new Wordlist(buf, n, header, header == HEADER ? buf.getLong(8) : 0);
+        }
+    }
+
+    /**
+     * Открывает встроенный список слов. При первом вызове он компилируется
+     * из ресурса в двоичный файл cache, дальше файл только отображается в память.
+     * Если контрольная сумма ресурса не совпадает с записанной в cache (список обновили)
+     * или cache не открывается, файл компилируется заново.
+     */
+    public static Wordlist openBundled(Path cache) throws IOException {
+        byte[] text;
+        try (InputStream in = Wordlist.class.getResourceAsStream(BUNDLED)) {
+            if (in == null) throw new IOException("Нет ресурса " + BUNDLED);
+            text = in.readAllBytes();
+        }
+        CRC32 crc = new CRC32();
+        crc.update(text);
+        long source = crc.getValue() | 1L << 32; // не 0: 0 в заголовке - сумма неизвестна
+        if (Files.exists(cache)) {
+            try {
+                Wordlist list = open(cache);
+                if (list.source == source) return list;
+            } catch (IOException e) {
+                System.err.println("Список слов будет собран заново: " + e.getMessage());
+            }
+        }
+        compile(readWords(new BufferedReader(new InputStreamReader(
+                new ByteArrayInputStream(text), StandardCharsets.UTF_8))), cache, source);
+        return open(cache);
+    }
+
+    /**
+     * Компилирует текстовый список (одно слово в строке) в двоичный файл.
+     */
+    public static void compile(Path text, Path out) throws IOException {
+        try (BufferedReader r = Files.newBufferedReader(text, StandardCharsets.UTF_8)) {
+            compile(readWords(r), out);
+        }
+    }
+
+    /**
+     * Компилирует список слов в двоичный файл.
+     * Файл сначала пишется во временный и затем переименовывается,
+     * так что одновременно открывающий его процесс не увидит половину файла.
+     */
+    public static void compile(List<String> words, Path out) throws IOException {
+        compile(words, out, 0);
+    }
+
+    /**
+     * Компилирует список слов в двоичный файл с контрольной суммой исходного текста source.
+     */
+    private static void compile(List<String> words, Path out, long source) throws IOException {
+        if (words.size() < 2) throw new IOException("В списке должно быть хотя бы два слова");
+
+        List<byte[]> encoded = new ArrayList<>(words.size());
+        long total = 0;
+        for (String w : words) {
+            byte[] b = w.getBytes(StandardCharsets.UTF_8);
+            encoded.add(b);
+            total += b.length;
+        }
+        long size = HEADER + 4L * (words.size() + 1) + total;
+        if (size > Integer.MAX_VALUE) throw new IOException("Список слов больше 2 ГБ");
+
+        ByteBuffer data = ByteBuffer.allocate((int) size);
+        data.putInt(MAGIC).putInt(words.size()).putLong(source);
+        int offset = 0;
+        for (byte[] b : encoded) {
+            data.putInt(offset);
+            offset += b.length;
+        }
+        data.putInt(offset);
+        for (byte[] b : encoded) {
+            data.put(b);
+        }
+        data.flip();
+
+        Path parent = out.toAbsolutePath().getParent();
+        Path tmp = Files.createTempFile(parent, "wordlist", ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+            while (data.hasRemaining()) ch.write(data);
+            ch.force(true);
+        }
+        Files.move(tmp, out, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Возвращает количество слов.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Возвращает слово с номером index (от 0 до size() - 1).
+     */
+    public String word(int index) {
+        int from = buf.getInt(header + 4 * index);
+        int to = buf.getInt(header + 4 * (index + 1));
+        byte[] b = new byte[to - from];
+        buf.get(dataStart + from, b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Дописывает слово с номером index в out, декодируя UTF-8 прямо из файла
+     * (без промежуточных массива и строки в куче).
+     */
+    public void appendWord(int index, SecretBuffer out) {
+        int i = dataStart + buf.getInt(header + 4 * index);
+        int to = dataStart + buf.getInt(header + 4 * (index + 1));
+        while (i < to) {
+            int b = buf.get(i++) & 0xFF;
+            int cp;
+            if (b < 0x80) {
+                cp = b;
+            } else if (b < 0xE0) {
+                cp = (b & 0x1F) << 6 | buf.get(i++) & 0x3F;
+            } else if (b < 0xF0) {
+                cp = (b & 0x0F) << 12 | (buf.get(i++) & 0x3F) << 6 | buf.get(i++) & 0x3F;
+            } else {
+                cp = (b & 0x07) << 18 | (buf.get(i++) & 0x3F) << 12 | (buf.get(i++) & 0x3F) << 6 | buf.get(i++) & 0x3F;
+            }
+            if (Character.isBmpCodePoint(cp)) {
+                out.append((char) cp);
+            } else {
+                out.append(Character.highSurrogate(cp)).append(Character.lowSurrogate(cp));
+            }
+        }
+    }
+
+    /**
+     * Читает слова по одному в строке, пропуская пустые строки и комментарии.
+     * Если строка в формате diceware ("11111 слово"), берется только слово.
+     */
+    private static List<String> readWords(BufferedReader r) throws IOException {
+        List<String> words = new ArrayList<>();
+        String line;
+        while ((line = r.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            int space = line.lastIndexOf(' ');
+            if (space == -1) space = line.lastIndexOf('\t');
+            words.add(space == -1 ? line : line.substring(space + 1));
+        }
+        return words;
+    }
+
+    /**
+     * Компиляция списка из командной строки: Wordlist <слова.txt> <слова.bin>
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Использование: Wordlist <слова.txt> <слова.bin>");
+            return;
+        }
+        compile(Paths.get(args[0]), Paths.get(args[1]));
+        System.out.println("Список собран: слов " + open(Paths.get(args[1])).size());
+    }
+}
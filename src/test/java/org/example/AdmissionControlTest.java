@@ -0,0 +1,187 @@
+package org.example;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Тесты контроля допуска сообщений
+ */
+public class AdmissionControlTest {
+
+    /** Текущее время для тестов в наносекундах */
+    private final AtomicLong now = new AtomicLong(1_000_000_000L);
+
+    /**
+     * Проверяет корзину чата: burst сообщений подряд, затем отказ (о нем сообщается один раз),
+     * затем пополнение со временем
+     */
+    @Test
+    void testTokenBucket() {
+        AdmissionControl ac = new AdmissionControl(2, 3, 100, now::get);
+        for (int i = 0; i < 3; i++) {
+            Assertions.assertEquals(AdmissionControl.Decision.ADMITTED, ac.acquire(42));
+            ac.release();
+        }
+        Assertions.assertEquals(AdmissionControl.Decision.THROTTLED, ac.acquire(42));
+        Assertions.assertEquals(AdmissionControl.Decision.THROTTLED_AGAIN, ac.acquire(42));
+        Assertions.assertEquals(AdmissionControl.Decision.ADMITTED, ac.acquire(43));
+        ac.release();
+
+        now.addAndGet(500_000_000L);
+        Assertions.assertEquals(AdmissionControl.Decision.ADMITTED, ac.acquire(42));
+        ac.release();
+        Assertions.assertEquals(AdmissionControl.Decision.THROTTLED, ac.acquire(42));
+
+        Assertions.assertEquals(5, ac.getAdmitted());
+        Assertions.assertEquals(3, ac.getThrottled());
+        Assertions.assertEquals(0, ac.getOverloaded());
+    }
+
+    /**
+     * Проверяет общий лимит одновременной обработки
+     */
+    @Test
+    void testConcurrencyLimit() {
+        AdmissionControl ac = new AdmissionControl(100, 100, 2, now::get);
+        Assertions.assertEquals(AdmissionControl.Decision.ADMITTED, ac.acquire(1));
+        Assertions.assertEquals(AdmissionControl.Decision.ADMITTED, ac.acquire(2));
+        Assertions.assertEquals(AdmissionControl.Decision.OVERLOADED, ac.acquire(3));
+        ac.release();
+        Assertions.assertEquals(AdmissionControl.Decision.ADMITTED, ac.acquire(3));
+        Assertions.assertEquals(1, ac.getOverloaded());
+    }
+
+    /**
+     * Проверяет, что корзины многих чатов не смешиваются, а полные корзины
+     * выбрасываются при перестройке таблицы
+     */
+    @Test
+    void testManyChats() {
+        AdmissionControl ac = new AdmissionControl(1, 1, 1, now::get);
+        for (long chat = -50_000; chat < 50_000; chat++) {
+            Assertions.assertEquals(AdmissionControl.Decision.ADMITTED, ac.acquire(chat));
+            ac.release();
+        }
+        for (long chat = -50_000; chat < 50_000; chat += 997) {
+            Assertions.assertEquals(AdmissionControl.Decision.THROTTLED, ac.acquire(chat));
+        }
+        Assertions.assertEquals(100_000, ac.getTrackedChats());
+
+        now.addAndGet(10_000_000_000L);
+        for (long chat = 1_000_000; chat < 1_064_000; chat++) {
+            Assertions.assertEquals(AdmissionControl.Decision.ADMITTED, ac.acquire(chat));
+            ac.release();
+        }
+        Assertions.assertTrue(ac.getTrackedChats() < 164_000);
+    }
+
+    /**
+     * Проверяет ответ бота на поток сообщений от одного чата
+     */
+    @Test
+    void testLogicThrottlesFlood() {
+        PasswordLogic logic = new PasswordLogic();
+        logic.setAdmissionControl(new AdmissionControl(1, 2, 10, now::get));
+        Assertions.assertTrue(logic.handleUpdate(37001, 1, "/password").startsWith("Ваш пароль: "));
+        Assertions.assertTrue(logic.handleUpdate(37001, 2, "/password").startsWith("Ваш пароль: "));
+        Assertions.assertEquals("Слишком много сообщений. Подождите несколько секунд",
+                logic.handleUpdate(37001, 3, "/password"));
+        Assertions.assertNull(logic.handleUpdate(37001, 4, "/password"));
+        Assertions.assertTrue(logic.handleUpdate(37002, 5, "/password").startsWith("Ваш пароль: "));
+        Assertions.assertEquals(2, logic.getAdmissionControl().getThrottled());
+    }
+
+    /**
+     * Нагрузочный замер: p99 задержки обычных чатов (/list раз в 60 мс) во время потока
+     * сообщений от нескольких чатов, с контролем допуска и без него.
+     * Проверяется, что обычные чаты получают все ответы, а работа, которую поток
+     * навязывает боту, с контролем допуска в разы меньше.
+     */
+    @Test
+    @Tag("benchmark")
+    void benchmarkFloodKeepsP99() throws InterruptedException {
+        run(new AdmissionControl(20, 20, 8), false);
+        AdmissionControl quietControl = new AdmissionControl(20, 20, 8);
+        long[] quiet = run(quietControl, false);
+        AdmissionControl unlimitedControl = new AdmissionControl(1e9, Integer.MAX_VALUE, Integer.MAX_VALUE);
+        long[] unlimited = run(unlimitedControl, true);
+        AdmissionControl limitedControl = new AdmissionControl(20, 20, 8);
+        long[] limited = run(limitedControl, true);
+
+        long floodUnlimited = unlimitedControl.getAdmitted() - quiet.length;
+        long floodLimited = limitedControl.getAdmitted() - quiet.length;
+        System.out.printf("AdmissionControl: p99 обычных чатов без потока %.2f мс, во время потока "
+                        + "без лимитов %.2f мс (обработано %d сообщений потока), с лимитами %.2f мс "
+                        + "(обработано %d, отклонено %d)%n",
+                p99(quiet) / 1e6, p99(unlimited) / 1e6, floodUnlimited,
+                p99(limited) / 1e6, floodLimited, limitedControl.getThrottled());
+        Assertions.assertEquals(0, dropped.get());
+        Assertions.assertTrue(floodLimited * 4 < floodUnlimited);
+    }
+
+    /** Сообщения обычных чатов, оставшиеся без ответа или отклоненные */
+    private final AtomicInteger dropped = new AtomicInteger();
+
+    /** Прогоняет обычные чаты (и, если flood, поток сообщений) и возвращает задержки обычных чатов. */
+    private long[] run(AdmissionControl ac, boolean flood) throws InterruptedException {
+        PasswordLogic logic = new PasswordLogic();
+        logic.setAdmissionControl(ac);
+        AtomicInteger ids = new AtomicInteger();
+        AtomicBoolean stop = new AtomicBoolean();
+        int goodChats = 4;
+        int requests = 50;
+        long[] latencies = new long[goodChats * requests];
+
+        List<Thread> flooders = new ArrayList<>();
+        for (int f = 0; flood && f < 8; f++) {
+            long chatId = 37100 + f;
+            Thread t = new Thread(() -> {
+                while (!stop.get()) {
+                    logic.handleUpdate(chatId, ids.incrementAndGet(), "/list");
+                    LockSupport.parkNanos(50_000);
+                }
+            });
+            flooders.add(t);
+            t.start();
+        }
+
+        List<Thread> good = new ArrayList<>();
+        for (int g = 0; g < goodChats; g++) {
+            long chatId = 37200 + g;
+            int base = g * requests;
+            Thread t = new Thread(() -> {
+                for (int i = 0; i < requests; i++) {
+                    long start = System.nanoTime();
+                    String reply = logic.handleUpdate(chatId, ids.incrementAndGet(), "/list");
+                    latencies[base + i] = System.nanoTime() - start;
+                    if (reply == null || reply.startsWith("Слишком много") || reply.startsWith("Бот перегружен")) {
+                        dropped.incrementAndGet();
+                    }
+                    LockSupport.parkNanos(60_000_000);
+                }
+            });
+            good.add(t);
+            t.start();
+        }
+        for (Thread t : good) t.join();
+        stop.set(true);
+        for (Thread t : flooders) t.join();
+        return latencies;
+    }
+
+    /** 99-й перцентиль. */
+    private static long p99(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[(int) Math.ceil(sorted.length * 0.99) - 1];
+    }
+}
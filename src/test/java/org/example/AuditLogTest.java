@@ -0,0 +1,226 @@
+package org.example;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Тесты журнала операций
+ */
+public class AuditLogTest {
+
+    /** Текущее время для тестов в миллисекундах */
+    private final AtomicLong now = new AtomicLong(1_700_000_000_000L);
+
+    /**
+     * Проверяет запись событий и чтение за период
+     */
+    @Test
+    void testRecordAndReadRange() throws IOException {
+        Path dir = Files.createTempDirectory("audit");
+        try {
+            try (AuditLog log = new AuditLog(dir, 1 << 20, 4, 16, now::get)) {
+                for (int i = 0; i < 5; i++) {
+                    log.record(38000 + i, AuditLog.Operation.values()[i], "svc" + i, AuditLog.Outcome.OK);
+                    now.addAndGet(1000);
+                }
+                log.record(-7, AuditLog.Operation.READ, "Сервис", AuditLog.Outcome.NOT_FOUND);
+            }
+
+            List<AuditLog.Event> all = AuditLog.read(dir, Long.MIN_VALUE, Long.MAX_VALUE);
+            Assertions.assertEquals(6, all.size());
+            AuditLog.Event last = all.get(5);
+            Assertions.assertEquals(-7, last.getChatId());
+            Assertions.assertEquals(AuditLog.Operation.READ, last.getOperation());
+            Assertions.assertEquals("Сервис", last.getService());
+            Assertions.assertEquals(AuditLog.Outcome.NOT_FOUND, last.getOutcome());
+
+            long start = 1_700_000_000_000L;
+            List<AuditLog.Event> range = AuditLog.read(dir, start + 1000, start + 3000);
+            Assertions.assertEquals(3, range.size());
+            Assertions.assertEquals(38001, range.get(0).getChatId());
+            Assertions.assertEquals(AuditLog.Operation.SAVE, range.get(0).getOperation());
+            Assertions.assertEquals(38003, range.get(2).getChatId());
+        } finally {
+            delete(dir);
+        }
+    }
+
+    /**
+     * Проверяет смену файлов по размеру и удаление старых файлов
+     */
+    @Test
+    void testRotation() throws IOException {
+        Path dir = Files.createTempDirectory("audit");
+        try {
+            try (AuditLog log = new AuditLog(dir, 1024, 3, 64, now::get)) {
+                for (int i = 0; i < 300; i++) {
+                    log.record(i, AuditLog.Operation.SAVE, "service-" + i, AuditLog.Outcome.OK);
+                    now.incrementAndGet();
+                    if (i % 10 == 9) log.flush();
+                }
+            }
+            Assertions.assertEquals(3, files(dir).size());
+            for (Path f : files(dir)) {
+                Assertions.assertTrue(Files.size(f) <= 1024);
+            }
+            List<AuditLog.Event> events = AuditLog.read(dir, Long.MIN_VALUE, Long.MAX_VALUE);
+            Assertions.assertFalse(events.isEmpty());
+            Assertions.assertTrue(events.size() < 300);
+            Assertions.assertEquals(299, events.get(events.size() - 1).getChatId());
+            for (int i = 1; i < events.size(); i++) {
+                Assertions.assertEquals(events.get(i - 1).getChatId() + 1, events.get(i).getChatId());
+            }
+
+            try (AuditLog log = new AuditLog(dir, 1024, 3, 64, now::get)) {
+                log.record(300, AuditLog.Operation.DELETE, "service-300", AuditLog.Outcome.OK);
+            }
+            events = AuditLog.read(dir, Long.MIN_VALUE, Long.MAX_VALUE);
+            Assertions.assertEquals(300, events.get(events.size() - 1).getChatId());
+            Assertions.assertEquals(3, files(dir).size());
+        } finally {
+            delete(dir);
+        }
+    }
+
+    /**
+     * Проверяет, что оборванная запись в конце файла пропускается при чтении
+     */
+    @Test
+    void testTornRecordIgnored() throws IOException {
+        Path dir = Files.createTempDirectory("audit");
+        try {
+            try (AuditLog log = new AuditLog(dir, 1 << 20, 4, 16, now::get)) {
+                for (int i = 0; i < 3; i++) {
+                    log.record(i, AuditLog.Operation.READ, "svc", AuditLog.Outcome.OK);
+                }
+            }
+            Path file = files(dir).get(0);
+            try (FileChannel ch = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                ch.truncate(ch.size() - 3);
+            }
+            Assertions.assertEquals(2, AuditLog.read(dir, Long.MIN_VALUE, Long.MAX_VALUE).size());
+
+            try (FileChannel ch = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                ch.write(ByteBuffer.wrap(new byte[]{1}), 4 + 4 + 8);
+            }
+            Assertions.assertEquals(0, AuditLog.read(dir, Long.MIN_VALUE, Long.MAX_VALUE).size());
+        } finally {
+            delete(dir);
+        }
+    }
+
+    /**
+     * Проверяет запись из нескольких потоков: каждое событие либо записано целиком, либо учтено как отброшенное
+     */
+    @Test
+    void testConcurrentProducers() throws Exception {
+        Path dir = Files.createTempDirectory("audit");
+        try {
+            int threads = 4;
+            int perThread = 20_000;
+            AuditLog log = new AuditLog(dir, 1 << 24, 4, 1 << 12, System::currentTimeMillis);
+            List<Thread> producers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                long chatId = 38100 + t;
+                Thread th = new Thread(() -> {
+                    for (int i = 0; i < perThread; i++) {
+                        log.record(chatId, AuditLog.Operation.READ, "s" + i, AuditLog.Outcome.OK);
+                    }
+                });
+                producers.add(th);
+                th.start();
+            }
+            for (Thread th : producers) th.join();
+            log.close();
+
+            List<AuditLog.Event> events = AuditLog.read(dir, Long.MIN_VALUE, Long.MAX_VALUE);
+            Assertions.assertEquals(threads * perThread, events.size() + log.getDropped());
+            int[] lastIndex = new int[threads];
+            Arrays.fill(lastIndex, -1);
+            for (AuditLog.Event e : events) {
+                int t = (int) (e.getChatId() - 38100);
+                int i = Integer.parseInt(e.getService().substring(1));
+                Assertions.assertTrue(i > lastIndex[t]);
+                lastIndex[t] = i;
+            }
+        } finally {
+            delete(dir);
+        }
+    }
+
+    /**
+     * Замер: задержка record() на пути команды против записи каждого события
+     * в файл со сбросом на диск
+     */
+    @Test
+    @Tag("benchmark")
+    void benchmarkRecordLatency() throws IOException {
+        Path dir = Files.createTempDirectory("audit");
+        try {
+            int n = 1_000_000;
+            long start;
+            long recordNanos;
+            try (AuditLog log = new AuditLog(dir, AuditLog.DEFAULT_FILE_BYTES, 4, 1 << 16, System::currentTimeMillis)) {
+                for (int i = 0; i < n / 10; i++) {
+                    log.record(i, AuditLog.Operation.READ, "warmup", AuditLog.Outcome.OK);
+                }
+                log.flush();
+                start = System.nanoTime();
+                for (int i = 0; i < n; i++) {
+                    log.record(i, AuditLog.Operation.READ, "service", AuditLog.Outcome.OK);
+                    if ((i & 63) == 63) Thread.onSpinWait();
+                }
+                recordNanos = System.nanoTime() - start;
+                log.flush();
+                System.out.printf("AuditLog: record() %.0f нс на событие, отброшено %d из %d%n",
+                        (double) recordNanos / n, log.getDropped(), n + n / 10);
+            }
+
+            int syncN = 500;
+            Path file = dir.resolve("sync.log");
+            try (FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                start = System.nanoTime();
+                for (int i = 0; i < syncN; i++) {
+                    ByteBuffer b = ByteBuffer.allocate(32).putLong(i).putLong(System.currentTimeMillis()).flip();
+                    ch.write(b);
+                    ch.force(false);
+                }
+            }
+            long syncNanos = System.nanoTime() - start;
+            System.out.printf("AuditLog: запись с force на каждое событие %.0f нс на событие%n",
+                    (double) syncNanos / syncN);
+            Assertions.assertTrue((double) recordNanos / n < (double) syncNanos / syncN);
+        } finally {
+            delete(dir);
+        }
+    }
+
+    /** Файлы журнала в каталоге. */
+    private static List<Path> files(Path dir) throws IOException {
+        try (Stream<Path> s = Files.list(dir)) {
+            return s.filter(f -> f.getFileName().toString().startsWith("audit-")).sorted().toList();
+        }
+    }
+
+    /** Удаляет каталог со всеми файлами. */
+    private static void delete(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package org.example;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Тесты фильтра утекших паролей
+ */
+public class BreachFilterTest {
+
+    /** Временный список хешей */
+    private Path hashes;
+
+    /** Временный файл фильтра */
+    private Path filterFile;
+
+    /**
+     * Создает временные файлы перед каждым тестом.
+     */
+    @BeforeEach
+    void setUp() throws IOException {
+        hashes = Files.createTempFile("breach", ".txt");
+        filterFile = Files.createTempFile("breach", ".bin");
+    }
+
+    /**
+     * Удаляет временные файлы после каждого теста.
+     */
+    @AfterEach
+    void tearDown() throws IOException {
+        Files.deleteIfExists(hashes);
+        Files.deleteIfExists(filterFile);
+    }
+
+    /**
+     * Проверяет, что все пароли из базы находятся, а посторонний - нет
+     */
+    @Test
+    void testBuiltFilterContainsCorpus() throws Exception {
+        writeCorpus(1000);
+        BreachFilter.build(hashes, filterFile, 0.0001);
+        BreachFilter filter = BreachFilter.open(filterFile);
+
+        for (int i = 0; i < 1000; i++) {
+            Assertions.assertTrue(filter.mightContain("leaked" + i));
+        }
+        Assertions.assertFalse(filter.mightContain("x9$Tq2!vLm#8Rw"));
+    }
+
+    /**
+     * Проверяет, что файл неверного формата не открывается
+     */
+    @Test
+    void testOpenRejectsForeignFile() throws IOException {
+        Files.writeString(filterFile, "not a filter at all");
+        Assertions.assertThrows(IOException.class, () -> BreachFilter.open(filterFile));
+    }
+
+    /**
+     * Проверяет, что утекший пароль не сохраняется при ручном вводе
+     */
+    @Test
+    void testManualPasswordScreened() throws Exception {
+        writeCorpus(10);
+        BreachFilter.build(hashes, filterFile, 0.001);
+
+        PasswordLogic logic = new PasswordLogic();
+        logic.setBreachFilter(BreachFilter.open(filterFile));
+
+        logic.handleMessage(28001, "/add");
+        logic.handleMessage(28001, "Screened");
+        logic.handleMessage(28001, "login");
+        logic.handleMessage(28001, "2");
+        String result = logic.handleMessage(28001, "leaked3");
+        Assertions.assertEquals(
+                "Этот пароль встречается в утечках и небезопасен. Введите другой пароль:", result);
+
+        Assertions.assertEquals("Данные сохранены",
+                logic.handleMessage(28001, "k7#Vq!9zPw2m").split("\n")[0]);
+    }
+
+    /**
+     * Замер скорости проверки и доли ложных срабатываний на миллионе хешей
+     */
+    @Test
+    @Tag("benchmark")
+    void benchmarkLookupRateAndFalsePositives() throws Exception {
+        int corpus = 1_000_000;
+        double target = 0.001;
+        writeCorpus(corpus);
+        BreachFilter.build(hashes, filterFile, target);
+
+        long openStart = System.nanoTime();
+        BreachFilter filter = BreachFilter.open(filterFile);
+        long openNanos = System.nanoTime() - openStart;
+
+        int probes = 1_000_000;
+        int falsePositives = 0;
+        for (int i = 0; i < 100_000; i++) {
+            filter.mightContain("warmup" + i);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < probes; i++) {
+            if (filter.mightContain("clean" + i)) falsePositives++;
+        }
+        long nanos = System.nanoTime() - start;
+
+        double rate = falsePositives / (double) probes;
+        System.out.printf("BreachFilter: открытие %.2f мс, %.0f проверок/с, %.2f мкс на проверку, "
+                        + "ложных срабатываний %.5f (цель %.5f), размер %d КБ%n",
+                openNanos / 1e6, probes / (nanos / 1e9), nanos / 1e3 / probes,
+                rate, target, Files.size(filterFile) / 1024);
+
+        Assertions.assertTrue(rate < target * 2);
+        Assertions.assertTrue(nanos / probes < 10_000, "проверка дольше 10 мкс");
+    }
+
+    /** Пишет список хешей паролей leaked0..leaked(n-1) в формате "HASH:count". */
+    private void writeCorpus(int n) throws IOException, NoSuchAlgorithmException {
+        MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+        try (BufferedWriter w = Files.newBufferedWriter(hashes, StandardCharsets.US_ASCII)) {
+            for (int i = 0; i < n; i++) {
+                byte[] d = sha1.digest(("leaked" + i).getBytes(StandardCharsets.UTF_8));
+                StringBuilder hex = new StringBuilder();
+                for (byte b : d) hex.append(String.format("%02X", b));
+                w.write(hex + ":" + (i + 1));
+                w.newLine();
+            }
+        }
+    }
+}
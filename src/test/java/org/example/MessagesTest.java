@@ -0,0 +1,275 @@
+package org.example;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Тесты каталога ответов и языка чата
+ */
+public class MessagesTest {
+
+    /**
+     * Проверяет, что каждый текст есть на каждом языке и отрисовывается с аргументами,
+     * а английский каталог не подставляет русские тексты
+     */
+    @Test
+    void testEveryTextInEveryLanguage() {
+        Messages ru = Messages.forLanguage("ru");
+        Messages en = Messages.forLanguage("en");
+        Assertions.assertEquals("ru", ru.getLanguage());
+        Assertions.assertEquals("en", en.getLanguage());
+        Object[] args = {"a", "b", "c", "d", "e", "f", "g"};
+        for (Text key : Text.values()) {
+            for (String lang : Messages.LANGUAGES) {
+                String text = Messages.forLanguage(lang).format(key, args);
+                Assertions.assertFalse(text.isEmpty(), lang + " " + key);
+                Assertions.assertFalse(text.contains("{"), lang + " " + key);
+            }
+            Assertions.assertFalse(en.format(key, args).matches("(?s).*[А-Яа-яЁё].*"), key.name());
+        }
+    }
+
+    /**
+     * Проверяет, что перевод с пропущенным, лишним или другим аргументом и неизвестный
+     * ключ отклоняются при загрузке каталога
+     */
+    @Test
+    void testTranslationMustKeepArguments() {
+        Map<String, String> defaults = new HashMap<>();
+        for (Text key : Text.values()) defaults.put(key.name(), key.name());
+        defaults.put("PASSWORD_SAVED", "Пароль для {0}: {1}\n{2}");
+
+        Messages en = Messages.load("en", Map.of("PASSWORD_SAVED", "{1} is the password for {0}\n{2}"), defaults);
+        Assertions.assertEquals("pw is the password for Mail\n", en.format(Text.PASSWORD_SAVED, "Mail", "pw", ""));
+        for (String bad : new String[] {"Password for {0}\n{2}", "Password for {0}: {1}\n{2} {3}", "{0} {1} {1}"}) {
+            Assertions.assertThrows(IllegalStateException.class,
+                    () -> Messages.load("en", Map.of("PASSWORD_SAVED", bad), defaults), bad);
+        }
+        Assertions.assertThrows(IllegalStateException.class,
+                () -> Messages.load("en", Map.of("NO_SUCH_TEXT", "x"), defaults));
+        defaults.remove("HELP");
+        Assertions.assertThrows(IllegalStateException.class, () -> Messages.load("en", Map.of(), defaults));
+    }
+
+    /**
+     * Проверяет выбор каталога по коду языка из тг
+     */
+    @Test
+    void testForLanguage() {
+        Assertions.assertEquals("en", Messages.forLanguage("en-US").getLanguage());
+        Assertions.assertEquals("en", Messages.forLanguage("EN").getLanguage());
+        Assertions.assertEquals("ru", Messages.forLanguage("de").getLanguage());
+        Assertions.assertEquals("ru", Messages.forLanguage(null).getLanguage());
+        Assertions.assertSame(Messages.getDefault(), Messages.forLanguage("ru-RU"));
+    }
+
+    /**
+     * Проверяет отрисовку аргументов: числа без промежуточных строк, секрет из буфера,
+     * сборку списка и отдельный текст во время сборки, нехватку аргументов
+     */
+    @Test
+    void testRender() {
+        Messages m = Messages.getDefault();
+        Assertions.assertEquals("Введите число от -7 до 9223372036854775807",
+                m.format(Text.ENTER_NUMBER, -7, Long.MAX_VALUE));
+        Assertions.assertEquals("Введите число от -9223372036854775808 до 0",
+                m.format(Text.ENTER_NUMBER, Long.MIN_VALUE, 0));
+        try (SecretBuffer secret = SecretPool.shared().acquire()) {
+            secret.append("Zq7!secret");
+            Assertions.assertEquals("Ваш пароль: Zq7!secret", m.format(Text.YOUR_PASSWORD, secret));
+        }
+        Assertions.assertSame(m.get(Text.UNKNOWN_COMMAND), m.get(Text.UNKNOWN_COMMAND));
+
+        Messages.Writer w = m.writer().append(Text.LIST_HEADER, 2);
+        String entry = m.format(Text.ENTRY, "svc", "login", "pass");
+        w.append(Text.LIST_LINE, 1, entry).append(Text.LIST_LINE, 2, "x");
+        Assertions.assertEquals("Ваши сервисы (всего: 2):\n1. svc:\nЛогин: login\nПароль: pass\n2. x", w.toString());
+
+        StringBuilder longList = new StringBuilder("Ваши сервисы (всего: 5000):");
+        w = m.writer().append(Text.LIST_HEADER, 5000);
+        for (int i = 1; i <= 5000; i++) {
+            w.append(Text.LIST_LINE, i, "service-" + i);
+            longList.append("\n").append(i).append(". service-").append(i);
+        }
+        Assertions.assertEquals(longList.toString(), w.toString());
+
+        Assertions.assertThrows(IllegalArgumentException.class, () -> m.format(Text.ENTRY, "svc"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> m.get(Text.ENTRY));
+    }
+
+    /**
+     * Проверяет диалоги на английском после /language en и возврат к русскому
+     */
+    @Test
+    void testEnglishReplies() {
+        PasswordLogic logic = new PasswordLogic();
+        Assertions.assertEquals("Язык ответов: русский\nИзменить: /language ru | en", logic.handleMessage(42040, "/language"));
+        Assertions.assertEquals("Использование: /language ru | en", logic.handleMessage(42040, "/language de"));
+        Assertions.assertEquals("Replies are now in English", logic.handleMessage(42040, "/language en"));
+        Assertions.assertTrue(logic.handleMessage(42040, "/start").startsWith("Commands:\n/settings"));
+        Assertions.assertEquals("Unknown command. Send /start", logic.handleMessage(42040, "/unknown"));
+
+        Assertions.assertEquals("Enter the password length (6–64):", logic.handleMessage(42040, "/settings"));
+        Assertions.assertEquals("Enter a number from 6 to 64", logic.handleMessage(42040, "3"));
+        Assertions.assertEquals("Use digits? (+ / -)", logic.handleMessage(42040, "12"));
+        logic.handleMessage(42040, "+");
+        logic.handleMessage(42040, "+");
+        logic.handleMessage(42040, "+");
+        String saved = logic.handleMessage(42040, "+");
+        Assertions.assertTrue(saved.startsWith("New settings. Length = 12; digits true;"), saved);
+        Assertions.assertTrue(saved.contains("\nStrength: "), saved);
+
+        Assertions.assertEquals("Enter the service name:", logic.handleMessage(42040, "/add"));
+        Assertions.assertEquals("Enter the login/email:", logic.handleMessage(42040, "EnglishService"));
+        logic.handleMessage(42040, "english-login");
+        Assertions.assertEquals("Enter the password:", logic.handleMessage(42040, "2"));
+        String manual = logic.handleMessage(42040, "password123");
+        Assertions.assertTrue(manual.startsWith("Saved\nStrength: very weak"), manual);
+        Assertions.assertTrue(manual.contains("found: dictionary word"), manual);
+
+        Assertions.assertEquals("EnglishService:\nLogin: english-login\nPassword: password123",
+                logic.handleMessage(42040, "/get EnglishService"));
+        Assertions.assertEquals("Service not found", logic.handleMessage(42040, "/get Missing"));
+        Assertions.assertEquals("Your services (total: 1):\n1. EnglishService", logic.handleMessage(42040, "/list"));
+        Assertions.assertTrue(logic.handleMessage(42040, "/policy").startsWith("Policy: at least 1 digits"));
+        Assertions.assertTrue(logic.handleMessage(42040, "/policy min 2 1 1 1").startsWith("Policy: at least 2 digits"));
+        Assertions.assertTrue(logic.handleMessage(42040, "/vault").startsWith("Vaults:\n* personal\n"));
+
+        Assertions.assertEquals("Теперь ответы на русском", logic.handleMessage(42040, "/language ru"));
+        Assertions.assertEquals("Сервис не найден", logic.handleMessage(42040, "/get Missing"));
+        logic.handleMessage(42040, "/delete EnglishService");
+        Assertions.assertEquals("Данные для \"EnglishService\" удалены", logic.handleMessage(42040, "+"));
+    }
+
+    /**
+     * Проверяет язык из профиля тг: он применяется, пока язык не выбран командой,
+     * неподдерживаемый язык дает русский; кнопки подписаны на языке чата
+     */
+    @Test
+    void testLanguageFromTelegramProfile() {
+        PasswordLogic logic = new PasswordLogic();
+        Assertions.assertTrue(logic.respond(42041, 1, "/start", "en-GB").getText().startsWith("Commands:"));
+        Assertions.assertEquals("Теперь ответы на русском", logic.respond(42041, 2, "/language ru", "en").getText());
+        Assertions.assertTrue(logic.respond(42041, 3, "/start", "en").getText().startsWith("Команды:"));
+
+        PasswordLogic.Reply form = logic.respond(42043, 1, "/settings", "en");
+        Assertions.assertEquals("Enter the password length (6–64):", form.getText());
+        Assertions.assertEquals("Save", form.getKeyboard().get(4).get(0).getText());
+        Assertions.assertEquals("✓ Digits", form.getKeyboard().get(2).get(0).getText());
+
+        Assertions.assertTrue(logic.respond(42042, 1, "/start", "de").getText().startsWith("Команды:"));
+        Assertions.assertTrue(logic.respond(42042, 2, "/start", null).getText().startsWith("Команды:"));
+    }
+
+    /**
+     * Замер: ответ /get, ответ после /settings (шесть аргументов) и список /list из 50 сервисов:
+     * прежняя сборка сложением строк и StringBuilder против шаблонов каталога.
+     * Время и память кучи на ответ.
+     */
+    @Test
+    @Tag("benchmark")
+    void benchmarkReplyRendering() {
+        Messages m = Messages.getDefault();
+        String[] services = new String[8];
+        String[] logins = new String[8];
+        String[] passwords = new String[8];
+        for (int i = 0; i < 8; i++) {
+            services[i] = "Service-" + i;
+            logins[i] = "user" + i + "@example.com";
+            passwords[i] = "Zq7!pass-word-" + i;
+        }
+        List<String> list = new ArrayList<>();
+        for (int i = 0; i < 50; i++) list.add("Service number " + i);
+        String strength = StrengthEstimator.forBits(78.5).describe(m);
+
+        int n = 200_000;
+        int l = 20_000;
+        for (int round = 0; round < 3; round++) {
+            long sink = 0;
+            long t = System.nanoTime();
+            long a = allocated();
+            for (int i = 0; i < n; i++) {
+                int k = i & 7;
+                sink += (services[k] + ":\nЛогин: " + logins[k] + "\nПароль: " + passwords[k]).length();
+            }
+            long getConcatBytes = (allocated() - a) / n;
+            long getConcatNs = (System.nanoTime() - t) / n;
+
+            t = System.nanoTime();
+            a = allocated();
+            for (int i = 0; i < n; i++) {
+                int k = i & 7;
+                sink += m.format(Text.ENTRY, services[k], logins[k], passwords[k]).length();
+            }
+            long getCatalogBytes = (allocated() - a) / n;
+            long getCatalogNs = (System.nanoTime() - t) / n;
+
+            t = System.nanoTime();
+            a = allocated();
+            for (int i = 0; i < n; i++) {
+                boolean b = (i & 1) == 0;
+                sink += ("Новые параметры. Длина = " + (8 + (i & 7))
+                        + "; наличие цифр " + b
+                        + "; наличие заглавных букв " + !b
+                        + "; наличие строчных букв " + b
+                        + "; наличие спецсимволов " + !b
+                        + "\n" + strength).length();
+            }
+            long settingsConcatBytes = (allocated() - a) / n;
+            long settingsConcatNs = (System.nanoTime() - t) / n;
+
+            t = System.nanoTime();
+            a = allocated();
+            for (int i = 0; i < n; i++) {
+                boolean b = (i & 1) == 0;
+                sink += m.format(Text.SETTINGS_SAVED, 8 + (i & 7), b, !b, b, !b, strength).length();
+            }
+            long settingsCatalogBytes = (allocated() - a) / n;
+            long settingsCatalogNs = (System.nanoTime() - t) / n;
+
+            t = System.nanoTime();
+            a = allocated();
+            for (int i = 0; i < l; i++) {
+                StringBuilder sb = new StringBuilder("Ваши сервисы (всего: " + list.size() + "):\n");
+                for (int j = 0; j < list.size(); j++) {
+                    sb.append(j + 1).append(". ").append(list.get(j)).append("\n");
+                }
+                sink += sb.toString().trim().length();
+            }
+            long listConcatBytes = (allocated() - a) / l;
+            long listConcatNs = (System.nanoTime() - t) / l;
+
+            t = System.nanoTime();
+            a = allocated();
+            for (int i = 0; i < l; i++) {
+                Messages.Writer w = m.writer().append(Text.LIST_HEADER, list.size());
+                for (int j = 0; j < list.size(); j++) {
+                    w.append(Text.LIST_LINE, j + 1, list.get(j));
+                }
+                sink += w.toString().length();
+            }
+            long listCatalogBytes = (allocated() - a) / l;
+            long listCatalogNs = (System.nanoTime() - t) / l;
+
+            Assertions.assertTrue(sink > 0);
+            System.out.printf("Проход %d, нс и байт кучи на ответ (сложение строк -> каталог): "
+                            + "/get %d нс %d Б -> %d нс %d Б; /settings %d нс %d Б -> %d нс %d Б; "
+                            + "/list из 50 %d нс %d Б -> %d нс %d Б%n",
+                    round + 1, getConcatNs, getConcatBytes, getCatalogNs, getCatalogBytes,
+                    settingsConcatNs, settingsConcatBytes, settingsCatalogNs, settingsCatalogBytes,
+                    listConcatNs, listConcatBytes, listCatalogNs, listCatalogBytes);
+        }
+    }
+
+    /** Возвращает, сколько байт кучи выделил текущий поток. */
+    private static long allocated() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getCurrentThreadAllocatedBytes();
+    }
+}
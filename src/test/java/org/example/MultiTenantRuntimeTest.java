@@ -0,0 +1,256 @@
+package org.example;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Тесты нескольких ботов в одном процессе и общих для них пулов
+ */
+public class MultiTenantRuntimeTest {
+
+    /**
+     * Проверяет, что у ботов в одном процессе раздельные данные и диалоги,
+     * даже для одного и того же chat id
+     */
+    @Test
+    void testTenantsAreIsolated() throws Exception {
+        Path dir = Files.createTempDirectory("tenants");
+        try (StubTelegramApi api = StubTelegramApi.start()) {
+            MultiTenantRuntime runtime = new MultiTenantRuntime(MultiTenantRuntime.parse("alpha=ta, beta=tb"),
+                    api.url(), dir, 2, 8, 4, new OutboundLimiter(1000, 100), null, null);
+            runtime.start();
+            try {
+                Assertions.assertTrue(ask(api, "ta", 41001, "/add").startsWith("Введите название сервиса"));
+                Assertions.assertTrue(ask(api, "tb", 41001, "/list").startsWith("У вас пока нет сервисов"));
+                ask(api, "ta", 41001, "Mail");
+                ask(api, "ta", 41001, "alpha@example.com");
+                Assertions.assertTrue(ask(api, "ta", 41001, "1").startsWith("Пароль для Mail"));
+
+                Assertions.assertTrue(ask(api, "ta", 41001, "/list").contains("1. Mail"));
+                Assertions.assertTrue(ask(api, "tb", 41001, "/get Mail").equals("Сервис не найден"));
+                Assertions.assertTrue(Files.exists(dir.resolve("passwords-alpha.db")));
+                Assertions.assertTrue(Files.exists(dir.resolve("passwords-beta.db")));
+            } finally {
+                runtime.stop();
+            }
+            Assertions.assertEquals(5, runtime.getLane("alpha").getCompleted());
+            Assertions.assertEquals(2, runtime.getLane("beta").getCompleted());
+            Assertions.assertTrue(Files.exists(dir.resolve(TgBot.DEFAULT_OFFSET_FILE + "-alpha")));
+            Assertions.assertTrue(runtime.report().startsWith("alpha: обработано 5"));
+        } finally {
+            delete(dir);
+        }
+    }
+
+    /**
+     * Проверяет разбор списка арендаторов
+     */
+    @Test
+    void testParseTenants() {
+        List<MultiTenantRuntime.Tenant> tenants = MultiTenantRuntime.parse("shop=123:abc,news = 456:def,");
+        Assertions.assertEquals(2, tenants.size());
+        Assertions.assertEquals("news", tenants.get(1).getName());
+        Assertions.assertEquals("456:def", tenants.get(1).getToken());
+        Assertions.assertThrows(IllegalArgumentException.class, () -> MultiTenantRuntime.parse("shop"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> MultiTenantRuntime.parse("../x=1"));
+    }
+
+    /**
+     * Проверяет, что задача тихого арендатора не ждет всю очередь шумного
+     */
+    @Test
+    void testFairExecutorServesQuietTenant() throws Exception {
+        FairExecutor executor = new FairExecutor("fair-test", 1);
+        FairExecutor.Lane noisy = executor.lane("noisy");
+        FairExecutor.Lane quiet = executor.lane("quiet");
+        CountDownLatch gate = new CountDownLatch(1);
+        List<String> order = new CopyOnWriteArrayList<>();
+
+        noisy.execute(() -> {
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        for (int i = 0; i < 1000; i++) noisy.execute(() -> order.add("noisy"));
+        quiet.execute(() -> order.add("quiet"));
+        Assertions.assertEquals(1000, noisy.getQueued());
+        gate.countDown();
+
+        executor.shutdown();
+        Assertions.assertTrue(executor.awaitTermination(10_000_000_000L));
+        Assertions.assertTrue(order.indexOf("quiet") <= 1, "тихий арендатор на месте " + order.indexOf("quiet"));
+        Assertions.assertEquals(1001, noisy.getCompleted());
+        Assertions.assertEquals(1, quiet.getCompleted());
+        Assertions.assertTrue(quiet.getWaitNanos() > 0);
+        Assertions.assertThrows(java.util.concurrent.RejectedExecutionException.class, () -> quiet.execute(() -> { }));
+    }
+
+    /**
+     * Проверяет общий лимит исходящих сообщений: burst подряд, дальше по интервалу
+     */
+    @Test
+    void testOutboundLimiter() {
+        AtomicLong now = new AtomicLong(1_000_000_000L);
+        OutboundLimiter limiter = new OutboundLimiter(10, 3, now::get);
+        for (int i = 0; i < 3; i++) Assertions.assertEquals(0, limiter.reserve());
+        Assertions.assertEquals(100_000_000L, limiter.reserve());
+        Assertions.assertEquals(200_000_000L, limiter.reserve());
+        Assertions.assertEquals(2, limiter.getDelayed());
+        now.addAndGet(10_000_000_000L);
+        Assertions.assertEquals(0, limiter.reserve());
+    }
+
+    /**
+     * Проверяет общий пул соединений: повторное использование, вытеснение соединений
+     * другой базы и ожидание, когда все соединения выданы
+     */
+    @Test
+    void testConnectionPool() throws Exception {
+        Path dir = Files.createTempDirectory("pool");
+        String a = "jdbc:sqlite:" + dir.resolve("a.db");
+        String b = "jdbc:sqlite:" + dir.resolve("b.db");
+        String c = "jdbc:sqlite:" + dir.resolve("c.db");
+        try (ConnectionPool pool = new ConnectionPool(2)) {
+            for (int i = 0; i < 5; i++) {
+                try (Connection conn = pool.get(a)) {
+                    conn.setAutoCommit(false);
+                    conn.createStatement().execute("CREATE TABLE IF NOT EXISTS t (x INTEGER);");
+                }
+            }
+            Assertions.assertEquals(1, pool.getOpen());
+            try (Connection conn = pool.get(a)) {
+                Assertions.assertTrue(conn.getAutoCommit());
+            }
+
+            pool.get(b).close();
+            pool.get(c).close();
+            Assertions.assertEquals(2, pool.getOpen());
+
+            Connection first = pool.get(a);
+            Connection second = pool.get(b);
+            Assertions.assertEquals(0, pool.getIdle());
+            List<String> got = new CopyOnWriteArrayList<>();
+            Thread waiter = new Thread(() -> {
+                try (Connection conn = pool.get(c)) {
+                    got.add(conn.isClosed() ? "closed" : "ok");
+                } catch (SQLException e) {
+                    got.add(e.getMessage());
+                }
+            });
+            waiter.start();
+            while (pool.getWaits() == 0) Thread.sleep(1);
+            first.close();
+            waiter.join();
+            second.close();
+            Assertions.assertEquals(List.of("ok"), got);
+            Assertions.assertEquals(2, pool.getOpen());
+            Assertions.assertThrows(SQLException.class, () -> first.createStatement());
+        } finally {
+            delete(dir);
+        }
+    }
+
+    /**
+     * Замер: память N ботов в отдельных процессах против N арендаторов в одном процессе.
+     * Каждый бот отвечает на /list (с открытием своей базы), после чего
+     * суммируется резидентная память процессов (VmRSS, только Linux).
+     */
+    @Test
+    @Tag("benchmark")
+    void benchmarkMemoryAgainstSeparateProcesses() throws Exception {
+        int bots = 6;
+        Path dir = Files.createTempDirectory("tenants-memory");
+        String java = ProcessHandle.current().info().command().orElse("java");
+        String classpath = System.getProperty("java.class.path");
+        List<Process> processes = new ArrayList<>();
+        try (StubTelegramApi api = StubTelegramApi.start()) {
+            for (int i = 0; i < bots; i++) {
+                Path home = Files.createDirectories(dir.resolve("bot" + i));
+                ProcessBuilder pb = new ProcessBuilder(java, "-cp", classpath, "org.example.Main")
+                        .directory(home.toFile()).redirectErrorStream(true)
+                        .redirectOutput(ProcessBuilder.Redirect.DISCARD);
+                pb.environment().put("TOKEN_BOT", "separate" + i);
+                pb.environment().put("TELEGRAM_API_URL", api.url());
+                processes.add(pb.start());
+                api.send("separate" + i, 41100 + i, "/list");
+            }
+            for (int i = 0; i < bots; i++) Assertions.assertNotNull(api.awaitReply(60_000));
+            Thread.sleep(1000);
+            long separate = 0;
+            for (Process p : processes) separate += rssKb(p);
+            stopAll(processes);
+
+            StringBuilder spec = new StringBuilder();
+            for (int i = 0; i < bots; i++) spec.append("t").append(i).append("=shared").append(i).append(',');
+            Path home = Files.createDirectories(dir.resolve("shared"));
+            ProcessBuilder pb = new ProcessBuilder(java, "-cp", classpath, "org.example.Main")
+                    .directory(home.toFile()).redirectErrorStream(true)
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD);
+            pb.environment().put("TOKEN_BOTS", spec.toString());
+            pb.environment().put("TELEGRAM_API_URL", api.url());
+            processes.add(pb.start());
+            for (int i = 0; i < bots; i++) api.send("shared" + i, 41200 + i, "/list");
+            for (int i = 0; i < bots; i++) Assertions.assertNotNull(api.awaitReply(60_000));
+            Thread.sleep(1000);
+            long shared = rssKb(processes.get(processes.size() - 1));
+
+            System.out.printf("Память %d ботов: отдельные процессы %d МБ, один процесс %d МБ%n",
+                    bots, separate / 1024, shared / 1024);
+            Assertions.assertTrue(shared < separate);
+        } finally {
+            stopAll(processes);
+            delete(dir);
+        }
+    }
+
+    /** Отправляет сообщение боту с токеном token и ждет его ответ. */
+    private static String ask(StubTelegramApi api, String token, long chatId, String text) throws InterruptedException {
+        api.send(token, chatId, text);
+        StubTelegramApi.Reply reply = api.awaitReply(10_000);
+        Assertions.assertNotNull(reply, "нет ответа на " + text);
+        Assertions.assertEquals(token, reply.getToken());
+        Assertions.assertEquals(chatId, reply.getChatId());
+        return reply.getText();
+    }
+
+    /** Возвращает резидентную память процесса в килобайтах из /proc. */
+    private static long rssKb(Process p) throws IOException {
+        for (String line : Files.readAllLines(Path.of("/proc", Long.toString(p.pid()), "status"))) {
+            if (line.startsWith("VmRSS:")) {
+                return Long.parseLong(line.replaceAll("\\D", ""));
+            }
+        }
+        return 0;
+    }
+
+    /** Останавливает процессы ботов. */
+    private static void stopAll(List<Process> processes) throws InterruptedException {
+        for (Process p : processes) p.destroy();
+        for (Process p : processes) p.waitFor();
+        processes.clear();
+    }
+
+    /** Удаляет каталог со всем содержимым. */
+    private static void delete(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+}
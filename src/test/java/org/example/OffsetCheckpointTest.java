@@ -0,0 +1,67 @@
+package org.example;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Тесты контрольной точки получения обновлений
+ */
+public class OffsetCheckpointTest {
+
+    /** Временный файл контрольной точки */
+    private Path file;
+
+    /**
+     * Создает путь к временному файлу перед каждым тестом.
+     */
+    @BeforeEach
+    void setUp() throws IOException {
+        file = Files.createTempFile("offset", ".bin");
+        Files.delete(file);
+    }
+
+    /**
+     * Удаляет временный файл после каждого теста.
+     */
+    @AfterEach
+    void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    /**
+     * Проверяет, что без файла получение начинается с первого неподтвержденного апдейта
+     */
+    @Test
+    void testMissingFile() {
+        Assertions.assertEquals(0, new OffsetCheckpoint(file).load());
+    }
+
+    /**
+     * Проверяет сохранение и загрузку, в том числе перезапись
+     */
+    @Test
+    void testSaveAndLoad() throws IOException {
+        OffsetCheckpoint checkpoint = new OffsetCheckpoint(file);
+        checkpoint.save(123_456_789, false);
+        Assertions.assertEquals(123_456_789, checkpoint.load());
+        checkpoint.save(123_456_790, true);
+        Assertions.assertEquals(123_456_790, new OffsetCheckpoint(file).load());
+    }
+
+    /**
+     * Проверяет, что поврежденный файл не принимается за контрольную точку
+     */
+    @Test
+    void testCorruptFile() throws IOException {
+        Files.write(file, new byte[]{0, 0, 0, 5, 0, 0, 0, 5});
+        Assertions.assertEquals(0, new OffsetCheckpoint(file).load());
+        Files.write(file, new byte[]{1, 2, 3});
+        Assertions.assertEquals(0, new OffsetCheckpoint(file).load());
+    }
+}
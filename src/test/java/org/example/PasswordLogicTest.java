@@ -1,9 +1,25 @@
 package org.example;
 
 import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.Assertions;
 
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
 /**
  * Тесты логики бота
  */
@@ -185,6 +201,7 @@ public class PasswordLogicTest {
         String expected = """
                         Команды:
                         /settings — настройки генерации
+                        /settings фраза — настройки парольной фразы
                         /password — сгенерировать пароль
 
                         /add — добавить запись
@@ -192,6 +209,16 @@ public class PasswordLogicTest {
                         /get <сервис> — логин и пароль
                         /delete <сервис> — удалить (+/-)
                         /change <сервис> — изменить пароль
+                        /history <сервис> — прежние версии
+                        /restore <сервис> <версия> — вернуть версию
+                        /retention <число> — сколько версий хранить
+                        /rotate <сервис> <дни> — менять пароль по расписанию
+                        /audit — найти повторяющиеся пароли
+                        /policy — политика генерации (минимумы, шаблон)
+                        /vault — общие хранилища (создать, участники, выбрать)
+                        /share <сервис> — одноразовая ссылка на запись для другого чата
+                        /redeem <ссылка> — получить запись по ссылке
+                        /language — язык ответов (ru, en)
                         """;
         Assertions.assertEquals(expected, result);
     }
@@ -229,7 +256,9 @@ public class PasswordLogicTest {
         logic.handleMessage(88889, "2");
         String result = logic.handleMessage(88889, "MyPassword123!");
 
-        Assertions.assertEquals("Данные сохранены", result);
+        String[] lines = result.split("\n");
+        Assertions.assertEquals("Данные сохранены", lines[0]);
+        Assertions.assertTrue(lines[1].startsWith("Надёжность: "));
     }
 
     /**
@@ -338,6 +367,7 @@ public class PasswordLogicTest {
         String[] resultLines = result.split("\n");
         Assertions.assertTrue(resultLines[0].startsWith("Новый пароль для ChangeService: "));
         Assertions.assertEquals("Пароль изменён", resultLines[1]);
+        Assertions.assertTrue(resultLines[2].startsWith("Надёжность: "));
     }
 
     /**
@@ -355,7 +385,9 @@ public class PasswordLogicTest {
         logic.handleMessage(99992, "2");
 
         String result = logic.handleMessage(99992, "newpassword123");
-        Assertions.assertEquals("Пароль для ChangeManual изменён", result);
+        String[] lines = result.split("\n");
+        Assertions.assertEquals("Пароль для ChangeManual изменён", lines[0]);
+        Assertions.assertTrue(lines[1].startsWith("Надёжность: "));
     }
 
     /**
@@ -432,12 +464,14 @@ public class PasswordLogicTest {
         Assertions.assertEquals("Использовать специальные символы? (+ / -)", result);
 
         result = logic.handleMessage(33334, "-");
-        String[] lines = result.split("; ");
+        String[] resultLines = result.split("\n");
+        String[] lines = resultLines[0].split("; ");
         Assertions.assertEquals("Новые параметры. Длина = 15", lines[0]);
         Assertions.assertEquals("наличие цифр true", lines[1]);
         Assertions.assertEquals("наличие заглавных букв false", lines[2]);
         Assertions.assertEquals("наличие строчных букв true", lines[3]);
         Assertions.assertEquals("наличие спецсимволов false", lines[4]);
+        Assertions.assertEquals("Надёжность: хороший (≈ 78 бит)", resultLines[1]);
     }
 
     /**
@@ -483,7 +517,7 @@ public class PasswordLogicTest {
         String addResult = logic.handleMessage(chatId, "mypassword");
 
         // Проверяем успешность добавления записи
-        Assertions.assertEquals("Данные сохранены", addResult);
+        Assertions.assertEquals("Данные сохранены", addResult.split("\n")[0]);
 
         // Удаляем запись - запрос подтверждения
         String confirm = logic.handleMessage(chatId, "/delete ToDelete");
@@ -497,4 +531,887 @@ public class PasswordLogicTest {
         String getResult = logic.handleMessage(chatId, "/get ToDelete");
         Assertions.assertEquals("Сервис не найден", getResult);
     }
-}
\ No newline at end of file
+
+    /**
+     * Проверяет, что после /change прежний пароль попадает в историю и восстанавливается
+     */
+    @Test
+    void testHistoryAndRestore() {
+        long chatId = 26001;
+        logic.handleMessage(chatId, "/delete Versioned");
+        logic.handleMessage(chatId, "+");
+
+        logic.handleMessage(chatId, "/add");
+        logic.handleMessage(chatId, "Versioned");
+        logic.handleMessage(chatId, "login");
+        logic.handleMessage(chatId, "2");
+        logic.handleMessage(chatId, "first");
+
+        Assertions.assertEquals("У записи Versioned пока нет прежних версий",
+                logic.handleMessage(chatId, "/history Versioned"));
+
+        logic.handleMessage(chatId, "/change Versioned");
+        logic.handleMessage(chatId, "2");
+        logic.handleMessage(chatId, "second");
+
+        String history = logic.handleMessage(chatId, "/history Versioned");
+        String[] lines = history.split("\n");
+        Assertions.assertEquals("Прежние версии Versioned (всего: 1):", lines[0]);
+        Assertions.assertTrue(lines[1].startsWith("1. "));
+        Assertions.assertTrue(lines[1].endsWith(", логин: login"));
+
+        Assertions.assertEquals("Версия 1 для Versioned восстановлена",
+                logic.handleMessage(chatId, "/restore Versioned 1"));
+        Assertions.assertEquals("Пароль: first",
+                logic.handleMessage(chatId, "/get Versioned").split("\n")[2]);
+
+        String afterRestore = logic.handleMessage(chatId, "/history Versioned");
+        Assertions.assertEquals("Прежние версии Versioned (всего: 2):", afterRestore.split("\n")[0]);
+    }
+
+    /**
+     * Проверяет, что /retention ограничивает количество хранимых версий
+     */
+    @Test
+    void testRetentionLimitsHistory() {
+        long chatId = 26002;
+        logic.handleMessage(chatId, "/delete Limited");
+        logic.handleMessage(chatId, "+");
+
+        Assertions.assertEquals("Теперь хранится версий: 2", logic.handleMessage(chatId, "/retention 2"));
+        logic.handleMessage(chatId, "/add");
+        logic.handleMessage(chatId, "Limited");
+        logic.handleMessage(chatId, "login");
+        logic.handleMessage(chatId, "2");
+        logic.handleMessage(chatId, "v0");
+
+        for (int i = 1; i <= 4; i++) {
+            logic.handleMessage(chatId, "/change Limited");
+            logic.handleMessage(chatId, "2");
+            logic.handleMessage(chatId, "v" + i);
+        }
+
+        String[] lines = logic.handleMessage(chatId, "/history Limited").split("\n");
+        Assertions.assertEquals("Прежние версии Limited (всего: 2):", lines[0]);
+        Assertions.assertTrue(lines[1].startsWith("4. "));
+        Assertions.assertTrue(lines[2].startsWith("3. "));
+    }
+
+    /**
+     * Проверяет восстановление несуществующей версии и неверные аргументы
+     */
+    @Test
+    void testRestoreInvalid() {
+        Assertions.assertEquals("Использование: /restore <сервис> <версия>",
+                logic.handleMessage(26003, "/restore OnlyService"));
+        Assertions.assertEquals("Введите число от 0 до 50", logic.handleMessage(26003, "/retention 99"));
+
+        String result = logic.handleMessage(26003, "/restore NonExistent 7");
+        Assertions.assertEquals("Версия 7 для \"NonExistent\" не найдена.", result.split("\n")[0]);
+    }
+
+    /**
+     * Проверяет плановую смену пароля на смоделированных часах
+     */
+    @Test
+    void testScheduledRotation() {
+        long chatId = 27001;
+        long[] now = {System.currentTimeMillis()};
+        PasswordLogic timed = new PasswordLogic(() -> now[0]);
+
+        timed.handleMessage(chatId, "/delete Rotated");
+        timed.handleMessage(chatId, "+");
+        timed.handleMessage(chatId, "/add");
+        timed.handleMessage(chatId, "Rotated");
+        timed.handleMessage(chatId, "login");
+        timed.handleMessage(chatId, "2");
+        timed.handleMessage(chatId, "initial");
+
+        Assertions.assertEquals("Пароль для Rotated будет меняться каждые 2 дн.",
+                timed.handleMessage(chatId, "/rotate Rotated 2"));
+
+        now[0] += 24L * 60 * 60 * 1000;
+        Assertions.assertNull(timed.rotateDue().get(chatId));
+
+        now[0] += 24L * 60 * 60 * 1000;
+        int available = SecretPool.shared().available();
+        String message = timed.rotateDue().get(chatId);
+        Assertions.assertNotNull(message);
+        Assertions.assertTrue(SecretPool.shared().available() >= available, "буферы паролей возвращены в пул");
+        String[] lines = message.split("\n");
+        Assertions.assertEquals("Плановая смена паролей:", lines[0]);
+        Assertions.assertTrue(lines[1].startsWith("Rotated: "));
+
+        String password = lines[1].substring("Rotated: ".length());
+        Assertions.assertEquals("Пароль: " + password,
+                timed.handleMessage(chatId, "/get Rotated").split("\n")[2]);
+        Assertions.assertNull(timed.rotateDue().get(chatId));
+
+        Assertions.assertEquals("Плановая смена пароля для Rotated отключена",
+                timed.handleMessage(chatId, "/rotate Rotated 0"));
+        now[0] += 10 * 24L * 60 * 60 * 1000;
+        Assertions.assertNull(timed.rotateDue().get(chatId));
+    }
+
+    /**
+     * Проверяет, что слабые настройки генерации получают низкую оценку
+     */
+    @Test
+    void testWeakSettingsReported() {
+        logic.handleMessage(29001, "/settings");
+        logic.handleMessage(29001, "6");
+        logic.handleMessage(29001, "+");
+        logic.handleMessage(29001, "-");
+        logic.handleMessage(29001, "-");
+        String result = logic.handleMessage(29001, "-");
+        Assertions.assertEquals("Надёжность: очень слабый (≈ 20 бит)", result.split("\n")[1]);
+    }
+
+    /**
+     * Проверяет, что после ручного ввода словарного пароля показывается найденный шаблон
+     */
+    @Test
+    void testManualPasswordVerdict() {
+        logic.handleMessage(29002, "/add");
+        logic.handleMessage(29002, "Verdict");
+        logic.handleMessage(29002, "login");
+        logic.handleMessage(29002, "2");
+        String result = logic.handleMessage(29002, "Password2024");
+        String verdict = result.split("\n")[1];
+        Assertions.assertTrue(verdict.startsWith("Надёжность: очень слабый"));
+        Assertions.assertTrue(verdict.endsWith("найдено: словарное слово"));
+    }
+
+    /**
+     * Проверяет предупреждение о повторном пароле и отчёт /audit
+     */
+    @Test
+    void testReusedPasswordWarningAndAudit() {
+        long chatId = 30001;
+        for (String service : new String[]{"ReuseA", "ReuseB", "ReuseC"}) {
+            logic.handleMessage(chatId, "/delete " + service);
+            logic.handleMessage(chatId, "+");
+        }
+
+        String first = addManual(chatId, "ReuseA", "Shared#Secret42");
+        Assertions.assertEquals(2, first.split("\n").length);
+
+        String second = addManual(chatId, "ReuseB", "Shared#Secret42");
+        Assertions.assertEquals("Внимание: этот пароль уже используется для: ReuseA", second.split("\n")[2]);
+
+        addManual(chatId, "ReuseC", "Unique#Secret43");
+
+        String audit = logic.handleMessage(chatId, "/audit");
+        String[] lines = audit.split("\n");
+        Assertions.assertEquals("Один и тот же пароль используется для:", lines[0]);
+        Assertions.assertEquals("1. ReuseA, ReuseB", lines[1]);
+        Assertions.assertEquals(2, lines.length);
+
+        logic.handleMessage(chatId, "/change ReuseB");
+        logic.handleMessage(chatId, "2");
+        logic.handleMessage(chatId, "Other#Secret44");
+        Assertions.assertEquals("Повторяющихся паролей не найдено", logic.handleMessage(chatId, "/audit"));
+    }
+
+    /** Добавляет запись с ручным вводом пароля и возвращает ответ бота. */
+    private String addManual(long chatId, String service, String password) {
+        logic.handleMessage(chatId, "/add");
+        logic.handleMessage(chatId, service);
+        logic.handleMessage(chatId, "login");
+        logic.handleMessage(chatId, "2");
+        return logic.handleMessage(chatId, password);
+    }
+
+    /**
+     * Проверяет настройку и генерацию парольной фразы
+     */
+    @Test
+    void testPassphraseMode() {
+        long chatId = 31001;
+        Assertions.assertEquals("Введите количество слов (7–12):", logic.handleMessage(chatId, "/settings фраза"));
+        Assertions.assertEquals("Введите число от 7 до 12", logic.handleMessage(chatId, "6"));
+        logic.handleMessage(chatId, "8");
+        Assertions.assertEquals("Начинать слова с заглавной буквы? (+ / -)", logic.handleMessage(chatId, "_"));
+        String result = logic.handleMessage(chatId, "+");
+        Assertions.assertEquals("Новые параметры. Парольная фраза: слов = 8; разделитель \"_\"; заглавные буквы true",
+                result.split("\n")[0]);
+
+        String phrase = logic.handleMessage(chatId, "/password").substring("Ваш пароль: ".length());
+        String[] words = phrase.split("_");
+        Assertions.assertEquals(8, words.length);
+        for (String w : words) {
+            Assertions.assertTrue(Character.isUpperCase(w.charAt(0)));
+            Assertions.assertTrue(w.length() > 1);
+        }
+
+        logic.handleMessage(chatId, "/settings");
+        logic.handleMessage(chatId, "8");
+        logic.handleMessage(chatId, "+");
+        logic.handleMessage(chatId, "+");
+        logic.handleMessage(chatId, "+");
+        logic.handleMessage(chatId, "+");
+        Assertions.assertEquals(8, logic.handleMessage(chatId, "/password").substring("Ваш пароль: ".length()).length());
+    }
+
+    /**
+     * Проверяет разделитель-пробел в парольной фразе
+     */
+    @Test
+    void testPassphraseSpaceSeparator() {
+        long chatId = 31002;
+        logic.handleMessage(chatId, "/settings фраза");
+        logic.handleMessage(chatId, "7");
+        logic.handleMessage(chatId, "пробел");
+        logic.handleMessage(chatId, "-");
+        String phrase = logic.handleMessage(chatId, "/password").substring("Ваш пароль: ".length());
+        Assertions.assertEquals(7, phrase.split(" ").length);
+        Assertions.assertEquals(phrase.toLowerCase(), phrase);
+    }
+
+    /**
+     * Проверяет, что пароль содержит хотя бы по одному символу каждого выбранного набора
+     */
+    @Test
+    void testPasswordHasEveryChosenClass() {
+        long chatId = 32001;
+        logic.handleMessage(chatId, "/settings");
+        logic.handleMessage(chatId, "6");
+        logic.handleMessage(chatId, "+");
+        logic.handleMessage(chatId, "+");
+        logic.handleMessage(chatId, "+");
+        logic.handleMessage(chatId, "+");
+        for (int i = 0; i < 200; i++) {
+            String password = logic.handleMessage(chatId, "/password").substring("Ваш пароль: ".length());
+            Assertions.assertTrue(password.chars().anyMatch(c -> PasswordPolicy.DIGITS.indexOf(c) >= 0));
+            Assertions.assertTrue(password.chars().anyMatch(c -> PasswordPolicy.UPPER.indexOf(c) >= 0));
+            Assertions.assertTrue(password.chars().anyMatch(c -> PasswordPolicy.LOWER.indexOf(c) >= 0));
+            Assertions.assertTrue(password.chars().anyMatch(c -> PasswordPolicy.SPECIAL.indexOf(c) >= 0));
+        }
+    }
+
+    /**
+     * Проверяет, что неверная длина и отказ от всех наборов не принимаются
+     */
+    @Test
+    void testSettingsRejectInvalidInput() {
+        long chatId = 32002;
+        logic.handleMessage(chatId, "/settings");
+        Assertions.assertEquals("Введите число от 6 до 64", logic.handleMessage(chatId, "abc"));
+        Assertions.assertEquals("Введите число от 6 до 64", logic.handleMessage(chatId, "100"));
+        logic.handleMessage(chatId, "8");
+        logic.handleMessage(chatId, "-");
+        logic.handleMessage(chatId, "-");
+        logic.handleMessage(chatId, "-");
+        Assertions.assertEquals("Не выбран ни один набор символов.\nВведите длину пароля (6–64):",
+                logic.handleMessage(chatId, "-"));
+        logic.handleMessage(chatId, "8");
+        logic.handleMessage(chatId, "+");
+        logic.handleMessage(chatId, "-");
+        logic.handleMessage(chatId, "-");
+        Assertions.assertTrue(logic.handleMessage(chatId, "-").startsWith("Новые параметры."));
+    }
+
+    /**
+     * Проверяет, что отклоненные ответы диалога /settings не портят сохраненные настройки
+     */
+    @Test
+    void testRejectedSettingsKeepPasswordWorking() {
+        long chatId = 42050;
+        logic.handleMessage(chatId, "/policy минимум 2 2 2 2");
+        logic.handleMessage(chatId, "/settings");
+        logic.handleMessage(chatId, "6");
+        logic.handleMessage(chatId, "+");
+        logic.handleMessage(chatId, "+");
+        logic.handleMessage(chatId, "+");
+        Assertions.assertTrue(logic.handleMessage(chatId, "+").startsWith("Обязательных символов больше"));
+        String password = logic.handleMessage(chatId, "/password");
+        Assertions.assertEquals(10, password.substring("Ваш пароль: ".length()).length());
+
+        logic.handleMessage(chatId, "12");
+        logic.handleMessage(chatId, "-");
+        logic.handleMessage(chatId, "-");
+        logic.handleMessage(chatId, "-");
+        Assertions.assertTrue(logic.handleMessage(chatId, "-").startsWith("Не выбран ни один набор символов."));
+        password = logic.handleMessage(chatId, "/password");
+        Assertions.assertTrue(password.startsWith("Ваш пароль: "));
+        Assertions.assertEquals(10, password.substring("Ваш пароль: ".length()).length());
+    }
+
+    /**
+     * Проверяет команду /policy: минимумы, похожие символы, шаблон и откат неверных изменений
+     */
+    @Test
+    void testPolicyCommand() {
+        long chatId = 32003;
+        Assertions.assertTrue(logic.handleMessage(chatId, "/policy").startsWith("Политика: минимум цифр 1"));
+
+        String result = logic.handleMessage(chatId, "/policy минимум 4 0 0 0");
+        Assertions.assertTrue(result.startsWith("Политика: минимум цифр 4, заглавных 0"));
+        String password = logic.handleMessage(chatId, "/password").substring("Ваш пароль: ".length());
+        Assertions.assertTrue(password.chars().filter(Character::isDigit).count() >= 4);
+
+        Assertions.assertEquals("Политика не изменена: Обязательных символов больше, чем длина пароля",
+                logic.handleMessage(chatId, "/policy минимум 5 5 5 5"));
+        Assertions.assertTrue(logic.handleMessage(chatId, "/policy").startsWith("Политика: минимум цифр 4"));
+
+        logic.handleMessage(chatId, "/policy похожие -");
+        for (int i = 0; i < 100; i++) {
+            password = logic.handleMessage(chatId, "/password").substring("Ваш пароль: ".length());
+            for (char c : password.toCharArray()) {
+                Assertions.assertTrue(PasswordPolicy.AMBIGUOUS.indexOf(c) < 0);
+            }
+        }
+
+        logic.handleMessage(chatId, "/policy шаблон Aaaa-9999");
+        password = logic.handleMessage(chatId, "/password").substring("Ваш пароль: ".length());
+        Assertions.assertTrue(password.matches("[A-Z][a-z]{3}-[2-9]{4}"));
+
+        Assertions.assertEquals("Политика не изменена: Шаблон дает слишком предсказуемый пароль (0 бит, нужно не меньше 28)",
+                logic.handleMessage(chatId, "/policy шаблон hunter2"));
+        Assertions.assertEquals("Политика не изменена: Длина шаблона должна быть от 6 до 64 символов",
+                logic.handleMessage(chatId, "/policy шаблон *****"));
+        Assertions.assertEquals("Политика не изменена: Длина шаблона должна быть от 6 до 64 символов",
+                logic.handleMessage(chatId, "/policy шаблон " + "*".repeat(65)));
+        Assertions.assertTrue(logic.handleMessage(chatId, "/policy").contains("Aaaa-9999"));
+
+        logic.handleMessage(chatId, "/policy шаблон -");
+        Assertions.assertEquals(10, logic.handleMessage(chatId, "/password").substring("Ваш пароль: ".length()).length());
+    }
+
+    /**
+     * Проверяет, что диалог сериализуется в несколько байт и продолжается в другом экземпляре
+     */
+    @Test
+    void testDialogExportImport() {
+        long chatId = 33001;
+        Assertions.assertEquals(1, logic.exportDialog(chatId).length);
+
+        logic.handleMessage(chatId, "/add");
+        logic.handleMessage(chatId, "Handoff");
+        byte[] data = logic.exportDialog(chatId);
+        Assertions.assertEquals(1 + 2 + "Handoff".length(), data.length);
+
+        PasswordLogic other = new PasswordLogic();
+        other.importDialog(chatId, data);
+        Assertions.assertTrue(other.handleMessage(chatId, "login").startsWith("Выберите способ создания пароля"));
+        other.handleMessage(chatId, "1");
+        Assertions.assertEquals(1, other.exportDialog(chatId).length);
+        Assertions.assertTrue(other.handleMessage(chatId, "/get Handoff").contains("Логин: login"));
+
+        Assertions.assertThrows(IllegalArgumentException.class, () -> other.importDialog(chatId, new byte[]{0x7F}));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> other.importDialog(chatId, new byte[]{0x49, 0}));
+
+        other.handleMessage(chatId, "/delete Handoff");
+        other.handleMessage(chatId, "+");
+    }
+
+    /**
+     * Проверяет, что /password не прерывает диалог настроек, но прерывает диалог менеджера
+     */
+    @Test
+    void testPasswordCommandInsideDialogs() {
+        long chatId = 33002;
+        logic.handleMessage(chatId, "/settings");
+        logic.handleMessage(chatId, "/password");
+        Assertions.assertEquals("Использовать цифры? (+ / -)", logic.handleMessage(chatId, "12"));
+
+        logic.handleMessage(chatId + 1, "/add");
+        logic.handleMessage(chatId + 1, "/password");
+        Assertions.assertEquals("Неизвестная команда. Напишите /start", logic.handleMessage(chatId + 1, "Service"));
+    }
+
+    /**
+     * Замер: накладные расходы автомата диалогов на одно сообщение
+     * (шаги /settings без завершения, чтобы не мерить компиляцию политики)
+     */
+    @Test
+    @Tag("benchmark")
+    void benchmarkDialogStep() {
+        long chatId = 33003;
+        String[] steps = {"/settings", "12", "+", "-", "+"};
+        int rounds = 200_000;
+        long sink = 0;
+        for (int i = 0; i < rounds / 10; i++) {
+            for (String step : steps) sink += logic.handleMessage(chatId, step).length();
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            for (String step : steps) sink += logic.handleMessage(chatId, step).length();
+        }
+        long nanos = System.nanoTime() - start;
+
+        System.out.printf("Диалог: %.0f нс на сообщение, сессия %d байт (%d)%n",
+                (double) nanos / (rounds * steps.length), logic.exportDialog(chatId).length, sink);
+        Assertions.assertEquals(1, logic.exportDialog(chatId).length);
+    }
+
+    /**
+     * Нагрузочная проверка: каждый апдейт доставляется от одного до трех раз, плюс случайные
+     * повторы более ранних апдейтов, в нескольких потоках. Каждый переход диалога выполняется
+     * ровно один раз: запись сохраняется один раз, смена пароля — тоже один раз.
+     */
+    @Test
+    void testRedeliveredUpdatesProcessedOnce() throws InterruptedException {
+        logic.setAdmissionControl(new AdmissionControl(1e9, 1_000_000, 64));
+        int threads = 4;
+        int chatsPerThread = 5;
+        AtomicInteger updateIds = new AtomicInteger(1_000);
+        List<Thread> workers = new ArrayList<>();
+        List<Throwable> errors = new CopyOnWriteArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            long firstChat = 36000 + t * chatsPerThread;
+            Thread worker = new Thread(() -> {
+                Random random = new Random(firstChat);
+                try {
+                    for (long chatId = firstChat; chatId < firstChat + chatsPerThread; chatId++) {
+                        logic.handleMessage(chatId, "/delete Dedup");
+                        logic.handleMessage(chatId, "+");
+                        String[] script = {"/add", "Dedup", "login", "2", "Dedup#Secret" + chatId,
+                                "/change Dedup", "1"};
+                        List<Integer> delivered = new ArrayList<>();
+                        List<String> texts = new ArrayList<>();
+                        for (String text : script) {
+                            int id = updateIds.incrementAndGet();
+                            int copies = 1 + random.nextInt(3);
+                            for (int c = 0; c < copies; c++) logic.handleUpdate(chatId, id, text);
+                            delivered.add(id);
+                            texts.add(text);
+                            int old = random.nextInt(delivered.size());
+                            Assertions.assertNull(logic.handleUpdate(chatId, delivered.get(old), texts.get(old)));
+                        }
+                    }
+                } catch (Throwable e) {
+                    errors.add(e);
+                }
+            });
+            workers.add(worker);
+            worker.start();
+        }
+        for (Thread worker : workers) worker.join();
+        Assertions.assertEquals(List.of(), errors);
+
+        for (long chatId = 36000; chatId < 36000 + threads * chatsPerThread; chatId++) {
+            String history = logic.handleMessage(chatId, "/history Dedup");
+            Assertions.assertTrue(history.startsWith("Прежние версии Dedup (всего: 1)"), history);
+            Assertions.assertFalse(logic.handleMessage(chatId, "/get Dedup").contains("Dedup#Secret"));
+            logic.handleMessage(chatId, "/delete Dedup");
+            logic.handleMessage(chatId, "+");
+        }
+    }
+
+    /**
+     * Проверяет, что операции с записями попадают в журнал с результатом, а пароли - нет
+     */
+    @Test
+    void testAuditTrail() throws Exception {
+        Path dir = Files.createTempDirectory("audit");
+        try {
+            AuditLog log = AuditLog.open(dir);
+            logic.setAuditLog(log);
+            logic.handleMessage(38001, "/add");
+            logic.handleMessage(38001, "AuditService");
+            logic.handleMessage(38001, "auditor");
+            logic.handleMessage(38001, "2");
+            logic.handleMessage(38001, "Audit#Secret1");
+            Assertions.assertTrue(logic.handleMessage(38001, "/get AuditService").contains("Audit#Secret1"));
+            Assertions.assertEquals("Сервис не найден", logic.handleMessage(38001, "/get Missing"));
+            logic.handleMessage(38001, "/delete AuditService");
+            logic.handleMessage(38001, "+");
+            log.close();
+
+            List<String> trail = new ArrayList<>();
+            for (AuditLog.Event e : AuditLog.read(dir, Long.MIN_VALUE, Long.MAX_VALUE)) {
+                Assertions.assertEquals(38001, e.getChatId());
+                trail.add(e.getOperation() + " " + e.getService() + " " + e.getOutcome());
+            }
+            Assertions.assertEquals(List.of(
+                    "SAVE AuditService OK",
+                    "READ AuditService OK",
+                    "READ Missing NOT_FOUND",
+                    "DELETE AuditService OK"), trail);
+
+            try (Stream<Path> files = Files.list(dir)) {
+                for (Path f : (Iterable<Path>) files::iterator) {
+                    String raw = new String(Files.readAllBytes(f), StandardCharsets.ISO_8859_1);
+                    Assertions.assertFalse(raw.contains("Audit#Secret1"));
+                    Assertions.assertFalse(raw.contains("auditor"));
+                }
+            }
+        } finally {
+            try (Stream<Path> files = Files.walk(dir)) {
+                files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+            }
+        }
+    }
+
+    /**
+     * Проверяет, что операции с записями общего хранилища отмечаются чатом участника,
+     * а не ключом хранилища
+     */
+    @Test
+    void testVaultAuditRecordsActingChat() throws Exception {
+        Path dir = Files.createTempDirectory("audit");
+        try {
+            String vault = createVault(42054);
+            logic.handleMessage(42054, "/vault add " + vault + " 42055");
+            logic.handleMessage(42055, "/vault use " + vault);
+            AuditLog log = AuditLog.open(dir);
+            logic.setAuditLog(log);
+            logic.handleMessage(42055, "/add");
+            logic.handleMessage(42055, "TeamAudit");
+            logic.handleMessage(42055, "member");
+            logic.handleMessage(42055, "1");
+            Assertions.assertTrue(logic.handleMessage(42055, "/get TeamAudit").contains("member"));
+            logic.handleMessage(42055, "/history TeamAudit");
+            logic.handleMessage(42055, "/delete TeamAudit");
+            logic.handleMessage(42055, "+");
+            log.close();
+
+            List<String> trail = new ArrayList<>();
+            for (AuditLog.Event e : AuditLog.read(dir, Long.MIN_VALUE, Long.MAX_VALUE)) {
+                Assertions.assertEquals(42055, e.getChatId());
+                trail.add(e.getOperation() + " " + e.getService());
+            }
+            Assertions.assertEquals(List.of(
+                    "SAVE TeamAudit", "READ TeamAudit", "HISTORY TeamAudit", "DELETE TeamAudit"), trail);
+        } finally {
+            try (Stream<Path> files = Files.walk(dir)) {
+                files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+            }
+        }
+    }
+
+    /**
+     * Создает общее хранилище со случайным названием (база общая для всех запусков тестов),
+     * выбирает его владельцу и возвращает название.
+     */
+    private String createVault(long owner) {
+        String name = "team" + Long.toHexString(new Random().nextLong() & 0xFFFFFFFFFFFFL);
+        Assertions.assertTrue(logic.handleMessage(owner, "/vault create " + name).startsWith("Хранилище " + name + " создано"));
+        Assertions.assertTrue(logic.handleMessage(owner, "/vault use " + name).startsWith("Выбрано хранилище " + name));
+        return name;
+    }
+
+    /**
+     * Проверяет одноразовую ссылку /share: другой чат получает запись один раз,
+     * владелец свою ссылку не расходует, просроченная ссылка не действует
+     */
+    @Test
+    void testShareAndRedeem() {
+        long[] now = {1_000_000};
+        PasswordLogic timed = new PasswordLogic(() -> now[0]);
+        timed.handleMessage(42010, "/add");
+        timed.handleMessage(42010, "Forum");
+        timed.handleMessage(42010, "owner@example.com");
+        timed.handleMessage(42010, "1");
+
+        String reply = timed.handleMessage(42010, "/share Forum");
+        Assertions.assertTrue(reply.startsWith("Ссылка на Forum действует 10 минут"), reply);
+        String token = reply.substring(reply.lastIndexOf(' ') + 1);
+        Assertions.assertEquals("Это ваша ссылка: перешлите ее получателю", timed.handleMessage(42010, "/redeem " + token));
+        Assertions.assertTrue(timed.handleMessage(42011, "/redeem " + token).contains("Логин: owner@example.com"));
+        Assertions.assertEquals("Ссылка недействительна или уже использована", timed.handleMessage(42011, "/redeem " + token));
+        Assertions.assertEquals("Ссылка недействительна или уже использована", timed.handleMessage(42011, "/redeem abc"));
+
+        reply = timed.handleMessage(42010, "/share Forum");
+        now[0] += 10 * 60 * 1000;
+        Assertions.assertEquals("Ссылка недействительна или уже использована",
+                timed.handleMessage(42011, "/redeem " + reply.substring(reply.lastIndexOf(' ') + 1)));
+        Assertions.assertEquals("Сервис не найден", timed.handleMessage(42010, "/share Nothing"));
+
+        timed.handleMessage(42010, "/delete Forum");
+        timed.handleMessage(42010, "+");
+    }
+
+    /**
+     * Проверяет общее хранилище: роли участников, выбор хранилища и сброс кэша участия
+     */
+    @Test
+    void testSharedVault() {
+        String vault = createVault(40001);
+        Assertions.assertEquals("Участник 40002 добавлен в " + vault, logic.handleMessage(40001, "/vault add " + vault + " 40002"));
+        logic.handleMessage(40001, "/vault add " + vault + " 40003 viewer");
+        logic.handleMessage(40001, "/add");
+        logic.handleMessage(40001, "Shared");
+        logic.handleMessage(40001, "team@example.com");
+        logic.handleMessage(40001, "1");
+        Assertions.assertEquals("У вас пока нет сервисов", logic.handleMessage(40002, "/list"));
+
+        logic.handleMessage(40002, "/vault use " + vault);
+        Assertions.assertTrue(logic.handleMessage(40002, "/get Shared").contains("Логин: team@example.com"));
+        logic.handleMessage(40003, "/vault use " + vault);
+        Assertions.assertTrue(logic.handleMessage(40003, "/list").contains("1. Shared"));
+        Assertions.assertEquals("В хранилище " + vault + " у вас доступ только для чтения",
+                logic.handleMessage(40003, "/add"));
+        Assertions.assertEquals("Нет доступа к хранилищу " + vault, logic.handleMessage(40004, "/vault use " + vault));
+        Assertions.assertEquals("Участниками управляет только владелец",
+                logic.handleMessage(40002, "/vault add " + vault + " 40004"));
+        Assertions.assertEquals("В хранилище должен остаться хотя бы один владелец",
+                logic.handleMessage(40001, "/vault remove " + vault + " 40001"));
+
+        logic.handleMessage(40001, "/vault remove " + vault + " 40002");
+        Assertions.assertTrue(logic.handleMessage(40002, "/get Shared").startsWith("Нет доступа к хранилищу " + vault));
+        Assertions.assertEquals("Выбрано личное хранилище", logic.handleMessage(40002, "/vault use"));
+
+        logic.handleMessage(40001, "/delete Shared");
+        Assertions.assertEquals("Данные для \"Shared\" удалены", logic.handleMessage(40001, "+"));
+    }
+
+    /**
+     * Проверяет, что кнопки удаления и смены действуют только в том хранилище, в котором
+     * они показаны: после /vault use нажатие личной кнопки не трогает запись общего хранилища
+     */
+    @Test
+    void testButtonsBoundToVault() {
+        long chat = 42057;
+        int[] update = {0};
+        logic.setAdmissionControl(new AdmissionControl(1e9, 1_000_000, 64));
+        logic.respond(chat, ++update[0], "/add");
+        logic.respond(chat, ++update[0], "Pinned");
+        logic.respond(chat, ++update[0], "personal@example.com");
+        logic.respond(chat, ++update[0], "1");
+        List<String> delete = buttons(logic.respond(chat, ++update[0], "/delete Pinned"));
+        Assertions.assertEquals("x0\nPinned", delete.get(0));
+        List<String> change = buttons(logic.respond(chat, ++update[0], "/change Pinned"));
+        logic.respond(chat, ++update[0], "/password");
+
+        String vault = createVault(chat);
+        logic.respond(chat, ++update[0], "/add");
+        logic.respond(chat, ++update[0], "Pinned");
+        logic.respond(chat, ++update[0], "team@example.com");
+        logic.respond(chat, ++update[0], "1");
+
+        String other = "Кнопка относится к другому хранилищу: выберите его (/vault use) или повторите команду";
+        Assertions.assertEquals(other, logic.handleCallback(chat, ++update[0], delete.get(0)).getText());
+        Assertions.assertEquals(other, logic.handleCallback(chat, ++update[0], change.get(0)).getText());
+        Assertions.assertTrue(logic.handleMessage(chat, "/get Pinned").contains("team@example.com"));
+
+        Assertions.assertEquals("Выбрано личное хранилище", logic.handleMessage(chat, "/vault use"));
+        Assertions.assertEquals("Данные для \"Pinned\" удалены",
+                logic.handleCallback(chat, ++update[0], delete.get(0)).getText());
+        logic.handleMessage(chat, "/vault use " + vault);
+        Assertions.assertTrue(logic.handleMessage(chat, "/get Pinned").contains("team@example.com"));
+    }
+
+    /**
+     * Проверяет, что бот в режиме только для чтения видит изменения участников,
+     * пришедшие в базу в обход него (как при репликации)
+     */
+    @Test
+    void testReadOnlyVaultAccessFollowsDatabase() {
+        String vault = createVault(42051);
+        logic.handleMessage(42051, "/vault add " + vault + " 42052 viewer");
+        logic.handleMessage(42051, "/add");
+        logic.handleMessage(42051, "Standby");
+        logic.handleMessage(42051, "standby@example.com");
+        logic.handleMessage(42051, "1");
+
+        PasswordLogic standby = new PasswordLogic();
+        standby.handleMessage(42052, "/vault use " + vault);
+        standby.setReadOnly(true);
+        Assertions.assertTrue(standby.handleMessage(42052, "/get Standby").contains("Логин: standby@example.com"));
+
+        logic.handleMessage(42051, "/vault remove " + vault + " 42052");
+        Assertions.assertTrue(standby.handleMessage(42052, "/get Standby").startsWith("Нет доступа к хранилищу " + vault));
+
+        logic.handleMessage(42051, "/delete Standby");
+        logic.handleMessage(42051, "+");
+    }
+
+    /**
+     * Проверяет, что saveIfVersion отличает ошибку базы данных от конфликта версий
+     * и от успешного сохранения
+     */
+    @Test
+    void testSaveIfVersionReportsFailure() throws Exception {
+        Path dir = Files.createTempDirectory("versioned");
+        String url = "jdbc:sqlite:" + dir.resolve("passwords.db");
+        try {
+            PasswordDatabase db = new PasswordDatabase(url, 1000, 1);
+            db.save(42058, "Busy", "login", "first");
+            int version = db.find(42058, "Busy").getVersion();
+
+            try (Connection c = DriverManager.getConnection(url);
+                 Statement st = c.createStatement()) {
+                st.execute("CREATE TRIGGER fail_update BEFORE UPDATE ON credentials BEGIN SELECT RAISE(ABORT, 'busy'); END;");
+            }
+            PasswordDatabase.VersionedSave failed = db.saveIfVersion(42058, "Busy", "login", "second", 5, version);
+            Assertions.assertSame(PasswordDatabase.VersionedSave.FAILED, failed);
+            Assertions.assertFalse(failed.isSaved());
+            Assertions.assertEquals("first", db.find(42058, "Busy").getPassword());
+
+            try (Connection c = DriverManager.getConnection(url);
+                 Statement st = c.createStatement()) {
+                st.execute("DROP TRIGGER fail_update;");
+            }
+            Assertions.assertSame(PasswordDatabase.VersionedSave.CONFLICT,
+                    db.saveIfVersion(42058, "Busy", "login", "second", 5, version + 1));
+            Assertions.assertTrue(db.saveIfVersion(42058, "Busy", "login", "second", 5, version).isSaved());
+            Assertions.assertEquals("second", db.find(42058, "Busy").getPassword());
+        } finally {
+            try (Stream<Path> files = Files.walk(dir)) {
+                files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+            }
+        }
+    }
+
+    /**
+     * Проверяет, что из одновременных /change одной записи общего хранилища
+     * сохраняется только одно, а остальные участники получают отказ
+     */
+    @Test
+    void testConcurrentChangeOnSharedEntry() throws InterruptedException {
+        int editors = 8;
+        String vault = createVault(40100);
+        for (int i = 1; i <= editors; i++) {
+            logic.handleMessage(40100, "/vault add " + vault + " " + (40100 + i));
+            logic.handleMessage(40100 + i, "/vault use " + vault);
+        }
+        logic.handleMessage(40100, "/add");
+        logic.handleMessage(40100, "Race");
+        logic.handleMessage(40100, "race@example.com");
+        logic.handleMessage(40100, "1");
+
+        for (int i = 1; i <= editors; i++) {
+            Assertions.assertTrue(logic.handleMessage(40100 + i, "/change Race").startsWith("Текущий логин для Race"));
+            logic.handleMessage(40100 + i, "2");
+        }
+        List<String> replies = new CopyOnWriteArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 1; i <= editors; i++) {
+            long chatId = 40100 + i;
+            Thread t = new Thread(() -> replies.add(logic.handleMessage(chatId, "Race#Pass" + chatId)));
+            threads.add(t);
+            t.start();
+        }
+        for (Thread t : threads) t.join();
+
+        long saved = replies.stream().filter(r -> r.startsWith("Пароль для Race изменён")).count();
+        long conflicts = replies.stream().filter(r -> r.startsWith("Запись \"Race\" уже изменена")).count();
+        Assertions.assertEquals(1, saved, replies.toString());
+        Assertions.assertEquals(editors - 1, conflicts, replies.toString());
+        Assertions.assertTrue(logic.handleMessage(40100, "/history Race").startsWith("Прежние версии Race (всего: 1)"));
+
+        logic.handleMessage(40100, "/delete Race");
+        logic.handleMessage(40100, "+");
+    }
+
+    /**
+     * Проверяет кнопки диалогов: форма /settings, выбор способа в /add и /change,
+     * подтверждение /delete, повторную доставку нажатия и неверные данные кнопок
+     */
+    @Test
+    void testInlineKeyboardDialogs() {
+        long chat = 42020;
+        int[] update = {0};
+        logic.setAdmissionControl(new AdmissionControl(1e9, 1_000_000, 64));
+        PasswordLogic.Reply reply = logic.respond(chat, ++update[0], "/settings");
+        Assertions.assertEquals("S10.15", last(buttons(reply)));
+        reply = logic.handleCallback(chat, ++update[0], "s10.7");
+        Assertions.assertTrue(reply.getText().contains("спецсимволы -"), reply.getText());
+        Assertions.assertTrue(buttons(reply).contains("S10.7"));
+        Assertions.assertNull(logic.handleCallback(chat, update[0], "s10.7"), "повторная доставка");
+        reply = logic.handleCallback(chat, ++update[0], "S12.7");
+        Assertions.assertTrue(reply.getText().startsWith("Новые параметры. Длина = 12"), reply.getText());
+        Assertions.assertTrue(reply.getKeyboard().isEmpty());
+        String password = logic.handleMessage(chat, "/password").substring("Ваш пароль: ".length());
+        Assertions.assertEquals(12, password.length());
+        Assertions.assertTrue(password.chars().allMatch(Character::isLetterOrDigit));
+        reply = logic.handleCallback(chat, ++update[0], "S8.0");
+        Assertions.assertTrue(reply.getText().contains("Введите длину пароля"), reply.getText());
+        Assertions.assertEquals("S8.0", last(buttons(reply)));
+        password = logic.handleMessage(chat, "/password");
+        Assertions.assertTrue(password.startsWith("Ваш пароль: "), password);
+        Assertions.assertEquals(12, password.length() - "Ваш пароль: ".length());
+        reply = logic.handleCallback(chat, ++update[0], "S10.15");
+        Assertions.assertTrue(reply.getText().startsWith("Новые параметры. Длина = 10"), reply.getText());
+
+        logic.respond(chat, ++update[0], "/add");
+        logic.respond(chat, ++update[0], "Buttons");
+        reply = logic.respond(chat, ++update[0], "buttons@example.com");
+        Assertions.assertEquals(List.of("g0\nButtons\nbuttons@example.com", "m0\nButtons\nbuttons@example.com"), buttons(reply));
+        reply = logic.handleCallback(chat, ++update[0], "g0\nButtons\nbuttons@example.com");
+        Assertions.assertTrue(reply.getText().startsWith("Пароль для Buttons: "), reply.getText());
+
+        reply = logic.respond(chat, ++update[0], "/change Buttons");
+        List<String> change = buttons(reply);
+        Assertions.assertTrue(change.get(0).matches("r0\n\\d+\nButtons"), change.get(0));
+        Assertions.assertEquals("Введите новый пароль:", logic.handleCallback(chat, ++update[0], change.get(1)).getText());
+        Assertions.assertTrue(logic.respond(chat, ++update[0], "Keyboard#Pass42").getText().startsWith("Пароль для Buttons изменён"));
+        Assertions.assertTrue(logic.handleCallback(chat, ++update[0], change.get(0)).getText()
+                .startsWith("Запись \"Buttons\" уже изменена"), "кнопка устаревшей версии");
+
+        reply = logic.respond(chat, ++update[0], "/delete Buttons");
+        Assertions.assertEquals(List.of("x0\nButtons", "n"), buttons(reply));
+        Assertions.assertEquals("Удаление отменено", logic.handleCallback(chat, ++update[0], "n").getText());
+        Assertions.assertEquals("Данные для \"Buttons\" удалены", logic.handleCallback(chat, ++update[0], "x0\nButtons").getText());
+        Assertions.assertEquals("Сервис не найден", logic.handleCallback(chat, ++update[0], "x0\nButtons").getText());
+
+        for (String bad : new String[] {"", "z", "s5.0", "s10.16", "s10", "g0\nNoLogin", "xButtons"}) {
+            Assertions.assertNull(logic.handleCallback(chat, ++update[0], bad), bad);
+        }
+        logic.respond(chat, ++update[0], "/add");
+        logic.respond(chat, ++update[0], "Long".repeat(16));
+        Assertions.assertTrue(logic.respond(chat, ++update[0], "login").getKeyboard().isEmpty());
+        logic.respond(chat, ++update[0], "/settings");
+
+        logic.setAdmissionControl(new AdmissionControl(1, 1, 64, () -> 0));
+        Assertions.assertFalse(logic.handleCallback(chat, ++update[0], "s10.15").isNotice());
+        reply = logic.handleCallback(chat, ++update[0], "s10.15");
+        Assertions.assertTrue(reply.isNotice(), "отказ по лимиту не меняет сообщение с кнопками");
+    }
+
+    /** Данные кнопок ответа по порядку. */
+    private static List<String> buttons(PasswordLogic.Reply reply) {
+        List<String> data = new ArrayList<>();
+        for (List<PasswordLogic.Button> row : reply.getKeyboard()) {
+            for (PasswordLogic.Button b : row) data.add(b.getData());
+        }
+        return data;
+    }
+
+    /** Последний элемент списка. */
+    private static String last(List<String> list) {
+        return list.get(list.size() - 1);
+    }
+
+    /**
+     * Замер: /get в общем хранилище (с проверкой участия по кэшу) против /get в личном
+     */
+    @Test
+    @Tag("benchmark")
+    void benchmarkSharedVaultGet() {
+        long personal = 40200;
+        logic.handleMessage(personal, "/add");
+        logic.handleMessage(personal, "Bench");
+        logic.handleMessage(personal, "bench");
+        logic.handleMessage(personal, "1");
+        String vault = createVault(40201);
+        logic.handleMessage(40201, "/add");
+        logic.handleMessage(40201, "Bench");
+        logic.handleMessage(40201, "bench");
+        logic.handleMessage(40201, "1");
+
+        int n = 2000;
+        for (int i = 0; i < n / 4; i++) {
+            logic.handleMessage(personal, "/get Bench");
+            logic.handleMessage(40201, "/get Bench");
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < n; i++) logic.handleMessage(personal, "/get Bench");
+        long personalNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < n; i++) logic.handleMessage(40201, "/get Bench");
+        long sharedNanos = System.nanoTime() - start;
+
+        System.out.printf("Общее хранилище: /get %.1f мкс против %.1f мкс в личном (%s)%n",
+                sharedNanos / 1e3 / n, personalNanos / 1e3 / n, vault);
+        Assertions.assertTrue(sharedNanos < personalNanos * 1.5);
+
+        logic.handleMessage(personal, "/delete Bench");
+        logic.handleMessage(personal, "+");
+        logic.handleMessage(40201, "/delete Bench");
+        logic.handleMessage(40201, "+");
+    }
+}
@@ -0,0 +1,149 @@
+package org.example;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.security.SecureRandom;
+import java.util.Random;
+
+/**
+ * Тесты политики генерации паролей
+ */
+public class PasswordPolicyTest {
+
+    /** Генератор случайных чисел для тестов */
+    private final Random random = new SecureRandom();
+
+    /**
+     * Проверяет, что минимальные количества по наборам соблюдаются в каждом пароле
+     */
+    @Test
+    void testMinimumsGuaranteed() {
+        PasswordPolicy policy = new PasswordPolicy.Builder()
+                .length(8).digits(2).upper(2).lower(1).special(3).build();
+        for (int i = 0; i < 1000; i++) {
+            String p = policy.generate(random);
+            Assertions.assertEquals(8, p.length());
+            Assertions.assertTrue(count(p, PasswordPolicy.DIGITS) >= 2);
+            Assertions.assertTrue(count(p, PasswordPolicy.UPPER) >= 2);
+            Assertions.assertTrue(count(p, PasswordPolicy.LOWER) >= 1);
+            Assertions.assertTrue(count(p, PasswordPolicy.SPECIAL) >= 3);
+        }
+    }
+
+    /**
+     * Проверяет исключение похожих символов и свой набор спецсимволов
+     */
+    @Test
+    void testExcludeAmbiguousAndSymbols() {
+        PasswordPolicy policy = new PasswordPolicy.Builder()
+                .length(32).digits(1).upper(1).lower(1).special(1)
+                .symbols("-_").excludeAmbiguous(true).build();
+        for (int i = 0; i < 1000; i++) {
+            for (char c : policy.generate(random).toCharArray()) {
+                Assertions.assertTrue(PasswordPolicy.AMBIGUOUS.indexOf(c) < 0);
+                Assertions.assertTrue(Character.isLetterOrDigit(c) || c == '-' || c == '_');
+            }
+        }
+    }
+
+    /**
+     * Проверяет генерацию по шаблону, включая экранирование
+     */
+    @Test
+    void testTemplate() {
+        PasswordPolicy policy = new PasswordPolicy.Builder()
+                .digits(0).upper(0).lower(0).special(0)
+                .template("Aaa\\9-999#").build();
+        Assertions.assertEquals(9, policy.getLength());
+        for (int i = 0; i < 100; i++) {
+            String p = policy.generate(random);
+            Assertions.assertTrue(p.matches("[A-Z][a-z]{2}9-[0-9]{3}[^A-Za-z0-9]"), p);
+        }
+    }
+
+    /**
+     * Проверяет, что противоречивые политики не компилируются
+     */
+    @Test
+    void testInvalidPolicies() {
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> new PasswordPolicy.Builder().build());
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> new PasswordPolicy.Builder().length(4).digits(3).upper(3).build());
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> new PasswordPolicy.Builder().special(1).symbols("0O").excludeAmbiguous(true).build());
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> new PasswordPolicy.Builder().lower(0).symbols("").template("a#").build());
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> new PasswordPolicy.Builder().lower(0).template("a\\").build());
+    }
+
+    /**
+     * Проверяет оценку энтропии
+     */
+    @Test
+    void testEntropy() {
+        PasswordPolicy policy = new PasswordPolicy.Builder().length(10).digits(1).build();
+        Assertions.assertEquals(10 * Math.log(10) / Math.log(2), policy.entropyBits(), 1e-9);
+        PasswordPolicy template = new PasswordPolicy.Builder().digits(0).template("99-99").build();
+        Assertions.assertEquals(4 * Math.log(10) / Math.log(2), template.entropyBits(), 1e-9);
+    }
+
+    /**
+     * Замер: генерация по скомпилированной политике против прежнего генератора
+     * PasswordLogic (алфавит собирается из настроек на каждый вызов, наборы не гарантируются).
+     * Время почти целиком уходит на SecureRandom, а политика тратит на перемешивание еще
+     * length - 1 случайных чисел, поэтому она может быть до двух раз медленнее, но не больше.
+     */
+    @Test
+    @Tag("benchmark")
+    void benchmarkAgainstPreviousGenerator() {
+        PasswordPolicy policy = new PasswordPolicy.Builder()
+                .length(8).digits(1).upper(1).lower(1).special(1).build();
+        int n = 500_000;
+        long sink = 0;
+
+        for (int i = 0; i < n / 10; i++) {
+            sink += policy.generate(random).length() + previous(8, true, true, true, true).length();
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < n; i++) sink += policy.generate(random).length();
+        long policyNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < n; i++) sink += previous(8, true, true, true, true).length();
+        long previousNanos = System.nanoTime() - start;
+
+        System.out.printf("PasswordPolicy: %.0f нс на пароль против %.0f нс у прежнего генератора (%d)%n",
+                (double) policyNanos / n, (double) previousNanos / n, sink);
+        Assertions.assertTrue(policyNanos < previousNanos * 3);
+    }
+
+    /** Прежний генератор PasswordLogic.generatePasswordRaw (до PasswordPolicy) без режима фраз. */
+    private String previous(int length, boolean digits, boolean upper, boolean lower, boolean special) {
+        StringBuilder alphabet = new StringBuilder();
+        if (digits) alphabet.append("0123456789");
+        if (upper) alphabet.append("ABCDEFGHIJKLMNOPQRSTUVWXYZ");
+        if (lower) alphabet.append("abcdefghijklmnopqrstuvwxyz");
+        if (special) alphabet.append("!@#$%^&*()_-+=<>?/{}[]");
+
+        String chars = alphabet.toString();
+        StringBuilder p = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            p.append(chars.charAt(random.nextInt(chars.length())));
+        }
+        return p.toString();
+    }
+
+    /** Количество символов строки s из набора set. */
+    private static int count(String s, String set) {
+        int n = 0;
+        for (int i = 0; i < s.length(); i++) {
+            if (set.indexOf(s.charAt(i)) >= 0) n++;
+        }
+        return n;
+    }
+}
@@ -0,0 +1,151 @@
+package org.example;
+
+import jdk.jfr.ValueDescriptor;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * Тесты событий JFR и команды /profile
+ */
+public class ProfilerTest {
+
+    /**
+     * Проверяет /profile: команда доступна только администратору, запись содержит события
+     * команд, операций с базой, соединений и генерации, но не содержит паролей, логинов
+     * и названий сервисов
+     */
+    @Test
+    void testProfileRecordsEventsWithoutSecrets() throws Exception {
+        Path dir = Files.createTempDirectory("profile");
+        PasswordLogic logic = new PasswordLogic();
+        Profiler profiler = new Profiler(dir);
+        logic.setProfiler(profiler, Set.of(42030L));
+        try {
+            Assertions.assertEquals("Неизвестная команда. Напишите /start", logic.handleMessage(42031, "/profile start"));
+            Assertions.assertTrue(logic.handleMessage(42030, "/profile").startsWith("Запись профиля не идет"));
+            Assertions.assertEquals("Запись профиля не идет", logic.handleMessage(42030, "/profile dump"));
+            Assertions.assertEquals("Запись профиля начата", logic.handleMessage(42030, "/profile start"));
+            Assertions.assertEquals("Запись профиля уже идет", logic.handleMessage(42030, "/profile start"));
+            Assertions.assertTrue(logic.handleMessage(42030, "/profile").startsWith("Запись профиля идет с "));
+
+            logic.handleMessage(42030, "/add");
+            logic.handleMessage(42030, "ProfiledService");
+            logic.handleMessage(42030, "profiled-login");
+            logic.handleMessage(42030, "2");
+            logic.handleMessage(42030, "Zq7!Profiled-Secret");
+            String generated = logic.handleMessage(42030, "/password").substring("Ваш пароль: ".length());
+            Assertions.assertTrue(logic.handleMessage(42030, "/get ProfiledService").contains("Zq7!Profiled-Secret"));
+            logic.handleMessage(42030, "Zq7!Profiled-Secret");
+
+            String dumped = logic.handleMessage(42030, "/profile dump");
+            Assertions.assertTrue(dumped.startsWith("Профиль сохранен: "), dumped);
+            Path file = Paths.get(dumped.substring("Профиль сохранен: ".length()));
+            Assertions.assertTrue(profiler.isRunning());
+
+            List<RecordedEvent> events = new ArrayList<>();
+            for (RecordedEvent e : RecordingFile.readAllEvents(file)) {
+                if (e.getEventType().getName().startsWith("org.example.")) events.add(e);
+            }
+            Set<String> types = new HashSet<>();
+            Set<String> commands = new HashSet<>();
+            boolean found = false;
+            for (RecordedEvent e : events) {
+                String type = e.getEventType().getName();
+                types.add(type);
+                if (type.equals("org.example.Command") && e.getLong("chatId") == 42030) {
+                    commands.add(e.getString("command"));
+                }
+                if (type.equals("org.example.Query") && e.getString("operation").equals("find")) {
+                    found |= e.getInt("rows") == 1;
+                }
+                for (ValueDescriptor field : e.getEventType().getFields()) {
+                    if (!field.getTypeName().equals("java.lang.String")) continue;
+                    String value = e.getString(field.getName());
+                    if (value == null) continue;
+                    for (String secret : List.of("Zq7!Profiled-Secret", generated, "profiled-login", "ProfiledService")) {
+                        Assertions.assertFalse(value.contains(secret), type + "." + field.getName() + " = " + value);
+                    }
+                }
+            }
+            Assertions.assertTrue(types.containsAll(Set.of("org.example.Command", "org.example.Query",
+                    "org.example.ConnectionOpen", "org.example.Generate")), types.toString());
+            Assertions.assertTrue(commands.containsAll(Set.of("/add", "answer", "/password", "/get", "unknown")),
+                    commands.toString());
+            Assertions.assertTrue(found, "нет события find с одной строкой");
+
+            String stopped = logic.handleMessage(42030, "/profile stop");
+            Assertions.assertTrue(stopped.startsWith("Профиль сохранен: "), stopped);
+            Assertions.assertFalse(profiler.isRunning());
+            Assertions.assertEquals("Запись профиля не идет", logic.handleMessage(42030, "/profile stop"));
+        } finally {
+            profiler.stop();
+            logic.handleMessage(42030, "/delete ProfiledService");
+            logic.handleMessage(42030, "+");
+            delete(dir);
+        }
+    }
+
+    /**
+     * Замер: стоимость событий JFR. Одни и те же команды /password и /get без записи
+     * и во время записи, время на команду.
+     */
+    @Test
+    @Tag("benchmark")
+    void benchmarkEventOverhead() throws Exception {
+        int n = 20_000;
+        Path dir = Files.createTempDirectory("profile-bench");
+        PasswordLogic logic = new PasswordLogic();
+        Profiler profiler = new Profiler(dir);
+        logic.handleMessage(42032, "/add");
+        logic.handleMessage(42032, "Bench");
+        logic.handleMessage(42032, "login");
+        logic.handleMessage(42032, "1");
+        try {
+            for (int round = 0; round < 3; round++) {
+                long off = run(logic, n);
+                profiler.start();
+                long on = run(logic, n);
+                Path file = profiler.stop();
+                System.out.printf("События JFR, проход %d: без записи %.1f мкс, с записью %.1f мкс на команду "
+                                + "(%+.1f%%), файл %d КБ%n",
+                        round + 1, off / 1e3 / n, on / 1e3 / n, (on - off) * 100.0 / off, Files.size(file) / 1024);
+            }
+        } finally {
+            profiler.stop();
+            logic.handleMessage(42032, "/delete Bench");
+            logic.handleMessage(42032, "+");
+            delete(dir);
+        }
+    }
+
+    /** Выполняет n команд /password и /get и возвращает время в наносекундах. */
+    private static long run(PasswordLogic logic, int n) {
+        long start = System.nanoTime();
+        for (int i = 0; i < n; i++) {
+            Assertions.assertNotNull(logic.handleMessage(42032, i % 2 == 0 ? "/password" : "/get Bench"));
+        }
+        return System.nanoTime() - start;
+    }
+
+    /** Удаляет каталог со всем содержимым. */
+    private static void delete(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+}
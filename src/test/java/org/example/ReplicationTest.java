@@ -0,0 +1,268 @@
+package org.example;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Тесты журнала изменений, резервной копии и ее повышения
+ */
+public class ReplicationTest {
+
+    /** Общий секрет основной базы и копий в тестах */
+    private static final byte[] SECRET = "replication-test-secret".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * Проверяет, что копия получает полную копию базы, догоняет изменения, а после
+     * перезапуска продолжает с места остановки без новой полной копии
+     */
+    @Test
+    void testReplicaFollowsPrimary() throws Exception {
+        Path dir = Files.createTempDirectory("replication");
+        String url = "jdbc:sqlite:" + dir.resolve("primary.db");
+        Path standby = dir.resolve("standby.db");
+        try {
+            PasswordDatabase primary = new PasswordDatabase(url, 1000, 1);
+            primary.save(42001, "Mail", "alice", "first");
+            primary.save(42001, "Bank", "alice", "money");
+
+            try (ReplicationServer server = new ReplicationServer(url, 0, SECRET)) {
+                server.start();
+                Replica replica = new Replica(standby, "127.0.0.1", server.getPort(), SECRET);
+                replica.start();
+                Assertions.assertTrue(replica.awaitSynced(10_000));
+                Assertions.assertEquals(1, replica.getSnapshots());
+
+                primary.save(42001, "Mail", "alice", "second");
+                primary.delete(42001, "Bank");
+                primary.saveRotation(new RotationScheduler.Task(42001, "Mail", 1000, 5000));
+                Assertions.assertTrue(replica.awaitApplied(head(url), 10_000));
+                replica.close();
+                for (String db : new String[] {url, "jdbc:sqlite:" + standby}) {
+                    Assertions.assertEquals(0, logged(db, "money"), "удаленный пароль остался в журнале " + db);
+                    Assertions.assertEquals(0, logged(db, "second"), db);
+                }
+
+                PasswordDatabase copy = new PasswordDatabase("jdbc:sqlite:" + standby, 1000, 1);
+                Assertions.assertEquals("second", copy.find(42001, "Mail").getPassword());
+                Assertions.assertNull(copy.find(42001, "Bank"));
+                Assertions.assertEquals(1, copy.history(42001, "Mail").size());
+                Assertions.assertEquals(1, copy.listRotations().size());
+
+                primary.save(42001, "Shop", "bob", "cart");
+                Replica resumed = new Replica(standby, "127.0.0.1", server.getPort(), SECRET);
+                resumed.start();
+                Assertions.assertTrue(resumed.awaitApplied(head(url), 10_000));
+                Assertions.assertEquals(0, resumed.getSnapshots());
+                Assertions.assertEquals(1, server.getSnapshots());
+                Assertions.assertEquals("cart", copy.find(42001, "Shop").getPassword());
+
+                long before = head("jdbc:sqlite:" + standby);
+                copy.save(42001, "Local", "eve", "x");
+                Assertions.assertEquals(before, head("jdbc:sqlite:" + standby), "копия не пишет свой журнал");
+                copy.delete(42001, "Local");
+
+                resumed.promote();
+                copy.save(42001, "Local", "eve", "y");
+                Assertions.assertEquals(before + 1, head("jdbc:sqlite:" + standby));
+            }
+        } finally {
+            delete(dir);
+        }
+    }
+
+    /**
+     * Проверяет, что подключение с чужим секретом закрывается, не получив ни одного байта базы
+     */
+    @Test
+    void testWrongSecretGetsNothing() throws Exception {
+        Path dir = Files.createTempDirectory("replication");
+        String url = "jdbc:sqlite:" + dir.resolve("primary.db");
+        try {
+            PasswordDatabase primary = new PasswordDatabase(url, 1000, 1);
+            primary.save(42053, "Mail", "alice", "secret");
+            try (ReplicationServer server = new ReplicationServer(url, 0, SECRET);
+                 Socket s = new Socket("127.0.0.1", server.getPort())) {
+                server.start();
+                s.setSoTimeout(5000);
+                DataInputStream in = new DataInputStream(s.getInputStream());
+                DataOutputStream out = new DataOutputStream(s.getOutputStream());
+                byte[] challenge = new byte[ReplicationServer.CHALLENGE_BYTES];
+                in.readFully(challenge);
+                byte[] wrong = "another-secret-value".getBytes(StandardCharsets.UTF_8);
+                out.write(ReplicationServer.proof(wrong, challenge));
+                out.writeByte(1);
+                out.writeByte('x');
+                out.writeLong(0);
+                out.flush();
+                Assertions.assertEquals(-1, in.read());
+            }
+            Assertions.assertThrows(IllegalArgumentException.class,
+                    () -> new ReplicationServer(url, 0, "short".getBytes(StandardCharsets.UTF_8)));
+        } finally {
+            delete(dir);
+        }
+    }
+
+    /**
+     * Проверяет резервную копию в отдельном процессе: бот копии отвечает на /get по данным
+     * основной базы, отклоняет записи, видит новые изменения, а после появления файла
+     * повышения принимает записи
+     */
+    @Test
+    void testStandbyProcessServesReadsAndPromotes() throws Exception {
+        Path dir = Files.createTempDirectory("standby");
+        String url = "jdbc:sqlite:" + dir.resolve("primary.db");
+        Path home = Files.createDirectories(dir.resolve("standby"));
+        Process process = null;
+        try (StubTelegramApi api = StubTelegramApi.start()) {
+            PasswordDatabase primary = new PasswordDatabase(url, 1000, 1);
+            primary.save(42002, "Bank", "alice", "pw1");
+            try (ReplicationServer server = new ReplicationServer(url, 0, SECRET)) {
+                server.start();
+                ProcessBuilder pb = new ProcessBuilder(ProcessHandle.current().info().command().orElse("java"),
+                        "-cp", System.getProperty("java.class.path"), "org.example.Main")
+                        .directory(home.toFile()).redirectErrorStream(true)
+                        .redirectOutput(ProcessBuilder.Redirect.DISCARD);
+                pb.environment().put("TOKEN_BOT", "standby");
+                pb.environment().put("TELEGRAM_API_URL", api.url());
+                pb.environment().put("REPLICA_OF", "127.0.0.1:" + server.getPort());
+                pb.environment().put("REPLICATION_SECRET", new String(SECRET, StandardCharsets.UTF_8));
+                process = pb.start();
+
+                Assertions.assertTrue(ask(api, 42002, "/get Bank", 60_000).contains("Пароль: pw1"));
+                Assertions.assertTrue(ask(api, 42002, "/add", 10_000).startsWith("Бот работает на резервной копии"));
+
+                primary.save(42002, "Bank", "alice", "pw2");
+                long deadline = System.currentTimeMillis() + 10_000;
+                String got = "";
+                while (!got.contains("pw2") && System.currentTimeMillis() < deadline) {
+                    got = ask(api, 42002, "/get Bank", 10_000);
+                }
+                Assertions.assertTrue(got.contains("Пароль: pw2"), got);
+
+                Files.createFile(home.resolve("promote"));
+                deadline = System.currentTimeMillis() + 10_000;
+                while (Files.exists(home.resolve("promote")) && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(50);
+                }
+                Assertions.assertTrue(ask(api, 42002, "/add", 10_000).startsWith("Введите название сервиса"));
+            }
+        } finally {
+            if (process != null) {
+                process.destroy();
+                process.waitFor();
+            }
+            delete(dir);
+        }
+    }
+
+    /**
+     * Замер: отставание копии при постоянной записи в основную базу.
+     * Основной поток пишет WRITES записей с частотой RATE в секунду, отставание копии
+     * снимается каждые 10 мс; в конце - время, за которое копия догоняет основную базу.
+     */
+    @Test
+    @Tag("benchmark")
+    void benchmarkReplicationLag() throws Exception {
+        int writes = 3000;
+        int rate = 200;
+        Path dir = Files.createTempDirectory("replication-lag");
+        String url = "jdbc:sqlite:" + dir.resolve("primary.db");
+        try (ReplicationServer server = new ReplicationServer(url, 0, SECRET)) {
+            PasswordDatabase primary = new PasswordDatabase(url, 1000, 1);
+            server.start();
+            Replica replica = new Replica(dir.resolve("standby.db"), "127.0.0.1", server.getPort(), SECRET);
+            replica.start();
+            Assertions.assertTrue(replica.awaitSynced(10_000));
+
+            List<Long> lags = Collections.synchronizedList(new ArrayList<>());
+            Thread sampler = new Thread(() -> {
+                try {
+                    while (!Thread.currentThread().isInterrupted()) {
+                        lags.add(replica.getLagMillis());
+                        Thread.sleep(10);
+                    }
+                } catch (InterruptedException e) {
+
+                }
+            });
+            sampler.start();
+            long start = System.nanoTime();
+            for (int i = 0; i < writes; i++) {
+                primary.save(42003 + i % 50, "Service" + i, "login", "password" + i);
+                long ahead = start + (i + 1) * 1_000_000_000L / rate - System.nanoTime();
+                if (ahead > 0) Thread.sleep(ahead / 1_000_000, (int) (ahead % 1_000_000));
+            }
+            long written = System.nanoTime();
+            Assertions.assertTrue(replica.awaitApplied(head(url), 60_000));
+            long caughtUp = System.nanoTime();
+            sampler.interrupt();
+            sampler.join();
+            replica.close();
+
+            List<Long> sorted = new ArrayList<>(lags);
+            Collections.sort(sorted);
+            System.out.printf("Репликация %d записей (%.0f в секунду): отставание p50 %d мс, p99 %d мс, "
+                            + "наибольшее %d мс, догнала через %.1f мс после последней записи%n",
+                    writes, writes / ((written - start) / 1e9),
+                    sorted.get(sorted.size() / 2), sorted.get(sorted.size() * 99 / 100),
+                    replica.getMaxLagMillis(), (caughtUp - written) / 1e6);
+        } finally {
+            delete(dir);
+        }
+    }
+
+    /** Возвращает номер последнего изменения в журнале базы url. */
+    private static long head(String url) throws SQLException {
+        try (Connection c = DriverManager.getConnection(url)) {
+            return ChangeLog.head(c);
+        }
+    }
+
+    /** Возвращает, в скольких строках журнала изменений базы url встречается значение value. */
+    private static long logged(String url, String value) throws SQLException {
+        try (Connection c = DriverManager.getConnection(url);
+             PreparedStatement ps = c.prepareStatement(
+                     "SELECT COUNT(*) FROM change_log WHERE ? IN (v1, v2, v3, v4, v5, v6);")) {
+            ps.setString(1, value);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getLong(1) : 0;
+            }
+        }
+    }
+
+    /** Отправляет сообщение боту копии и ждет его ответ. */
+    private static String ask(StubTelegramApi api, long chatId, String text, long timeoutMs) throws InterruptedException {
+        api.send("standby", chatId, text);
+        StubTelegramApi.Reply reply = api.awaitReply(timeoutMs);
+        Assertions.assertNotNull(reply, "нет ответа на " + text);
+        return reply.getText();
+    }
+
+    /** Удаляет каталог со всем содержимым. */
+    private static void delete(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package org.example;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+/**
+ * Тесты планировщика плановой смены паролей на смоделированных часах
+ */
+public class RotationSchedulerTest {
+
+    /**
+     * Проверяет, что задачи извлекаются только после наступления срока и по порядку
+     */
+    @Test
+    void testPollReturnsOnlyDueTasksInOrder() {
+        RotationScheduler scheduler = new RotationScheduler();
+        scheduler.schedule(new RotationScheduler.Task(1, "b", 100, 200));
+        scheduler.schedule(new RotationScheduler.Task(1, "a", 100, 100));
+        scheduler.schedule(new RotationScheduler.Task(2, "c", 100, 300));
+
+        Assertions.assertTrue(scheduler.pollDue(99, 10).isEmpty());
+
+        List<RotationScheduler.Task> due = scheduler.pollDue(200, 10);
+        Assertions.assertEquals(2, due.size());
+        Assertions.assertEquals("a", due.get(0).getService());
+        Assertions.assertEquals("b", due.get(1).getService());
+        Assertions.assertEquals(1, scheduler.size());
+    }
+
+    /**
+     * Проверяет, что перепланирование и отмена отменяют прежний срок
+     */
+    @Test
+    void testRescheduleAndCancel() {
+        RotationScheduler scheduler = new RotationScheduler();
+        scheduler.schedule(new RotationScheduler.Task(1, "a", 100, 100));
+        scheduler.schedule(new RotationScheduler.Task(1, "a", 500, 500));
+        scheduler.schedule(new RotationScheduler.Task(1, "b", 100, 100));
+        scheduler.cancel(1, "b");
+
+        Assertions.assertTrue(scheduler.pollDue(499, 10).isEmpty());
+        List<RotationScheduler.Task> due = scheduler.pollDue(500, 10);
+        Assertions.assertEquals(1, due.size());
+        Assertions.assertEquals(500, due.get(0).getIntervalMs());
+        Assertions.assertEquals(0, scheduler.size());
+    }
+
+    /**
+     * Проверяет, что продолжение извлеченной задачи не заменяет смену, назначенную заново
+     */
+    @Test
+    void testScheduleIfAbsentKeepsNewerTask() {
+        RotationScheduler scheduler = new RotationScheduler();
+        scheduler.schedule(new RotationScheduler.Task(1, "a", 100, 100));
+        RotationScheduler.Task polled = scheduler.pollDue(100, 10).get(0);
+        scheduler.schedule(new RotationScheduler.Task(1, "a", 700, 800));
+
+        scheduler.scheduleIfAbsent(polled.next(100));
+        Assertions.assertEquals(700, scheduler.get(1, "a").getIntervalMs());
+
+        scheduler.cancel(1, "a");
+        scheduler.scheduleIfAbsent(polled.next(100));
+        Assertions.assertEquals(200, scheduler.get(1, "a").getDueAt());
+    }
+
+    /**
+     * Проверяет, что созревшая задача не меняет пароль, если смену после ее извлечения
+     * отключили или переназначили с другим интервалом
+     */
+    @Test
+    void testRotateSkipsCancelledOrChangedSchedule() {
+        PasswordDatabase db = new PasswordDatabase();
+        db.save(42056, "Rescheduled", "login", "initial");
+        RotationScheduler.Task task = new RotationScheduler.Task(42056, "Rescheduled", 1000, 5000);
+        db.saveRotation(task);
+
+        db.saveRotation(new RotationScheduler.Task(42056, "Rescheduled", 3000, 8000));
+        Assertions.assertTrue(db.rotate(List.of(task), 6000, t -> "rotated", t -> 5).isEmpty());
+        Assertions.assertEquals("initial", db.find(42056, "Rescheduled").getPassword());
+
+        db.deleteRotation(42056, "Rescheduled");
+        Assertions.assertTrue(db.rotate(List.of(task), 6000, t -> "rotated", t -> 5).isEmpty());
+        Assertions.assertEquals("initial", db.find(42056, "Rescheduled").getPassword());
+
+        db.saveRotation(task);
+        Assertions.assertEquals("rotated", db.rotate(List.of(task), 6000, t -> "rotated", t -> 5).get(task));
+        Assertions.assertEquals("rotated", db.find(42056, "Rescheduled").getPassword());
+        db.delete(42056, "Rescheduled");
+    }
+
+    /**
+     * Проверяет, что следующий срок считается от прежнего, а после простоя - от текущего момента
+     */
+    @Test
+    void testNextDue() {
+        RotationScheduler.Task task = new RotationScheduler.Task(1, "a", 100, 1000);
+        Assertions.assertEquals(1100, task.next(1010).getDueAt());
+        Assertions.assertEquals(1600, task.next(1500).getDueAt());
+    }
+
+    /**
+     * Проверяет, что извлечение ограничено размером пачки и что большое
+     * количество задач отрабатывается полностью
+     */
+    @Test
+    void testBatchedPollOverManyTasks() {
+        RotationScheduler scheduler = new RotationScheduler();
+        int count = 200_000;
+        for (int i = 0; i < count; i++) {
+            scheduler.schedule(new RotationScheduler.Task(i, "s", 1000, i % 1000));
+        }
+
+        Assertions.assertEquals(100, scheduler.pollDue(1000, 100).size());
+
+        int total = 100;
+        List<RotationScheduler.Task> due;
+        while (!(due = scheduler.pollDue(1000, 100)).isEmpty()) {
+            total += due.size();
+            for (RotationScheduler.Task t : due) {
+                Assertions.assertTrue(t.getDueAt() <= 1000);
+            }
+        }
+        Assertions.assertEquals(count, total);
+        Assertions.assertEquals(0, scheduler.size());
+    }
+}
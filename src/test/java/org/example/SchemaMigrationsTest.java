@@ -0,0 +1,271 @@
+package org.example;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Тесты миграций схемы
+ */
+public class SchemaMigrationsTest {
+
+    /**
+     * Проверяет, что миграции применяются по порядку и только один раз
+     */
+    @Test
+    void testAppliesPendingMigrationsOnce() throws Exception {
+        Path file = Files.createTempFile("migrations", ".db");
+        String url = "jdbc:sqlite:" + file;
+        try {
+            AtomicInteger applied = new AtomicInteger();
+            List<SchemaMigrations.Migration> list = new ArrayList<>();
+            list.add(new SchemaMigrations.Migration(1, "a", c -> {
+                applied.incrementAndGet();
+                execute(c, "CREATE TABLE a (x INTEGER);");
+            }));
+            list.add(new SchemaMigrations.Migration(2, "b", c -> {
+                applied.incrementAndGet();
+                execute(c, "ALTER TABLE a ADD COLUMN y INTEGER;");
+            }));
+            Assertions.assertEquals(2, new SchemaMigrations(url, list, 100, 1).migrate());
+            Assertions.assertEquals(2, new SchemaMigrations(url, list, 100, 1).migrate());
+            Assertions.assertEquals(2, applied.get());
+
+            list.add(new SchemaMigrations.Migration(5, "c", c -> {
+                applied.incrementAndGet();
+                execute(c, "CREATE INDEX a_y ON a(y);");
+            }));
+            Assertions.assertEquals(5, new SchemaMigrations(url, list, 100, 1).migrate());
+            Assertions.assertEquals(3, applied.get());
+            Assertions.assertEquals(3, count(url, "SELECT COUNT(*) FROM schema_version;"));
+
+            Assertions.assertThrows(IllegalArgumentException.class,
+                    () -> new SchemaMigrations(url, List.of(list.get(1), list.get(0)), 100, 1));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * Проверяет, что неудачная миграция откатывается вместе с записью о версии
+     */
+    @Test
+    void testFailedMigrationRollsBack() throws Exception {
+        Path file = Files.createTempFile("migrations", ".db");
+        String url = "jdbc:sqlite:" + file;
+        try {
+            List<SchemaMigrations.Migration> list = List.of(
+                    new SchemaMigrations.Migration(1, "a", c -> execute(c, "CREATE TABLE a (x INTEGER);")),
+                    new SchemaMigrations.Migration(2, "broken", c -> {
+                        execute(c, "CREATE TABLE b (x INTEGER);");
+                        execute(c, "ALTER TABLE missing ADD COLUMN y INTEGER;");
+                    }));
+            Assertions.assertThrows(SQLException.class, () -> new SchemaMigrations(url, list, 100, 1).migrate());
+            Assertions.assertEquals(1, count(url, "SELECT MAX(version) FROM schema_version;"));
+            Assertions.assertEquals(0, count(url, "SELECT COUNT(*) FROM sqlite_master WHERE name = 'b';"));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * Проверяет, что прерванное заполнение продолжается с сохраненной позиции
+     * и каждая строка обрабатывается ровно один раз
+     */
+    @Test
+    void testBackfillResumesAfterStop() throws Exception {
+        Path file = Files.createTempFile("migrations", ".db");
+        String url = "jdbc:sqlite:" + file;
+        try {
+            int rows = 10_000;
+            try (Connection c = DriverManager.getConnection(url)) {
+                execute(c, "CREATE TABLE t (n INTEGER NOT NULL DEFAULT 0);");
+                c.setAutoCommit(false);
+                try (PreparedStatement ps = c.prepareStatement("INSERT INTO t(n) VALUES (0);")) {
+                    for (int i = 0; i < rows; i++) ps.executeUpdate();
+                }
+                c.commit();
+            }
+
+            AtomicInteger chunks = new AtomicInteger();
+            SchemaMigrations.Backfill increment = (c, after, limit) -> {
+                chunks.incrementAndGet();
+                long last = -1;
+                try (PreparedStatement sel = c.prepareStatement(
+                        "SELECT rowid AS row_id FROM t WHERE rowid > ? ORDER BY rowid LIMIT ?;");
+                     PreparedStatement upd = c.prepareStatement("UPDATE t SET n = n + 1 WHERE rowid = ?;")) {
+                    sel.setLong(1, after);
+                    sel.setInt(2, limit);
+                    try (ResultSet rs = sel.executeQuery()) {
+                        while (rs.next()) {
+                            last = rs.getLong("row_id");
+                            upd.setLong(1, last);
+                            upd.executeUpdate();
+                        }
+                    }
+                }
+                return last;
+            };
+            List<SchemaMigrations.Migration> list = List.of(
+                    new SchemaMigrations.Migration(1, "t.n", c -> { }, increment));
+
+            SchemaMigrations slow = new SchemaMigrations(url, list, 100, 0.01);
+            slow.migrate();
+            slow.startBackfills();
+            while (chunks.get() < 3) Thread.sleep(1);
+            slow.close();
+            long done = count(url, "SELECT COUNT(*) FROM t WHERE n = 1;");
+            Assertions.assertTrue(done >= 200 && done < rows, "обработано " + done);
+
+            SchemaMigrations resumed = new SchemaMigrations(url, list, 1000, 1);
+            Assertions.assertEquals(1, resumed.migrate());
+            resumed.startBackfills();
+            Assertions.assertTrue(resumed.awaitBackfills(30_000));
+            Assertions.assertEquals(rows, count(url, "SELECT COUNT(*) FROM t WHERE n = 1;"));
+            Assertions.assertEquals(1, count(url, "SELECT backfill_done FROM schema_version WHERE version = 1;"));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * Переводит базу старого формата с 20 000 записей на текущую схему, пока несколько
+     * потоков читают и пишут записи: все операции проходят, а после заполнения у всех
+     * старых строк есть отпечатки пароля, и повторы среди них находятся
+     */
+    @Test
+    void testOnlineMigration() throws Exception {
+        migrateOnline(2_000, 10);
+    }
+
+    /**
+     * Замер: то же на 1 000 000 записей - время схемы и заполнения и задержка операций под нагрузкой
+     */
+    @Test
+    @Tag("benchmark")
+    void benchmarkOnlineMigrationOfMillionRows() throws Exception {
+        migrateOnline(100_000, 10);
+    }
+
+    /**
+     * Создает базу старого формата с users * perUser записями, переводит ее на текущую схему
+     * под нагрузкой четырех потоков и проверяет результат.
+     */
+    private static void migrateOnline(int users, int perUser) throws Exception {
+        Path file = Files.createTempFile("legacy", ".db");
+        String url = "jdbc:sqlite:" + file;
+        try {
+            try (Connection c = DriverManager.getConnection(url)) {
+                execute(c, """
+                    CREATE TABLE credentials (
+                        user_id INTEGER NOT NULL,
+                        service TEXT NOT NULL,
+                        login TEXT NOT NULL,
+                        password TEXT NOT NULL,
+                        PRIMARY KEY (user_id, service)
+                    );
+                    """);
+                c.setAutoCommit(false);
+                try (PreparedStatement ps = c.prepareStatement("INSERT INTO credentials VALUES (?, ?, ?, ?);")) {
+                    for (int u = 0; u < users; u++) {
+                        for (int s = 0; s < perUser; s++) {
+                            ps.setLong(1, u);
+                            ps.setString(2, "svc" + s);
+                            ps.setString(3, "user" + u);
+                            ps.setString(4, "pass" + u + "_" + Math.max(s, 1));
+                            ps.addBatch();
+                        }
+                        if (u % 1000 == 999) ps.executeBatch();
+                    }
+                }
+                c.commit();
+            }
+
+            long start = System.nanoTime();
+            PasswordDatabase db = new PasswordDatabase(url, 5000, 0.5);
+            long schemaMs = (System.nanoTime() - start) / 1_000_000;
+            Assertions.assertTrue(count(url, "SELECT COUNT(*) FROM credentials WHERE fingerprint IS NULL;") > 0,
+                    "заполнение должно идти в фоне, а не в конструкторе");
+
+            AtomicLong ops = new AtomicLong();
+            AtomicLong errors = new AtomicLong();
+            AtomicLong maxNanos = new AtomicLong();
+            List<Thread> load = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                int thread = t;
+                Thread th = new Thread(() -> {
+                    Random random = new Random(thread);
+                    int i = 0;
+                    try {
+                        while (!db.awaitMigrations(0)) {
+                            long begin = System.nanoTime();
+                            int u = random.nextInt(users);
+                            PasswordDatabase.Entry old = db.find(u, "svc" + random.nextInt(perUser));
+                            if (old == null || !old.getLogin().equals("user" + u)) errors.incrementAndGet();
+                            String service = "new" + thread + "_" + (i++ % 50);
+                            db.save(users + thread, service, "login", "pw" + i);
+                            PasswordDatabase.Entry saved = db.find(users + thread, service);
+                            if (saved == null || !saved.getPassword().equals("pw" + i)) errors.incrementAndGet();
+                            maxNanos.accumulateAndGet(System.nanoTime() - begin, Math::max);
+                            ops.incrementAndGet();
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+                load.add(th);
+                th.start();
+            }
+            Assertions.assertTrue(db.awaitMigrations(300_000));
+            long migrationMs = (System.nanoTime() - start) / 1_000_000;
+            for (Thread th : load) th.join();
+
+            System.out.printf("Миграция %d строк: схема %d мс, заполнение %d мс; " +
+                            "под нагрузкой %d операций, максимум %.1f мс%n",
+                    users * perUser, schemaMs, migrationMs, ops.get(), maxNanos.get() / 1e6);
+            Assertions.assertEquals(0, errors.get());
+            Assertions.assertTrue(ops.get() > 0);
+            Assertions.assertEquals(0, count(url, "SELECT COUNT(*) FROM credentials WHERE fingerprint IS NULL;"));
+            Assertions.assertEquals(6, count(url, "SELECT MAX(version) FROM schema_version;"));
+            Assertions.assertEquals(0, count(url, "SELECT COUNT(*) FROM schema_version WHERE backfill_done = 0;"));
+            List<List<String>> reused = db.findReusedPasswords(0);
+            Assertions.assertEquals(1, reused.size());
+            Assertions.assertEquals(Set.of("svc0", "svc1"), Set.copyOf(reused.get(0)));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /** Выполняет SQL-команды по очереди. */
+    private static void execute(Connection c, String... sql) throws SQLException {
+        try (Statement st = c.createStatement()) {
+            for (String s : sql) {
+                st.execute(s);
+            }
+        }
+    }
+
+    /** Возвращает число из первой колонки первой строки запроса. */
+    private static long count(String url, String sql) throws SQLException {
+        try (Connection c = DriverManager.getConnection(url);
+             Statement st = c.createStatement();
+             ResultSet rs = st.executeQuery(sql)) {
+            return rs.next() ? rs.getLong(1) : -1;
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package org.example;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Тесты буферов секретов вне кучи и их пула
+ */
+public class SecretPoolTest {
+
+    /**
+     * Проверяет, что close() затирает секрет и возвращает память в пул, повторный close()
+     * ничего не делает даже после повторной выдачи, а при пустом пуле выдается буфер вне пула
+     */
+    @Test
+    void testBuffersAreWipedAndReused() {
+        SecretPool pool = new SecretPool(1, 8);
+        SecretBuffer first = pool.acquire();
+        first.append("secret");
+        Assertions.assertEquals("secret", first.toString());
+        Assertions.assertEquals(0, pool.available());
+
+        try (SecretBuffer extra = pool.acquire()) {
+            Assertions.assertNotSame(first, extra);
+            Assertions.assertEquals(1, pool.getMisses());
+        }
+        Assertions.assertEquals(0, pool.available());
+
+        first.close();
+        first.close();
+        Assertions.assertEquals(1, pool.available());
+        Assertions.assertEquals(0, first.length());
+        try (SecretBuffer again = pool.acquire()) {
+            Assertions.assertNotSame(first, again);
+            again.append("ab");
+            Assertions.assertEquals("ab", again.toString());
+            Assertions.assertThrows(IndexOutOfBoundsException.class, () -> again.charAt(2));
+
+            first.close();
+            first.append("late");
+            Assertions.assertEquals("ab", again.toString(), "запоздалый close() не трогает нового владельца");
+            Assertions.assertEquals(0, pool.available());
+        }
+        Assertions.assertEquals(1, pool.available());
+        Assertions.assertEquals(1, pool.getMisses());
+    }
+
+    /**
+     * Проверяет рост буфера сверх размера пула: секрет сохраняется целиком, а после close()
+     * в пул возвращается исходный буфер
+     */
+    @Test
+    void testBufferGrowsBeyondPoolCapacity() {
+        SecretPool pool = new SecretPool(1, 4);
+        try (SecretBuffer b = pool.acquire()) {
+            b.append("abc").append("defgh").append('i');
+            Assertions.assertEquals("abcdefghi", b.toString());
+            Assertions.assertTrue(b.capacity() >= 9);
+            b.swap(0, 8);
+            b.set(1, 'X');
+            Assertions.assertEquals("iXcdefgha", b.toString());
+        }
+        try (SecretBuffer b = pool.acquire()) {
+            Assertions.assertEquals(4, b.capacity());
+            Assertions.assertEquals(0, b.length());
+        }
+        Assertions.assertEquals(0, pool.getMisses());
+    }
+
+    /**
+     * Проверяет сборку ответа и генерацию в буфер: пароль из буфера совпадает с паролем
+     * той же политики и того же seed в виде строки
+     */
+    @Test
+    void testGenerateIntoBuffer() {
+        PasswordPolicy policy = new PasswordPolicy.Builder().length(20).digits(2).upper(2).lower(1).special(1).build();
+        String expected = policy.generate(new Random(7));
+        try (SecretBuffer b = SecretPool.shared().acquire()) {
+            b.append("> ");
+            policy.generate(new Random(7), b);
+            Assertions.assertEquals("> " + expected, b.toString());
+            Assertions.assertEquals("Пароль: > " + expected + "!", SecretBuffer.join("Пароль: ", b, "!"));
+        }
+    }
+
+    /**
+     * Проверяет BufferedSecureRandom: числа в границах, все значения встречаются примерно
+     * поровну, а семя не делает последовательность повторяемой
+     */
+    @Test
+    void testBufferedSecureRandom() {
+        BufferedSecureRandom random = new BufferedSecureRandom();
+        int[] counts = new int[10];
+        for (int i = 0; i < 100_000; i++) counts[random.nextInt(10)]++;
+        for (int c : counts) Assertions.assertTrue(c > 9000 && c < 11_000, String.valueOf(c));
+
+        BufferedSecureRandom a = new BufferedSecureRandom();
+        BufferedSecureRandom b = new BufferedSecureRandom();
+        a.setSeed(1);
+        b.setSeed(1);
+        Assertions.assertNotEquals(a.nextLong(), b.nextLong());
+    }
+
+    /**
+     * Проверяет, что отпечаток кодирует символы в UTF-8 так же, как String.getBytes,
+     * поэтому отпечатки, сохраненные раньше, совпадают с новыми
+     */
+    @Test
+    void testUtf8MatchesStringEncoding() throws Exception {
+        SecretKeySpec key = new SecretKeySpec(new byte[32], "HmacSHA256");
+        List<String> samples = List.of("", "plain", "пароль", "日本語", "😀x", "a\uD800b", "\uDC00", "end\uD83D",
+                "ß€𝄞ÿ߿ࠀ￿");
+        for (String s : samples) {
+            Mac expected = Mac.getInstance("HmacSHA256");
+            expected.init(key);
+            Mac actual = Mac.getInstance("HmacSHA256");
+            actual.init(key);
+            PasswordDatabase.updateUtf8(actual, s);
+            Assertions.assertEquals(HexFormat.of().formatHex(expected.doFinal(s.getBytes(StandardCharsets.UTF_8))),
+                    HexFormat.of().formatHex(actual.doFinal()), s);
+        }
+    }
+
+    /**
+     * Замер: память кучи, выделенная на операцию: /password, /add с генерацией и save
+     * (с соединением SQLite), и на генерацию пароля: строкой с SecureRandom, как раньше,
+     * против генерации в буфер пула с BufferedSecureRandom.
+     */
+    @Test
+    @Tag("benchmark")
+    void benchmarkSecretAllocation() {
+        PasswordLogic logic = new PasswordLogic();
+        PasswordDatabase db = new PasswordDatabase();
+        PasswordPolicy policy = new PasswordPolicy.Builder().length(16).digits(1).upper(1).lower(1).special(1).build();
+        SecureRandom random = new SecureRandom();
+        BufferedSecureRandom buffered = new BufferedSecureRandom();
+        for (int round = 0; round < 3; round++) {
+            int n = 20_000;
+            long a = allocated();
+            for (int i = 0; i < n; i++) Assertions.assertNotNull(logic.handleMessage(42033, "/password"));
+            long password = (allocated() - a) / n;
+
+            int m = 2000;
+            a = allocated();
+            for (int i = 0; i < m; i++) {
+                logic.handleMessage(42033, "/add");
+                logic.handleMessage(42033, "Alloc");
+                logic.handleMessage(42033, "login");
+                logic.handleMessage(42033, "1");
+            }
+            long add = (allocated() - a) / m;
+
+            a = allocated();
+            for (int i = 0; i < m; i++) db.save(42033, "Alloc2", "login", "Zq7!secret-" + (i & 7));
+            long save = (allocated() - a) / m;
+
+            a = allocated();
+            for (int i = 0; i < n; i++) Assertions.assertEquals(16, policy.generate(random).length());
+            long asString = (allocated() - a) / n;
+
+            a = allocated();
+            for (int i = 0; i < n; i++) {
+                try (SecretBuffer b = SecretPool.shared().acquire()) {
+                    policy.generate(buffered, b);
+                    Assertions.assertEquals(16, b.length());
+                }
+            }
+            long inBuffer = (allocated() - a) / n;
+
+            System.out.printf("Проход %d, байт кучи на операцию: /password %d, /add с генерацией %d, save %d; "
+                            + "генерация строкой %d, в буфер %d; промахов пула %d%n",
+                    round + 1, password, add, save, asString, inBuffer, SecretPool.shared().getMisses());
+        }
+        db.delete(42033, "Alloc");
+        db.delete(42033, "Alloc2");
+    }
+
+    /** Возвращает, сколько байт кучи выделил текущий поток. */
+    private static long allocated() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getCurrentThreadAllocatedBytes();
+    }
+}
@@ -0,0 +1,132 @@
+package org.example;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Тесты хранилища одноразовых ссылок
+ */
+public class ShareStoreTest {
+
+    /**
+     * Проверяет срок действия: ссылка действует до срока и убирается колесом после него
+     */
+    @Test
+    void testShareExpires() {
+        ShareStore store = new ShareStore(10, 1000, 8);
+        ShareStore.Share share = store.put(1, "Mail", 5000, 0);
+        Assertions.assertSame(share, store.find(share.getToken(), 4999));
+        Assertions.assertNull(store.find(share.getToken(), 5000));
+        Assertions.assertEquals(1, store.size());
+        Assertions.assertEquals(1, store.expire(6000));
+        Assertions.assertEquals(0, store.size());
+        Assertions.assertEquals(1, store.getExpired());
+    }
+
+    /**
+     * Проверяет ссылку со сроком длиннее оборота колеса: она переживает проходы колеса
+     * до своего срока
+     */
+    @Test
+    void testTtlLongerThanWheel() {
+        ShareStore store = new ShareStore(10, 1000, 4);
+        ShareStore.Share share = store.put(1, "Mail", 10_000, 0);
+        store.expire(3000);
+        store.expire(7000);
+        Assertions.assertSame(share, store.find(share.getToken(), 9999));
+        Assertions.assertEquals(1, store.expire(11_000));
+        Assertions.assertEquals(0, store.size());
+    }
+
+    /**
+     * Проверяет одноразовость, ограничение размера и неверные токены
+     */
+    @Test
+    void testOneTimeAndBounded() {
+        ShareStore store = new ShareStore(2, 1000, 8);
+        ShareStore.Share a = store.put(1, "A", 60_000, 0);
+        ShareStore.Share b = store.put(1, "B", 60_000, 0);
+        Assertions.assertNull(store.put(1, "C", 60_000, 0));
+        Assertions.assertTrue(store.remove(a));
+        Assertions.assertFalse(store.remove(a));
+        Assertions.assertNull(store.find(a.getToken(), 1));
+        Assertions.assertNotNull(store.put(1, "C", 60_000, 0));
+        Assertions.assertEquals("B", store.find(b.getToken(), 1).getService());
+        Assertions.assertNull(store.find("abc", 1));
+        Assertions.assertNull(store.find("!!!", 1));
+        Assertions.assertEquals(22, b.getToken().length());
+    }
+
+    /**
+     * Проверяет сохранение и загрузку: истекшие к моменту загрузки ссылки пропускаются
+     */
+    @Test
+    void testSaveAndLoad() throws Exception {
+        Path file = Files.createTempFile("shares", ".bin");
+        try {
+            ShareStore store = new ShareStore(10, 1000, 8);
+            ShareStore.Share shortLived = store.put(1, "Short", 2000, 0);
+            ShareStore.Share longLived = store.put(2, "Long", 60_000, 0);
+            store.save(file, 1000);
+
+            ShareStore loaded = new ShareStore(10, 1000, 8);
+            Assertions.assertEquals(1, loaded.load(file, 3000));
+            Assertions.assertNull(loaded.find(shortLived.getToken(), 3000));
+            ShareStore.Share restored = loaded.find(longLived.getToken(), 3000);
+            Assertions.assertEquals(2, restored.getOwnerId());
+            Assertions.assertEquals("Long", restored.getService());
+            Assertions.assertEquals(60_000, restored.getExpiresAt());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * Замер: миллионы действующих ссылок. Время создания, поиска с удалением и истечения
+     * на ссылку и память кучи на ссылку.
+     */
+    @Test
+    @Tag("benchmark")
+    void benchmarkMillionsOfShares() {
+        int n = 3_000_000;
+        ShareStore store = new ShareStore(n, 1000, 1024);
+        ShareStore.Share[] shares = new ShareStore.Share[n];
+        long before = usedHeap();
+        long start = System.nanoTime();
+        for (int i = 0; i < n; i++) {
+            shares[i] = store.put(i, "Service", 60_000 + i % 600_000, 0);
+        }
+        long putNanos = System.nanoTime() - start;
+        long perShare = (usedHeap() - before) / n;
+
+        String[] tokens = new String[n / 2];
+        for (int i = 0; i < tokens.length; i++) tokens[i] = shares[i * 2].getToken();
+        start = System.nanoTime();
+        for (String token : tokens) {
+            store.remove(store.find(token, 1));
+        }
+        long redeemNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        int expired = store.expire(700_000);
+        long expireNanos = System.nanoTime() - start;
+
+        System.out.printf("%d ссылок: создание %.0f нс, поиск и удаление %.0f нс, истечение %.0f нс на ссылку, "
+                        + "%d байт кучи на ссылку%n",
+                n, (double) putNanos / n, (double) redeemNanos / tokens.length,
+                (double) expireNanos / Math.max(1, expired), perShare);
+        Assertions.assertEquals(n - tokens.length, expired);
+        Assertions.assertEquals(0, store.size());
+    }
+
+    /** Возвращает занятую кучу после сборки мусора. */
+    private static long usedHeap() {
+        Runtime rt = Runtime.getRuntime();
+        System.gc();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+}
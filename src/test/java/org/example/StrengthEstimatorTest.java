@@ -0,0 +1,126 @@
+package org.example;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+/**
+ * Тесты оценки надёжности паролей
+ */
+public class StrengthEstimatorTest {
+
+    /** Каталог ответов по умолчанию, в котором проверяются названия */
+    private static final Messages RU = Messages.getDefault();
+
+    /**
+     * Проверяет распознавание словарных слов, в том числе с заменами и заглавными буквами
+     */
+    @Test
+    void testDictionaryWords() {
+        StrengthEstimator.Estimate plain = StrengthEstimator.estimate("password");
+        Assertions.assertEquals(0, plain.getScore());
+        Assertions.assertEquals("словарное слово", plain.getPattern(RU));
+
+        StrengthEstimator.Estimate leet = StrengthEstimator.estimate("P@ssw0rd");
+        Assertions.assertEquals("словарное слово", leet.getPattern(RU));
+        Assertions.assertTrue(leet.getBits() > plain.getBits());
+        Assertions.assertTrue(leet.getBits() < 20);
+    }
+
+    /**
+     * Проверяет распознавание клавиатурных последовательностей, последовательностей и повторов
+     */
+    @Test
+    void testPatterns() {
+        Assertions.assertEquals("клавиатурная последовательность",
+                StrengthEstimator.estimate("zxcvbnm,./").getPattern(RU));
+        Assertions.assertEquals("клавиатурная последовательность",
+                StrengthEstimator.estimate("фывапр").getPattern(RU));
+        Assertions.assertEquals("последовательность символов",
+                StrengthEstimator.estimate("lmnopqrs").getPattern(RU));
+        Assertions.assertEquals("повторы", StrengthEstimator.estimate("zzzzzzzzzz").getPattern(RU));
+        Assertions.assertEquals(0, StrengthEstimator.estimate("xkcdxkcdxkcd").getScore());
+    }
+
+    /**
+     * Проверяет, что случайный длинный пароль считается надёжным
+     */
+    @Test
+    void testRandomPasswordIsStrong() {
+        StrengthEstimator.Estimate e = StrengthEstimator.estimate("tR9#vLq2!mZ8@wXp");
+        Assertions.assertEquals(4, e.getScore());
+        Assertions.assertNull(e.getPattern(RU));
+        Assertions.assertEquals("надёжный", e.getLabel(RU));
+    }
+
+    /**
+     * Проверяет оценку настроек генератора
+     */
+    @Test
+    void testGeneratorEstimate() {
+        Assertions.assertEquals(6 * Math.log(10) / Math.log(2),
+                StrengthEstimator.forGenerator(6, 10).getBits(), 1e-9);
+        Assertions.assertEquals(0, StrengthEstimator.forGenerator(6, 10).getScore());
+        Assertions.assertEquals(0, StrengthEstimator.forGenerator(10, 0).getBits(), 1e-9);
+    }
+
+    /**
+     * Проверяет, что длинный ввод разбирается только в пределах MAX_SCORED символов
+     * и оценивается быстро, а хвост добавляет биты как случайные символы
+     */
+    @Test
+    void testLongInputIsBounded() {
+        String head = "a".repeat(StrengthEstimator.MAX_SCORED);
+        String huge = "a".repeat(100_000);
+        long start = System.nanoTime();
+        StrengthEstimator.Estimate e = StrengthEstimator.estimate(huge);
+        long ms = (System.nanoTime() - start) / 1_000_000;
+        Assertions.assertTrue(ms < 500, "оценка 100000 символов заняла " + ms + " мс");
+
+        double tail = (huge.length() - head.length()) * Math.log(26) / Math.log(2);
+        Assertions.assertEquals(StrengthEstimator.estimate(head).getBits() + tail, e.getBits(), 1e-6);
+        Assertions.assertEquals("повторы", e.getPattern(RU));
+        Assertions.assertEquals(4, e.getScore());
+    }
+
+    /**
+     * Замер: оценка одного пароля длиной до 64 символов укладывается в 200 мкс в среднем
+     */
+    @Test
+    @Tag("benchmark")
+    void benchmarkEstimationBudget() {
+        String alphabet = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789!@#$%^&*";
+        String[] samples = new String[2000];
+        Random random = new Random(29);
+        for (int i = 0; i < samples.length; i++) {
+            StringBuilder sb = new StringBuilder();
+            int length = 6 + random.nextInt(59);
+            while (sb.length() < length) {
+                switch (random.nextInt(4)) {
+                    case 0 -> sb.append("password");
+                    case 1 -> sb.append("qwerty");
+                    case 2 -> sb.append("abab");
+                    default -> sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+                }
+            }
+            samples[i] = sb.substring(0, length);
+        }
+
+        for (int round = 0; round < 5; round++) {
+            for (String s : samples) StrengthEstimator.estimate(s);
+        }
+        long start = System.nanoTime();
+        int iterations = 0;
+        for (int round = 0; round < 10; round++) {
+            for (String s : samples) {
+                StrengthEstimator.estimate(s);
+                iterations++;
+            }
+        }
+        double micros = (System.nanoTime() - start) / 1e3 / iterations;
+        System.out.printf("StrengthEstimator: %.1f мкс на пароль%n", micros);
+        Assertions.assertTrue(micros < 200, "оценка дольше 200 мкс");
+    }
+}
@@ -0,0 +1,397 @@
+package org.example;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.stream.Stream;
+
+/**
+ * Тесты бота через локальную заглушку Telegram Bot API
+ */
+public class StubTelegramApiTest {
+
+    /**
+     * Проверяет, что бот получает сообщения от заглушки и отвечает на них
+     */
+    @Test
+    void testBotRepliesThroughStub() throws Exception {
+        try (StubTelegramApi api = StubTelegramApi.start()) {
+            TgBot bot = new TgBot("test", api.url(), null, null, null);
+            bot.start();
+            try {
+                api.send(34001, "/start");
+                StubTelegramApi.Reply reply = api.awaitReply(10_000);
+                Assertions.assertNotNull(reply);
+                Assertions.assertEquals(34001, reply.getChatId());
+                Assertions.assertTrue(reply.getText().startsWith("Команды:"));
+
+                api.send(34001, "/password");
+                reply = api.awaitReply(10_000);
+                Assertions.assertNotNull(reply);
+                Assertions.assertTrue(reply.getText().startsWith("Ваш пароль: "));
+            } finally {
+                bot.stop();
+            }
+        }
+    }
+
+    /**
+     * Проверяет, что после остановки бот продолжает с контрольной точки:
+     * апдейты, которые тг отдаст повторно, не обрабатываются второй раз
+     */
+    @Test
+    void testRestartResumesFromCheckpoint() throws Exception {
+        Path offsetFile = Files.createTempFile("offset", ".bin");
+        Files.delete(offsetFile);
+        try {
+            try (StubTelegramApi api = StubTelegramApi.start()) {
+                TgBot bot = new TgBot("test", api.url(), offsetFile, null, null);
+                bot.start();
+                for (int i = 0; i < 3; i++) api.send(34003, "/start");
+                for (int i = 0; i < 3; i++) Assertions.assertNotNull(api.awaitReply(10_000));
+                bot.stop();
+            }
+            Assertions.assertEquals(4, new OffsetCheckpoint(offsetFile).load());
+
+            try (StubTelegramApi api = StubTelegramApi.start()) {
+                for (int i = 0; i < 3; i++) api.send(34003, "/start");
+                api.send(34003, "/password");
+                TgBot bot = new TgBot("test", api.url(), offsetFile, null, null);
+                bot.start();
+                try {
+                    StubTelegramApi.Reply reply = api.awaitReply(10_000);
+                    Assertions.assertNotNull(reply);
+                    Assertions.assertTrue(reply.getText().startsWith("Ваш пароль: "));
+                    Assertions.assertNull(api.awaitReply(1_000));
+                } finally {
+                    bot.stop();
+                }
+            }
+            Assertions.assertEquals(5, new OffsetCheckpoint(offsetFile).load());
+        } finally {
+            Files.deleteIfExists(offsetFile);
+        }
+    }
+
+    /**
+     * Проверяет, что в режиме конвейера сообщения одного чата обрабатываются по порядку,
+     * а все сообщения получают ответ
+     */
+    @Test
+    void testPipelineKeepsChatOrder() throws Exception {
+        String[] dialog = {"/settings", "12", "+", "+", "+", "+", "/password"};
+        int chats = 20;
+        try (StubTelegramApi api = StubTelegramApi.start()) {
+            TgBot bot = new TgBot("test", api.url(), null, null, null);
+            bot.setAdmissionControl(new AdmissionControl(1e9, 1_000_000, 1024));
+            bot.enablePipeline(8, 4);
+            for (String text : dialog) {
+                for (int c = 0; c < chats; c++) api.send(39001 + c, text);
+            }
+            bot.start();
+            try {
+                Map<Long, List<String>> replies = new HashMap<>();
+                for (int i = 0; i < chats * dialog.length; i++) {
+                    StubTelegramApi.Reply reply = api.awaitReply(10_000);
+                    Assertions.assertNotNull(reply);
+                    replies.computeIfAbsent(reply.getChatId(), k -> new ArrayList<>()).add(reply.getText());
+                }
+                Assertions.assertEquals(chats, replies.size());
+                for (List<String> r : replies.values()) {
+                    Assertions.assertEquals(dialog.length, r.size());
+                    Assertions.assertTrue(r.get(0).startsWith("Введите длину пароля"), r.get(0));
+                    String password = r.get(dialog.length - 1);
+                    Assertions.assertTrue(password.startsWith("Ваш пароль: "), password);
+                    Assertions.assertEquals(12, password.substring("Ваш пароль: ".length()).length());
+                }
+                Assertions.assertNull(api.awaitReply(500));
+            } finally {
+                bot.stop();
+            }
+        }
+    }
+
+    /**
+     * Проверяет кнопки через заглушку в обычном режиме и в режиме конвейера: ответ с кнопками
+     * приходит новым сообщением, а нажатия заменяют его текст и кнопки
+     */
+    @Test
+    void testInlineKeyboardThroughStub() throws Exception {
+        for (boolean pipeline : new boolean[] {false, true}) {
+            long chat = pipeline ? 42022 : 42021;
+            try (StubTelegramApi api = StubTelegramApi.start()) {
+                TgBot bot = new TgBot("test", api.url(), null, null, null);
+                bot.setAdmissionControl(new AdmissionControl(1e9, 1_000_000, 1024));
+                if (pipeline) bot.enablePipeline(8, 2);
+                bot.start();
+                try {
+                    StubTelegramApi.Reply form = ask(api, chat, "/settings");
+                    Assertions.assertFalse(form.isEdit());
+                    Assertions.assertTrue(form.getButtons().contains("S10.15"), form.getButtons().toString());
+
+                    StubTelegramApi.Reply edited = press(api, chat, form, "s12.15");
+                    Assertions.assertTrue(edited.isEdit());
+                    Assertions.assertEquals(form.getMessageId(), edited.getMessageId());
+                    Assertions.assertTrue(edited.getText().startsWith("Длина = 12"), edited.getText());
+
+                    edited = press(api, chat, form, "S12.15");
+                    Assertions.assertTrue(edited.getText().startsWith("Новые параметры. Длина = 12"), edited.getText());
+                    Assertions.assertTrue(edited.getButtons().isEmpty());
+                    Assertions.assertEquals(12, ask(api, chat, "/password").getText().length() - "Ваш пароль: ".length());
+                } finally {
+                    bot.stop();
+                }
+            }
+        }
+    }
+
+    /**
+     * Замер: действия пользователя, вызовы Bot API, новые сообщения в чате и время на операцию
+     * (/settings с изменением длины и одного набора, /add с генерацией, /delete) при ответах
+     * текстом и кнопками. Время - от первого сообщения до последнего ответа через заглушку.
+     */
+    @Test
+    @Tag("benchmark")
+    void benchmarkInlineKeyboardRoundTrips() throws Exception {
+        int n = 30;
+        long chat = 42023;
+        String[] names = {"/settings", "/add", "/delete"};
+        long[][] text = new long[3][4];
+        long[][] buttons = new long[3][4];
+        try (StubTelegramApi api = StubTelegramApi.start()) {
+            TgBot bot = new TgBot("bench", api.url(), null, null, null);
+            bot.setAdmissionControl(new AdmissionControl(1e9, 1_000_000, 1024));
+            bot.start();
+            try {
+                for (int i = 0; i < n; i++) {
+                    String service = "Keyboard" + i;
+                    typed(api, chat, text[0], "/settings", "12", "-", "+", "+", "+");
+                    typed(api, chat, text[1], "/add", service, "login", "1");
+                    typed(api, chat, text[2], "/delete " + service, "+");
+
+                    tapped(api, chat, buttons[0], new String[] {"/settings"}, "s12.15", "s12.14", "S12.14");
+                    tapped(api, chat, buttons[1], new String[] {"/add", service, "login"}, "g0\n" + service + "\nlogin");
+                    tapped(api, chat, buttons[2], new String[] {"/delete " + service}, "x0\n" + service);
+                }
+            } finally {
+                bot.stop();
+            }
+        }
+        for (int op = 0; op < names.length; op++) {
+            System.out.printf("%s: текстом %d действий, %d вызовов api, %d сообщений, %.1f мс; "
+                            + "кнопками %d действий, %d вызовов api, %d сообщений, %.1f мс%n", names[op],
+                    text[op][0] / n, text[op][1] / n, text[op][2] / n, text[op][3] / 1e6 / n,
+                    buttons[op][0] / n, buttons[op][1] / n, buttons[op][2] / n, buttons[op][3] / 1e6 / n);
+        }
+    }
+
+    /**
+     * Проходит операцию сообщениями и добавляет к stats действия пользователя, вызовы api,
+     * новые сообщения в чате (пользователя и бота) и время.
+     */
+    private static void typed(StubTelegramApi api, long chat, long[] stats, String... messages) throws InterruptedException {
+        long calls = api.getCalls();
+        long start = System.nanoTime();
+        for (String m : messages) ask(api, chat, m);
+        stats[3] += System.nanoTime() - start;
+        stats[0] += messages.length;
+        stats[1] += settledCalls(api) - calls;
+        stats[2] += 2L * messages.length;
+    }
+
+    /** Проходит операцию сообщениями и нажатиями кнопок под последним ответом. */
+    private static void tapped(StubTelegramApi api, long chat, long[] stats, String[] messages, String... taps)
+            throws InterruptedException {
+        long calls = api.getCalls();
+        long start = System.nanoTime();
+        StubTelegramApi.Reply reply = null;
+        for (String m : messages) reply = ask(api, chat, m);
+        for (String data : taps) {
+            Assertions.assertTrue(reply.getButtons().contains(data), data + " нет в " + reply.getButtons());
+            reply = press(api, chat, reply, data);
+        }
+        stats[3] += System.nanoTime() - start;
+        stats[0] += messages.length + taps.length;
+        stats[1] += settledCalls(api) - calls;
+        stats[2] += 2L * messages.length;
+    }
+
+    /** Ждет, пока бот закончит вызовы api (ответ на нажатие идет после замены сообщения), и возвращает их число. */
+    private static long settledCalls(StubTelegramApi api) throws InterruptedException {
+        long calls;
+        do {
+            calls = api.getCalls();
+            Thread.sleep(100);
+        } while (api.getCalls() != calls);
+        return calls;
+    }
+
+    /** Отправляет сообщение боту и ждет ответ. */
+    private static StubTelegramApi.Reply ask(StubTelegramApi api, long chat, String text) throws InterruptedException {
+        api.send(chat, text);
+        StubTelegramApi.Reply reply = api.awaitReply(10_000);
+        Assertions.assertNotNull(reply, "нет ответа на " + text);
+        return reply;
+    }
+
+    /** Нажимает кнопку под сообщением reply и ждет замену сообщения. */
+    private static StubTelegramApi.Reply press(StubTelegramApi api, long chat, StubTelegramApi.Reply reply, String data)
+            throws InterruptedException {
+        api.press(null, chat, reply.getMessageId(), data);
+        StubTelegramApi.Reply edited = api.awaitReply(10_000);
+        Assertions.assertNotNull(edited, "нет ответа на нажатие " + data);
+        return edited;
+    }
+
+    /**
+     * Замер: пропускная способность от получения апдейтов до отправки ответов через заглушку,
+     * обычный режим против конвейера. Все сообщения (/list и /get, с обращением к базе)
+     * отправлены до запуска бота, время - до получения последнего ответа.
+     */
+    @Test
+    @Tag("benchmark")
+    void benchmarkPipelineThroughput() throws Exception {
+        int messages = 2000;
+        int chats = 50;
+        throughput(false, messages, chats);
+        double blocking = throughput(false, messages, chats);
+        double pipelined = throughput(true, messages, chats);
+        System.out.printf("Пропускная способность через заглушку: обычный режим %.0f сообщ/с, конвейер %.0f сообщ/с%n",
+                blocking, pipelined);
+    }
+
+    /** Прогоняет messages сообщений от chats чатов и возвращает сообщений в секунду. */
+    private double throughput(boolean pipeline, int messages, int chats) throws Exception {
+        try (StubTelegramApi api = StubTelegramApi.start()) {
+            TgBot bot = new TgBot("bench", api.url(), null, null, null);
+            bot.setAdmissionControl(new AdmissionControl(1e9, 1_000_000, 1024));
+            if (pipeline) {
+                bot.enablePipeline(64, 4);
+            }
+            for (int i = 0; i < messages; i++) {
+                api.send(39100 + i % chats, i % 2 == 0 ? "/list" : "/get bench");
+            }
+            long start = System.nanoTime();
+            bot.start();
+            try {
+                for (int i = 0; i < messages; i++) {
+                    Assertions.assertNotNull(api.awaitReply(30_000));
+                }
+                return messages * 1e9 / (System.nanoTime() - start);
+            } finally {
+                bot.stop();
+            }
+        }
+    }
+
+    /**
+     * Замер: время от запуска процесса бота до первого ответа без архива AppCDS и с ним.
+     * Бот запускается в отдельной JVM в пустом каталоге и получает /start от заглушки.
+     */
+    @Test
+    @Tag("benchmark")
+    void benchmarkTimeToFirstReply() throws Exception {
+        Path dir = Files.createTempDirectory("startup");
+        try {
+            String classpath = jarClasspath(dir);
+            String java = ProcessHandle.current().info().command().orElse("java");
+            Path archive = dir.resolve("passwordbot.jsa");
+
+            Process training = new ProcessBuilder(java, "-XX:ArchiveClassesAtExit=" + archive, "-Xlog:cds=off",
+                    "-cp", classpath, "org.example.Main", "--train")
+                    .directory(dir.toFile()).inheritIO().start();
+            Assertions.assertEquals(0, training.waitFor());
+            Assertions.assertTrue(Files.exists(archive));
+
+            int runs = 5;
+            long[] plain = new long[runs];
+            long[] cds = new long[runs];
+            for (int i = 0; i < runs; i++) {
+                plain[i] = timeToFirstReply(dir, java, "-Xshare:auto", classpath);
+                cds[i] = timeToFirstReply(dir, java, "-XX:SharedArchiveFile=" + archive, classpath);
+            }
+            Arrays.sort(plain);
+            Arrays.sort(cds);
+
+            System.out.printf("Запуск до первого ответа (медиана из %d): без архива %d мс, с AppCDS %d мс%n",
+                    runs, plain[runs / 2], cds[runs / 2]);
+        } finally {
+            try (Stream<Path> files = Files.walk(dir)) {
+                files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+            }
+        }
+    }
+
+    /** Запускает бота против новой заглушки и возвращает время до первого ответа в миллисекундах. */
+    private long timeToFirstReply(Path dir, String java, String cdsOption, String classpath) throws Exception {
+        Files.deleteIfExists(dir.resolve(TgBot.DEFAULT_OFFSET_FILE));
+        try (StubTelegramApi api = StubTelegramApi.start()) {
+            api.send(34002, "/start");
+            ProcessBuilder pb = new ProcessBuilder(java, cdsOption, "-cp", classpath, "org.example.Main")
+                    .directory(dir.toFile()).redirectErrorStream(true)
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD);
+            pb.environment().put("TOKEN_BOT", "bench");
+            pb.environment().put("TELEGRAM_API_URL", api.url());
+
+            long start = System.nanoTime();
+            Process bot = pb.start();
+            try {
+                StubTelegramApi.Reply reply = api.awaitReply(60_000);
+                long elapsed = (System.nanoTime() - start) / 1_000_000;
+                Assertions.assertNotNull(reply);
+                return elapsed;
+            } finally {
+                bot.destroy();
+                bot.waitFor();
+            }
+        }
+    }
+
+    /**
+     * Упаковывает классы приложения в jar (AppCDS архивирует только классы из jar)
+     * и возвращает classpath из этого jar и jar-файлов зависимостей.
+     */
+    private String jarClasspath(Path dir) throws Exception {
+        Path classes = Paths.get(Main.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        List<String> entries = new ArrayList<>();
+        if (Files.isDirectory(classes)) {
+            Path jar = dir.resolve("passwordbot.jar");
+            jar(classes, jar);
+            entries.add(jar.toString());
+        } else {
+            entries.add(classes.toString());
+        }
+        for (String e : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            if (e.endsWith(".jar") && !entries.contains(e)) entries.add(e);
+        }
+        return String.join(File.pathSeparator, entries);
+    }
+
+    /** Упаковывает каталог классов в jar. */
+    private static void jar(Path classes, Path jar) throws IOException {
+        try (OutputStream out = Files.newOutputStream(jar);
+             JarOutputStream jos = new JarOutputStream(out);
+             Stream<Path> files = Files.walk(classes)) {
+            for (Path f : (Iterable<Path>) files.filter(Files::isRegularFile)::iterator) {
+                jos.putNextEntry(new JarEntry(classes.relativize(f).toString().replace(File.separatorChar, '/')));
+                Files.copy(f, jos);
+                jos.closeEntry();
+            }
+        }
+    }
+}
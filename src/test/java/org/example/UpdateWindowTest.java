@@ -0,0 +1,80 @@
+package org.example;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Тесты окна дедупликации апдейтов
+ */
+public class UpdateWindowTest {
+
+    /**
+     * Проверяет, что повтор отбрасывается, а новые и пропущенные внутри окна апдейты принимаются
+     */
+    @Test
+    void testReplaysDropped() {
+        UpdateWindow w = new UpdateWindow();
+        Assertions.assertTrue(w.firstDelivery(100));
+        Assertions.assertFalse(w.firstDelivery(100));
+        Assertions.assertTrue(w.firstDelivery(105));
+        Assertions.assertTrue(w.firstDelivery(103));
+        Assertions.assertFalse(w.firstDelivery(103));
+        Assertions.assertFalse(w.firstDelivery(105));
+        Assertions.assertFalse(w.firstDelivery(100));
+        Assertions.assertTrue(w.firstDelivery(101));
+    }
+
+    /**
+     * Проверяет сдвиг окна: апдейты старше окна считаются повторами
+     */
+    @Test
+    void testWindowSlides() {
+        UpdateWindow w = new UpdateWindow();
+        Assertions.assertTrue(w.firstDelivery(1));
+        Assertions.assertTrue(w.firstDelivery(1 + UpdateWindow.WINDOW - 1));
+        Assertions.assertFalse(w.firstDelivery(1));
+        Assertions.assertTrue(w.firstDelivery(1000));
+        Assertions.assertFalse(w.firstDelivery(1000 - UpdateWindow.WINDOW));
+        Assertions.assertTrue(w.firstDelivery(1000 - UpdateWindow.WINDOW + 1));
+        Assertions.assertTrue(w.firstDelivery(Integer.MAX_VALUE));
+        Assertions.assertFalse(w.firstDelivery(Integer.MAX_VALUE));
+    }
+
+    /**
+     * Проверяет, что при одновременной доставке одних и тех же апдейтов
+     * из нескольких потоков каждый апдейт принимается ровно один раз
+     */
+    @Test
+    void testConcurrentDeliveryExactlyOnce() throws InterruptedException {
+        UpdateWindow w = new UpdateWindow();
+        int threads = 8;
+        int updates = 200_000;
+        AtomicInteger accepted = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Thread worker = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                int mine = 0;
+                for (int id = 1; id <= updates; id++) {
+                    if (w.firstDelivery(id)) mine++;
+                }
+                accepted.addAndGet(mine);
+            });
+            workers.add(worker);
+            worker.start();
+        }
+        start.countDown();
+        for (Thread worker : workers) worker.join();
+        Assertions.assertEquals(updates, accepted.get());
+    }
+}
@@ -0,0 +1,151 @@
+package org.example;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Тесты двоичного списка слов для парольных фраз
+ */
+public class WordlistTest {
+
+    /** Временный текстовый список */
+    private Path text;
+
+    /** Временный двоичный список */
+    private Path binary;
+
+    /**
+     * Создает временные файлы перед каждым тестом.
+     */
+    @BeforeEach
+    void setUp() throws IOException {
+        text = Files.createTempFile("words", ".txt");
+        binary = Files.createTempFile("words", ".bin");
+    }
+
+    /**
+     * Удаляет временные файлы после каждого теста.
+     */
+    @AfterEach
+    void tearDown() throws IOException {
+        Files.deleteIfExists(text);
+        Files.deleteIfExists(binary);
+    }
+
+    /**
+     * Проверяет, что слова читаются по номеру в исходном порядке, включая формат diceware и кириллицу
+     */
+    @Test
+    void testCompileAndOpen() throws IOException {
+        Files.writeString(text, "# комментарий\n11111 abacus\n11112 ёжик\n\n11113 zebra\n", StandardCharsets.UTF_8);
+        Wordlist.compile(text, binary);
+        Wordlist list = Wordlist.open(binary);
+
+        Assertions.assertEquals(3, list.size());
+        Assertions.assertEquals("abacus", list.word(0));
+        Assertions.assertEquals("ёжик", list.word(1));
+        Assertions.assertEquals("zebra", list.word(2));
+    }
+
+    /**
+     * Проверяет, что appendWord декодирует слова так же, как word(), включая символы
+     * вне BMP, и дописывает их к содержимому буфера
+     */
+    @Test
+    void testAppendWord() throws IOException {
+        Wordlist.compile(List.of("abacus", "ёжик", "日本", "😀smile"), binary);
+        Wordlist list = Wordlist.open(binary);
+        try (SecretBuffer out = new SecretBuffer(4)) {
+            for (int i = 0; i < list.size(); i++) {
+                out.append('|');
+                list.appendWord(i, out);
+            }
+            Assertions.assertEquals("|abacus|ёжик|日本|😀smile", out.toString());
+        }
+    }
+
+    /**
+     * Проверяет, что чужой файл не открывается
+     */
+    @Test
+    void testOpenRejectsForeignFile() throws IOException {
+        Files.writeString(binary, "plain text");
+        Assertions.assertThrows(IOException.class, () -> Wordlist.open(binary));
+    }
+
+    /**
+     * Проверяет, что встроенный список пересобирается, если файл собран из другого текста
+     * или в прежнем формате без контрольной суммы, а файл прежнего формата открывается
+     */
+    @Test
+    void testBundledRebuiltWhenSourceChanges() throws IOException {
+        Wordlist bundled = Wordlist.openBundled(binary);
+        int size = bundled.size();
+        Assertions.assertTrue(size > 2);
+
+        Wordlist.compile(List.of("stale", "list"), binary);
+        Assertions.assertEquals(size, Wordlist.openBundled(binary).size());
+
+        ByteBuffer v1 = ByteBuffer.allocate(8 + 4 * 3 + 6);
+        v1.putInt(0x5042574C).putInt(2).putInt(0).putInt(3).putInt(6).put("oldnew".getBytes(StandardCharsets.UTF_8));
+        Files.write(binary, v1.array());
+        Wordlist old = Wordlist.open(binary);
+        Assertions.assertEquals("old", old.word(0));
+        Assertions.assertEquals("new", old.word(1));
+        Assertions.assertEquals(size, Wordlist.openBundled(binary).size());
+    }
+
+    /**
+     * Замер: открытие списка из миллиона слов отображением в память против
+     * чтения в List<String>, и скорость генерации фраз из 6 слов
+     */
+    @Test
+    @Tag("benchmark")
+    void benchmarkStartupAndGeneration() throws IOException {
+        List<String> words = new ArrayList<>();
+        for (int i = 0; i < 1_000_000; i++) {
+            words.add("word" + Integer.toString(i, 36));
+        }
+        Files.write(text, words, StandardCharsets.UTF_8);
+        Wordlist.compile(words, binary);
+
+        long start = System.nanoTime();
+        Wordlist list = Wordlist.open(binary);
+        long mapNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        List<String> parsed = Files.readAllLines(text, StandardCharsets.UTF_8);
+        long parseNanos = System.nanoTime() - start;
+        Assertions.assertEquals(parsed.size(), list.size());
+
+        SecureRandom random = new SecureRandom();
+        int phrases = 200_000;
+        long length = 0;
+        start = System.nanoTime();
+        for (int i = 0; i < phrases; i++) {
+            StringBuilder sb = new StringBuilder();
+            for (int w = 0; w < 6; w++) {
+                if (w > 0) sb.append('-');
+                sb.append(list.word(random.nextInt(list.size())));
+            }
+            length += sb.length();
+        }
+        long genNanos = System.nanoTime() - start;
+
+        System.out.printf("Wordlist: открытие %.2f мс против чтения списка %.2f мс; %.0f фраз/с (средняя длина %d)%n",
+                mapNanos / 1e6, parseNanos / 1e6, phrases / (genNanos / 1e9), length / phrases);
+        Assertions.assertTrue(mapNanos < parseNanos);
+    }
+}